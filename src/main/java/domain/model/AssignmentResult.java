@@ -0,0 +1,13 @@
+package domain.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of the assignment of requests to the couriers of the fleet.
+ *
+ * @param assignments the ID of the courier to whom each assigned request was given, by request ID
+ * @param unassigned the IDs of the requests that no courier can take
+ */
+public record AssignmentResult(Map<Long, Long> assignments, List<Long> unassigned) {
+}
@@ -0,0 +1,26 @@
+package domain.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Cost of adding a request to the tour of a courier, the stops of the tour being kept in order and the pickup
+ * and delivery of the request inserted at their cheapest positions.
+ *
+ * @param courierId the ID of the courier
+ * @param feasible whether the request can be added while respecting the precedences and the shift of the courier
+ * @param extraMinutes the duration added to the tour, in minutes (infinite if not feasible)
+ * @param tourMinutes the duration of the tour with the request, in minutes (infinite if not feasible)
+ * @param pickupEta the arrival time at the pickup of the request (null if not feasible)
+ * @param deliveryEta the arrival time at the delivery of the request (null if not feasible)
+ */
+public record InsertionEstimate(long courierId, boolean feasible, double extraMinutes, double tourMinutes,
+                                LocalDateTime pickupEta, LocalDateTime deliveryEta) {
+
+    /**
+     * @param courierId the ID of a courier
+     * @return the estimate of a request that the courier cannot take
+     */
+    public static InsertionEstimate infeasible(long courierId) {
+        return new InsertionEstimate(courierId, false, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, null, null);
+    }
+}
@@ -0,0 +1,40 @@
+package domain.model;
+
+/**
+ * Enumeration representing the status of an asynchronous planning job.
+ */
+public enum JobStatus {
+    /** The job is waiting for a free solver thread. */
+    QUEUED(0),
+    /** The solver is running. */
+    RUNNING(1),
+    /** The tour was computed and published. */
+    SUCCEEDED(2),
+    /** The planning failed (e.g. no solution found). */
+    FAILED(3),
+    /** The job was cancelled before its tour was published. */
+    CANCELLED(4);
+
+    final int type; // The integer type associated with the job status.
+
+    /**
+     * Constructs a JobStatus with the specified type.
+     *
+     * @param type the integer type associated with the job status
+     */
+    JobStatus(int type) {
+        this.type = type;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return true if the job will not change anymore
+     */
+    public boolean isFinished() {
+        return this == SUCCEEDED || this == FAILED || this == CANCELLED;
+    }
+
+}
@@ -1,25 +1,48 @@
 package domain.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a map containing intersections and road segments.
+ *
+ * Each road segment also gets a dense index, in the order the segments are added, so that routes can be stored
+ * as arrays of indices into the map instead of lists of segment references.
+ *
+ * The version of a map changes each time it is modified, and is never shared by two maps: anything computed
+ * from a map can be cached under its version.
  */
 public class Map {
 
+    private static final AtomicLong versions = new AtomicLong(); // Last version given to a map.
+
+
     private final TreeMap<Long, Intersection> intersections; // A map of intersections, where the key is the intersection ID and the value is the Intersection object.
 
 
     private final HashMap<Long, RoadSegment[]> adjacencyList; // An adjacency list representing road segments starting from each intersection.
 
+
+    private final HashMap<Long, int[]> adjacencyIndices; // The index of each road segment of the adjacency list.
+
+
+    private final ArrayList<RoadSegment> roadSegments; // All the road segments, by index.
+
+
+    private long version; // The version of the map, changed by each modification.
+
     /**
      * Constructs an empty map with no intersections or road segments.
      */
     public Map() {
         this.intersections = new TreeMap<>();
         this.adjacencyList = new HashMap<>();
+        this.adjacencyIndices = new HashMap<>();
+        this.roadSegments = new ArrayList<>();
+        this.version = versions.incrementAndGet();
     }
 
     /**
@@ -34,6 +57,7 @@ public class Map {
         }
 
         intersections.put(intersection.getId(), intersection);
+        version = versions.incrementAndGet();
 
         return true;
     }
@@ -59,16 +83,23 @@ public class Map {
         }
 
         RoadSegment[] segments = adjacencyList.get(startIntersectionId);
+        int[] indices = adjacencyIndices.get(startIntersectionId);
         if (segments == null) {
             segments = new RoadSegment[] { roadSegment };
+            indices = new int[] { roadSegments.size() };
         } else {
             RoadSegment[] newSegments = new RoadSegment[segments.length + 1];
             System.arraycopy(segments, 0, newSegments, 0, segments.length);
             newSegments[segments.length] = roadSegment;
             segments = newSegments;
+            indices = Arrays.copyOf(indices, indices.length + 1);
+            indices[indices.length - 1] = roadSegments.size();
         }
 
         adjacencyList.put(startIntersectionId, segments);
+        adjacencyIndices.put(startIntersectionId, indices);
+        roadSegments.add(roadSegment);
+        version = versions.incrementAndGet();
 
         return true;
     }
@@ -87,6 +118,67 @@ public class Map {
         return null;
     }
 
+    /**
+     * Finds the index of the road segment between two intersections.
+     *
+     * @param startId the ID of the starting intersection
+     * @param endId the ID of the ending intersection
+     * @return the index of the road segment, or -1 if no road segment joins them
+     */
+    public int getRoadSegmentIndex(Long startId, Long endId) {
+        RoadSegment[] segments = adjacencyList.get(startId);
+        if (segments != null) {
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i].getEndId() == endId) {
+                    return adjacencyIndices.get(startId)[i];
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Finds the index of a road segment of the map.
+     *
+     * @param roadSegment the road segment
+     * @return its index, or -1 if this segment object was not added to the map
+     */
+    public int getRoadSegmentIndex(RoadSegment roadSegment) {
+        RoadSegment[] segments = adjacencyList.get(roadSegment.getStartId());
+        if (segments != null) {
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i] == roadSegment) {
+                    return adjacencyIndices.get(roadSegment.getStartId())[i];
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param index the index of a road segment
+     * @return the road segment
+     * @throws IllegalArgumentException if no road segment has this index
+     */
+    public RoadSegment getRoadSegmentByIndex(int index) {
+        if (index < 0 || index >= roadSegments.size()) {
+            throw new IllegalArgumentException("Unknown road segment index: " + index);
+        }
+        return roadSegments.get(index);
+    }
+
+
+    public int getNbRoadSegments() {
+        return roadSegments.size();
+    }
+
+
+    public long getVersion() {
+        return version;
+    }
+
 
     public ArrayList<RoadSegment> getRoadSegmentByName(String name) {
         // Iterate through all road segments in the adjacency list to find segments with the given partial or full name
@@ -1,5 +1,7 @@
 package domain.model;
 
+import domain.utils.PersistentMap;
+
 import java.time.LocalDateTime;
 import java.time.LocalDate;
 import java.util.*;
@@ -10,11 +12,19 @@ import static domain.model.StopType.*;
 
 /**
  * Represents a system for managing pickup and delivery requests.
+ *
+ * The requests are indexed by ID, by insertion order and by intersection, in persistent maps (see
+ * {@link PersistentMap}): a modification replaces the indexes by new ones sharing their unchanged parts with the
+ * previous ones. A copy thus shares the indexes of the original, so that taking a snapshot of the requests of a
+ * courier before planning costs nothing, and modifying either one afterwards only copies the entries it changes.
  */
 public class PickupDelivery {
 
 
-    private ArrayList<Request> requests; // An array list of requests for pickup and delivery.
+    private PersistentMap<Long, IndexedRequest> requestsById; // The requests for pickup and delivery, by ID, with their insertion rank.
+    private PersistentMap<Long, Request> requestsByRank; // The requests, by insertion rank.
+    private PersistentMap<Long, List<Map.Entry<Request, StopType>>> stopsByIntersection; // The stops of the requests at each intersection, in insertion order.
+    private long nextRank; // The insertion rank of the next request.
     private LocalDateTime departureTime; // The start time of the tour.
     private long warehouseAddressId; // The ID of the warehouse address, used for pickup and delivery operations.
 
@@ -22,20 +32,39 @@ public class PickupDelivery {
      * Constructs an empty PickupDelivery system.
      */
     public PickupDelivery() {
-        requests = new ArrayList<>();
+        requestsById = PersistentMap.empty();
+        requestsByRank = PersistentMap.empty();
+        stopsByIntersection = PersistentMap.empty();
+        nextRank = 0;
         departureTime = LocalDate.now().atTime(8, 0).plusDays(1L);
         warehouseAddressId = -1;
     }
 
     /**
-     * Constructs a PickupDelivery by copying another instance.
+     * Constructs a PickupDelivery by copying another instance. The copy shares the indexes of the other
+     * instance, which are never modified.
      *
      * @param other the PickupDelivery instance to copy
      */
     public PickupDelivery(PickupDelivery other) {
-        this.requests = new ArrayList<>(other.requests);
-        this.departureTime = other.departureTime;
-        this.warehouseAddressId = other.warehouseAddressId;
+        synchronized (other) {
+            this.requestsById = other.requestsById;
+            this.requestsByRank = other.requestsByRank;
+            this.stopsByIntersection = other.stopsByIntersection;
+            this.nextRank = other.nextRank;
+            this.departureTime = other.departureTime;
+            this.warehouseAddressId = other.warehouseAddressId;
+        }
+    }
+
+    /**
+     * Returns a snapshot of this instance, sharing its indexes: later modifications of either one are not
+     * visible in the other.
+     *
+     * @return the snapshot
+     */
+    public PickupDelivery snapshot() {
+        return new PickupDelivery(this);
     }
 
     /**
@@ -43,8 +72,20 @@ public class PickupDelivery {
      *
      * @param request the request to add
      */
-    public void addRequest(Request request) {
-        requests.add(request);
+    public synchronized void addRequest(Request request) {
+        IndexedRequest previous = requestsById.get(request.getId());
+        long rank;
+        if (previous != null) {
+            // a request replaced keeps its rank
+            rank = previous.rank();
+            unindex(previous.request());
+        } else {
+            rank = nextRank++;
+        }
+        requestsById = requestsById.plus(request.getId(), new IndexedRequest(rank, request));
+        requestsByRank = requestsByRank.plus(rank, request);
+        index(request.getPickupIntersectionId(), Map.entry(request, PICKUP));
+        index(request.getDeliveryIntersectionId(), Map.entry(request, DELIVERY));
     }
 
     /**
@@ -52,18 +93,28 @@ public class PickupDelivery {
      *
      * @param requestId the ID of the request to remove
      */
-    public void removeRequest(long requestId) {
-        for (Request request : requests) {
-            if (request.getId() == requestId) {
-                requests.remove(request);
-                return;
-            }
-        }
+    public synchronized void removeRequest(long requestId) {
+        IndexedRequest removed = requestsById.get(requestId);
+        if (removed == null) return;
+        requestsById = requestsById.minus(requestId);
+        requestsByRank = requestsByRank.minus(removed.rank());
+        unindex(removed.request());
     }
 
-
+    /**
+     * Returns the requests in insertion order. The list is a copy: modifying it does not modify the requests.
+     *
+     * @return the requests
+     */
     public ArrayList<Request> getRequests() {
-        return requests;
+        return new ArrayList<>(requestsByRank.values());
+    }
+
+    /**
+     * @return the number of requests
+     */
+    public int getNbRequests() {
+        return requestsById.size();
     }
 
 
@@ -87,13 +138,8 @@ public class PickupDelivery {
      * @return the request if found, or null otherwise
      */
     public Request findRequestById(long requestId) {
-        for (Request request : requests) {
-            if (request.getId() == requestId) {
-                return request;
-            }
-        }
-
-        return null;
+        IndexedRequest indexed = requestsById.get(requestId);
+        return (indexed != null) ? indexed.request() : null;
     }
 
     /**
@@ -103,15 +149,31 @@ public class PickupDelivery {
      * @return a map entry containing the request and its stop type (PICKUP or DELIVERY), or null if not found
      */
     public Map.Entry<Request, StopType> findRequestByIntersectionId(long intersectionId) {
-        for (Request request : requests) {
-            if (request.getPickupIntersectionId() == intersectionId) {
-                return  Map.entry(request, PICKUP);
-            } else if (request.getDeliveryIntersectionId() == intersectionId) {
-                return  Map.entry(request, DELIVERY);
-            }
-        }
+        List<Map.Entry<Request, StopType>> stops = stopsByIntersection.get(intersectionId);
+        return (stops == null) ? null : stops.get(0);
+    }
+
+    /**
+     * Adds a stop to the intersection index, the stops of the intersection being copied.
+     */
+    private void index(long intersectionId, Map.Entry<Request, StopType> stop) {
+        List<Map.Entry<Request, StopType>> stops = new ArrayList<>(stopsByIntersection.getOrDefault(intersectionId, List.of()));
+        stops.add(stop);
+        stopsByIntersection = stopsByIntersection.plus(intersectionId, List.copyOf(stops));
+    }
 
-        return null;
+    /**
+     * Removes the stops of a request from the intersection index.
+     */
+    private void unindex(Request request) {
+        for (long intersectionId : new long[]{request.getPickupIntersectionId(), request.getDeliveryIntersectionId()}) {
+            List<Map.Entry<Request, StopType>> stops = stopsByIntersection.get(intersectionId);
+            if (stops == null) continue;
+            List<Map.Entry<Request, StopType>> remaining = new ArrayList<>(stops);
+            remaining.removeIf(stop -> stop.getKey() == request);
+            stopsByIntersection = remaining.isEmpty() ? stopsByIntersection.minus(intersectionId)
+                    : stopsByIntersection.plus(intersectionId, List.copyOf(remaining));
+        }
     }
 
 
@@ -120,9 +182,15 @@ public class PickupDelivery {
         sb.append("PickupDelivery:\n");
         sb.append("Warehouse Address ID: ").append(warehouseAddressId).append("\n");
         sb.append("Requests:\n");
-        for (Request request : requests) {
+        for (Request request : requestsByRank.values()) {
             sb.append(request.toString()).append("\n");
         }
         return sb.toString();
     }
+
+    /**
+     * A request with its insertion rank.
+     */
+    private record IndexedRequest(long rank, Request request) {
+    }
 }
\ No newline at end of file
@@ -0,0 +1,13 @@
+package domain.model;
+
+import java.util.List;
+
+/**
+ * Outcome of the import of the plan of a day.
+ *
+ * @param nbCouriers the number of couriers whose requests were imported
+ * @param nbRequests the number of requests imported
+ * @param outcomes the outcome of the planning of each of these couriers
+ */
+public record PlanImportResult(int nbCouriers, int nbRequests, List<PlanningOutcome> outcomes) {
+}
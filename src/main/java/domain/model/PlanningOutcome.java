@@ -0,0 +1,28 @@
+package domain.model;
+
+/**
+ * Outcome of the computation of the tour of a courier, when the tours of many couriers are computed at once.
+ *
+ * @param courierId the ID of the courier
+ * @param success whether the tour was computed and published
+ * @param error the reason of the failure, null on success
+ */
+public record PlanningOutcome(long courierId, boolean success, String error) {
+
+    /**
+     * @param courierId the ID of a courier
+     * @return the outcome of a tour computed and published
+     */
+    public static PlanningOutcome success(long courierId) {
+        return new PlanningOutcome(courierId, true, null);
+    }
+
+    /**
+     * @param courierId the ID of a courier
+     * @param error the reason of the failure
+     * @return the outcome of a tour which could not be computed
+     */
+    public static PlanningOutcome failure(long courierId, String error) {
+        return new PlanningOutcome(courierId, false, error);
+    }
+}
@@ -0,0 +1,103 @@
+package domain.model;
+
+import domain.utils.PersistentMap;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Operations on the precedence constraints of a courier (stop -> stops that must be visited before it).
+ *
+ * The precedences are held in a {@link PersistentMap} whose sets of stops are never modified: each operation
+ * returns new precedences sharing their unchanged entries with the previous ones, so that forking the precedences
+ * of a courier costs nothing and keeping their previous versions costs what each version changed.
+ */
+public final class Precedences {
+
+    private Precedences() {
+    }
+
+    /**
+     * @param requests the requests of a courier
+     * @return the precedence of the pickup over the delivery of each request
+     */
+    public static PersistentMap<Stop, Set<Stop>> of(Collection<Request> requests) {
+        PersistentMap<Stop, Set<Stop>> precedences = PersistentMap.empty();
+        for (Request request : requests) {
+            precedences = with(precedences, Stop.pickup(request), Stop.delivery(request));
+        }
+        return precedences;
+    }
+
+    /**
+     * Returns persistent precedences holding the given ones, which are copied unless already persistent.
+     *
+     * @param precedences the precedences (stop -> stops that must be visited before it)
+     * @return the persistent precedences
+     */
+    public static PersistentMap<Stop, Set<Stop>> copyOf(Map<Stop, ? extends Set<Stop>> precedences) {
+        if (precedences instanceof PersistentMap<?, ?>) return PersistentMap.copyOf(precedences);
+        PersistentMap<Stop, Set<Stop>> copy = PersistentMap.empty();
+        for (Map.Entry<Stop, ? extends Set<Stop>> entry : precedences.entrySet()) {
+            if (!entry.getValue().isEmpty()) copy = copy.plus(entry.getKey(), immutable(new HashSet<>(entry.getValue())));
+        }
+        return copy;
+    }
+
+    /**
+     * @param precedences the precedences
+     * @param before the stop that must be visited first
+     * @param after the stop that must be visited after it
+     * @return the precedences with the given one, the same ones if they already hold it
+     */
+    public static PersistentMap<Stop, Set<Stop>> with(PersistentMap<Stop, Set<Stop>> precedences, Stop before, Stop after) {
+        Set<Stop> preds = precedences.getOrDefault(after, Set.of());
+        if (preds.contains(before)) return precedences;
+        Set<Stop> newPreds = new HashSet<>(preds);
+        newPreds.add(before);
+        return precedences.plus(after, immutable(newPreds));
+    }
+
+    /**
+     * @param precedences the precedences
+     * @param before the stop that must be visited first
+     * @param after the stop that must be visited after it
+     * @return the precedences without the given one, the same ones if they do not hold it
+     */
+    public static PersistentMap<Stop, Set<Stop>> without(PersistentMap<Stop, Set<Stop>> precedences, Stop before, Stop after) {
+        Set<Stop> preds = precedences.get(after);
+        if (preds == null || !preds.contains(before)) return precedences;
+        if (preds.size() == 1) return precedences.minus(after);
+        Set<Stop> newPreds = new HashSet<>(preds);
+        newPreds.remove(before);
+        return precedences.plus(after, immutable(newPreds));
+    }
+
+    /**
+     * @param precedences the precedences
+     * @param requestId the ID of a request
+     * @return the precedences without any precedence on the stops of the request
+     */
+    public static PersistentMap<Stop, Set<Stop>> withoutRequest(PersistentMap<Stop, Set<Stop>> precedences, long requestId) {
+        PersistentMap<Stop, Set<Stop>> result = precedences;
+        for (Map.Entry<Stop, Set<Stop>> entry : precedences.entrySet()) {
+            Stop after = entry.getKey();
+            if (after.requestId() == requestId) {
+                result = result.minus(after);
+                continue;
+            }
+            if (entry.getValue().stream().noneMatch(before -> before.requestId() == requestId)) continue;
+            Set<Stop> newPreds = new HashSet<>(entry.getValue());
+            newPreds.removeIf(before -> before.requestId() == requestId);
+            result = newPreds.isEmpty() ? result.minus(after) : result.plus(after, immutable(newPreds));
+        }
+        return result;
+    }
+
+    private static Set<Stop> immutable(Set<Stop> stops) {
+        return Collections.unmodifiableSet(stops);
+    }
+}
@@ -34,6 +34,25 @@ public class Request {
         this.deliveryDuration = deliveryDuration;
     }
 
+    /**
+     * Constructs a Request with a known ID, e.g. restored from a journal. The IDs generated afterwards are
+     * greater than this one.
+     *
+     * @param id the ID of the request
+     * @param pickupIntersectionId the intersection ID for the pickup
+     * @param pickupDuration the duration of the pickup operation
+     * @param deliveryIntersectionId the intersection ID for the delivery
+     * @param deliveryDuration the duration of the delivery operation
+     */
+    public Request(long id, long pickupIntersectionId, Duration pickupDuration, long deliveryIntersectionId, Duration deliveryDuration) {
+        this.id = id;
+        this.pickupIntersectionId = pickupIntersectionId;
+        this.pickupDuration = pickupDuration;
+        this.deliveryIntersectionId = deliveryIntersectionId;
+        this.deliveryDuration = deliveryDuration;
+        ID_GENERATOR.accumulateAndGet(id + 1, Math::max);
+    }
+
     /** AtomicLong to ensure thread-safe unique ID generation */
     private static final AtomicLong ID_GENERATOR = new AtomicLong(1);
 
@@ -0,0 +1,56 @@
+package domain.model;
+
+import java.util.Comparator;
+
+/**
+ * Identifies a stop of a courier independently of any tour: the request it belongs to, its intersection
+ * and its type. Used as key of the precedence constraints, instead of a parsed string, ordered by request,
+ * intersection and type (see {@link Precedences}).
+ *
+ * @param requestId the ID of the request of the stop, -1 for the warehouse
+ * @param intersectionId the ID of the intersection of the stop
+ * @param type the type of the stop (PICKUP, DELIVERY or WAREHOUSE)
+ */
+public record Stop(long requestId, long intersectionId, StopType type) implements Comparable<Stop> {
+
+    private static final Comparator<Stop> ORDER = Comparator.comparingLong(Stop::requestId)
+            .thenComparingLong(Stop::intersectionId)
+            .thenComparing(Stop::type); // Order of the stops: by request, intersection and type.
+
+    /**
+     * @param intersectionId the address of the warehouse
+     * @return the warehouse stop
+     */
+    public static Stop warehouse(long intersectionId) {
+        return new Stop(-1, intersectionId, StopType.WAREHOUSE);
+    }
+
+    /**
+     * @param request a request
+     * @return the pickup stop of the request
+     */
+    public static Stop pickup(Request request) {
+        return new Stop(request.getId(), request.getPickupIntersectionId(), StopType.PICKUP);
+    }
+
+    /**
+     * @param request a request
+     * @return the delivery stop of the request
+     */
+    public static Stop delivery(Request request) {
+        return new Stop(request.getId(), request.getDeliveryIntersectionId(), StopType.DELIVERY);
+    }
+
+    /**
+     * @param tourStop a stop of a tour
+     * @return the stop it visits
+     */
+    public static Stop of(TourStop tourStop) {
+        return new Stop(tourStop.getRequestID(), tourStop.getIntersectionId(), tourStop.getType());
+    }
+
+    @Override
+    public int compareTo(Stop other) {
+        return ORDER.compare(this, other);
+    }
+}
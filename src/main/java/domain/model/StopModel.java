@@ -0,0 +1,161 @@
+package domain.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Stops of a TSP instance, indexed by int: vertex 0 is the warehouse, and the pickup and delivery of the
+ * r-th request are the vertices 1 + 2r and 2 + 2r. The stops are stored in primitive arrays, and the
+ * precedence constraints as int adjacency lists, so that the planning never parses or hashes strings.
+ */
+public class StopModel {
+
+    private final long[] requestIds; // The request ID of each vertex, -1 for the warehouse.
+
+
+    private final long[] intersectionIds; // The intersection ID of each vertex.
+
+
+    private final StopType[] types; // The type of each vertex.
+
+
+    private final HashMap<Long, Integer> requestIndex; // Map of request ID -> position of the request.
+
+
+    private final int[][] predecessors; // Vertices that must be visited directly before each vertex.
+
+    /**
+     * Builds the stops of an instance from the requests of a courier.
+     *
+     * @param warehouseAddressId the intersection ID of the warehouse
+     * @param requests the requests of the courier
+     */
+    public StopModel(long warehouseAddressId, List<Request> requests) {
+        int n = 1 + 2 * requests.size();
+        this.requestIds = new long[n];
+        this.intersectionIds = new long[n];
+        this.types = new StopType[n];
+        this.requestIndex = new HashMap<>();
+        this.predecessors = new int[n][];
+
+        requestIds[0] = -1;
+        intersectionIds[0] = warehouseAddressId;
+        types[0] = StopType.WAREHOUSE;
+        for (int r = 0; r < requests.size(); r++) {
+            Request request = requests.get(r);
+            requestIndex.put(request.getId(), r);
+            requestIds[1 + 2 * r] = request.getId();
+            intersectionIds[1 + 2 * r] = request.getPickupIntersectionId();
+            types[1 + 2 * r] = StopType.PICKUP;
+            requestIds[2 + 2 * r] = request.getId();
+            intersectionIds[2 + 2 * r] = request.getDeliveryIntersectionId();
+            types[2 + 2 * r] = StopType.DELIVERY;
+        }
+        Arrays.fill(predecessors, new int[0]);
+    }
+
+    /**
+     * @return the number of vertices, warehouse included
+     */
+    public int size() {
+        return types.length;
+    }
+
+    public long getRequestId(int vertex) {
+        return requestIds[vertex];
+    }
+
+
+    public long getIntersectionId(int vertex) {
+        return intersectionIds[vertex];
+    }
+
+
+    public StopType getType(int vertex) {
+        return types[vertex];
+    }
+
+    /**
+     * @return the intersection ID of each vertex (shared array, must not be modified)
+     */
+    public long[] getIntersectionIds() {
+        return intersectionIds;
+    }
+
+    /**
+     * @param vertex a vertex
+     * @return the stop of the vertex
+     */
+    public Stop getStop(int vertex) {
+        return new Stop(requestIds[vertex], intersectionIds[vertex], types[vertex]);
+    }
+
+    /**
+     * Finds the vertex of a stop in constant time.
+     *
+     * @param stop the stop
+     * @return the vertex of the stop, or -1 if the stop is not part of the instance
+     */
+    public int indexOf(Stop stop) {
+        int vertex;
+        if (stop.type() == StopType.WAREHOUSE) {
+            vertex = 0;
+        } else {
+            Integer r = requestIndex.get(stop.requestId());
+            if (r == null || (stop.type() != StopType.PICKUP && stop.type() != StopType.DELIVERY)) return -1;
+            vertex = (stop.type() == StopType.PICKUP) ? 1 + 2 * r : 2 + 2 * r;
+        }
+        return (intersectionIds[vertex] == stop.intersectionId()) ? vertex : -1;
+    }
+
+    /**
+     * @param vertex a vertex
+     * @return the vertices that must be visited directly before it (shared array, must not be modified)
+     */
+    public int[] getPredecessors(int vertex) {
+        return predecessors[vertex];
+    }
+
+    /**
+     * Adds a precedence constraint between two vertices.
+     *
+     * @param before the vertex to visit first
+     * @param after the vertex to visit after it
+     */
+    public void addPrecedence(int before, int after) {
+        for (int pred : predecessors[after]) {
+            if (pred == before) return;
+        }
+        int[] preds = Arrays.copyOf(predecessors[after], predecessors[after].length + 1);
+        preds[preds.length - 1] = before;
+        predecessors[after] = preds;
+    }
+
+    /**
+     * Returns the precedence constraints in the format of the solvers.
+     *
+     * @return a map of vertex -> vertices that must be visited before it
+     */
+    public HashMap<Integer, Set<Integer>> toPrecedenceMap() {
+        HashMap<Integer, Set<Integer>> map = new HashMap<>();
+        for (int v = 0; v < predecessors.length; v++) {
+            if (predecessors[v].length == 0) continue;
+            Set<Integer> preds = new HashSet<>();
+            for (int pred : predecessors[v]) preds.add(pred);
+            map.put(v, preds);
+        }
+        return map;
+    }
+
+    /**
+     * @return the request pairs as {pickup, delivery} vertex indices
+     */
+    public int[][] getRequestPairs() {
+        int[][] pairs = new int[(size() - 1) / 2][];
+        for (int r = 0; r < pairs.length; r++) pairs[r] = new int[]{1 + 2 * r, 2 + 2 * r};
+        return pairs;
+    }
+}
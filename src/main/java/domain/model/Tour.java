@@ -2,11 +2,22 @@ package domain.model;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * Represents a delivery tour for a courier, including stops, road segments, total distance, and duration.
+ *
+ * The road segments are grouped in legs: leg i goes from stop i to stop i + 1, the last leg going back to the
+ * first stop (the warehouse). The stops are also indexed by intersection, so that both lookups take constant time.
+ *
+ * The route is stored as an array of road segment indices into the map (see {@link Map#getRoadSegmentIndex}),
+ * the legs being delimited by offsets in this array: the {@link RoadSegment} objects are only looked up when the
+ * route is read, and copying or comparing two routes is an array operation.
  */
 public class Tour {
 
@@ -16,7 +27,25 @@ public class Tour {
     private ArrayList<TourStop> stops; // The list of stops included in the tour.
 
 
-    private ArrayList<RoadSegment> roadSegmentsTaken; // The list of road segments taken during the tour.
+    private Map map; // The map whose road segments are taken, null until the first one is added.
+
+
+    private int[] route; // The indices of the road segments taken during the tour (the first nbRoadSegments are used).
+
+
+    private int nbRoadSegments; // The number of road segments taken during the tour.
+
+
+    private ArrayList<RoadSegment> detachedSegments; // Road segments taken which are not in the map, stored as ~index.
+
+
+    private HashMap<Long, TourStop> stopsByIntersection; // The first stop at each intersection.
+
+
+    private int[] legStarts; // The index of the first road segment of each leg (the first nbLegs are used).
+
+
+    private int nbLegs; // The number of legs whose road segments were added.
 
 
     private double totalDistance; // The total distance covered during the tour, in meters.
@@ -27,6 +56,9 @@ public class Tour {
 
     private Duration totalDuration; // The total duration of the tour.
 
+
+    private Double optimalityGap = null; // Proven gap to the optimal tour in percent, null if unknown.
+
     /**
      * Constructs a new Tour for the specified courier, starting at the given time.
      *
@@ -37,7 +69,9 @@ public class Tour {
         this.courierId = courierId;
         this.startTime = startTime;
         stops = new ArrayList<>();
-        roadSegmentsTaken = new ArrayList<>();
+        route = new int[0];
+        stopsByIntersection = new HashMap<>();
+        legStarts = new int[0];
         totalDistance = 0.0;
         totalDuration = Duration.ZERO;
     }
@@ -49,18 +83,77 @@ public class Tour {
      */
     public void addStop(TourStop stop) {
         this.stops.add(stop);
+        stopsByIntersection.putIfAbsent(stop.getIntersectionId(), stop);
+    }
+
+    /**
+     * Starts a new leg: the road segments added next go from the next stop without a leg to the following one.
+     */
+    public void startLeg() {
+        if (nbLegs == legStarts.length) {
+            legStarts = Arrays.copyOf(legStarts, Math.max(4, 2 * nbLegs));
+        }
+        legStarts[nbLegs++] = nbRoadSegments;
+    }
+
+    /**
+     * Adds a road segment of a map to the tour and updates the total distance.
+     *
+     * @param map the map containing the road segment, the same for every segment of the tour
+     * @param index the index of the road segment in the map
+     * @throws IllegalArgumentException if the map has no road segment with this index
+     * @throws IllegalStateException if the tour already takes road segments of another map
+     */
+    public void addRoadSegment(Map map, int index) {
+        if (this.map == null) {
+            this.map = map;
+        } else if (this.map != map) {
+            throw new IllegalStateException("The tour of courier " + courierId + " already uses another map.");
+        }
+        RoadSegment roadSegment = map.getRoadSegmentByIndex(index);
+        appendRoadSegment(index);
+        updateTotalDistance(roadSegment.getLength());
     }
 
     /**
-     * Adds a road segment to the tour and updates the total distance and duration.
+     * Adds a road segment to the tour and updates the total distance. A segment of the map of the tour is stored
+     * by index, any other one is kept aside.
      *
      * @param roadSegment the road segment to be added
      */
     public void addRoadSegment(RoadSegment roadSegment) {
-        roadSegmentsTaken.add(roadSegment);
+        int index = (map != null) ? map.getRoadSegmentIndex(roadSegment) : -1;
+        if (index < 0) {
+            if (detachedSegments == null) detachedSegments = new ArrayList<>();
+            detachedSegments.add(roadSegment);
+            index = ~(detachedSegments.size() - 1);
+        }
+        appendRoadSegment(index);
         updateTotalDistance(roadSegment.getLength());
     }
 
+    /**
+     * Starts a new leg made of road segments of a map, and updates the total distance.
+     *
+     * @param map the map containing the road segments, the same for every segment of the tour
+     * @param indices the indices of the road segments of the leg in the map, in order
+     * @throws IllegalArgumentException if the map has no road segment with one of these indices
+     * @throws IllegalStateException if the tour already takes road segments of another map
+     */
+    public void addLeg(Map map, int[] indices) {
+        startLeg();
+        for (int index : indices) {
+            addRoadSegment(map, index);
+        }
+    }
+
+    private void appendRoadSegment(int index) {
+        if (nbRoadSegments == route.length) {
+            route = Arrays.copyOf(route, Math.max(16, 2 * nbRoadSegments));
+        }
+        route[nbRoadSegments++] = index;
+    }
+
     /**
      * Updates the total distance of the tour by adding the specified distance.
      *
@@ -105,20 +198,136 @@ public class Tour {
     }
 
 
-    public ArrayList<RoadSegment> getRoadSegmentsTaken() {
-        return roadSegmentsTaken;
+    public Double getOptimalityGap() {
+        return optimalityGap;
+    }
+
+
+    public void setOptimalityGap(Double optimalityGap) {
+        this.optimalityGap = optimalityGap;
+    }
+
+
+    /**
+     * Returns the road segments taken during the tour, as a read-only view of the route: the segments are
+     * looked up when read.
+     *
+     * @return the road segments taken, in order
+     */
+    public List<RoadSegment> getRoadSegmentsTaken() {
+        return new RoadSegmentsView();
+    }
+
+    /**
+     * @param i the index of a road segment of the route
+     * @return the i-th road segment taken during the tour
+     */
+    public RoadSegment getRoadSegment(int i) {
+        if (i < 0 || i >= nbRoadSegments) {
+            throw new IndexOutOfBoundsException("Road segment " + i + " of a route of " + nbRoadSegments);
+        }
+        int index = route[i];
+        return (index >= 0) ? map.getRoadSegmentByIndex(index) : detachedSegments.get(~index);
+    }
+
+    /**
+     * @return the number of road segments taken during the tour
+     */
+    public int getNbRoadSegments() {
+        return nbRoadSegments;
+    }
+
+    /**
+     * Returns a copy of the route, as the indices of its road segments in the map of the tour
+     * (negative for the segments which are not in the map).
+     *
+     * @return the indices of the road segments taken, in order
+     */
+    public int[] copyRoute() {
+        return Arrays.copyOf(route, nbRoadSegments);
+    }
+
+    /**
+     * Checks whether another tour takes the same road segments, leg by leg, as this one.
+     *
+     * @param other another tour
+     * @return true if both tours take the same road segments of the same map, with the same legs
+     */
+    public boolean hasSameRoute(Tour other) {
+        return map == other.map && detachedSegments == null && other.detachedSegments == null
+                && Arrays.equals(route, 0, nbRoadSegments, other.route, 0, other.nbRoadSegments)
+                && Arrays.equals(legStarts, 0, nbLegs, other.legStarts, 0, other.nbLegs);
     }
 
 
+    /**
+     * Finds the first stop at an intersection.
+     *
+     * @param intersectionId the ID of the intersection
+     * @return the stop, or null if no stop is at this intersection
+     */
     public TourStop getStopByIntersectionId(long intersectionId) {
-    for (TourStop stop : stops) {
-        if (stop.getIntersectionId() == intersectionId) {
-            return stop;
+        return stopsByIntersection.get(intersectionId);
+    }
+
+    /**
+     * @return the number of legs whose road segments were added
+     */
+    public int getNbLegs() {
+        return nbLegs;
+    }
+
+    /**
+     * @param leg the index of a leg
+     * @return the index of the first road segment of the leg
+     */
+    public int getLegStart(int leg) {
+        if (leg < 0 || leg >= nbLegs) {
+            throw new IndexOutOfBoundsException("Leg " + leg + " of a tour of " + nbLegs + " legs");
         }
+        return legStarts[leg];
     }
 
-    return null;
-}
+    /**
+     * @param leg the index of a leg
+     * @return the index following the last road segment of the leg
+     */
+    public int getLegEnd(int leg) {
+        return (leg + 1 < nbLegs) ? getLegStart(leg + 1) : nbRoadSegments;
+    }
+
+    /**
+     * @param leg the index of a leg
+     * @return the stop the leg starts from
+     */
+    public TourStop getLegOrigin(int leg) {
+        return stops.get(leg);
+    }
+
+    /**
+     * @param leg the index of a leg
+     * @return the stop the leg goes to, the first stop for the last leg
+     */
+    public TourStop getLegDestination(int leg) {
+        return stops.get((leg + 1) % stops.size());
+    }
+
+
+    /**
+     * Read-only view of the road segments of the route.
+     */
+    private class RoadSegmentsView extends AbstractList<RoadSegment> implements RandomAccess {
+
+        @Override
+        public RoadSegment get(int i) {
+            return getRoadSegment(i);
+        }
+
+        @Override
+        public int size() {
+            return nbRoadSegments;
+        }
+    }
 
 
     public String toString() {
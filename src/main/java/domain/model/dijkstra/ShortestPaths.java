@@ -0,0 +1,13 @@
+package domain.model.dijkstra;
+
+/**
+ * Copy of a row of a {@link DijkstraTable}: the shortest paths computed from a source intersection to every
+ * intersection of the map, the intersections being taken in increasing ID order.
+ *
+ * @param source the ID of the source intersection
+ * @param durations the duration of the shortest path to each intersection
+ * @param predecessors the predecessor of each intersection on its shortest path (-1 if none)
+ * @param visited whether each intersection was visited from the source
+ */
+public record ShortestPaths(long source, double[] durations, long[] predecessors, boolean[] visited) {
+}
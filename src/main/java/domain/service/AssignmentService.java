@@ -0,0 +1,308 @@
+package domain.service;
+
+import domain.model.AssignmentResult;
+import domain.model.Courier;
+import domain.model.InsertionEstimate;
+import domain.model.PickupDelivery;
+import domain.model.Request;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Service class assigning requests to the couriers of the fleet.
+ *
+ * The cost of inserting a request into the tour of each courier is evaluated concurrently, respecting the
+ * warehouse, the precedences and the shift of each courier (see {@link PlanningService#estimateInsertion}).
+ * A request goes to the courier whose tour it lengthens the least. When many requests are assigned at once,
+ * the request with the highest regret (the extra cost of its second best courier over its best one) is assigned
+ * first, so that requests with a single good courier are not left without one; after each assignment, only the
+ * estimates on the courier that received the request are computed again.
+ *
+ * The planning jobs of a courier are superseded before a request is given to it or taken from it: a re-plan
+ * started earlier would publish a tour of its previous requests.
+ */
+@Service
+public class AssignmentService {
+
+    static final double MIN_REBALANCE_GAIN = 1.0; // Minimum duration saved (minutes) by moving a request.
+
+
+    private final PlanningService planningService; // Service computing and publishing the tours.
+
+
+    private final RequestService requestService; // Service holding the requests of each courier.
+
+
+    private final TourService tourService; // Service holding the couriers and their tours.
+
+
+    private final PlanningJobService planningJobService; // Service running the re-plans superseded by the assignments.
+
+
+    private final ExecutorService evaluators; // Threads evaluating the insertions concurrently.
+
+    /**
+     * Constructs a new AssignmentService with one evaluation thread per processor.
+     *
+     * @param planningService the service computing and publishing the tours
+     * @param requestService the service holding the requests of each courier
+     * @param tourService the service holding the couriers and their tours
+     * @param planningJobService the service running the re-plans superseded by the assignments
+     */
+    @Autowired
+    public AssignmentService(PlanningService planningService, RequestService requestService, TourService tourService,
+                             PlanningJobService planningJobService) {
+        this.planningService = planningService;
+        this.requestService = requestService;
+        this.tourService = tourService;
+        this.planningJobService = planningJobService;
+        AtomicInteger threadCount = new AtomicInteger(1);
+        this.evaluators = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "assignment-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Evaluates the cost of adding a request to the tour of every courier able to take it, concurrently.
+     *
+     * @param request the request, not yet assigned
+     * @param warehouseId the warehouse of the request, -1 to accept the warehouse of any courier
+     * @return the estimates of the couriers serving the warehouse, the feasible ones first by increasing extra cost
+     */
+    public List<InsertionEstimate> evaluate(Request request, long warehouseId) {
+        List<Callable<InsertionEstimate>> evaluations = new ArrayList<>();
+        for (Courier courier : new ArrayList<>(tourService.getCouriers())) {
+            if (servesWarehouse(courier.getId(), warehouseId)) {
+                evaluations.add(() -> planningService.estimateInsertion(courier.getId(), request, warehouseId));
+            }
+        }
+
+        List<InsertionEstimate> estimates = runAll(evaluations);
+        estimates.sort(Comparator.comparing((InsertionEstimate e) -> !e.feasible())
+                .thenComparingDouble(InsertionEstimate::extraMinutes)
+                .thenComparingLong(InsertionEstimate::courierId));
+        return estimates;
+    }
+
+    /**
+     * Assigns a request to the courier whose tour it lengthens the least, and publishes the new tour.
+     *
+     * @param request the request, not yet assigned
+     * @param warehouseId the warehouse of the request, -1 to accept the warehouse of any courier
+     * @return the ID of the courier to whom the request was assigned
+     * @throws RuntimeException if no courier can take the request
+     */
+    public synchronized long assign(Request request, long warehouseId) {
+        List<InsertionEstimate> estimates = evaluate(request, warehouseId);
+        if (estimates.isEmpty() || !estimates.getFirst().feasible()) {
+            throw new RuntimeException("No courier can take request " + request.getId()
+                    + " within their shift and precedences.");
+        }
+
+        long courierId = estimates.getFirst().courierId();
+        register(courierId, request, warehouseId);
+        return courierId;
+    }
+
+    /**
+     * Distributes requests over the fleet: at each step, the request with the highest regret is assigned to its
+     * best courier and the tour of this courier is published.
+     *
+     * @param requests the requests, not yet assigned
+     * @param warehouseId the warehouse of the requests, -1 to accept the warehouse of any courier
+     * @return the courier of each assigned request, and the requests that no courier can take
+     */
+    public synchronized AssignmentResult assignAll(List<Request> requests, long warehouseId) {
+        List<Long> courierIds = new ArrayList<>();
+        for (Courier courier : tourService.getCouriers()) {
+            if (servesWarehouse(courier.getId(), warehouseId)) courierIds.add(courier.getId());
+        }
+
+        // Estimates of every pending request on every courier
+        LinkedHashMap<Request, HashMap<Long, InsertionEstimate>> pending = new LinkedHashMap<>();
+        for (Request request : requests) pending.put(request, new HashMap<>());
+        List<Callable<InsertionEstimate>> evaluations = new ArrayList<>();
+        for (Request request : requests) {
+            for (long courierId : courierIds) {
+                evaluations.add(() -> planningService.estimateInsertion(courierId, request, warehouseId));
+            }
+        }
+        List<InsertionEstimate> estimates = runAll(evaluations);
+        int e = 0;
+        for (Request request : requests) {
+            for (int c = 0; c < courierIds.size(); c++) {
+                InsertionEstimate estimate = estimates.get(e++);
+                pending.get(request).put(estimate.courierId(), estimate);
+            }
+        }
+
+        LinkedHashMap<Long, Long> assignments = new LinkedHashMap<>();
+        List<Long> unassigned = new ArrayList<>();
+        while (!pending.isEmpty()) {
+            Request chosen = null;
+            InsertionEstimate chosenBest = null;
+            double chosenRegret = Double.NEGATIVE_INFINITY;
+            for (var entry : pending.entrySet()) {
+                InsertionEstimate best = null;
+                double secondCost = Double.POSITIVE_INFINITY;
+                for (InsertionEstimate estimate : entry.getValue().values()) {
+                    if (!estimate.feasible()) continue;
+                    if (best == null || estimate.extraMinutes() < best.extraMinutes()) {
+                        if (best != null) secondCost = best.extraMinutes();
+                        best = estimate;
+                    } else if (estimate.extraMinutes() < secondCost) {
+                        secondCost = estimate.extraMinutes();
+                    }
+                }
+                if (best == null) continue;
+                double regret = secondCost - best.extraMinutes();
+                if (regret > chosenRegret || (regret == chosenRegret && best.extraMinutes() < chosenBest.extraMinutes())) {
+                    chosen = entry.getKey();
+                    chosenBest = best;
+                    chosenRegret = regret;
+                }
+            }
+            if (chosen == null) break; // no pending request fits any courier anymore
+
+            long courierId = chosenBest.courierId();
+            pending.remove(chosen);
+            try {
+                register(courierId, chosen, warehouseId);
+                assignments.put(chosen.getId(), courierId);
+            } catch (RuntimeException ex) {
+                unassigned.add(chosen.getId());
+            }
+
+            // Only the tour of this courier changed
+            List<Request> others = new ArrayList<>(pending.keySet());
+            List<Callable<InsertionEstimate>> updates = new ArrayList<>();
+            for (Request request : others) {
+                updates.add(() -> planningService.estimateInsertion(courierId, request, warehouseId));
+            }
+            List<InsertionEstimate> updated = runAll(updates);
+            for (int i = 0; i < others.size(); i++) {
+                pending.get(others.get(i)).put(courierId, updated.get(i));
+            }
+        }
+
+        for (Request request : pending.keySet()) unassigned.add(request.getId());
+        return new AssignmentResult(assignments, unassigned);
+    }
+
+    /**
+     * Rebalances the requests over the fleet: a request is moved to another courier serving the same warehouse
+     * when the duration saved on its tour exceeds the duration added to the other tour by at least
+     * {@link #MIN_REBALANCE_GAIN} minutes. The tours of both couriers are published after each move.
+     *
+     * @param maxMoves the maximum number of requests moved
+     * @return the new courier of each moved request, by request ID
+     */
+    public synchronized LinkedHashMap<Long, Long> rebalance(int maxMoves) {
+        LinkedHashMap<Long, Long> moves = new LinkedHashMap<>();
+        boolean improved = true;
+        while (improved && moves.size() < maxMoves) {
+            improved = false;
+            for (Courier courier : new ArrayList<>(tourService.getCouriers())) {
+                long from = courier.getId();
+                PickupDelivery pickupDelivery = requestService.getPickupDeliveryPerCourier().get(from);
+                if (pickupDelivery == null) continue;
+
+                for (Request request : pickupDelivery.getRequests()) {
+                    if (moves.size() >= maxMoves) break;
+                    double saving = planningService.estimateRemoval(from, request.getId());
+                    InsertionEstimate best = evaluate(request, pickupDelivery.getWarehouseAddressId()).stream()
+                            .filter(estimate -> estimate.feasible() && estimate.courierId() != from)
+                            .findFirst().orElse(null);
+                    if (best == null || saving - best.extraMinutes() < MIN_REBALANCE_GAIN) continue;
+
+                    move(request, from, best.courierId(), pickupDelivery.getWarehouseAddressId());
+                    moves.put(request.getId(), best.courierId());
+                    improved = true;
+                }
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * Moves a request from a courier to another in a transaction on both couriers, and publishes both tours.
+     * If the new tour cannot be computed, neither courier is modified.
+     */
+    private void move(Request request, long from, long to, long warehouseId) {
+        planningJobService.supersede(from);
+        planningJobService.supersede(to);
+        planningService.inTransaction(List.of(from, to), transactions -> {
+            transactions.get(from).removeRequest(request.getId());
+            addToFork(transactions.get(to), request, warehouseId);
+            // The other stops keep their order: removing a request cannot break the shift of its courier
+            planningService.plan(transactions.get(from), true);
+            return null;
+        });
+    }
+
+    /**
+     * Gives a request to a courier in a transaction, and publishes the tour with the request inserted into it.
+     * The courier is not modified if the tour cannot be computed.
+     */
+    private void register(long courierId, Request request, long warehouseId) {
+        planningJobService.supersede(courierId);
+        planningService.inTransaction(courierId, transaction -> {
+            addToFork(transaction, request, warehouseId);
+            return null;
+        });
+    }
+
+    /**
+     * Adds a request to the fork of a courier and plans it, setting the warehouse if the courier has none yet.
+     */
+    private void addToFork(PlanningTransaction transaction, Request request, long warehouseId) {
+        if (transaction.getRequests().getWarehouseAddressId() <= 0) {
+            transaction.setWarehouseAddressId(warehouseId);
+        }
+        transaction.addRequest(request);
+        planningService.plan(transaction, true);
+    }
+
+    /**
+     * @return true if the courier has the warehouse, or no warehouse yet
+     */
+    private boolean servesWarehouse(long courierId, long warehouseId) {
+        PickupDelivery pickupDelivery = requestService.getPickupDeliveryPerCourier().get(courierId);
+        long courierWarehouse = (pickupDelivery != null) ? pickupDelivery.getWarehouseAddressId() : -1;
+        if (warehouseId <= 0) return courierWarehouse > 0;
+        return courierWarehouse <= 0 || courierWarehouse == warehouseId;
+    }
+
+    /**
+     * Runs evaluations on the evaluation threads and returns their results in order.
+     */
+    private List<InsertionEstimate> runAll(List<Callable<InsertionEstimate>> evaluations) {
+        List<InsertionEstimate> results = new ArrayList<>(evaluations.size());
+        try {
+            for (Future<InsertionEstimate> future : evaluators.invokeAll(evaluations)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Evaluation of the couriers interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw new RuntimeException(e.getCause());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,95 @@
+package domain.service;
+
+import domain.model.PickupDelivery;
+import domain.model.Stop;
+import domain.model.Tour;
+import domain.utils.PersistentMap;
+
+import java.util.ArrayDeque;
+import java.util.Set;
+
+/**
+ * Undo and redo history of the committed states of a courier (see {@link PlanningTransaction}).
+ *
+ * A version keeps the objects of a committed state instead of copying them: the requests are a snapshot whose
+ * indexes are persistent maps, the precedences are a persistent map (see {@link PersistentMap}), and the tour is
+ * the one the next commit replaced. A commit only copies the entries it changes, so consecutive versions share
+ * their unchanged requests and precedences, and a version costs what its commit changed. The tours are shared,
+ * so restoring a version gives back its solved tour without running the solvers again; since each version keeps
+ * a whole solved tour, the history is bounded to {@link #MAX_VERSIONS} versions to bound its memory.
+ *
+ * The history of a courier is only accessed while holding the lock of the courier.
+ */
+public class CourierHistory {
+
+    static final int MAX_VERSIONS = 50; // Maximum number of versions kept to undo.
+
+
+    private final ArrayDeque<Version> undoVersions = new ArrayDeque<>(); // The previous versions, most recent first.
+
+
+    private final ArrayDeque<Version> redoVersions = new ArrayDeque<>(); // The undone versions, most recently undone first.
+
+    /**
+     * A committed state of a courier. Its objects are no longer modified once in the history.
+     *
+     * @param requests the requests of the courier
+     * @param precedences the precedences of the courier (stop -> stops visited before it)
+     * @param tour the tour of the courier, or null
+     */
+    public record Version(PickupDelivery requests, PersistentMap<Stop, Set<Stop>> precedences, Tour tour) {
+    }
+
+    /**
+     * Records the state replaced by a commit. The undone versions cannot be redone anymore.
+     *
+     * @param previous the state before the commit
+     */
+    void record(Version previous) {
+        undoVersions.push(previous);
+        if (undoVersions.size() > MAX_VERSIONS) undoVersions.removeLast();
+        redoVersions.clear();
+    }
+
+    /**
+     * Takes the version to restore to undo the last commit.
+     *
+     * @param current the current state, which can be redone afterwards
+     * @return the version to restore, or null if there is nothing to undo
+     */
+    Version undo(Version current) {
+        if (undoVersions.isEmpty()) return null;
+        redoVersions.push(current);
+        return undoVersions.pop();
+    }
+
+    /**
+     * Takes the version to restore to redo the last undone commit.
+     *
+     * @param current the current state, which can be undone afterwards
+     * @return the version to restore, or null if there is nothing to redo
+     */
+    Version redo(Version current) {
+        if (redoVersions.isEmpty()) return null;
+        undoVersions.push(current);
+        return redoVersions.pop();
+    }
+
+    /**
+     * Forgets every version.
+     */
+    void clear() {
+        undoVersions.clear();
+        redoVersions.clear();
+    }
+
+
+    public int getNbUndoable() {
+        return undoVersions.size();
+    }
+
+
+    public int getNbRedoable() {
+        return redoVersions.size();
+    }
+}
@@ -0,0 +1,269 @@
+package domain.service;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Locks serializing the modifications of the state of the couriers (requests, precedences and tours).
+ *
+ * Each courier is guarded by one of {@link #NB_STRIPES} reentrant locks, chosen from its ID: dispatchers working
+ * on different couriers rarely share a lock and work in parallel, while the steps of an operation on a courier
+ * (e.g. add a request, re-plan, roll back on failure) are atomic for the other threads. Operations on several
+ * couriers take their locks in increasing stripe order, so that they cannot deadlock with each other. Operations
+ * replacing the fleet (e.g. loading the couriers) take the fleet lock exclusively and wait for every operation on
+ * a courier to finish.
+ *
+ * The locks are held by the calling thread only: work delegated to other threads while holding them must not
+ * take them again (it would wait for the caller), and a thread holding a courier lock must not take the fleet lock.
+ *
+ * Since every modification of a courier is done under its lock, a {@link ReleaseListener} is told about each
+ * operation on a courier (or on the fleet) when it ends, still holding the locks (e.g. to journal the new state),
+ * then once the thread holds no lock anymore (e.g. to wait for the journal to be on the disk). The operations on
+ * a courier are only reported if they marked the courier as modified (see {@link #markModified}), so that the
+ * operations only reading the couriers cost nothing to the listener.
+ */
+public class CourierLocks {
+
+    static final int NB_STRIPES = 64; // Number of locks shared by the couriers.
+
+
+    private final ReentrantReadWriteLock fleetLock = new ReentrantReadWriteLock(); // Shared by the operations on couriers, exclusive for the fleet.
+
+
+    private final ReentrantLock[] stripes; // The locks of the couriers, by stripe.
+
+
+    private volatile ReleaseListener releaseListener; // Told about the end of each operation, or null.
+
+
+    private final Set<Long> modifiedCouriers = ConcurrentHashMap.newKeySet(); // The couriers modified by the running operations, not reported yet.
+
+
+    private final AtomicBoolean fleetModified = new AtomicBoolean(); // Whether the couriers of the fleet were modified since the last call to takeFleetModified.
+
+    /**
+     * Listener told about the end of each outermost operation on a courier or on the fleet, before the locks
+     * are released, and once the calling thread has released all of them. The operations nested in another one
+     * are part of it and are not reported.
+     */
+    public interface ReleaseListener {
+
+        /**
+         * Called at the end of an operation which modified a courier, holding its lock.
+         *
+         * @param courierId the ID of the courier
+         */
+        void courierReleased(long courierId);
+
+        /**
+         * Called at the end of an operation on the fleet, holding the fleet lock exclusively.
+         */
+        void fleetReleased();
+
+        /**
+         * Called after an operation on couriers or on the fleet, once the calling thread holds no lock anymore:
+         * the other threads can work on the couriers meanwhile, while the caller of the operation still waits.
+         */
+        default void afterRelease() {
+        }
+    }
+
+    /**
+     * Constructs the locks of the couriers.
+     */
+    public CourierLocks() {
+        this.stripes = new ReentrantLock[NB_STRIPES];
+        for (int i = 0; i < NB_STRIPES; i++) stripes[i] = new ReentrantLock();
+    }
+
+    /**
+     * Runs an operation on a courier while holding its lock.
+     *
+     * @param courierId the ID of the courier
+     * @param operation the operation
+     * @return the result of the operation
+     */
+    public <T> T withCourier(long courierId, Supplier<T> operation) {
+        fleetLock.readLock().lock();
+        ReentrantLock stripe = stripes[stripeOf(courierId)];
+        stripe.lock();
+        try {
+            return operation.get();
+        } finally {
+            try {
+                notifyReleased(courierId);
+            } finally {
+                stripe.unlock();
+                fleetLock.readLock().unlock();
+            }
+            notifyUnlocked();
+        }
+    }
+
+    /**
+     * Runs an operation on a courier while holding its lock.
+     *
+     * @param courierId the ID of the courier
+     * @param operation the operation
+     */
+    public void runWithCourier(long courierId, Runnable operation) {
+        withCourier(courierId, () -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs an operation on several couriers while holding all their locks.
+     *
+     * @param courierIds the IDs of the couriers
+     * @param operation the operation
+     * @return the result of the operation
+     */
+    public <T> T withCouriers(Collection<Long> courierIds, Supplier<T> operation) {
+        TreeSet<Integer> ordered = new TreeSet<>();
+        for (long courierId : courierIds) ordered.add(stripeOf(courierId));
+
+        fleetLock.readLock().lock();
+        ArrayDeque<ReentrantLock> locked = new ArrayDeque<>();
+        try {
+            for (int stripe : ordered) {
+                stripes[stripe].lock();
+                locked.push(stripes[stripe]);
+            }
+            return operation.get();
+        } finally {
+            try {
+                if (locked.size() == ordered.size()) {
+                    for (long courierId : courierIds) notifyReleased(courierId);
+                }
+            } finally {
+                while (!locked.isEmpty()) locked.pop().unlock();
+                fleetLock.readLock().unlock();
+            }
+            notifyUnlocked();
+        }
+    }
+
+    /**
+     * Runs an operation on the whole fleet, once no other thread works on a courier.
+     *
+     * @param operation the operation
+     * @return the result of the operation
+     * @throws IllegalStateException if the calling thread holds the lock of a courier
+     */
+    public <T> T withFleet(Supplier<T> operation) {
+        if (fleetLock.getReadHoldCount() > 0) {
+            throw new IllegalStateException("The fleet cannot be locked while holding the lock of a courier.");
+        }
+        fleetLock.writeLock().lock();
+        try {
+            return operation.get();
+        } finally {
+            try {
+                ReleaseListener listener = releaseListener;
+                if (listener != null && fleetLock.getWriteHoldCount() == 1) {
+                    listener.fleetReleased();
+                    // the whole fleet was reported
+                    modifiedCouriers.clear();
+                    fleetModified.set(false);
+                }
+            } finally {
+                fleetLock.writeLock().unlock();
+            }
+            notifyUnlocked();
+        }
+    }
+
+    /**
+     * Runs an operation on the whole fleet, once no other thread works on a courier.
+     *
+     * @param operation the operation
+     * @throws IllegalStateException if the calling thread holds the lock of a courier
+     */
+    public void runWithFleet(Runnable operation) {
+        withFleet(() -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    /**
+     * @param courierId the ID of a courier
+     * @return true if the calling thread holds the lock of the courier
+     */
+    public boolean isHeldByCurrentThread(long courierId) {
+        return fleetLock.isWriteLockedByCurrentThread() || stripes[stripeOf(courierId)].isHeldByCurrentThread();
+    }
+
+    /**
+     * Marks a courier as modified by the running operation, so that the listener is told about it when the
+     * operation ends. Called holding the lock of the courier, after the modification.
+     *
+     * @param courierId the ID of the courier
+     */
+    public void markModified(long courierId) {
+        if (releaseListener != null) modifiedCouriers.add(courierId);
+    }
+
+    /**
+     * Marks a courier of the fleet (e.g. its availability status) as modified by the running operation.
+     * Called holding the lock of the courier, after the modification.
+     *
+     * @param courierId the ID of the courier
+     */
+    public void markFleetModified(long courierId) {
+        if (releaseListener == null) return;
+        fleetModified.set(true);
+        modifiedCouriers.add(courierId);
+    }
+
+    /**
+     * @return true if a courier of the fleet was modified since the last call, the mark being cleared
+     */
+    public boolean takeFleetModified() {
+        return fleetModified.getAndSet(false);
+    }
+
+    /**
+     * Sets the listener told about the end of each operation.
+     *
+     * @param releaseListener the listener, or null
+     */
+    public void setReleaseListener(ReleaseListener releaseListener) {
+        this.releaseListener = releaseListener;
+    }
+
+    /**
+     * Tells the listener that an operation which modified a courier ends, unless it is nested in another operation
+     * on the courier or on the fleet.
+     */
+    private void notifyReleased(long courierId) {
+        ReleaseListener listener = releaseListener;
+        if (listener == null || fleetLock.isWriteLockedByCurrentThread()) return;
+        if (stripes[stripeOf(courierId)].getHoldCount() == 1 && modifiedCouriers.remove(courierId)) {
+            listener.courierReleased(courierId);
+        }
+    }
+
+    /**
+     * Tells the listener that the calling thread released its last lock.
+     */
+    private void notifyUnlocked() {
+        ReleaseListener listener = releaseListener;
+        if (listener != null && fleetLock.getReadHoldCount() == 0 && !fleetLock.isWriteLockedByCurrentThread()) {
+            listener.afterRelease();
+        }
+    }
+
+    private static int stripeOf(long courierId) {
+        return (Long.hashCode(courierId) & Integer.MAX_VALUE) % NB_STRIPES;
+    }
+}
@@ -6,7 +6,9 @@ import domain.model.Map;
 import domain.model.RoadSegment;
 import domain.utils.DurationUtil;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.PriorityQueue;
 
 /**
@@ -21,11 +23,12 @@ public class DijkstraService {
     /**
      * Computes the shortest paths between all intersections that need to be visited.
      * If some have already been computed, they are reused.
+     * Synchronized because the table is shared by the tours computed concurrently.
      *
      * @param stops an array of intersection IDs representing the stops to be visited
      * @return a complete graph with the shortest path costs between the specified stops
      */
-    public GrapheComplet computeShortestPath(long[] stops) {
+    public synchronized GrapheComplet computeShortestPath(long[] stops) {
         // Initialize the graph with the values in the DijkstraTable
         GrapheComplet g = new GrapheComplet(stops, stops.length);
         for (int i = 0; i < stops.length; i++) {
@@ -122,6 +125,51 @@ public class DijkstraService {
     }
 
 
+    /**
+     * Copies the rows of the table whose shortest paths were computed (see {@link #computeShortestPath}).
+     *
+     * @return the shortest paths from each source already computed, the intersections in increasing ID order
+     */
+    public synchronized List<ShortestPaths> copyComputedPaths() {
+        long[] intersectionIds = map.getIntersections().keySet().stream().mapToLong(Long::longValue).toArray();
+        List<ShortestPaths> rows = new ArrayList<>();
+        for (long source : intersectionIds) {
+            CellInfo origin = dijkstraTable.get(source, source);
+            if (origin == null || !origin.isVisited()) continue;
+
+            ShortestPaths row = new ShortestPaths(source, new double[intersectionIds.length],
+                    new long[intersectionIds.length], new boolean[intersectionIds.length]);
+            for (int i = 0; i < intersectionIds.length; i++) {
+                CellInfo cell = dijkstraTable.get(source, intersectionIds[i]);
+                row.durations()[i] = cell.getDuration();
+                row.predecessors()[i] = cell.getPredecessor();
+                row.visited()[i] = cell.isVisited();
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Restores rows of shortest paths copied from a table on the same map, so that they are not computed again.
+     *
+     * @param rows the shortest paths from some sources, the intersections in increasing ID order
+     * @throws IllegalArgumentException if a row does not match the intersections of the map
+     */
+    public synchronized void restoreComputedPaths(List<ShortestPaths> rows) {
+        long[] intersectionIds = map.getIntersections().keySet().stream().mapToLong(Long::longValue).toArray();
+        for (ShortestPaths row : rows) {
+            if (row.durations().length != intersectionIds.length || !map.getIntersections().containsKey(row.source())) {
+                throw new IllegalArgumentException("The shortest paths from " + row.source() + " are not on this map.");
+            }
+            for (int i = 0; i < intersectionIds.length; i++) {
+                dijkstraTable.put(row.source(), intersectionIds[i],
+                        row.durations()[i], row.predecessors()[i], row.visited()[i]);
+            }
+        }
+    }
+
+
     public DijkstraTable getDijkstraTable() {
         return dijkstraTable;
     }
@@ -0,0 +1,105 @@
+package domain.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+/**
+ * Bounded cache of the road segments of the legs of the tours.
+ *
+ * A leg is the shortest path between two intersections, stored as the indices of its road segments in the map
+ * (see {@link domain.model.Map#getRoadSegmentIndex}). It only depends on the map, so a leg is cached under its
+ * source, its target and the version of the map: a new or modified map never hits the legs of the previous one.
+ * When the cache is full, the least recently used leg is evicted.
+ */
+public class PathLegCache {
+
+    static final int DEFAULT_CAPACITY = 4096; // Default maximum number of cached legs.
+
+
+    private final LinkedHashMap<LegKey, int[]> legs; // The cached legs, in least recently used first order.
+
+
+    private long nbHits = 0; // Number of legs found in the cache.
+
+
+    private long nbMisses = 0; // Number of legs not found in the cache.
+
+    /**
+     * Key of a leg: its source and target intersections, and the version of the map.
+     */
+    private record LegKey(long sourceId, long targetId, long mapVersion) {}
+
+    /**
+     * Constructs a cache holding at most {@link #DEFAULT_CAPACITY} legs.
+     */
+    public PathLegCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a cache holding at most the given number of legs.
+     *
+     * @param capacity the maximum number of cached legs
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public PathLegCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the cache must be positive.");
+        }
+        this.legs = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Entry<LegKey, int[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Finds a cached leg.
+     *
+     * @param sourceId the ID of the intersection the leg starts from
+     * @param targetId the ID of the intersection the leg goes to
+     * @param mapVersion the version of the map of the leg
+     * @return the indices of the road segments of the leg (not to be modified), or null if it is not cached
+     */
+    public synchronized int[] get(long sourceId, long targetId, long mapVersion) {
+        int[] leg = legs.get(new LegKey(sourceId, targetId, mapVersion));
+        if (leg == null) nbMisses++;
+        else nbHits++;
+        return leg;
+    }
+
+    /**
+     * Caches a leg, evicting the least recently used one if the cache is full.
+     *
+     * @param sourceId the ID of the intersection the leg starts from
+     * @param targetId the ID of the intersection the leg goes to
+     * @param mapVersion the version of the map of the leg
+     * @param roadSegments the indices of the road segments of the leg, no longer modified by the caller
+     */
+    public synchronized void put(long sourceId, long targetId, long mapVersion, int[] roadSegments) {
+        legs.put(new LegKey(sourceId, targetId, mapVersion), roadSegments);
+    }
+
+    /**
+     * Removes every cached leg.
+     */
+    public synchronized void clear() {
+        legs.clear();
+    }
+
+
+    public synchronized int size() {
+        return legs.size();
+    }
+
+
+    public synchronized long getNbHits() {
+        return nbHits;
+    }
+
+
+    public synchronized long getNbMisses() {
+        return nbMisses;
+    }
+}
@@ -0,0 +1,246 @@
+package domain.service;
+
+import domain.model.Courier;
+import domain.model.Intersection;
+import domain.model.PickupDelivery;
+import domain.model.PlanImportResult;
+import domain.model.PlanningOutcome;
+import domain.model.Request;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import persistence.XMLParsers;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Service class importing the plan of a whole day: the couriers, and the warehouse and requests of each courier.
+ *
+ * The plan is given either as a manifest (a properties file with a {@code couriers} entry naming the couriers
+ * file and a {@code courier.<id>} entry naming the requests file of each courier), or as a directory containing
+ * {@code couriers.xml} and one {@code requests-<id>.xml} file per courier. Paths are relative to the manifest or
+ * the directory.
+ *
+ * The files are parsed concurrently, then every warehouse and stop is checked against the map before anything is
+ * modified. The shortest paths between all of them are computed once, then all the couriers of the plan are
+ * planned concurrently on detached forks (see {@link PlanningService#planDetached}), without holding any lock.
+ * Only the swap of the couriers and of their states holds the fleet lock; the background jobs of the couriers
+ * are superseded meanwhile, so that none of them publishes a tour of the previous plan.
+ */
+@Service
+public class PlanImportService {
+
+    static final String COURIERS_FILE = "couriers.xml"; // Couriers file of a plan directory.
+
+
+    private static final Pattern REQUESTS_FILE = Pattern.compile("requests-(\\d+)\\.xml"); // Requests file of a courier in a plan directory.
+
+
+    private final PlanningService planningService; // Service computing and publishing the tours.
+
+
+    private final TourService tourService; // Service holding the couriers and their tours.
+
+
+    private final MapService mapService; // Service holding the map.
+
+
+    private final PlanningJobService planningJobService; // Service running the background planning jobs.
+
+    /**
+     * Constructs a new PlanImportService.
+     *
+     * @param planningService the service computing and publishing the tours
+     * @param tourService the service holding the couriers and their tours
+     * @param mapService the service holding the map
+     * @param planningJobService the service running the background planning jobs
+     */
+    @Autowired
+    public PlanImportService(PlanningService planningService, TourService tourService, MapService mapService,
+                             PlanningJobService planningJobService) {
+        this.planningService = planningService;
+        this.tourService = tourService;
+        this.mapService = mapService;
+        this.planningJobService = planningJobService;
+    }
+
+    /**
+     * Imports the plan of a day and plans every courier of the plan. The requests of the imported couriers
+     * replace their current requests; the other couriers keep theirs. An imported courier whose tour cannot be
+     * computed gets its new requests without a tour.
+     *
+     * @param path the path of the manifest or of the directory of the plan
+     * @return the number of couriers and requests imported, and the outcome of the planning of each courier
+     * @throws IllegalArgumentException if a file cannot be read or parsed, if a courier of a requests file does
+     *                                  not exist, or if a warehouse or a stop is not on the map; nothing is
+     *                                  modified in this case
+     */
+    public PlanImportResult importPlan(String path) {
+        File plan = new File(path);
+        if (!plan.exists()) {
+            throw new IllegalArgumentException("The plan " + path + " does not exist.");
+        }
+        File couriersFile = couriersFileOf(plan);
+        TreeMap<Long, File> requestFiles = new TreeMap<>();
+        resolveFiles(plan, requestFiles, couriersFile);
+
+        // 1. Parse the files concurrently
+        List<Courier> couriers = null;
+        TreeMap<Long, PickupDelivery> requests = new TreeMap<>();
+        try (ExecutorService parsers = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<ArrayList<Courier>> parsedCouriers = (couriersFile != null)
+                    ? parsers.submit(() -> XMLParsers.parseCouriers(couriersFile.getPath())) : null;
+            TreeMap<Long, Future<PickupDelivery>> parsedRequests = new TreeMap<>();
+            for (var entry : requestFiles.entrySet()) {
+                parsedRequests.put(entry.getKey(), parsers.submit(() -> parseRequests(entry.getValue())));
+            }
+
+            if (parsedCouriers != null) couriers = parsedCouriers.get();
+            for (var entry : parsedRequests.entrySet()) {
+                requests.put(entry.getKey(), entry.getValue().get());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalArgumentException(e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Import of the plan interrupted.", e);
+        }
+
+        // 2. Validate the plan against the couriers and the map
+        if (couriers != null && couriers.isEmpty()) {
+            throw new IllegalArgumentException("The couriers file " + couriersFile + " has no courier.");
+        }
+        TreeMap<Long, Courier> couriersById = new TreeMap<>();
+        for (Courier courier : (couriers != null) ? couriers : tourService.getCouriers()) {
+            couriersById.put(courier.getId(), courier);
+        }
+        java.util.Map<Long, Intersection> intersections = mapService.getMap().getIntersections();
+        Set<Long> stops = new HashSet<>();
+        int nbRequests = 0;
+        for (var entry : requests.entrySet()) {
+            long courierId = entry.getKey();
+            PickupDelivery pickupDelivery = entry.getValue();
+            if (!couriersById.containsKey(courierId)) {
+                throw new IllegalArgumentException("Courier ID " + courierId + " of the plan does not exist.");
+            }
+            List<Long> courierStops = new ArrayList<>();
+            courierStops.add(pickupDelivery.getWarehouseAddressId());
+            for (Request request : pickupDelivery.getRequests()) {
+                courierStops.add(request.getPickupIntersectionId());
+                courierStops.add(request.getDeliveryIntersectionId());
+            }
+            for (long stop : courierStops) {
+                if (!intersections.containsKey(stop)) {
+                    throw new IllegalArgumentException("Intersection " + stop + " of the requests of courier "
+                            + courierId + " is not on the map.");
+                }
+            }
+            stops.addAll(courierStops);
+            nbRequests += pickupDelivery.getNbRequests();
+        }
+
+        // 3. Shortest paths between all the warehouses and stops, computed once for every courier
+        planningService.prewarmRouting(stops.stream().mapToLong(Long::longValue).toArray());
+
+        // 4. Plan all the couriers of the plan concurrently on forks, the current state being left untouched
+        List<PlanningTransaction> transactions = new ArrayList<>();
+        for (var entry : requests.entrySet()) {
+            transactions.add(planningService.forkDetached(couriersById.get(entry.getKey()), entry.getValue()));
+        }
+        List<PlanningOutcome> outcomes = planningService.planDetached(transactions);
+
+        // 5. Swap the couriers and the states of the imported couriers, no other thread working on a courier
+        //    meanwhile: the jobs of the previous plan are superseded, so none of them publishes afterwards
+        Set<Long> supersededIds = new HashSet<>(requests.keySet());
+        planningService.replaceDetached(couriers, transactions, () -> {
+            for (Courier courier : tourService.getCouriers()) supersededIds.add(courier.getId());
+            supersededIds.forEach(planningJobService::supersede);
+        });
+
+        return new PlanImportResult(requests.size(), nbRequests, outcomes);
+    }
+
+    /**
+     * @return the couriers file of a plan, null if the plan does not have one
+     */
+    private File couriersFileOf(File plan) {
+        if (plan.isDirectory()) {
+            File file = new File(plan, COURIERS_FILE);
+            return file.isFile() ? file : null;
+        }
+        String couriers = readManifest(plan).getProperty("couriers");
+        return (couriers != null) ? new File(plan.getParentFile(), couriers.trim()) : null;
+    }
+
+    /**
+     * Finds the requests file of each courier of a plan.
+     */
+    private void resolveFiles(File plan, TreeMap<Long, File> requestFiles, File couriersFile) {
+        if (plan.isDirectory()) {
+            File[] files = plan.listFiles();
+            if (files == null) {
+                throw new IllegalArgumentException("Cannot list the plan directory " + plan + ".");
+            }
+            for (File file : files) {
+                Matcher matcher = REQUESTS_FILE.matcher(file.getName());
+                if (matcher.matches()) requestFiles.put(Long.parseLong(matcher.group(1)), file);
+            }
+        } else {
+            Properties manifest = readManifest(plan);
+            for (String key : manifest.stringPropertyNames()) {
+                if (!key.startsWith("courier.")) continue;
+                try {
+                    long courierId = Long.parseLong(key.substring("courier.".length()));
+                    requestFiles.put(courierId, new File(plan.getParentFile(), manifest.getProperty(key).trim()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid courier ID in the manifest entry " + key + ".");
+                }
+            }
+        }
+
+        if (requestFiles.isEmpty() && couriersFile == null) {
+            throw new IllegalArgumentException("The plan " + plan + " does not name any couriers or requests file.");
+        }
+    }
+
+    /**
+     * Reads the manifest of a plan.
+     */
+    private Properties readManifest(File manifest) {
+        Properties properties = new Properties();
+        try (Reader reader = new FileReader(manifest)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read the plan manifest " + manifest + ".", e);
+        }
+        return properties;
+    }
+
+    /**
+     * Parses the requests file of a courier into a new PickupDelivery.
+     */
+    private PickupDelivery parseRequests(File file) {
+        PickupDelivery pickupDelivery = new PickupDelivery();
+        if (!file.isFile() || !XMLParsers.parseRequests(file.getPath(), pickupDelivery)) {
+            throw new IllegalArgumentException("Cannot parse the requests file " + file + ".");
+        }
+        if (pickupDelivery.getWarehouseAddressId() <= 0) {
+            throw new IllegalArgumentException("The requests file " + file + " has no warehouse.");
+        }
+        return pickupDelivery;
+    }
+}
@@ -0,0 +1,223 @@
+package domain.service;
+
+import domain.model.JobStatus;
+import domain.model.Tour;
+
+import java.util.function.Function;
+
+/**
+ * Asynchronous computation of the tour of a courier, run by the {@link PlanningJobService}.
+ * Exposes the progress of the solver (nodes explored, best cost, elapsed time), the best tour found so far
+ * and allows the cancellation of the search.
+ * All methods are thread-safe: the job is updated by the solver thread and read by HTTP threads.
+ */
+public class PlanningJob {
+
+    private final long id; // Unique identifier of the job.
+
+
+    private final long courierId; // ID of the courier whose tour is computed.
+
+
+    private final long submittedAt; // Submission time in milliseconds.
+
+
+    private long startedAt = 0; // Start time of the solver in milliseconds, 0 if not started.
+
+
+    private long finishedAt = 0; // End time of the job in milliseconds, 0 if not finished.
+
+
+    private JobStatus status = JobStatus.QUEUED; // Current status of the job.
+
+
+    private String error = null; // Reason of the failure, if any.
+
+
+    private TSP solver = null; // Solver of the job, once started.
+
+
+    private Function<Integer[], Tour> tourBuilder = null; // Converts a solution of the solver into a tour.
+
+
+    private Integer[] bestSolution = null; // Best solution found so far.
+
+
+    private double bestCost = -1; // Cost of the best solution found so far, -1 if none.
+
+
+    private Tour bestTour = null; // Tour of the best solution, built lazily.
+
+
+    private boolean cancelRequested = false; // Whether the job was cancelled.
+
+
+    private long supersededBy = 0; // ID of the job that superseded this one, 0 if none.
+
+    /**
+     * Constructs a new queued PlanningJob.
+     *
+     * @param id the unique identifier of the job
+     * @param courierId the ID of the courier whose tour is computed
+     */
+    public PlanningJob(long id, long courierId) {
+        this.id = id;
+        this.courierId = courierId;
+        this.submittedAt = System.currentTimeMillis();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getCourierId() {
+        return courierId;
+    }
+
+    public synchronized JobStatus getStatus() {
+        return status;
+    }
+
+    public synchronized String getError() {
+        return error;
+    }
+
+    public synchronized double getBestCost() {
+        return bestCost;
+    }
+
+    /**
+     * @return the number of nodes or iterations explored by the solver so far
+     */
+    public synchronized long getNodesExplored() {
+        return (solver == null) ? 0 : solver.getNbIterations();
+    }
+
+    /**
+     * @return the time spent in the solver in milliseconds, or the time spent in the queue if not started
+     */
+    public synchronized long getElapsedMillis() {
+        long end = (finishedAt == 0) ? System.currentTimeMillis() : finishedAt;
+        return end - ((startedAt == 0) ? submittedAt : startedAt);
+    }
+
+    /**
+     * Returns the tour of the best solution found so far. It is built on the first call after each improvement,
+     * so that the solver is not slowed down by the conversion.
+     *
+     * @return the best tour found so far, or null if the solver has not found a solution yet
+     */
+    public Tour computeBestTour() {
+        Integer[] solution;
+        Function<Integer[], Tour> builder;
+        synchronized (this) {
+            if (bestTour != null || bestSolution == null || tourBuilder == null) return bestTour;
+            solution = bestSolution;
+            builder = tourBuilder;
+        }
+
+        // Built outside the lock so that the solver is not blocked when it finds a better solution
+        Tour tour = builder.apply(solution);
+        synchronized (this) {
+            if (bestSolution == solution && bestTour == null) bestTour = tour;
+        }
+        return tour;
+    }
+
+    /**
+     * Requests the cancellation of the job. A queued job will not run, a running solver is stopped
+     * and its tour is not published.
+     *
+     * @return true if the job was not finished yet
+     */
+    public synchronized boolean cancel() {
+        if (status.isFinished()) return false;
+        cancelRequested = true;
+        if (solver != null) solver.stop();
+        if (status == JobStatus.QUEUED) finish(JobStatus.CANCELLED, null);
+        return true;
+    }
+
+    /**
+     * Cancels the job because a newer job of the same courier will solve a more recent state.
+     *
+     * @param jobId the ID of the newer job
+     * @return true if the job was not finished yet
+     */
+    synchronized boolean supersede(long jobId) {
+        if (status.isFinished()) return false;
+        supersededBy = jobId;
+        return cancel();
+    }
+
+    /**
+     * @return the ID of the job that superseded this one, 0 if none
+     */
+    public synchronized long getSupersededBy() {
+        return supersededBy;
+    }
+
+    public synchronized boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    /**
+     * Marks the job as running, unless it was cancelled while queued.
+     *
+     * @return true if the job must run
+     */
+    synchronized boolean start() {
+        if (cancelRequested) return false;
+        status = JobStatus.RUNNING;
+        startedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Attaches the solver of the job, to follow its progress and stop it on cancellation.
+     *
+     * @param solver the solver, not started yet
+     * @param tourBuilder converts a solution of the solver into a tour
+     */
+    synchronized void attach(TSP solver, Function<Integer[], Tour> tourBuilder) {
+        this.solver = solver;
+        this.tourBuilder = tourBuilder;
+        solver.setSolutionListener(this::onNewSolution);
+        if (cancelRequested) solver.stop();
+    }
+
+    private synchronized void onNewSolution(Integer[] solution, double cost) {
+        this.bestSolution = solution;
+        this.bestCost = cost;
+        this.bestTour = null;
+    }
+
+    /**
+     * Publishes the final tour of the job and marks it as succeeded, unless it was cancelled.
+     * Both are done atomically with respect to {@link #cancel()}.
+     *
+     * @param publication publishes the tour
+     * @param tour the final tour
+     * @return true if the tour was published
+     */
+    synchronized boolean complete(Runnable publication, Tour tour) {
+        if (cancelRequested) {
+            finish(JobStatus.CANCELLED, null);
+            return false;
+        }
+        publication.run();
+        this.bestTour = tour;
+        finish(JobStatus.SUCCEEDED, null);
+        return true;
+    }
+
+    synchronized void finish(JobStatus status, String error) {
+        this.status = status;
+        this.error = error;
+        this.finishedAt = System.currentTimeMillis();
+    }
+
+    synchronized long getFinishedAt() {
+        return finishedAt;
+    }
+}
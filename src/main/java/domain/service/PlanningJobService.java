@@ -0,0 +1,302 @@
+package domain.service;
+
+import domain.model.JobStatus;
+import domain.model.Tour;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Service class running the computation of tours asynchronously.
+ * Jobs run on a bounded pool of solver threads with a bounded queue, so that HTTP threads are not held
+ * by the solver and a burst of edits cannot exhaust the server.
+ * Only the latest job of a courier is solved: a new job supersedes (cancels) the previous one, and re-plans
+ * requested with {@link #requestReplan(long)} are debounced so that a burst of edits is coalesced into one job.
+ */
+@Service
+public class PlanningJobService {
+
+    static final int MAX_QUEUED_JOBS = 16; // Maximum number of jobs waiting for a solver thread.
+
+
+    static final long DEBOUNCE_MILLIS = 300; // Quiet period after the last edit before a re-plan starts.
+
+
+    static final long JOB_RETENTION_MILLIS = 10 * 60 * 1000; // Time during which a finished job can still be polled.
+
+
+    private final PlanningService planningService; // Service computing and publishing the tours.
+
+
+    private final ThreadPoolExecutor executor; // Bounded executor running the solvers.
+
+
+    private final Map<Long, PlanningJob> jobs = new ConcurrentHashMap<>(); // Jobs by ID.
+
+
+    private final AtomicLong nextJobId = new AtomicLong(1); // Generator of job IDs.
+
+
+    private final long debounceMillis; // Quiet period after the last edit before a re-plan starts.
+
+
+    private final ScheduledExecutorService debounceScheduler; // Scheduler starting the debounced re-plans.
+
+
+    private final Map<Long, PlanningJob> latestJobs = new HashMap<>(); // Latest job by courier ID, guarded by this.
+
+
+    private final Map<Long, ScheduledFuture<?>> pendingReplans = new HashMap<>(); // Debounced re-plans by courier ID, guarded by this.
+
+    /**
+     * Constructs a new PlanningJobService with one solver thread per two processors.
+     *
+     * @param planningService the service computing and publishing the tours
+     */
+    @Autowired
+    public PlanningJobService(PlanningService planningService) {
+        this(planningService, Math.max(1, Runtime.getRuntime().availableProcessors() / 2), MAX_QUEUED_JOBS);
+    }
+
+    /**
+     * Constructs a new PlanningJobService.
+     *
+     * @param planningService the service computing and publishing the tours
+     * @param nbThreads the number of solver threads
+     * @param queueCapacity the maximum number of jobs waiting for a solver thread
+     */
+    public PlanningJobService(PlanningService planningService, int nbThreads, int queueCapacity) {
+        this(planningService, nbThreads, queueCapacity, DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Constructs a new PlanningJobService.
+     *
+     * @param planningService the service computing and publishing the tours
+     * @param nbThreads the number of solver threads
+     * @param queueCapacity the maximum number of jobs waiting for a solver thread
+     * @param debounceMillis the quiet period after the last edit before a re-plan starts
+     */
+    public PlanningJobService(PlanningService planningService, int nbThreads, int queueCapacity, long debounceMillis) {
+        this.planningService = planningService;
+        this.debounceMillis = debounceMillis;
+        AtomicInteger threadCount = new AtomicInteger(1);
+        this.executor = new ThreadPoolExecutor(nbThreads, nbThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "planning-job-" + threadCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.debounceScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "planning-job-debounce");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Submits the computation of the tour of a courier. The tour is published once computed,
+     * unless the job is cancelled. The previous job of the courier, if any, is superseded.
+     *
+     * @param courierId the ID of the courier whose tour is to be computed
+     * @return the queued job
+     * @throws IllegalArgumentException if the courier does not exist
+     * @throws RejectedExecutionException if too many jobs are already queued
+     */
+    public synchronized PlanningJob submit(long courierId) {
+        PlanningJob job = newJob(courierId);
+        return execute(job, () -> run(job));
+    }
+
+    /**
+     * Submits the planning of a fork of a courier, modified under its lock (see
+     * {@link PlanningService#fork(long, java.util.function.Consumer)}). The fork replaces the state of the
+     * courier once planned, unless the job is cancelled or the courier was modified meanwhile, in which case the
+     * job fails. The courier keeps its state until then, and for good if the job does not succeed.
+     * The previous job of the courier, if any, is superseded.
+     *
+     * @param transaction the modified fork
+     * @return the queued job
+     * @throws IllegalArgumentException if the courier does not exist
+     * @throws RejectedExecutionException if too many jobs are already queued; the fork is discarded
+     */
+    public synchronized PlanningJob submit(PlanningTransaction transaction) {
+        PlanningJob job = newJob(transaction.getCourierId());
+        return execute(job, () -> run(job, transaction));
+    }
+
+    /**
+     * Hands a new job over to the solver threads, unregistering it if they are all busy and the queue is full.
+     *
+     * @param job the job
+     * @param task runs the job
+     * @return the queued job
+     * @throws RejectedExecutionException if too many jobs are already queued
+     */
+    private PlanningJob execute(PlanningJob job, Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            latestJobs.remove(job.getCourierId());
+            throw new RejectedExecutionException("Too many planning jobs queued, retry later.", e);
+        }
+        return job;
+    }
+
+    /**
+     * Requests a re-plan of the tour of a courier after an edit. The re-plan starts once no other edit
+     * of the courier was requested for the debounce period: a burst of edits is coalesced into a single job,
+     * which solves the latest state. A job already running for the courier is superseded.
+     *
+     * @param courierId the ID of the courier whose tour is to be recomputed
+     * @return the job of the re-plan, shared by the coalesced edits
+     * @throws IllegalArgumentException if the courier does not exist
+     */
+    public synchronized PlanningJob requestReplan(long courierId) {
+        PlanningJob latest = latestJobs.get(courierId);
+        ScheduledFuture<?> pending = pendingReplans.get(courierId);
+        if (latest != null && pending != null && pending.cancel(false) && !latest.isCancelRequested()) {
+            // Not started yet: coalesce the edit and restart the debounce period
+            pendingReplans.put(courierId, debounceScheduler.schedule(() -> dispatch(latest), debounceMillis, TimeUnit.MILLISECONDS));
+            return latest;
+        }
+
+        PlanningJob job = newJob(courierId);
+        pendingReplans.put(courierId, debounceScheduler.schedule(() -> dispatch(job), debounceMillis, TimeUnit.MILLISECONDS));
+        return job;
+    }
+
+    /**
+     * Cancels the queued and running jobs of a courier, e.g. before its tour is recomputed synchronously.
+     *
+     * @param courierId the ID of the courier
+     */
+    public synchronized void supersede(long courierId) {
+        ScheduledFuture<?> pending = pendingReplans.remove(courierId);
+        if (pending != null) pending.cancel(false);
+        PlanningJob latest = latestJobs.remove(courierId);
+        if (latest != null) latest.cancel();
+    }
+
+    /**
+     * @param jobId the ID of the job
+     * @return the job, or null if it does not exist or was purged
+     */
+    public PlanningJob getJob(long jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Cancels a job: a queued job will not run, a running solver is stopped and its tour is not published.
+     *
+     * @param jobId the ID of the job
+     * @return true if the job was cancelled, false if it was already finished
+     * @throws IllegalArgumentException if the job does not exist
+     */
+    public boolean cancel(long jobId) {
+        PlanningJob job = jobs.get(jobId);
+        if (job == null) {
+            throw new IllegalArgumentException("Job ID " + jobId + " not found.");
+        }
+        return job.cancel();
+    }
+
+    /**
+     * Creates and registers a new job for a courier, superseding the previous one.
+     *
+     * @param courierId the ID of the courier
+     * @return the new job
+     * @throws IllegalArgumentException if the courier does not exist
+     */
+    private PlanningJob newJob(long courierId) {
+        if (!planningService.courierExists(courierId)) {
+            throw new IllegalArgumentException("Courier ID " + courierId + " does not exist.");
+        }
+        purgeFinishedJobs();
+
+        PlanningJob job = new PlanningJob(nextJobId.getAndIncrement(), courierId);
+        ScheduledFuture<?> pending = pendingReplans.remove(courierId);
+        if (pending != null) pending.cancel(false);
+        PlanningJob previous = latestJobs.put(courierId, job);
+        if (previous != null) previous.supersede(job.getId());
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    /**
+     * Hands a debounced re-plan over to the solver threads.
+     *
+     * @param job the job of the re-plan
+     */
+    private synchronized void dispatch(PlanningJob job) {
+        if (latestJobs.get(job.getCourierId()) == job) {
+            pendingReplans.remove(job.getCourierId());
+        }
+        if (job.getStatus().isFinished()) return; // cancelled while debounced
+        try {
+            executor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            job.finish(JobStatus.FAILED, "Too many planning jobs queued.");
+        }
+    }
+
+    /**
+     * Runs a job on a solver thread.
+     *
+     * @param job the job to run
+     */
+    private void run(PlanningJob job) {
+        if (!job.start()) return; // cancelled while queued
+
+        try {
+            Tour tour = planningService.computeTourForCourier(job.getCourierId(), job);
+            // The lock of the courier is taken before the job's: an operation on the courier superseding the job
+            // either runs before the publication (which is then skipped) or after it
+            planningService.getCourierLocks().runWithCourier(job.getCourierId(),
+                    () -> job.complete(() -> planningService.publishTour(job.getCourierId(), tour), tour));
+        } catch (RuntimeException e) {
+            job.finish(job.isCancelRequested() ? JobStatus.CANCELLED : JobStatus.FAILED, e.getMessage());
+        }
+    }
+
+    /**
+     * Runs a job planning a fork on a solver thread, then commits the fork under the lock of the courier.
+     *
+     * @param job the job to run
+     * @param transaction the fork to plan
+     */
+    private void run(PlanningJob job, PlanningTransaction transaction) {
+        if (!job.start()) return; // cancelled while queued
+
+        try {
+            planningService.plan(transaction, job);
+            // As in run(PlanningJob): a superseding operation runs either before the commit (then skipped) or after it
+            planningService.getCourierLocks().runWithCourier(job.getCourierId(),
+                    () -> job.complete(() -> planningService.commitFork(transaction), transaction.getTour()));
+        } catch (RuntimeException e) {
+            job.finish(job.isCancelRequested() ? JobStatus.CANCELLED : JobStatus.FAILED, e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the jobs finished for longer than {@link #JOB_RETENTION_MILLIS}.
+     */
+    private void purgeFinishedJobs() {
+        long now = System.currentTimeMillis();
+        jobs.values().removeIf(job -> job.getStatus().isFinished() && now - job.getFinishedAt() > JOB_RETENTION_MILLIS);
+        latestJobs.values().removeIf(job -> job.getStatus().isFinished());
+    }
+}
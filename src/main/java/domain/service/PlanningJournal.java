@@ -0,0 +1,726 @@
+package domain.service;
+
+import domain.model.AvailabilityStatus;
+import domain.model.Courier;
+import domain.model.PickupDelivery;
+import domain.model.Precedences;
+import domain.model.Request;
+import domain.model.Stop;
+import domain.model.StopType;
+import domain.model.Tour;
+import domain.model.TourStop;
+import domain.utils.PersistentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import persistence.JournalFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Write-ahead journal of the planning state (couriers, requests, warehouses, precedences and tours), restoring
+ * the state after a restart without running the solvers.
+ *
+ * At the end of each operation which modified a courier, before its lock is released (see
+ * {@link CourierLocks.ReleaseListener}), the state of the courier is compared with the last journaled one and the
+ * differences are appended to the journal: added and deleted requests, warehouse, departure time, added and
+ * removed precedences, and the stop order of a new tour. The couriers of the fleet are journaled again only when
+ * one of them was marked as modified (see {@link CourierLocks#markFleetModified}); the operations only reading
+ * the couriers journal nothing. The records are queued under the lock, in the order of the modifications, and the
+ * operation waits for them to be durable once its locks are released: it returns only after that, while the
+ * other operations on the courier do not wait for the disk. The records of concurrent operations are forced to
+ * the disk together (see {@link JournalFile}).
+ *
+ * Periodically, and once the journal holds {@link #MAX_RECORDS_BETWEEN_CHECKPOINTS} records, the whole state is
+ * written to a checkpoint and a new journal is started. On opening, the last checkpoint and the journals written
+ * after it are replayed, and each tour is rebuilt from its journaled stop order (shortest paths only).
+ *
+ * The journal is disabled unless {@code planning.journal.directory} is set, or {@link #open(Path)} is called.
+ */
+@Service
+public class PlanningJournal implements CourierLocks.ReleaseListener {
+
+    static final String CHECKPOINT_FILE = "checkpoint.journal"; // Name of the checkpoint file.
+
+
+    static final String JOURNAL_PREFIX = "journal-"; // Prefix of the journal files, followed by their generation.
+
+
+    static final int MAX_RECORDS_BETWEEN_CHECKPOINTS = 10_000; // Number of records journaled before a checkpoint is taken.
+
+
+    private static final long DEFAULT_CHECKPOINT_MINUTES = 5; // Period of the checkpoints, in minutes.
+
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PlanningJournal.class); // Logger of the failed checkpoints.
+
+
+    // Types of the records
+    private static final byte CHECKPOINT = 0, COURIERS = 1, WAREHOUSE = 2, DEPARTURE = 3, ADD_REQUEST = 4,
+            DELETE_REQUEST = 5, DROP_REQUESTS = 6, ADD_PRECEDENCE = 7, REMOVE_PRECEDENCE = 8, NO_PRECEDENCES = 9,
+            TOUR = 10, NO_TOUR = 11;
+
+
+    private final PlanningService planningService; // Service rebuilding the tours.
+
+
+    private final RequestService requestService; // Service holding the requests of each courier.
+
+
+    private final TourService tourService; // Service holding the couriers, their precedences and tours.
+
+
+    private final CourierLocks courierLocks; // The locks serializing the modifications of each courier.
+
+
+    @Value("${planning.journal.directory:}")
+    private String configuredDirectory; // Directory of the journal in the configuration, empty to disable it.
+
+
+    @Value("${planning.journal.checkpoint-minutes:" + DEFAULT_CHECKPOINT_MINUTES + "}")
+    private long checkpointMinutes = DEFAULT_CHECKPOINT_MINUTES; // Period of the checkpoints, in minutes.
+
+
+    private Path directory; // Directory of the checkpoint and journal files, null if closed.
+
+
+    private volatile JournalFile journal; // The current journal, replaced under the fleet lock; null if closed.
+
+
+    private long generation = 0; // Generation of the current journal.
+
+
+    private ScheduledExecutorService checkpointer; // Thread taking the checkpoints.
+
+
+    private final ConcurrentHashMap<Long, CourierImage> images = new ConcurrentHashMap<>(); // The last journaled state of each courier, accessed under its lock.
+
+
+    private final Object fleetMonitor = new Object(); // Guards the fleet image and orders its records.
+
+
+    private List<CourierEntry> fleetImage = List.of(); // The last journaled couriers.
+
+
+    private final AtomicInteger nbRecordsSinceCheckpoint = new AtomicInteger(); // Number of records journaled since the last checkpoint.
+
+
+    private final AtomicBoolean checkpointRequested = new AtomicBoolean(); // Whether a checkpoint was requested and not taken yet.
+
+
+    private final ThreadLocal<PendingRecords> pendingRecords = new ThreadLocal<>(); // The records queued by the current thread, awaited once its locks are released.
+
+    /**
+     * Constructs a closed journal of the state of the services.
+     *
+     * @param planningService the service rebuilding the tours
+     * @param requestService the service holding the requests of each courier
+     * @param tourService the service holding the couriers, their precedences and tours
+     */
+    @Autowired
+    public PlanningJournal(PlanningService planningService, RequestService requestService, TourService tourService) {
+        this.planningService = planningService;
+        this.requestService = requestService;
+        this.tourService = tourService;
+        this.courierLocks = tourService.getCourierLocks();
+    }
+
+    /**
+     * Opens the journal of the configuration once the application (and its map) is loaded.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void openConfigured() {
+        if (configuredDirectory != null && !configuredDirectory.isBlank()) {
+            open(Path.of(configuredDirectory));
+        }
+    }
+
+    /**
+     * Restores the state saved in a directory, if any, then journals every modification in it. If the directory
+     * holds a saved state, the state of the services is replaced by it, with the tours rebuilt in their journaled
+     * stop order; otherwise the current state is the first checkpoint.
+     *
+     * @param directory the directory of the checkpoint and journal files, created if needed
+     * @throws IllegalStateException if the journal is already open
+     * @throws UncheckedIOException if the files cannot be read or written
+     */
+    public synchronized void open(Path directory) {
+        if (journal != null) throw new IllegalStateException("The journal is already open.");
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create the journal directory " + directory, e);
+        }
+        this.directory = directory;
+
+        Checkpoint checkpoint = courierLocks.withFleet(() -> {
+            recover();
+            // the modifications are marked from now on, the couriers being journaled as of this checkpoint
+            courierLocks.setReleaseListener(this);
+            return rotate();
+        });
+        writeCheckpoint(checkpoint);
+
+        checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(() -> {
+            if (nbRecordsSinceCheckpoint.get() > 0) checkpointQuietly();
+        }, checkpointMinutes, checkpointMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Writes the whole state to a new checkpoint and starts a new journal, the previous journals being deleted.
+     * The operations on the couriers wait while the state is copied, not while it is written.
+     *
+     * @throws IllegalStateException if the journal is not open
+     * @throws UncheckedIOException if the checkpoint cannot be written
+     */
+    public synchronized void checkpoint() {
+        if (journal == null) throw new IllegalStateException("The journal is not open.");
+        writeCheckpoint(courierLocks.withFleet(this::rotate));
+        checkpointRequested.set(false);
+    }
+
+    /**
+     * Takes a last checkpoint and closes the journal. The modifications are not journaled anymore.
+     */
+    @EventListener(ContextClosedEvent.class)
+    public synchronized void close() {
+        if (journal == null) return;
+        checkpointer.shutdownNow();
+        checkpoint();
+        courierLocks.setReleaseListener(null);
+        courierLocks.runWithFleet(() -> {
+            closeJournal(journal);
+            journal = null;
+        });
+        directory = null;
+    }
+
+    /**
+     * @return true if the modifications are journaled
+     */
+    public boolean isOpen() {
+        return journal != null;
+    }
+
+    @Override
+    public void courierReleased(long courierId) {
+        JournalFile file = journal;
+        if (file == null) return;
+        List<byte[]> records = new ArrayList<>();
+        diffCourier(courierId, records);
+        append(file, records, courierLocks.takeFleetModified());
+    }
+
+    @Override
+    public void fleetReleased() {
+        JournalFile file = journal;
+        if (file == null) return;
+        List<byte[]> records = new ArrayList<>();
+        for (long courierId : knownCouriers()) diffCourier(courierId, records);
+        append(file, records, true);
+    }
+
+    @Override
+    public void afterRelease() {
+        PendingRecords pending = pendingRecords.get();
+        if (pending == null) return;
+        pendingRecords.remove();
+        pending.file().awaitDurable(pending.sequence());
+    }
+
+    /**
+     * Queues the records of an operation, after the changes of the couriers if any, to be awaited once the locks
+     * of the operation are released (see {@link #afterRelease()}). A checkpoint is requested once the journal is
+     * long enough.
+     *
+     * @param fleetModified whether the couriers of the fleet may have changed since they were last journaled
+     */
+    private void append(JournalFile file, List<byte[]> records, boolean fleetModified) {
+        long sequence;
+        synchronized (fleetMonitor) {
+            List<CourierEntry> fleet = fleetModified ? captureFleet() : fleetImage;
+            if (!fleet.equals(fleetImage)) {
+                records.addFirst(couriersRecord(fleet));
+                fleetImage = fleet;
+            }
+            if (records.isEmpty()) return;
+            sequence = file.enqueue(records);
+        }
+        PendingRecords pending = pendingRecords.get();
+        if (pending == null || pending.file() != file || pending.sequence() < sequence) {
+            // a journal replaced meanwhile was closed, which forced its records to the disk
+            pendingRecords.set(new PendingRecords(file, sequence));
+        }
+
+        if (nbRecordsSinceCheckpoint.addAndGet(records.size()) >= MAX_RECORDS_BETWEEN_CHECKPOINTS
+                && checkpointRequested.compareAndSet(false, true)) {
+            try {
+                checkpointer.execute(this::checkpointQuietly);
+            } catch (RejectedExecutionException e) {
+                // closing: the last checkpoint is taken by close
+            }
+        }
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (RuntimeException e) {
+            // the journal keeps growing, the next checkpoint will try again
+            LOGGER.error("Cannot take a checkpoint of the planning journal.", e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------
+    // Checkpoints and recovery, holding the fleet lock
+    // ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * Takes the records of the whole state and starts the next journal, holding the fleet lock: the records
+     * journaled from now on apply to this state.
+     */
+    private Checkpoint rotate() {
+        List<byte[]> records = new ArrayList<>();
+        long next = generation + 1;
+        records.add(record(CHECKPOINT, -1, out -> out.writeLong(next)));
+
+        synchronized (fleetMonitor) {
+            fleetImage = captureFleet();
+            records.add(couriersRecord(fleetImage));
+        }
+        images.clear();
+        for (long courierId : knownCouriers()) diffCourier(courierId, records);
+
+        JournalFile previous = journal;
+        journal = new JournalFile(journalPath(next));
+        generation = next;
+        closeJournal(previous);
+        nbRecordsSinceCheckpoint.set(0);
+        return new Checkpoint(next, records);
+    }
+
+    /**
+     * Writes a checkpoint over the previous one, then deletes the journals it includes.
+     */
+    private void writeCheckpoint(Checkpoint checkpoint) {
+        try {
+            JournalFile.writeAll(directory.resolve(CHECKPOINT_FILE), checkpoint.records());
+            for (long journalGeneration : journalGenerations()) {
+                if (journalGeneration < checkpoint.generation()) Files.deleteIfExists(journalPath(journalGeneration));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write the checkpoint in " + directory, e);
+        }
+    }
+
+    /**
+     * Replaces the state of the services with the last checkpoint and the journals written after it.
+     */
+    private void recover() {
+        Replay replay = new Replay();
+        try {
+            List<byte[]> checkpoint = JournalFile.readAll(directory.resolve(CHECKPOINT_FILE));
+            if (checkpoint.isEmpty() && journalGenerations().isEmpty()) return; // nothing saved yet
+
+            requestService.getPickupDeliveryPerCourier().clear();
+            tourService.getPrecedencesByCourier().clear();
+            tourService.getTours().clear();
+            for (byte[] record : checkpoint) apply(record, replay);
+            generation = replay.firstGeneration - 1;
+            for (long journalGeneration : journalGenerations()) {
+                generation = Math.max(generation, journalGeneration);
+                if (journalGeneration < replay.firstGeneration) continue;
+                for (byte[] record : JournalFile.readAll(journalPath(journalGeneration))) apply(record, replay);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the journal in " + directory, e);
+        }
+
+        // Tours, rebuilt in their journaled order once every request is restored
+        replay.tours.forEach((courierId, order) -> {
+            Tour tour = null;
+            if (order != null) {
+                try {
+                    tour = planningService.rebuildTour(courierId, order);
+                } catch (RuntimeException e) {
+                    tour = null; // the courier is planned again on its next modification
+                }
+            }
+            if (tour != null) {
+                tour.setOptimalityGap(replay.gaps.get(courierId));
+                tourService.setTourForCourier(courierId, tour);
+            } else {
+                tourService.getTours().remove(courierId);
+            }
+        });
+        for (Courier courier : tourService.getCouriers()) {
+            AvailabilityStatus status = replay.statuses.get(courier.getId());
+            if (status != null) courier.setAvailabilityStatus(status);
+            tourService.getHistory(courier.getId()).clear();
+        }
+    }
+
+    /**
+     * Applies a record to the state of the services.
+     */
+    private void apply(byte[] record, Replay replay) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        long courierId = in.readLong();
+        switch (type) {
+            case CHECKPOINT -> replay.firstGeneration = in.readLong();
+            case COURIERS -> {
+                int nbCouriers = in.readInt();
+                List<Courier> couriers = new ArrayList<>(nbCouriers);
+                replay.statuses.clear();
+                for (int i = 0; i < nbCouriers; i++) {
+                    Courier courier = new Courier(in.readLong(), in.readUTF(), readDuration(in));
+                    String status = in.readUTF();
+                    if (!status.isEmpty()) replay.statuses.put(courier.getId(), AvailabilityStatus.valueOf(status));
+                    couriers.add(courier);
+                }
+                tourService.replaceCouriers(couriers);
+            }
+            case WAREHOUSE -> requestService.getPickupDeliveryForCourier(courierId).setWarehouseAddressId(in.readLong());
+            case DEPARTURE -> requestService.getPickupDeliveryForCourier(courierId)
+                    .setDepartureTime(LocalDateTime.parse(in.readUTF()));
+            case ADD_REQUEST -> {
+                Request request = new Request(in.readLong(), in.readLong(), readDuration(in), in.readLong(), readDuration(in));
+                PickupDelivery pickupDelivery = requestService.getPickupDeliveryForCourier(courierId);
+                if (pickupDelivery.findRequestById(request.getId()) == null) pickupDelivery.addRequest(request);
+            }
+            case DELETE_REQUEST -> {
+                long requestId = in.readLong();
+                PickupDelivery pickupDelivery = requestService.getPickupDeliveryPerCourier().get(courierId);
+                if (pickupDelivery != null && pickupDelivery.findRequestById(requestId) != null) {
+                    pickupDelivery.removeRequest(requestId);
+                }
+            }
+            case DROP_REQUESTS -> requestService.getPickupDeliveryPerCourier().remove(courierId);
+            case ADD_PRECEDENCE -> {
+                Stop before = readStop(in);
+                Stop after = readStop(in);
+                tourService.getPrecedencesByCourier().put(courierId, Precedences.with(
+                        tourService.getPrecedencesByCourier().getOrDefault(courierId, PersistentMap.empty()), before, after));
+            }
+            case REMOVE_PRECEDENCE -> {
+                Stop before = readStop(in);
+                Stop after = readStop(in);
+                PersistentMap<Stop, Set<Stop>> precs = tourService.getPrecedencesByCourier().get(courierId);
+                if (precs != null) {
+                    tourService.getPrecedencesByCourier().put(courierId, Precedences.without(precs, before, after));
+                }
+            }
+            case NO_PRECEDENCES -> tourService.getPrecedencesByCourier().remove(courierId);
+            case TOUR -> {
+                replay.gaps.put(courierId, in.readBoolean() ? in.readDouble() : null);
+                int nbStops = in.readInt();
+                List<Stop> order = new ArrayList<>(nbStops);
+                for (int i = 0; i < nbStops; i++) order.add(readStop(in));
+                replay.tours.put(courierId, order);
+            }
+            case NO_TOUR -> replay.tours.put(courierId, null);
+            default -> throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------
+    // Differences with the last journaled state
+    // ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * Appends the records turning the last journaled state of a courier into its current state, which becomes
+     * the journaled state. Called holding the lock of the courier.
+     */
+    private void diffCourier(long courierId, List<byte[]> records) {
+        CourierImage previous = images.getOrDefault(courierId, CourierImage.ABSENT);
+        CourierImage current = captureCourier(courierId, previous);
+
+        // Requests
+        if (current.requests == null) {
+            if (previous.requests != null) records.add(record(DROP_REQUESTS, courierId, out -> {}));
+        } else {
+            if (previous.requests == null || previous.warehouseId != current.warehouseId) {
+                records.add(record(WAREHOUSE, courierId, out -> out.writeLong(current.warehouseId)));
+            }
+            if (previous.requests == null || !Objects.equals(previous.departureTime, current.departureTime)) {
+                records.add(record(DEPARTURE, courierId, out -> out.writeUTF(current.departureTime.toString())));
+            }
+            if (previous.requests != null) {
+                for (long requestId : previous.requests.keySet()) {
+                    if (!current.requests.containsKey(requestId)) {
+                        records.add(record(DELETE_REQUEST, courierId, out -> out.writeLong(requestId)));
+                    }
+                }
+            }
+            for (Request request : current.requests.values()) {
+                if (previous.requests == null || !previous.requests.containsKey(request.getId())) {
+                    records.add(record(ADD_REQUEST, courierId, out -> {
+                        out.writeLong(request.getId());
+                        out.writeLong(request.getPickupIntersectionId());
+                        writeDuration(out, request.getPickupDuration());
+                        out.writeLong(request.getDeliveryIntersectionId());
+                        writeDuration(out, request.getDeliveryDuration());
+                    }));
+                }
+            }
+        }
+
+        // Precedences
+        if (current.precedences == null) {
+            if (previous.precedences != null) records.add(record(NO_PRECEDENCES, courierId, out -> {}));
+        } else {
+            Set<Precedence> before = (previous.precedences != null) ? previous.precedences : Set.of();
+            for (Precedence precedence : before) {
+                if (!current.precedences.contains(precedence)) records.add(precedenceRecord(REMOVE_PRECEDENCE, courierId, precedence));
+            }
+            for (Precedence precedence : current.precedences) {
+                if (!before.contains(precedence)) records.add(precedenceRecord(ADD_PRECEDENCE, courierId, precedence));
+            }
+        }
+
+        // Tour, replaced as a whole when modified
+        if (current.tour != previous.tour) {
+            if (current.tour == null) {
+                records.add(record(NO_TOUR, courierId, out -> {}));
+            } else {
+                Tour tour = current.tour;
+                records.add(record(TOUR, courierId, out -> {
+                    out.writeBoolean(tour.getOptimalityGap() != null);
+                    if (tour.getOptimalityGap() != null) out.writeDouble(tour.getOptimalityGap());
+                    out.writeInt(tour.getStops().size());
+                    for (TourStop stop : tour.getStops()) writeStop(out, Stop.of(stop));
+                }));
+            }
+        }
+
+        if (current.isEmpty()) {
+            images.remove(courierId);
+        } else {
+            images.put(courierId, current);
+        }
+    }
+
+    private CourierImage captureCourier(long courierId, CourierImage previous) {
+        CourierImage image = new CourierImage();
+        PickupDelivery pickupDelivery = requestService.getPickupDeliveryPerCourier().get(courierId);
+        if (pickupDelivery != null) {
+            image.warehouseId = pickupDelivery.getWarehouseAddressId();
+            image.departureTime = pickupDelivery.getDepartureTime();
+            image.requests = new LinkedHashMap<>();
+            for (Request request : pickupDelivery.getRequests()) image.requests.put(request.getId(), request);
+        }
+        PersistentMap<Stop, Set<Stop>> precs = tourService.getPrecedencesByCourier().get(courierId);
+        image.precedencesSource = precs;
+        if (precs != null && precs == previous.precedencesSource) {
+            image.precedences = previous.precedences; // persistent: not modified since journaled
+        } else if (precs != null) {
+            image.precedences = new HashSet<>();
+            precs.forEach((after, preds) -> preds.forEach(before -> image.precedences.add(new Precedence(before, after))));
+        }
+        image.tour = tourService.getTours().get(courierId);
+        return image;
+    }
+
+    private List<CourierEntry> captureFleet() {
+        List<CourierEntry> fleet = new ArrayList<>();
+        for (Courier courier : tourService.getCouriers()) {
+            fleet.add(new CourierEntry(courier.getId(), courier.getName(), courier.getShiftDuration(),
+                    courier.getAvailabilityStatus()));
+        }
+        return fleet;
+    }
+
+    /**
+     * @return the IDs of the couriers having a state, journaled or not
+     */
+    private TreeSet<Long> knownCouriers() {
+        TreeSet<Long> courierIds = new TreeSet<>(images.keySet());
+        courierIds.addAll(requestService.getPickupDeliveryPerCourier().keySet());
+        courierIds.addAll(tourService.getPrecedencesByCourier().keySet());
+        courierIds.addAll(tourService.getTours().keySet());
+        return courierIds;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------
+    // Files and records
+    // ---------------------------------------------------------------------------------------------------------
+
+    private Path journalPath(long journalGeneration) {
+        return directory.resolve(JOURNAL_PREFIX + journalGeneration + ".journal");
+    }
+
+    /**
+     * @return the generations of the journal files of the directory, in increasing order
+     */
+    private TreeSet<Long> journalGenerations() throws IOException {
+        TreeSet<Long> generations = new TreeSet<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(JOURNAL_PREFIX) && name.endsWith(".journal"))
+                    .forEach(name -> {
+                        try {
+                            generations.add(Long.parseLong(name.substring(JOURNAL_PREFIX.length(), name.length() - ".journal".length())));
+                        } catch (NumberFormatException e) {
+                            // not a journal
+                        }
+                    });
+        }
+        return generations;
+    }
+
+    private static void closeJournal(JournalFile file) {
+        if (file == null) return;
+        try {
+            file.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot close the journal.", e);
+        }
+    }
+
+    private static byte[] couriersRecord(List<CourierEntry> fleet) {
+        return record(COURIERS, -1, out -> {
+            out.writeInt(fleet.size());
+            for (CourierEntry courier : fleet) {
+                out.writeLong(courier.id());
+                out.writeUTF(courier.name() != null ? courier.name() : "");
+                writeDuration(out, courier.shiftDuration());
+                out.writeUTF(courier.status() != null ? courier.status().name() : "");
+            }
+        });
+    }
+
+    private static byte[] precedenceRecord(byte type, long courierId, Precedence precedence) {
+        return record(type, courierId, out -> {
+            writeStop(out, precedence.before());
+            writeStop(out, precedence.after());
+        });
+    }
+
+    private static byte[] record(byte type, long courierId, RecordBody body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(type);
+            out.writeLong(courierId);
+            body.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by an in-memory stream
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeStop(DataOutputStream out, Stop stop) throws IOException {
+        out.writeLong(stop.requestId());
+        out.writeLong(stop.intersectionId());
+        out.writeUTF(stop.type().name());
+    }
+
+    private static Stop readStop(DataInputStream in) throws IOException {
+        return new Stop(in.readLong(), in.readLong(), StopType.valueOf(in.readUTF()));
+    }
+
+    private static void writeDuration(DataOutputStream out, Duration duration) throws IOException {
+        out.writeLong(duration.getSeconds());
+        out.writeInt(duration.getNano());
+    }
+
+    private static Duration readDuration(DataInputStream in) throws IOException {
+        return Duration.ofSeconds(in.readLong(), in.readInt());
+    }
+
+    /**
+     * Writes the fields of a record.
+     */
+    private interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * A precedence of a courier: before must be visited before after.
+     */
+    private record Precedence(Stop before, Stop after) {
+    }
+
+    /**
+     * A courier as journaled.
+     */
+    private record CourierEntry(long id, String name, Duration shiftDuration, AvailabilityStatus status) {
+    }
+
+    /**
+     * The records of a checkpoint, and the generation of the journal started with it.
+     */
+    private record Checkpoint(long generation, List<byte[]> records) {
+    }
+
+    /**
+     * The last records queued by a thread: the journal they were queued in and their sequence number in it.
+     */
+    private record PendingRecords(JournalFile file, long sequence) {
+    }
+
+    /**
+     * The state of a courier as journaled: a null field is absent from the services.
+     */
+    private static class CourierImage {
+        static final CourierImage ABSENT = new CourierImage(); // A courier without any state.
+
+        long warehouseId; // The warehouse of the requests.
+        LocalDateTime departureTime; // The departure time of the requests.
+        LinkedHashMap<Long, Request> requests; // The requests by ID, or null.
+        HashSet<Precedence> precedences; // The precedences, or null.
+        PersistentMap<Stop, Set<Stop>> precedencesSource; // The precedences of the services they were taken from, or null.
+        Tour tour; // The tour, or null.
+
+        boolean isEmpty() {
+            return requests == null && precedences == null && tour == null;
+        }
+    }
+
+    /**
+     * State of a recovery: what is restored once every record is applied.
+     */
+    private static class Replay {
+        long firstGeneration = 0; // Generation of the first journal following the checkpoint.
+        TreeMap<Long, List<Stop>> tours = new TreeMap<>(); // The stop order of each tour, null if removed.
+        HashMap<Long, Double> gaps = new HashMap<>(); // The optimality gap of each tour.
+        HashMap<Long, AvailabilityStatus> statuses = new HashMap<>(); // The availability status of each courier.
+    }
+}
@@ -1,22 +1,50 @@
 package domain.service;
 
 import domain.model.*;
-import domain.model.dijkstra.DijkstraTable;
+import domain.utils.PersistentMap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Service class for planning and managing tours for couriers.
  * Provides functionality to recompute tours based on requests and map data.
+ *
+ * The public operations reading or modifying a courier hold its lock (see {@link CourierLocks}) for their whole
+ * duration, so that each one is atomic for the other threads while the couriers are planned in parallel.
+ * The background planning jobs only hold it to build their instance and to publish their tour.
+ *
+ * Modifications of the requests are planned in a {@link PlanningTransaction}: a fork of the state of the courier
+ * replacing it only once planned, so that the readers never see requests without their tour.
  */
 @Service
 public class PlanningService {
 
+    private static final int ALNS_TIME_LIMIT = 5000; // Time limit in milliseconds of the ALNS solver used for many stops.
+
+
+    private static final int ALNS_MAX_ITERATIONS = 3000; // Maximum number of iterations of the ALNS solver.
+
+
+    private static final int WARM_START_REGRET_K = 3; // Regret degree used to insert new requests into the previous tour.
+
+
+    private static final double DEFAULT_GAP_TOLERANCE = 1.0; // Optimality gap (percent) under which the solvers stop.
+
+
+    static final int MAX_CONCURRENT_PLANNINGS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2); // Tours solved at the same time by recomputeAllTours.
+
+
     private final RequestService requestService; // Services for handling requests and tours.
 
 
@@ -27,6 +55,12 @@ public class PlanningService {
 
     private DijkstraService dijkstraService; // Service for computing shortest paths using Dijkstra's algorithm.
 
+    private double gapTolerance = DEFAULT_GAP_TOLERANCE; // Optimality gap (percent) under which the solvers stop.
+
+    private final Semaphore solverSlots = new Semaphore(MAX_CONCURRENT_PLANNINGS); // Bounds the tours solved concurrently by recomputeAllTours.
+
+    private final CourierLocks courierLocks; // The locks serializing the modifications of each courier.
+
     /** Constructs a new PlanningService with the specified services.
      *
      * @param requestService the service for handling requests
@@ -39,6 +73,17 @@ public class PlanningService {
         this.tourService = tourService;
         this.mapService = mapService;
         this.dijkstraService = new DijkstraService(mapService.getMap());;
+        this.courierLocks = tourService.getCourierLocks();
+    }
+
+    /**
+     * Sets the optimality gap under which the solvers stop: a tour proven to be within this percentage
+     * of the optimal tour is returned without waiting for the time limits.
+     *
+     * @param gapTolerance the gap in percent, 0 to only stop on the time limits
+     */
+    public void setGapTolerance(double gapTolerance) {
+        this.gapTolerance = gapTolerance;
     }
 
     /**
@@ -49,134 +94,882 @@ public class PlanningService {
      * @throws RuntimeException if the TSP algorithm does not find a solution
      */
     public void recomputeTourForCourier(long courierId) {
-        if (!requestService.getPickupDeliveryPerCourier().containsKey(courierId)) {
-            throw new IllegalArgumentException("Courier ID " + courierId + " not found in requests.");
-        }
+        courierLocks.runWithCourier(courierId, () -> {
+            Tour tour = computeTourForCourier(courierId);
+            publishTour(courierId, tour);
+        });
+    }
 
-        // Create a local copy to avoid concurrency issues
-        PickupDelivery pickupDelivery = new PickupDelivery(requestService.getPickupDeliveryForCourier(courierId));
-        ArrayList<Request> requests = pickupDelivery.getRequests();
-        ArrayList<Long> requestIdsForCourier = pickupDelivery.getRequests().stream().map(Request::getId).collect(Collectors.toCollection(ArrayList::new));
-        Courier courier = courierInCharge(courierId);
-        Duration shiftDuration = courier.getShiftDuration();
+    /**
+     * Recomputes the tours of all the couriers having requests, concurrently: each courier is planned on its own
+     * virtual thread, and at most {@link #MAX_CONCURRENT_PLANNINGS} solvers run at the same time, so that the
+     * planning of a fleet takes about the time of its slowest courier. The tours are published once all of them
+     * are computed; a courier whose tour cannot be computed keeps its previous tour.
+     *
+     * @return the outcome of the planning of each courier, by increasing courier ID
+     */
+    public List<PlanningOutcome> recomputeAllTours() {
+        return recomputeTours(new ArrayList<>(requestService.getPickupDeliveryPerCourier().keySet()));
+    }
 
-        if (!tourService.getPrecedencesByCourier().containsKey(courierId)) {
-            tourService.initPrecedences(courierId, requests);
-        }
-        // 1. Generate TSP precedences and stops
+    /**
+     * Recomputes the tours of some couriers concurrently, as {@link #recomputeAllTours()} does for all of them.
+     *
+     * @param courierIds the IDs of the couriers, having requests
+     * @return the outcome of the planning of each courier, in the order of the given IDs
+     */
+    public List<PlanningOutcome> recomputeTours(List<Long> courierIds) {
+        return courierLocks.withCouriers(courierIds, () -> recomputeToursLocked(courierIds));
+    }
 
-        java.util.Map.Entry<List<String>, HashMap<Integer, Set<Integer>>> result = tourService.generateTspPrecedences(requests, pickupDelivery.getWarehouseAddressId(), courierId);
-        List<String> vertices = result.getKey();
-        long[] stops = tourService.extractIntersectionIds(vertices);
-        HashMap<Integer, Set<Integer>> tspPrecedences = result.getValue();
+    private List<PlanningOutcome> recomputeToursLocked(List<Long> courierIds) {
 
+        // The precedences are initialized beforehand: the services are only read while planning concurrently
+        for (long courierId : courierIds) {
+            if (!tourService.getPrecedencesByCourier().containsKey(courierId)) {
+                tourService.initPrecedences(courierId, requestService.getPickupDeliveryForCourier(courierId).getRequests());
+            }
+        }
 
-        // 2. Distances with Dijkstra
-        GrapheComplet graph = dijkstraService.computeShortestPath(stops);
+        List<Callable<Tour>> computations = new ArrayList<>();
+        for (long courierId : courierIds) {
+            computations.add(() -> solve(buildProblem(courierId), null));
+        }
+        List<Future<Tour>> futures = solveConcurrently(computations);
 
-        // 3.Precedences
-        TSP1 tsp = new TSP1();
-        tsp.setPrecedences(tspPrecedences);
+        List<PlanningOutcome> outcomes = new ArrayList<>();
+        for (int i = 0; i < courierIds.size(); i++) {
+            long courierId = courierIds.get(i);
+            try {
+                publishTour(courierId, futures.get(i).get());
+                outcomes.add(PlanningOutcome.success(courierId));
+            } catch (ExecutionException e) {
+                outcomes.add(PlanningOutcome.failure(courierId, e.getCause().getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                outcomes.add(PlanningOutcome.failure(courierId, "Planning interrupted."));
+            }
+        }
+        return outcomes;
+    }
 
+    /**
+     * Computes the shortest paths from and between intersections ahead of the planning, so that the tours using
+     * them only read the cached Dijkstra table.
+     *
+     * @param intersectionIds the IDs of the intersections (warehouses and stops)
+     */
+    public void prewarmRouting(long[] intersectionIds) {
+        dijkstraService.computeShortestPath(intersectionIds);
+    }
 
-        // 4. Service times
-        double[] serviceTimes = new double[graph.getNbSommets()];
-        Arrays.fill(serviceTimes, 0); // warehouse = 0
+    /**
+     * Adds a batch of requests to one or more couriers, and re-plans each affected courier once, concurrently.
+     * The batch is all-or-nothing: every request is validated, then the requests are added to a fork of each
+     * courier (see {@link PlanningTransaction}), and the forks replace the couriers only if every one of them
+     * gets a tour.
+     *
+     * @param requestsByCourier the new requests of each courier
+     * @param warehouseByCourier the warehouse to set for some couriers (e.g. a courier without warehouse yet)
+     * @throws IllegalArgumentException if a courier does not exist, has no warehouse, or if a request refers to
+     *                                  an intersection which is not on the map or has a negative duration
+     * @throws RuntimeException if the tour of a courier cannot be computed with the new requests
+     */
+    public void addRequests(TreeMap<Long, List<Request>> requestsByCourier, TreeMap<Long, Long> warehouseByCourier) {
+        // 1. Validate the whole batch before forking anything
+        java.util.Map<Long, Intersection> intersections = mapService.getMap().getIntersections();
+        for (var entry : requestsByCourier.entrySet()) {
+            long courierId = entry.getKey();
+            if (!courierExists(courierId)) {
+                throw new IllegalArgumentException("Courier ID " + courierId + " does not exist.");
+            }
+            PickupDelivery current = requestService.getPickupDeliveryPerCourier().get(courierId);
+            long warehouseId = warehouseByCourier.getOrDefault(courierId, -1L);
+            if (warehouseId <= 0 && current != null) warehouseId = current.getWarehouseAddressId();
+            if (warehouseId <= 0 || !intersections.containsKey(warehouseId)) {
+                throw new IllegalArgumentException("Courier ID " + courierId + " has no valid warehouse.");
+            }
+            for (Request request : entry.getValue()) {
+                if (!intersections.containsKey(request.getPickupIntersectionId())
+                        || !intersections.containsKey(request.getDeliveryIntersectionId())) {
+                    throw new IllegalArgumentException("Request " + request.getId() + " of courier " + courierId
+                            + " refers to an intersection which is not on the map.");
+                }
+                if (request.getPickupDuration().isNegative() || request.getDeliveryDuration().isNegative()) {
+                    throw new IllegalArgumentException("Request " + request.getId() + " of courier " + courierId
+                            + " has a negative duration.");
+                }
+            }
+        }
 
-        int requestIndex = 0;
-        for (Request req : requests) {
-            int pickupIndex = 1 + requestIndex * 2;
-            int deliveryIndex = pickupIndex + 1;
+        inTransaction(requestsByCourier.keySet(), transactions -> {
+            // 2. Add the requests to the forks
+            for (PlanningTransaction transaction : transactions.values()) {
+                long courierId = transaction.getCourierId();
+                if (warehouseByCourier.getOrDefault(courierId, -1L) > 0) {
+                    transaction.setWarehouseAddressId(warehouseByCourier.get(courierId));
+                }
+                requestsByCourier.get(courierId).forEach(transaction::addRequest);
+            }
 
-            serviceTimes[pickupIndex]   = req.getPickupDuration().toSeconds();   // Pickup duration
-            serviceTimes[deliveryIndex] = req.getDeliveryDuration().toSeconds(); // Delivery duration
+            // 3. One re-plan per courier; a single failure discards every fork
+            List<Callable<Tour>> computations = new ArrayList<>();
+            for (PlanningTransaction transaction : transactions.values()) {
+                computations.add(() -> {
+                    plan(transaction, false);
+                    return transaction.getTour();
+                });
+            }
+            List<Future<Tour>> futures = solveConcurrently(computations);
+            StringBuilder errors = new StringBuilder();
+            int i = 0;
+            for (long courierId : transactions.keySet()) {
+                try {
+                    futures.get(i++).get();
+                } catch (ExecutionException e) {
+                    errors.append(" Courier ").append(courierId).append(": ").append(e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    errors.append(" Courier ").append(courierId).append(": planning interrupted.");
+                }
+            }
+            if (errors.length() > 0) {
+                throw new RuntimeException("The batch of requests cannot be planned, no request was added." + errors);
+            }
+            return null;
+        });
+    }
 
-            requestIndex++;
-        }
+    /**
+     * Computes tours concurrently, each one on its own virtual thread once a solver slot is free, and waits for
+     * all of them. The precedences of the couriers must already be initialized, and the caller must hold their
+     * locks, unless the computations only read detached forks: the virtual threads work on its behalf and do not
+     * take them.
+     *
+     * @param computations the computation of the tour of each courier
+     * @return the computation of the tour of each courier, all of them done
+     */
+    private List<Future<Tour>> solveConcurrently(List<Callable<Tour>> computations) {
+        List<Future<Tour>> futures = new ArrayList<>();
+        try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Callable<Tour> computation : computations) {
+                futures.add(threads.submit(() -> {
+                    solverSlots.acquire();
+                    try {
+                        return computation.call();
+                    } finally {
+                        solverSlots.release();
+                    }
+                }));
+            }
+        } // waits for every courier
+        return futures;
+    }
 
-        tsp.setServiceTimes(serviceTimes);
+    /**
+     * Computes the tour of a specific courier based on their requests, without publishing it.
+     *
+     * @param courierId the ID of the courier whose tour is to be computed
+     * @return the computed tour
+     * @throws IllegalArgumentException if the courier ID is not found in requests
+     * @throws RuntimeException if the TSP algorithm does not find a solution
+     */
+    public Tour computeTourForCourier(long courierId) {
+        return computeTourForCourier(courierId, null);
+    }
 
-        // Set shift duration constraint
-        tsp.setMaxDuration(shiftDuration.toSeconds());
+    /**
+     * Computes the tour of a specific courier based on their requests, without publishing it.
+     * The solver is attached to the given job, which follows its progress and can stop it.
+     *
+     * @param courierId the ID of the courier whose tour is to be computed
+     * @param job the job following the computation, or null
+     * @return the computed tour (the best one found before the cancellation if the job was cancelled)
+     * @throws IllegalArgumentException if the courier ID is not found in requests
+     * @throws RuntimeException if the requests cannot fit in the shift or the TSP algorithm does not find a solution
+     */
+    public Tour computeTourForCourier(long courierId, PlanningJob job) {
+        // The instance is a snapshot: the lock is not held while solving it
+        PlanningProblem problem = courierLocks.withCourier(courierId, () -> buildProblem(courierId));
+        return solve(problem, job);
+    }
 
-        // 5. execute TSP (SOP)
-        long tspStartTime = System.currentTimeMillis();
+    /**
+     * Solves the TSP instance of a courier.
+     *
+     * @param problem the TSP instance
+     * @param job the job following the computation, or null
+     * @return the computed tour
+     * @throws ShiftInfeasibleException if the requests cannot fit in the shift
+     * @throws RuntimeException if the TSP algorithm does not find a solution
+     */
+    private Tour solve(PlanningProblem problem, PlanningJob job) {
+        long courierId = problem.courierId;
+        GrapheComplet graph = problem.graph;
+        int nbStops = problem.stops.size();
 
+        // Fail fast when even a lower bound of the tour duration does not fit in the shift
+        double lowerBound = new RegretInsertion(graph, problem.precedences, problem.serviceTimes, problem.maxDuration).lowerBound();
+        if (lowerBound > problem.maxDuration) {
+            throw new ShiftInfeasibleException(courierId, Math.round(Math.ceil(lowerBound)), Math.round(problem.maxDuration));
+        }
+
+        // A previous tour is a good solution of almost the same instance: reuse its order
+        Tour previousTour = problem.previousTour;
+        boolean warmStart = previousTour != null;
 
+        // 3. Solver and precedences: dynamic programming, branch and bound and ALNS race on the instance
+        TSPPortfolio tsp = new TSPPortfolio();
         int timeLimit;
-        long NO_IMPROVEMENT_TIMEOUT;
-        if (stops.length <= 10) {
+        if (nbStops <= 10) {
             timeLimit = 7500; // 10s not many stops
-            NO_IMPROVEMENT_TIMEOUT = 2000;
-        } else if (stops.length <= 15) {
+            tsp.setNO_IMPROVEMENT_TIMEOUT(warmStart ? 1000 : 2000);
+        } else if (nbStops <= 15) {
             timeLimit = 20000; // 30s
-            NO_IMPROVEMENT_TIMEOUT = 3000;
+            tsp.setNO_IMPROVEMENT_TIMEOUT(warmStart ? 1500 : 3000);
         } else {
-            timeLimit = 45000; // 45s many stops
-            NO_IMPROVEMENT_TIMEOUT = 7000;
+            // Branch and bound scales exponentially: the ALNS gives the answer for many stops
+            timeLimit = ALNS_TIME_LIMIT;
+            tsp.setNO_IMPROVEMENT_TIMEOUT(warmStart ? 1000 : 2000);
         }
-        tsp.setNO_IMPROVEMENT_TIMEOUT(NO_IMPROVEMENT_TIMEOUT);
+        tsp.setSeed(courierId);
+        tsp.setMaxIterations(warmStart ? ALNS_MAX_ITERATIONS / 3 : ALNS_MAX_ITERATIONS);
+        tsp.setPrecedences(problem.precedences);
+        tsp.setRequestPairs(problem.requestPairs);
+        tsp.setServiceTimes(problem.serviceTimes);
+        tsp.setGapTolerance(gapTolerance);
 
-        tsp.chercheSolution(timeLimit, graph);
+        // Set shift duration constraint
+        tsp.setMaxDuration(problem.maxDuration);
+
+        if (warmStart) {
+            List<Integer> route = warmStartRoute(problem, previousTour, WARM_START_REGRET_K);
+            tsp.setInitialSolution((route == null) ? null : route.toArray(new Integer[0]));
+        }
 
-        long tspEndTime = System.currentTimeMillis();
-        long tspExecutionTime = tspEndTime - tspStartTime;
+        if (job != null) {
+            job.attach(tsp, solution -> buildTour(problem, solution));
+        }
 
+        // 5. execute TSP (SOP)
+        tsp.chercheSolution(timeLimit, graph);
 
-        if (tsp.getCoutMeilleureSolution() == Integer.MAX_VALUE) {
+        if (tsp.getCoutSolution() == Integer.MAX_VALUE) {
             throw new RuntimeException("TSP algorithm did not find a solution for courier " + courierId);}
 
-        double tourDuration = tsp.getCoutMeilleureSolution();
+        // 6. Convert graph to tour
+        Integer[] sol = new Integer[graph.getNbSommets()];
+        for (int i = 0; i < sol.length; i++)
+            sol[i] = tsp.getSolution(i);
+
+        Tour tour = buildTour(problem, sol);
+        tour.setOptimalityGap(tsp.getGap());
+        return tour;
+    }
 
-        // Check if solution exceeds shift duration
-        if (tourDuration > shiftDuration.toSeconds()) {
-            double exceedSeconds = tourDuration - shiftDuration.toSeconds();
-        } else {
-            double remainingSeconds = shiftDuration.toSeconds() - tourDuration;
+    /**
+     * Builds a tour keeping the order of the previous tour of an instance, the missing stops being inserted at
+     * their cheapest positions.
+     *
+     * @param problem the TSP instance, with a previous tour
+     * @return the tour, or null if the stops cannot be inserted within the precedences and the shift
+     */
+    private Tour insertIntoPreviousTour(PlanningProblem problem) {
+        List<Integer> route = warmStartRoute(problem, problem.previousTour, 1);
+        if (route == null) return null;
+        RegretInsertion insertion = new RegretInsertion(problem.graph, problem.precedences, problem.serviceTimes, problem.maxDuration);
+        if (!insertion.isValidTour(route) || !insertion.isWithinMaxDuration(route)) return null;
+        return buildTour(problem, route.toArray(new Integer[0]));
+    }
+
+    /**
+     * Runs an operation on a fork of the state of a courier, and replaces the state of the courier with the fork
+     * if the operation succeeds. The lock of the courier is held meanwhile: the other writers wait, while the
+     * readers see the last committed state. If the operation throws, the fork is discarded.
+     *
+     * @param courierId the ID of the courier
+     * @param operation modifies and plans the fork (see {@link #plan})
+     * @return the result of the operation
+     * @throws IllegalStateException if the operation modified the fork without planning it
+     */
+    public <T> T inTransaction(long courierId, Function<PlanningTransaction, T> operation) {
+        return inTransaction(List.of(courierId), transactions -> operation.apply(transactions.get(courierId)));
+    }
+
+    /**
+     * Runs an operation on forks of the states of several couriers, and replaces the states of all of them
+     * with their forks if the operation succeeds, as {@link #inTransaction(long, Function)} does for one courier.
+     *
+     * @param courierIds the IDs of the couriers
+     * @param operation modifies and plans the forks, given by courier ID
+     * @return the result of the operation
+     * @throws IllegalStateException if the operation modified a fork without planning it
+     */
+    public <T> T inTransaction(Collection<Long> courierIds, Function<TreeMap<Long, PlanningTransaction>, T> operation) {
+        return courierLocks.withCouriers(courierIds, () -> {
+            TreeMap<Long, PlanningTransaction> transactions = new TreeMap<>();
+            for (long courierId : courierIds) transactions.put(courierId, fork(courierId));
+
+            T result = operation.apply(transactions);
+
+            for (PlanningTransaction transaction : transactions.values()) {
+                if (transaction.isModified() && !transaction.isPlanned()) {
+                    throw new IllegalStateException("The requests of courier " + transaction.getCourierId()
+                            + " were modified without being planned.");
+                }
+            }
+            transactions.values().forEach(this::commit);
+            return result;
+        });
+    }
+
+    /**
+     * Plans the requests of a fork, by cheapest insertion into the tour of the fork (fast) or as
+     * {@link #recomputeTourForCourier} would plan the courier, without modifying the courier.
+     *
+     * @param transaction the fork
+     * @param fast whether to keep the order of the tour of the fork and insert the new stops at their cheapest
+     *             positions, the tour being fully recomputed if they do not fit
+     * @return true if the stops were inserted into the tour of the fork, false if the tour was fully recomputed
+     * @throws IllegalArgumentException if the courier does not exist
+     * @throws RuntimeException if the TSP algorithm does not find a solution
+     */
+    public boolean plan(PlanningTransaction transaction, boolean fast) {
+        PlanningProblem problem = buildProblem(transaction);
+        if (fast && problem.previousTour != null) {
+            Tour tour = insertIntoPreviousTour(problem);
+            if (tour != null) {
+                transaction.setTour(tour);
+                return true;
+            }
         }
+        transaction.setTour(solve(problem, null));
+        return false;
+    }
 
-        // 6. result
-        double[] serviceTimesUsed = tsp.getServiceTimes();
+    /**
+     * Forks the state of a courier which is not registered yet, or whose current state is to be replaced: the
+     * fork holds the given requests, with the precedence of each pickup over its delivery, and no tour. The fork
+     * is not bound to any lock; it is planned with {@link #planDetached} and installed with
+     * {@link #replaceDetached}.
+     *
+     * @param courier the courier, planned with its own shift
+     * @param requests the requests of the courier, handed over to the fork
+     * @return the fork
+     */
+    public PlanningTransaction forkDetached(Courier courier, PickupDelivery requests) {
+        return new PlanningTransaction(courier, requests, Precedences.of(requests.getRequests()));
+    }
 
-        double currentTime = 0.0;  // time
+    /**
+     * Plans detached forks concurrently, as {@link #recomputeTours} plans registered couriers, without taking
+     * any lock nor modifying the services: the fork of a courier whose tour cannot be computed keeps no tour.
+     *
+     * @param transactions the forks (see {@link #forkDetached})
+     * @return the outcome of the planning of each fork, in the given order
+     */
+    public List<PlanningOutcome> planDetached(List<PlanningTransaction> transactions) {
+        List<Callable<Tour>> computations = new ArrayList<>();
+        for (PlanningTransaction transaction : transactions) {
+            computations.add(() -> solve(buildProblem(transaction), null));
+        }
+        List<Future<Tour>> futures = solveConcurrently(computations);
 
-        int numVertices = graph.getNbSommets();
-        for (int i = 0; i < numVertices; i++) {
-            int node = tsp.getSolution(i);
+        List<PlanningOutcome> outcomes = new ArrayList<>();
+        for (int i = 0; i < transactions.size(); i++) {
+            PlanningTransaction transaction = transactions.get(i);
+            try {
+                transaction.setTour(futures.get(i).get());
+                outcomes.add(PlanningOutcome.success(transaction.getCourierId()));
+            } catch (ExecutionException e) {
+                outcomes.add(PlanningOutcome.failure(transaction.getCourierId(), e.getCause().getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                outcomes.add(PlanningOutcome.failure(transaction.getCourierId(), "Planning interrupted."));
+            }
+        }
+        return outcomes;
+    }
 
-            if (i > 0) {
-                int prev = tsp.getSolution(i - 1);
-                currentTime += graph.getCout(prev, node);
+    /**
+     * Replaces the couriers, then the state of the courier of each detached fork with the fork, once no other
+     * thread works on a courier. A fork without a tour removes the tour of its courier, so that no courier keeps
+     * a tour of requests it no longer has. The histories of the couriers of the forks are cleared.
+     *
+     * @param couriers the new couriers, or null to keep the current ones
+     * @param transactions the forks (see {@link #planDetached})
+     * @param beforeReplace run under the fleet lock before anything is replaced, or null
+     */
+    public void replaceDetached(List<Courier> couriers, List<PlanningTransaction> transactions, Runnable beforeReplace) {
+        courierLocks.runWithFleet(() -> {
+            if (beforeReplace != null) beforeReplace.run();
+            if (couriers != null) {
+                tourService.replaceCouriers(couriers);
             }
+            for (PlanningTransaction transaction : transactions) {
+                long courierId = transaction.getCourierId();
+                restore(courierId, new CourierHistory.Version(transaction.getRequests(), transaction.getPrecedences(),
+                        transaction.getTour()));
+                tourService.getHistory(courierId).clear(); // the previous plan cannot be undone
+            }
+        });
+    }
+
+    /**
+     * Forks the state of a courier: a snapshot of its requests, its persistent precedences and its tour, shared
+     * with the courier until the fork modifies them.
+     */
+    private PlanningTransaction fork(long courierId) {
+        PickupDelivery current = requestService.getPickupDeliveryPerCourier().get(courierId);
+        PickupDelivery requests = (current != null) ? current.snapshot() : new PickupDelivery();
+
+        PersistentMap<Stop, Set<Stop>> currentPrecs = tourService.getPrecedencesByCourier().get(courierId);
+        PersistentMap<Stop, Set<Stop>> precedences = (currentPrecs != null)
+                ? currentPrecs : Precedences.of(requests.getRequests());
+        PlanningTransaction transaction = new PlanningTransaction(courierId, requests, precedences,
+                tourService.getTours().get(courierId));
+        transaction.setBase(current, currentPrecs);
+        return transaction;
+    }
+
+    /**
+     * Forks the state of a courier under its lock and modifies the fork, for a planning running outside of the
+     * lock (see {@link PlanningJobService#submit(PlanningTransaction)}). The courier itself is not modified.
+     *
+     * @param courierId the ID of the courier
+     * @param modification modifies the fork, and throws to reject the modification
+     * @return the modified fork, not planned yet
+     */
+    public PlanningTransaction fork(long courierId, Consumer<PlanningTransaction> modification) {
+        return courierLocks.withCourier(courierId, () -> {
+            PlanningTransaction transaction = fork(courierId);
+            modification.accept(transaction);
+            return transaction;
+        });
+    }
+
+    /**
+     * Plans a fork taken by {@link #fork(long, Consumer)} from scratch, without holding the lock of the courier.
+     * The solver is attached to the given job, which follows its progress and can stop it.
+     *
+     * @param transaction the fork
+     * @param job the job following the computation, or null
+     * @throws IllegalArgumentException if the courier does not exist
+     * @throws RuntimeException if the requests cannot fit in the shift or the TSP algorithm does not find a solution
+     */
+    void plan(PlanningTransaction transaction, PlanningJob job) {
+        transaction.setTour(solve(buildProblem(transaction), job));
+    }
+
+    /**
+     * Plans a fork taken by {@link #fork(long, Consumer)} from scratch without holding the lock of the courier,
+     * then replaces the state of the courier with it under the lock, as {@link #inTransaction} would.
+     *
+     * @param transaction the modified fork
+     * @throws IllegalArgumentException if the courier does not exist
+     * @throws IllegalStateException if the courier was modified since the fork was taken; it keeps its state
+     * @throws RuntimeException if the requests cannot fit in the shift or the TSP algorithm does not find a solution
+     */
+    public void planAndCommit(PlanningTransaction transaction) {
+        plan(transaction, (PlanningJob) null);
+        courierLocks.runWithCourier(transaction.getCourierId(), () -> commitFork(transaction));
+    }
+
+    /**
+     * Replaces the state of a courier with a fork planned outside of its lock, as {@link #inTransaction} would.
+     * The caller holds the lock of the courier.
+     *
+     * @param transaction the planned fork
+     * @throws IllegalStateException if the courier was modified since the fork was taken
+     */
+    void commitFork(PlanningTransaction transaction) {
+        long courierId = transaction.getCourierId();
+        if (!transaction.isBasedOn(requestService.getPickupDeliveryPerCourier().get(courierId),
+                tourService.getPrecedencesByCourier().get(courierId), tourService.getTours().get(courierId))) {
+            throw new IllegalStateException("Courier " + courierId + " was modified while its tour was planned.");
+        }
+        commit(transaction);
+    }
+
+    /**
+     * Replaces the state of a courier with a planned fork: each of the requests, the precedences and the tour is
+     * replaced at once, so that the readers see either the previous state or the new one.
+     * The replaced state is recorded in the history of the courier, to be undone.
+     */
+    private void commit(PlanningTransaction transaction) {
+        if (!transaction.isModified() && !transaction.isPlanned()) return;
+        long courierId = transaction.getCourierId();
+        tourService.getHistory(courierId).record(currentVersion(courierId));
+        restore(courierId, new CourierHistory.Version(transaction.getRequests(), transaction.getPrecedences(),
+                transaction.getTour()));
+    }
+
+    /**
+     * Restores the state of a courier before its last committed transaction, with the tour it had, without
+     * running the solvers.
+     *
+     * @param courierId the ID of the courier
+     * @return true if a state was restored, false if there is nothing to undo
+     */
+    public boolean undo(long courierId) {
+        return courierLocks.withCourier(courierId, () -> {
+            CourierHistory.Version version = tourService.getHistory(courierId).undo(currentVersion(courierId));
+            if (version == null) return false;
+            restore(courierId, version);
+            return true;
+        });
+    }
+
+    /**
+     * Restores the state of a courier undone by {@link #undo(long)}, with its tour, without running the solvers.
+     * A new transaction on the courier discards the states that can be redone.
+     *
+     * @param courierId the ID of the courier
+     * @return true if a state was restored, false if there is nothing to redo
+     */
+    public boolean redo(long courierId) {
+        return courierLocks.withCourier(courierId, () -> {
+            CourierHistory.Version version = tourService.getHistory(courierId).redo(currentVersion(courierId));
+            if (version == null) return false;
+            restore(courierId, version);
+            return true;
+        });
+    }
 
-            // Arrival
-            double arrival = currentTime;
+    /**
+     * Takes the current state of a courier to put it in its history. The precedences are persistent and the
+     * requests a snapshot: the version shares them with the next state of the courier.
+     */
+    private CourierHistory.Version currentVersion(long courierId) {
+        PickupDelivery requests = requestService.getPickupDeliveryPerCourier().get(courierId);
+        return new CourierHistory.Version((requests != null) ? requests.snapshot() : new PickupDelivery(),
+                tourService.getPrecedencesByCourier().getOrDefault(courierId, PersistentMap.empty()),
+                tourService.getTours().get(courierId));
+    }
 
-            // Service time
-            double service = serviceTimesUsed[node];
-            double departure = arrival + service;
+    /**
+     * Makes a state the current state of a courier.
+     */
+    private void restore(long courierId, CourierHistory.Version version) {
+        requestService.getPickupDeliveryPerCourier().put(courierId, version.requests());
+        tourService.getPrecedencesByCourier().put(courierId, version.precedences());
+        if (version.tour() != null) {
+            publishTour(courierId, version.tour());
+        } else {
+            tourService.getTours().remove(courierId);
+        }
+        courierLocks.markModified(courierId);
+    }
 
-            currentTime = departure;
+    /**
+     * Builds the TSP instance of a courier: vertices, precedences, distances, service times and request pairs.
+     *
+     * @param courierId the ID of the courier
+     * @return the TSP instance
+     * @throws IllegalArgumentException if the courier ID is not found in requests
+     */
+    private PlanningProblem buildProblem(long courierId) {
+        if (!requestService.getPickupDeliveryPerCourier().containsKey(courierId)) {
+            throw new IllegalArgumentException("Courier ID " + courierId + " not found in requests.");
         }
 
-        // 7. Convert graph to tour
-        Integer[] sol = new Integer[graph.getNbSommets()];
-        for (int i = 0; i < sol.length; i++)
-            sol[i] = tsp.getSolution(i);
+        // Copy-on-write snapshot: later edits of the requests do not affect this planning
+        PickupDelivery pickupDelivery = requestService.getPickupDeliveryForCourier(courierId).snapshot();
+        if (!tourService.getPrecedencesByCourier().containsKey(courierId)) {
+            tourService.initPrecedences(courierId, pickupDelivery.getRequests());
+        }
+        return buildProblem(courierId, pickupDelivery);
+    }
+
+    /**
+     * Builds the TSP instance of a courier for the given requests, without modifying the state of the services.
+     *
+     * @param courierId the ID of the courier
+     * @param pickupDelivery the requests of the courier, not modified by other threads
+     * @return the TSP instance
+     * @throws IllegalArgumentException if the courier does not exist
+     */
+    private PlanningProblem buildProblem(long courierId, PickupDelivery pickupDelivery) {
+        return buildProblem(courierId, pickupDelivery,
+                tourService.getPrecedencesByCourier().getOrDefault(courierId, PersistentMap.empty()),
+                tourService.getTours().get(courierId));
+    }
+
+    /**
+     * Builds the TSP instance of a fork, without modifying the state of the services.
+     *
+     * @param transaction the fork
+     * @return the TSP instance
+     * @throws IllegalArgumentException if the courier does not exist
+     */
+    private PlanningProblem buildProblem(PlanningTransaction transaction) {
+        Courier courier = (transaction.getCourier() != null)
+                ? transaction.getCourier() : courierInCharge(transaction.getCourierId());
+        return buildProblem(transaction.getCourierId(), courier, transaction.getRequests(),
+                transaction.getPrecedences(), transaction.getTour());
+    }
+
+    /**
+     * Builds the TSP instance of a courier for the given requests, precedences and previous tour, without
+     * modifying the state of the services.
+     *
+     * @param courierId the ID of the courier
+     * @param pickupDelivery the requests of the courier, not modified by other threads
+     * @param precs the precedences of the courier (stop -> stops that must be visited before it)
+     * @param previousTour the previous tour of the courier, or null
+     * @return the TSP instance
+     * @throws IllegalArgumentException if the courier does not exist
+     */
+    private PlanningProblem buildProblem(long courierId, PickupDelivery pickupDelivery,
+                                         PersistentMap<Stop, Set<Stop>> precs, Tour previousTour) {
+        return buildProblem(courierId, courierInCharge(courierId), pickupDelivery, precs, previousTour);
+    }
+
+    private PlanningProblem buildProblem(long courierId, Courier courier, PickupDelivery pickupDelivery,
+                                         PersistentMap<Stop, Set<Stop>> precs, Tour previousTour) {
+        if (courier == null) {
+            throw new IllegalArgumentException("Courier ID " + courierId + " does not exist.");
+        }
+
+        PlanningProblem problem = new PlanningProblem();
+        problem.pickupDelivery = pickupDelivery;
+        problem.courierId = courierId;
+        problem.previousTour = previousTour;
+        ArrayList<Request> requests = problem.pickupDelivery.getRequests();
+        problem.maxDuration = courier.getShiftDuration().toSeconds() / 60.0; // in minutes, as the graph costs
+
+        // 1. Generate TSP precedences and stops
+
+        problem.stops = tourService.generateTspPrecedences(requests, problem.pickupDelivery.getWarehouseAddressId(), courierId, precs);
+        problem.precedences = problem.stops.toPrecedenceMap();
+
+
+        // 2. Distances with Dijkstra
+        problem.graph = dijkstraService.computeShortestPath(problem.stops.getIntersectionIds());
+
+        problem.requestPairs = problem.stops.getRequestPairs();
+
+        // 4. Service times, in minutes as the graph costs
+        double[] serviceTimes = new double[problem.graph.getNbSommets()];
+        Arrays.fill(serviceTimes, 0); // warehouse = 0
+
+        int requestIndex = 0;
+        for (Request req : requests) {
+            int pickupIndex = 1 + requestIndex * 2;
+            int deliveryIndex = pickupIndex + 1;
+
+            serviceTimes[pickupIndex]   = req.getPickupDuration().toSeconds() / 60.0;   // Pickup duration
+            serviceTimes[deliveryIndex] = req.getDeliveryDuration().toSeconds() / 60.0; // Delivery duration
+
+            requestIndex++;
+        }
+        problem.serviceTimes = serviceTimes;
 
-        LocalDateTime start = LocalDateTime.now();
+        return problem;
+    }
 
+    /**
+     * Estimates the cost of adding a request to the tour of a courier: the stops of the current tour are kept in
+     * order and the pickup and delivery of the request are inserted at their cheapest positions, as
+     * {@link #plan(PlanningTransaction, boolean)} would do when fast. Nothing is modified, so couriers can be
+     * evaluated concurrently.
+     *
+     * @param courierId the ID of the courier
+     * @param request the request to add, not yet assigned to the courier
+     * @param warehouseId the warehouse of the request, used if the courier has none yet
+     * @return the estimate, infeasible if the request would break the precedences or the shift of the courier
+     * @throws IllegalArgumentException if the courier does not exist
+     */
+    public InsertionEstimate estimateInsertion(long courierId, Request request, long warehouseId) {
+        return courierLocks.withCourier(courierId, () -> estimateInsertionLocked(courierId, request, warehouseId));
+    }
+
+    private InsertionEstimate estimateInsertionLocked(long courierId, Request request, long warehouseId) {
+        PickupDelivery current = requestService.getPickupDeliveryPerCourier().get(courierId);
+        PickupDelivery pickupDelivery = (current != null) ? current.snapshot() : new PickupDelivery();
+        if (pickupDelivery.getWarehouseAddressId() <= 0) {
+            pickupDelivery.setWarehouseAddressId(warehouseId);
+        }
+        pickupDelivery.addRequest(request);
+
+        PlanningProblem problem;
+        try {
+            problem = buildProblem(courierId, pickupDelivery);
+        } catch (IllegalStateException e) {
+            return InsertionEstimate.infeasible(courierId); // infeasible precedences
+        }
+        RegretInsertion insertion = new RegretInsertion(problem.graph, problem.precedences, problem.serviceTimes, problem.maxDuration);
+
+        // Route of the current requests, from the current tour
+        int[] unit = { problem.stops.indexOf(Stop.pickup(request)), problem.stops.indexOf(Stop.delivery(request)) };
+        List<int[]> units = new ArrayList<>(RegretInsertion.buildUnits(problem.graph.getNbSommets(), problem.requestPairs));
+        units.removeIf(u -> u[0] == unit[0] || u[0] == unit[1]);
+        Tour currentTour = tourService.getTours().get(courierId);
+        List<Integer> partial = (currentTour != null) ? tourService.mapTourToVertices(currentTour, problem.stops) : new ArrayList<>(List.of(0));
+        partial.removeIf(v -> v == unit[0] || v == unit[1]); // if the courier already has the request
+        List<Integer> route = insertion.complete(partial, units, 1);
+        if (route == null) return InsertionEstimate.infeasible(courierId);
+        double currentCost = insertion.cost(route);
+
+        // Cheapest insertion of the request
+        if (!insertion.insert(route, List.<int[]>of(unit), 1)
+                || !insertion.isValidTour(route) || !insertion.isWithinMaxDuration(route)) {
+            return InsertionEstimate.infeasible(courierId);
+        }
+        double cost = insertion.cost(route);
+
+        // Arrival times at the stops of the request
+        double minutes = 0.0;
+        LocalDateTime pickupEta = null, deliveryEta = null;
+        for (int i = 0; i < route.size(); i++) {
+            int v = route.get(i);
+            if (v == unit[0]) pickupEta = problem.pickupDelivery.getDepartureTime().plusSeconds(Math.round(minutes * 60));
+            if (v == unit[1]) deliveryEta = problem.pickupDelivery.getDepartureTime().plusSeconds(Math.round(minutes * 60));
+            minutes += problem.serviceTimes[v] + insertion.arc(v, route.get((i + 1) % route.size()));
+        }
+        return new InsertionEstimate(courierId, true, cost - currentCost, cost, pickupEta, deliveryEta);
+    }
+
+    /**
+     * Estimates the duration saved by removing a request from the tour of a courier, the other stops of the
+     * tour being kept in order.
+     *
+     * @param courierId the ID of the courier
+     * @param requestId the ID of a request of the courier
+     * @return the duration saved, in minutes (0 if the courier has no tour)
+     * @throws IllegalArgumentException if the courier does not exist or does not have the request
+     */
+    public double estimateRemoval(long courierId, long requestId) {
+        return courierLocks.withCourier(courierId, () -> estimateRemovalLocked(courierId, requestId));
+    }
+
+    private double estimateRemovalLocked(long courierId, long requestId) {
+        PickupDelivery current = requestService.getPickupDeliveryPerCourier().get(courierId);
+        if (current == null || current.findRequestById(requestId) == null) {
+            throw new IllegalArgumentException("Request " + requestId + " is not assigned to courier " + courierId + ".");
+        }
+        Tour currentTour = tourService.getTours().get(courierId);
+        if (currentTour == null) return 0.0;
+
+        PickupDelivery pickupDelivery = current.snapshot();
+        PlanningProblem problem;
+        try {
+            problem = buildProblem(courierId, pickupDelivery);
+        } catch (IllegalStateException e) {
+            return 0.0;
+        }
+        RegretInsertion insertion = new RegretInsertion(problem.graph, problem.precedences, problem.serviceTimes, problem.maxDuration);
+        List<Integer> route = insertion.complete(tourService.mapTourToVertices(currentTour, problem.stops),
+                RegretInsertion.buildUnits(problem.graph.getNbSommets(), problem.requestPairs), 1);
+        if (route == null) return 0.0;
+
+        int pickup = problem.stops.indexOf(Stop.pickup(pickupDelivery.findRequestById(requestId)));
+        int delivery = problem.stops.indexOf(Stop.delivery(pickupDelivery.findRequestById(requestId)));
+        double cost = insertion.cost(route);
+        route.removeIf(v -> v == pickup || v == delivery);
+        return cost - insertion.cost(route);
+    }
+
+    /**
+     * Builds a route from the previous tour of a courier: its stop order is mapped onto the new vertices,
+     * then the stops that are not in it (e.g. a new request) are inserted at their cheapest positions.
+     *
+     * @param problem the TSP instance of the courier
+     * @param previousTour the previous tour of the courier
+     * @param k the regret degree used to insert the missing stops (1 = cheapest insertion)
+     * @return the route, or null if none could be built
+     */
+    private List<Integer> warmStartRoute(PlanningProblem problem, Tour previousTour, int k) {
+        List<Integer> partial = tourService.mapTourToVertices(previousTour, problem.stops);
+        RegretInsertion insertion = new RegretInsertion(problem.graph, problem.precedences, problem.serviceTimes, problem.maxDuration);
+        return insertion.complete(partial, RegretInsertion.buildUnits(problem.graph.getNbSommets(), problem.requestPairs), k);
+    }
+
+    /**
+     * Converts a solution of a TSP instance into a tour, with its road segments.
+     *
+     * @param problem the TSP instance
+     * @param solution the vertices in visiting order
+     * @return the tour
+     */
+    private Tour buildTour(PlanningProblem problem, Integer[] solution) {
         Tour tour = tourService.convertGraphToTour(
-                pickupDelivery, courierId, sol, vertices, graph.getCout()
+                problem.pickupDelivery, problem.courierId, solution, problem.stops, problem.graph.getCout()
         );
 
-        // 8. add roads to tour
-        tour = tourService.addRoadsToTour(tour, dijkstraService.getDijkstraTable(), mapService.getMap());
+        // add roads to tour
+        return tourService.addRoadsToTour(tour, dijkstraService.getDijkstraTable(), mapService.getMap());
+    }
+
+    /**
+     * Rebuilds the tour of a courier from the order of its stops (e.g. restored from a journal), without running
+     * the solvers: the stops are visited in this order, and the stops missing from it are inserted at their
+     * cheapest positions. Nothing is modified.
+     *
+     * @param courierId the ID of the courier, having requests
+     * @param order the stops of the tour in visiting order
+     * @return the tour, or null if the stops cannot be ordered within the precedences
+     * @throws IllegalArgumentException if the courier does not exist
+     * @throws IllegalStateException if the precedences of the courier are infeasible
+     */
+    Tour rebuildTour(long courierId, List<Stop> order) {
+        PickupDelivery current = requestService.getPickupDeliveryPerCourier().get(courierId);
+        if (current == null) return null;
+        PlanningProblem problem = buildProblem(courierId, current.snapshot(),
+                tourService.getPrecedencesByCourier().getOrDefault(courierId, PersistentMap.empty()), null);
 
+        boolean[] mapped = new boolean[problem.stops.size()];
+        List<Integer> partial = new ArrayList<>(List.of(0));
+        for (Stop stop : order) {
+            int vertex = problem.stops.indexOf(stop);
+            if (vertex > 0 && !mapped[vertex]) {
+                mapped[vertex] = true;
+                partial.add(vertex);
+            }
+        }
+        RegretInsertion insertion = new RegretInsertion(problem.graph, problem.precedences, problem.serviceTimes, problem.maxDuration);
+        List<Integer> route = insertion.complete(partial, RegretInsertion.buildUnits(problem.graph.getNbSommets(), problem.requestPairs), 1);
+        if (route == null) return null;
+        return buildTour(problem, route.toArray(new Integer[0]));
+    }
+
+    /**
+     * Sets the warehouse of a courier in a transaction: the tour of a courier having requests is recomputed from
+     * the new warehouse, and the warehouse is kept if it cannot be. The previous state can be undone.
+     *
+     * @param courierId the ID of the courier
+     * @param warehouseId the ID of the warehouse intersection
+     * @throws IllegalArgumentException if the courier has requests but does not exist
+     * @throws RuntimeException if the TSP algorithm does not find a solution
+     */
+    public void setWarehouseAddress(long courierId, long warehouseId) {
+        inTransaction(courierId, transaction -> {
+            transaction.setWarehouseAddressId(warehouseId);
+            if (!transaction.isModified()) return null;
+            if (transaction.getRequests().getNbRequests() > 0) {
+                plan(transaction, false);
+            } else {
+                transaction.setTour(null); // no requests, no tour
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Publishes the tour of a courier and sets the courier's availability status
+     * to BUSY or AVAILABLE depending on the tour duration.
+     *
+     * @param courierId the ID of the courier
+     * @param tour the tour to publish
+     */
+    public void publishTour(long courierId, Tour tour) {
+        courierLocks.runWithCourier(courierId, () -> publishTourLocked(courierId, tour));
+    }
+
+    private void publishTourLocked(long courierId, Tour tour) {
         tourService.setTourForCourier(courierId, tour);
 
-        // 9. Set courier's availability status to BUSY or AVAILABLE depending on tour duration
-        ArrayList<Courier> couriers = tourService.getCouriers();
+        List<Courier> couriers = tourService.getCouriers();
         int i;
         for(i = 0; i < couriers.size(); i++) {
             if (couriers.get(i).getId() == courierId) {
@@ -186,11 +979,14 @@ public class PlanningService {
 
         if (i >= couriers.size()) {
             return;
-        } else if (couriers.get(i).getShiftDuration().minus(tour.getTotalDuration()).toMinutes() < 30) {
-            tourService.getCouriers().get(i).setAvailabilityStatus(AvailabilityStatus.BUSY);
-        } else {
-            tourService.getCouriers().get(i).setAvailabilityStatus(AvailabilityStatus.AVAILABLE);
-        };
+        }
+        Courier courier = couriers.get(i);
+        AvailabilityStatus status = (courier.getShiftDuration().minus(tour.getTotalDuration()).toMinutes() < 30)
+                ? AvailabilityStatus.BUSY : AvailabilityStatus.AVAILABLE;
+        if (courier.getAvailabilityStatus() != status) {
+            courier.setAvailabilityStatus(status);
+            courierLocks.markFleetModified(courierId);
+        }
     }
 
     /**
@@ -210,21 +1006,16 @@ public class PlanningService {
      * @param newRequest The new request to be added.
      */
     public void updatePrecedences(long courierId, Request newRequest) {
-        long puIntersectionId, delIntersectionId;
+        courierLocks.runWithCourier(courierId, () -> updatePrecedencesLocked(courierId, newRequest));
+    }
 
+    private void updatePrecedencesLocked(long courierId, Request newRequest) {
         if (!tourService.getPrecedencesByCourier().containsKey(courierId)) {
             tourService.initPrecedences(courierId, requestService.getPickupDeliveryForCourier(courierId).getRequests());
         }
 
-        HashMap<String, Set<String>> precs = tourService.getPrecedencesByCourier().get(courierId);
-
-        puIntersectionId = newRequest.getPickupIntersectionId();
-        delIntersectionId = newRequest.getDeliveryIntersectionId();
-        if (precs == null) {
-            precs = new HashMap<>();
-            tourService.getPrecedencesByCourier().put(courierId, precs);
-        }
-        precs.computeIfAbsent(tourService.parseParams(newRequest.getId(), delIntersectionId, 'd'), k -> new HashSet<>()).add(tourService.parseParams(newRequest.getId(), puIntersectionId, 'p'));
+        replacePrecedences(courierId, Precedences.with(tourService.getPrecedencesByCourier().get(courierId),
+                Stop.pickup(newRequest), Stop.delivery(newRequest)));
     }
 
     /**
@@ -234,16 +1025,53 @@ public class PlanningService {
      * @param requestId The ID of the request whose precedences need to be removed.
      */
     public void deletePrecedences(long courierId, long requestId) {
-        HashMap<String, Set<String>> precs = tourService.getPrecedencesByCourier().get(courierId);
+        courierLocks.runWithCourier(courierId, () -> deletePrecedencesLocked(courierId, requestId));
+    }
 
-        // Remove keys starting with the request ID
-        precs.keySet().removeIf(key -> key.startsWith(String.valueOf(requestId)));
+    private void deletePrecedencesLocked(long courierId, long requestId) {
+        if (!tourService.getPrecedencesByCourier().containsKey(courierId)) return;
+        replacePrecedences(courierId,
+                Precedences.withoutRequest(tourService.getPrecedencesByCourier().get(courierId), requestId));
+    }
 
-        // Remove values starting with the request ID
-        precs.values().forEach(set -> set.removeIf(value -> value.startsWith(String.valueOf(requestId))));
+    /**
+     * Replaces the precedences of a courier, keeping its tour, and records the previous state in its history so
+     * that the change can be undone. The caller holds the lock of the courier.
+     */
+    private void replacePrecedences(long courierId, PersistentMap<Stop, Set<Stop>> precs) {
+        tourService.getHistory(courierId).record(currentVersion(courierId));
+        tourService.getPrecedencesByCourier().put(courierId, precs);
+        courierLocks.markModified(courierId);
+    }
 
-        // Clean up empty entries
-        precs.entrySet().removeIf(entry -> entry.getValue().isEmpty());
+    /**
+     * Deletes a request of a courier and recomputes the tour without it, in a transaction: if the tour cannot be
+     * computed, the courier keeps its request, its precedences and its tour.
+     *
+     * @param courierId the ID of the courier
+     * @param requestId the ID of the request to delete
+     * @throws IllegalArgumentException if the courier does not have the request
+     * @throws RuntimeException if the tour cannot be computed without the request
+     */
+    public void deleteRequest(long courierId, long requestId) {
+        inTransaction(courierId, transaction -> {
+            transaction.removeRequest(requestId);
+            return plan(transaction, false);
+        });
+    }
+
+    /**
+     * @return the locks serializing the modifications of each courier
+     */
+    public CourierLocks getCourierLocks() {
+        return courierLocks;
+    }
+
+    /**
+     * @return the service computing the shortest paths of the map
+     */
+    DijkstraService getDijkstraService() {
+        return dijkstraService;
     }
 
     public Courier courierInCharge(long courierId) {
@@ -252,4 +1080,19 @@ public class PlanningService {
             .findFirst()
             .orElse(null);
     }
+
+    /**
+     * TSP instance of a courier: vertex i of the graph is the stop i of stops.
+     */
+    private static class PlanningProblem {
+        long courierId; // The ID of the courier.
+        PickupDelivery pickupDelivery; // Local copy of the requests of the courier.
+        StopModel stops; // The stops of the vertices, index 0 being the warehouse.
+        HashMap<Integer, Set<Integer>> precedences; // The precedence constraints between vertices.
+        GrapheComplet graph; // The shortest path durations between vertices.
+        double[] serviceTimes; // The service time of each vertex.
+        int[][] requestPairs; // The request pairs as {pickup, delivery} vertex indices.
+        double maxDuration; // The shift duration of the courier, in minutes.
+        Tour previousTour; // The previous tour of the courier, or null.
+    }
 }
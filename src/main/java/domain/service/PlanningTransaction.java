@@ -0,0 +1,234 @@
+package domain.service;
+
+import domain.model.Courier;
+import domain.model.PickupDelivery;
+import domain.model.Precedences;
+import domain.model.Request;
+import domain.model.Stop;
+import domain.model.Tour;
+import domain.utils.PersistentMap;
+
+import java.time.LocalDateTime;
+import java.util.Set;
+
+/**
+ * Fork of the state of a courier (requests, precedences and tour) modified and planned in isolation.
+ *
+ * A transaction is opened by {@link PlanningService#inTransaction}: its requests are a snapshot of the requests
+ * of the courier and its precedences the persistent precedences of the courier, both replaced by new versions
+ * when the fork modifies them, so that the modifications are not visible to the other threads. Forking thus costs
+ * nothing, and each modification copies the few entries it changes only (see {@link PersistentMap}). Once planned (see {@link PlanningService#plan}), the fork
+ * replaces the state of the courier at once; if the planning fails, the fork is discarded and the courier keeps
+ * its last committed state, which the readers see the whole time.
+ */
+public class PlanningTransaction {
+
+    private final long courierId; // The ID of the courier.
+
+
+    private final Courier courier; // The courier, when it is not registered yet; null to plan the registered one.
+
+
+    private final PickupDelivery requests; // The requests of the fork.
+
+
+    private PersistentMap<Stop, Set<Stop>> precedences; // The precedences of the fork (stop -> stops visited before it).
+
+
+    private final Tour baseTour; // The tour of the courier when the fork was taken, or null.
+
+
+    private PickupDelivery baseRequests; // The requests of the courier when the fork was taken, or null.
+
+
+    private PersistentMap<Stop, Set<Stop>> basePrecedences; // The precedences of the courier when the fork was taken, or null.
+
+
+    private Tour tour; // The tour of the fork, or null.
+
+
+    private boolean modified = false; // Whether the requests or precedences of the fork were modified.
+
+
+    private boolean planned = false; // Whether the tour of the fork matches its requests and precedences.
+
+    /**
+     * Constructs a transaction on a fork of the state of a courier.
+     *
+     * @param courierId the ID of the courier
+     * @param requests the requests of the fork, owned by the transaction
+     * @param precedences the precedences of the fork
+     * @param tour the tour of the courier, or null
+     */
+    PlanningTransaction(long courierId, PickupDelivery requests, PersistentMap<Stop, Set<Stop>> precedences, Tour tour) {
+        this(courierId, null, requests, precedences, tour);
+    }
+
+    /**
+     * Constructs a transaction on the state of a courier which is not registered yet (see
+     * {@link PlanningService#forkDetached}).
+     *
+     * @param courier the courier, planned with its own shift
+     * @param requests the requests of the fork, owned by the transaction
+     * @param precedences the precedences of the fork
+     */
+    PlanningTransaction(Courier courier, PickupDelivery requests, PersistentMap<Stop, Set<Stop>> precedences) {
+        this(courier.getId(), courier, requests, precedences, null);
+    }
+
+    private PlanningTransaction(long courierId, Courier courier, PickupDelivery requests,
+                                PersistentMap<Stop, Set<Stop>> precedences, Tour tour) {
+        this.courierId = courierId;
+        this.courier = courier;
+        this.requests = requests;
+        this.precedences = precedences;
+        this.baseTour = tour;
+        this.tour = tour;
+    }
+
+    /**
+     * Adds a request to the fork, with its pickup -> delivery precedence.
+     *
+     * @param request the request to add
+     */
+    public void addRequest(Request request) {
+        requests.addRequest(request);
+        precedences = Precedences.with(precedences, Stop.pickup(request), Stop.delivery(request));
+        modified = true;
+        planned = false;
+    }
+
+    /**
+     * Removes a request from the fork, with every precedence on its stops.
+     *
+     * @param requestId the ID of the request to remove
+     * @return the removed request
+     * @throws IllegalArgumentException if the courier does not have the request
+     */
+    public Request removeRequest(long requestId) {
+        Request request = requests.findRequestById(requestId);
+        if (request == null) {
+            throw new IllegalArgumentException("Request with ID " + requestId + " not found.");
+        }
+        requests.removeRequest(requestId);
+        precedences = Precedences.withoutRequest(precedences, requestId);
+        modified = true;
+        planned = false;
+        return request;
+    }
+
+    /**
+     * Adds a precedence between two stops of the fork, already checked (see {@link TourService#updateStopOrder}).
+     *
+     * @param before the stop that must be visited first
+     * @param after the stop that must be visited after it
+     */
+    void addPrecedence(Stop before, Stop after) {
+        precedences = Precedences.with(precedences, before, after);
+        modified = true;
+        planned = false;
+    }
+
+    /**
+     * Sets the warehouse of the fork.
+     *
+     * @param warehouseId the ID of the warehouse intersection
+     */
+    public void setWarehouseAddressId(long warehouseId) {
+        if (warehouseId == requests.getWarehouseAddressId()) return;
+        requests.setWarehouseAddressId(warehouseId);
+        modified = true;
+        planned = false;
+    }
+
+    /**
+     * Sets the departure time of the fork.
+     *
+     * @param departureTime the departure time from the warehouse
+     */
+    public void setDepartureTime(LocalDateTime departureTime) {
+        if (departureTime.equals(requests.getDepartureTime())) return;
+        requests.setDepartureTime(departureTime);
+        modified = true;
+        planned = false;
+    }
+
+    /**
+     * Records the requests and precedences of the courier the fork was taken from, to detect whether the courier
+     * was modified meanwhile (see {@link #isBasedOn}).
+     *
+     * @param requests the requests of the courier, or null
+     * @param precedences the precedences of the courier, or null
+     */
+    void setBase(PickupDelivery requests, PersistentMap<Stop, Set<Stop>> precedences) {
+        this.baseRequests = requests;
+        this.basePrecedences = precedences;
+    }
+
+    /**
+     * Checks whether the given state of the courier is still the one the fork was taken from. The state of a
+     * courier is replaced, not modified, by the transactions, so the identity of its parts is compared.
+     *
+     * @param requests the current requests of the courier, or null
+     * @param precedences the current precedences of the courier, or null
+     * @param tour the current tour of the courier, or null
+     * @return true if the courier was not modified since the fork was taken
+     */
+    boolean isBasedOn(PickupDelivery requests, PersistentMap<Stop, Set<Stop>> precedences, Tour tour) {
+        return requests == baseRequests && precedences == basePrecedences && tour == baseTour;
+    }
+
+    /**
+     * Sets the tour planned for the requests and precedences of the fork.
+     *
+     * @param tour the tour
+     */
+    void setTour(Tour tour) {
+        this.tour = tour;
+        this.planned = true;
+    }
+
+
+    public long getCourierId() {
+        return courierId;
+    }
+
+    /**
+     * @return the courier of a detached fork, null if the fork plans the registered courier
+     */
+    Courier getCourier() {
+        return courier;
+    }
+
+    /**
+     * @return the requests of the fork, not to be modified outside the transaction
+     */
+    public PickupDelivery getRequests() {
+        return requests;
+    }
+
+
+    PersistentMap<Stop, Set<Stop>> getPrecedences() {
+        return precedences;
+    }
+
+
+    public Tour getBaseTour() {
+        return baseTour;
+    }
+
+
+    public Tour getTour() {
+        return tour;
+    }
+
+
+    public boolean isModified() {
+        return modified;
+    }
+
+
+    public boolean isPlanned() {
+        return planned;
+    }
+}
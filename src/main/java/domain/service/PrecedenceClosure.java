@@ -0,0 +1,203 @@
+package domain.service;
+
+import domain.model.StopModel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Transitive closure of the precedence constraints of a TSP instance.
+ *
+ * The constraints are checked once, before solving: a cycle (e.g. a precedence added by the dispatcher which
+ * conflicts with a pickup -> delivery pair) makes the instance infeasible, and is rejected at construction
+ * instead of being found by the solvers after their time limit. The predecessors of each vertex, direct or not,
+ * are kept as a bitmask, so that a solver checks whether a vertex can be visited with a single mask operation.
+ *
+ * The depot (vertex 0) is always visited first: it can precede every vertex, but no vertex can precede it.
+ */
+public class PrecedenceClosure {
+
+    private final int nbSommets; // Number of vertices of the instance.
+
+
+    private final BitSet[] predecesseurs; // Vertices that must be visited before each vertex, direct or not.
+
+
+    private final List<Integer> ordre; // The vertices in a topological order of the precedences.
+
+    /**
+     * Checks the precedences and computes their transitive closure.
+     *
+     * @param nbSommets the number of vertices of the instance
+     * @param precedences the precedence constraints (vertex -> vertices that must be visited before it), or null
+     * @throws IllegalArgumentException if the precedences contain a cycle, refer to an unknown vertex
+     *                                  or require a vertex to be visited before the depot
+     */
+    public PrecedenceClosure(int nbSommets, Map<Integer, Set<Integer>> precedences) {
+        this(nbSommets, toAdjacency(nbSommets, precedences));
+    }
+
+    /**
+     * Checks the precedences of the stops of an instance and computes their transitive closure.
+     *
+     * @param stops the stops of the instance, with their precedence constraints
+     * @throws IllegalArgumentException if the precedences contain a cycle or require a vertex to be visited
+     *                                  before the depot
+     */
+    public PrecedenceClosure(StopModel stops) {
+        this(stops.size(), adjacency(stops));
+    }
+
+    /**
+     * Checks the precedences and computes their transitive closure.
+     *
+     * @param nbSommets the number of vertices of the instance
+     * @param predsDirects the vertices that must be visited directly before each vertex
+     * @throws IllegalArgumentException if the precedences contain a cycle, refer to an unknown vertex
+     *                                  or require a vertex to be visited before the depot
+     */
+    public PrecedenceClosure(int nbSommets, int[][] predsDirects) {
+        this.nbSommets = nbSommets;
+        this.predecesseurs = new BitSet[nbSommets];
+        for (int v = 0; v < nbSommets; v++) predecesseurs[v] = new BitSet(nbSommets);
+
+        // Successors and number of predecessors of each vertex, for a topological sort (Kahn)
+        List<List<Integer>> successeurs = new ArrayList<>(nbSommets);
+        for (int v = 0; v < nbSommets; v++) successeurs.add(new ArrayList<>());
+        int[] nbPreds = new int[nbSommets];
+        for (int v = 0; v < nbSommets; v++) {
+            for (int pred : predsDirects[v]) {
+                if (pred < 0 || pred >= nbSommets) {
+                    throw new IllegalArgumentException("Precedence " + pred + " -> " + v + " refers to an unknown vertex.");
+                }
+                if (pred == 0) continue; // the depot is always visited first
+                if (v == 0) {
+                    throw new IllegalArgumentException("Vertex " + pred + " cannot be visited before the depot.");
+                }
+                if (!predecesseurs[v].get(pred)) {
+                    predecesseurs[v].set(pred);
+                    successeurs.get(pred).add(v);
+                    nbPreds[v]++;
+                }
+            }
+        }
+
+        this.ordre = new ArrayList<>(nbSommets);
+        Deque<Integer> prets = new ArrayDeque<>();
+        for (int v = 0; v < nbSommets; v++) {
+            if (nbPreds[v] == 0) prets.add(v);
+        }
+        while (!prets.isEmpty()) {
+            int v = prets.poll();
+            ordre.add(v);
+            for (int suivant : successeurs.get(v)) {
+                // v comes before suivant in the order: its closure is already complete
+                predecesseurs[suivant].or(predecesseurs[v]);
+                if (--nbPreds[suivant] == 0) prets.add(suivant);
+            }
+        }
+
+        if (ordre.size() < nbSommets) {
+            List<Integer> cycle = new ArrayList<>();
+            for (int v = 0; v < nbSommets; v++) {
+                if (nbPreds[v] > 0) cycle.add(v);
+            }
+            throw new IllegalArgumentException("The precedence constraints contain a cycle between vertices " + cycle + ".");
+        }
+    }
+
+    /**
+     * Converts precedences given as a map into int adjacency lists.
+     */
+    private static int[][] toAdjacency(int nbSommets, Map<Integer, Set<Integer>> precedences) {
+        int[][] preds = new int[nbSommets][];
+        Arrays.fill(preds, new int[0]);
+        if (precedences == null) return preds;
+        for (Map.Entry<Integer, Set<Integer>> entry : precedences.entrySet()) {
+            int v = entry.getKey();
+            if (v < 0 || v >= nbSommets) {
+                throw new IllegalArgumentException("Precedences of vertex " + v + " refer to an unknown vertex.");
+            }
+            preds[v] = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+        }
+        return preds;
+    }
+
+    private static int[][] adjacency(StopModel stops) {
+        int[][] preds = new int[stops.size()][];
+        for (int v = 0; v < preds.length; v++) preds[v] = stops.getPredecessors(v);
+        return preds;
+    }
+
+    /**
+     * Returns the vertices that must be visited before a vertex, directly or through other precedences.
+     * The returned mask is shared and must not be modified.
+     *
+     * @param v the vertex
+     * @return the mask of its predecessors (bit i set if vertex i must be visited before v)
+     */
+    public BitSet getPredecessors(int v) {
+        return predecesseurs[v];
+    }
+
+    /**
+     * Returns the predecessors of every vertex as a bitmask over the vertices other than the depot
+     * (vertex v > 0 is bit v - 1), for instances of at most 33 vertices (depot included).
+     *
+     * @return the mask of the predecessors of each vertex
+     * @throws IllegalStateException if the instance has more than 33 vertices
+     */
+    public int[] toIntMasks() {
+        if (nbSommets > Integer.SIZE + 1) {
+            throw new IllegalStateException("Too many vertices for an int mask: " + nbSommets);
+        }
+        int[] masques = new int[nbSommets];
+        for (int v = 1; v < nbSommets; v++) {
+            for (int pred = predecesseurs[v].nextSetBit(1); pred >= 0; pred = predecesseurs[v].nextSetBit(pred + 1)) {
+                masques[v] |= 1 << (pred - 1);
+            }
+        }
+        return masques;
+    }
+
+    /**
+     * @param avant a vertex
+     * @param apres another vertex
+     * @return true if avant must be visited before apres, directly or through other precedences
+     */
+    public boolean mustPrecede(int avant, int apres) {
+        return predecesseurs[apres].get(avant);
+    }
+
+    /**
+     * @return the vertices in an order respecting every precedence, starting with the depot
+     */
+    public List<Integer> getTopologicalOrder() {
+        return Collections.unmodifiableList(ordre);
+    }
+
+    /**
+     * Returns the closure as a map, in the format of the precedence constraints given to the solvers.
+     *
+     * @return a map of vertex -> vertices that must be visited before it, directly or not
+     */
+    public HashMap<Integer, Set<Integer>> toMap() {
+        HashMap<Integer, Set<Integer>> map = new HashMap<>();
+        for (int v = 0; v < nbSommets; v++) {
+            if (predecesseurs[v].isEmpty()) continue;
+            Set<Integer> preds = new HashSet<>();
+            predecesseurs[v].stream().forEach(preds::add);
+            map.put(v, preds);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,490 @@
+package domain.service;
+
+import domain.model.Graphe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pickup/delivery-aware regret-k insertion heuristic.
+ *
+ * A route is a list of vertex indices starting with the depot (vertex 0); the return to the depot is implicit.
+ * Vertices are inserted by "units": a request pair {pickup, delivery} inserted together, or a single vertex.
+ * At each step, the unit with the highest regret (difference between its k best insertion costs) is inserted
+ * at its cheapest position respecting the precedence constraints.
+ *
+ * The insertion window of a vertex is bounded by its predecessors and successors in the route, direct or
+ * through other precedences (see {@link PrecedenceClosure}): as long as the route respects the closure, every
+ * missing unit keeps a position from which the route can still be completed, even when the precedences chain
+ * several requests together.
+ *
+ * There are no time windows, so the shift duration only depends on the total cost of the route:
+ * the cheapest precedence-valid position is therefore also the one that best preserves shift feasibility.
+ */
+public class RegretInsertion {
+
+    private final Graphe g; // The graph representing the problem.
+
+
+    private final int[][] predecessors; // Vertices that must be visited directly before each vertex.
+
+
+    private final int[][] ancestors; // Vertices that must be visited before each vertex, directly or not (null if cyclic).
+
+
+    private final int[][] descendants; // Vertices that must be visited after each vertex, directly or not (null if cyclic).
+
+
+    private final double[] serviceTimes; // Service time of each vertex (may be null).
+
+
+    private final double maxDuration; // Maximum duration of a route (shift duration).
+
+    /**
+     * Constructs a regret insertion heuristic for the given problem.
+     *
+     * @param g the graph representing the problem
+     * @param precedences the precedence constraints (vertex -> vertices that must be visited before it); if they
+     *                    contain a cycle, no unit can be inserted
+     * @param serviceTimes the service time of each vertex, or null if there is none
+     * @param maxDuration the maximum duration of a route
+     */
+    public RegretInsertion(Graphe g, Map<Integer, Set<Integer>> precedences, double[] serviceTimes, double maxDuration) {
+        this.g = g;
+        this.serviceTimes = serviceTimes;
+        this.maxDuration = maxDuration;
+
+        // Int adjacency lists of the precedences, ignoring the vertices outside the graph
+        int n = g.getNbSommets();
+        List<List<Integer>> preds = new ArrayList<>(n);
+        for (int v = 0; v < n; v++) preds.add(new ArrayList<>());
+        if (precedences != null) {
+            for (Map.Entry<Integer, Set<Integer>> entry : precedences.entrySet()) {
+                int v = entry.getKey();
+                if (v < 0 || v >= n) continue;
+                for (Integer pred : entry.getValue()) {
+                    if (pred < 0 || pred >= n) continue;
+                    preds.get(v).add(pred);
+                }
+            }
+        }
+        this.predecessors = new int[n][];
+        for (int v = 0; v < n; v++) {
+            predecessors[v] = preds.get(v).stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        // Closure of the precedences and its transpose, bounding the insertion windows
+        PrecedenceClosure closure;
+        try {
+            closure = new PrecedenceClosure(n, predecessors);
+        } catch (IllegalArgumentException e) {
+            closure = null; // precedence cycle: no tour exists
+        }
+        if (closure == null) {
+            this.ancestors = null;
+            this.descendants = null;
+            return;
+        }
+        List<List<Integer>> succs = new ArrayList<>(n);
+        for (int v = 0; v < n; v++) succs.add(new ArrayList<>());
+        this.ancestors = new int[n][];
+        this.descendants = new int[n][];
+        for (int v = 0; v < n; v++) {
+            ancestors[v] = closure.getPredecessors(v).stream().toArray();
+            for (int pred : ancestors[v]) succs.get(pred).add(v);
+        }
+        for (int v = 0; v < n; v++) {
+            descendants[v] = succs.get(v).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * Builds the insertion units of a problem: one unit per request pair, and one single-vertex unit
+     * for every other vertex except the depot.
+     *
+     * @param nbSommets the number of vertices of the graph
+     * @param requestPairs the request pairs as {pickup, delivery} vertex indices, or null
+     * @return the list of units, each unit being an array of one or two vertices
+     */
+    public static List<int[]> buildUnits(int nbSommets, int[][] requestPairs) {
+        List<int[]> units = new ArrayList<>();
+        boolean[] covered = new boolean[nbSommets];
+        covered[0] = true;
+        if (requestPairs != null) {
+            for (int[] pair : requestPairs) {
+                if (pair[0] <= 0 || pair[1] <= 0 || pair[0] >= nbSommets || pair[1] >= nbSommets) continue;
+                if (covered[pair[0]] || covered[pair[1]]) continue;
+                covered[pair[0]] = true;
+                covered[pair[1]] = true;
+                units.add(new int[]{pair[0], pair[1]});
+            }
+        }
+        for (int v = 1; v < nbSommets; v++) {
+            if (!covered[v]) units.add(new int[]{v});
+        }
+        return units;
+    }
+
+    /**
+     * Builds a complete route from scratch using regret-k insertion.
+     *
+     * @param units the units to insert
+     * @param k the regret degree (1 = greedy cheapest insertion)
+     * @return the route starting with the depot, or null if some unit has no precedence-valid position
+     */
+    public List<Integer> construct(Collection<int[]> units, int k) {
+        List<Integer> route = new ArrayList<>();
+        route.add(0);
+        return insert(route, units, k) ? route : null;
+    }
+
+    /**
+     * Inserts all the given units into the route using regret-k insertion.
+     *
+     * @param route the route to complete, starting with the depot
+     * @param units the units to insert
+     * @param k the regret degree (1 = greedy cheapest insertion)
+     * @return true if every unit was inserted, false if some unit has no precedence-valid position
+     */
+    public boolean insert(List<Integer> route, Collection<int[]> units, int k) {
+        if (ancestors == null && !units.isEmpty()) return false;
+        List<int[]> pending = new ArrayList<>(units);
+        int[] pos = new int[g.getNbSommets()];
+
+        while (!pending.isEmpty()) {
+            Arrays.fill(pos, -1);
+            for (int i = 0; i < route.size(); i++) pos[route.get(i)] = i;
+
+            int bestUnit = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            double bestDelta = Double.POSITIVE_INFINITY;
+            int[] bestPlacement = null;
+
+            for (int u = 0; u < pending.size(); u++) {
+                Candidates candidates = bestPositions(route, pos, pending.get(u), Math.max(1, k));
+                if (candidates.size == 0) return false;
+
+                double score;
+                if (k <= 1) {
+                    score = -candidates.delta[0];
+                } else {
+                    score = 0.0;
+                    for (int h = 1; h < k; h++) {
+                        // Units with fewer options than k are the most constrained: insert them first
+                        score += (h < candidates.size) ? candidates.delta[h] - candidates.delta[0] : Double.MAX_VALUE / k;
+                    }
+                }
+
+                if (score > bestScore || (score == bestScore && candidates.delta[0] < bestDelta)) {
+                    bestScore = score;
+                    bestDelta = candidates.delta[0];
+                    bestUnit = u;
+                    bestPlacement = new int[]{candidates.first[0], candidates.second[0]};
+                }
+            }
+
+            int[] unit = pending.remove(bestUnit);
+            if (unit.length == 2) {
+                route.add(bestPlacement[1], unit[1]);
+                route.add(bestPlacement[0], unit[0]);
+            } else {
+                route.add(bestPlacement[0], unit[0]);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Computes the cost of a route: travel costs, service times and return to the depot.
+     *
+     * @param route the route starting with the depot
+     * @return the total cost of the route
+     */
+    public double cost(List<Integer> route) {
+        double total = 0.0;
+        for (int i = 0; i < route.size(); i++) {
+            int next = (i + 1 < route.size()) ? route.get(i + 1) : route.get(0);
+            total += arc(route.get(i), next) + service(route.get(i));
+        }
+        return total;
+    }
+
+    /**
+     * Computes a lower bound of the cost of any complete tour. Each vertex is entered and left exactly once,
+     * so a tour costs at least the cheapest incoming arcs (or the cheapest outgoing arcs) of all vertices,
+     * plus all the service times.
+     *
+     * @return the lower bound, infinite if some vertex cannot be entered or left
+     */
+    public double lowerBound() {
+        int n = g.getNbSommets();
+        double services = 0.0;
+        for (int v = 0; v < n; v++) services += service(v);
+        if (n < 2) return services;
+
+        double incoming = 0.0, outgoing = 0.0;
+        for (int v = 0; v < n; v++) {
+            double minIn = Double.POSITIVE_INFINITY, minOut = Double.POSITIVE_INFINITY;
+            for (int u = 0; u < n; u++) {
+                if (u == v) continue;
+                minIn = Math.min(minIn, arc(u, v));
+                minOut = Math.min(minOut, arc(v, u));
+            }
+            incoming += minIn;
+            outgoing += minOut;
+        }
+        return Math.max(incoming, outgoing) + services;
+    }
+
+    /**
+     * Checks whether a route fits in the maximum duration.
+     *
+     * @param route the route starting with the depot
+     * @return true if the cost of the route does not exceed the maximum duration
+     */
+    public boolean isWithinMaxDuration(List<Integer> route) {
+        return cost(route) <= maxDuration;
+    }
+
+    /**
+     * Checks whether a route is a complete tour respecting the precedences: it starts with the depot
+     * and visits every vertex exactly once, each vertex after all its predecessors.
+     *
+     * @param route the route to check
+     * @return true if the route is a valid complete tour
+     */
+    public boolean isValidTour(List<Integer> route) {
+        int n = g.getNbSommets();
+        if (route == null || route.size() != n || route.get(0) != 0) return false;
+        int[] pos = new int[n];
+        Arrays.fill(pos, -1);
+        for (int i = 0; i < n; i++) {
+            Integer v = route.get(i);
+            if (v == null || v < 0 || v >= n || pos[v] != -1) return false;
+            pos[v] = i;
+        }
+        for (int v = 0; v < n; v++) {
+            for (int pred : predecessors[v]) {
+                if (pos[pred] > pos[v]) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Completes a partial route into a full tour. Units whose vertices break a precedence in the partial
+     * route are taken out first, then every missing unit is inserted using regret-k insertion.
+     *
+     * @param partial the partial route starting with the depot (e.g. the order of a previous tour)
+     * @param units the units of the problem
+     * @param k the regret degree
+     * @return the complete route, or null if some unit has no precedence-valid position
+     */
+    public List<Integer> complete(List<Integer> partial, List<int[]> units, int k) {
+        if (ancestors == null) return null;
+        int n = g.getNbSommets();
+        List<Integer> route = new ArrayList<>(partial);
+        int[] unitOf = new int[n];
+        Arrays.fill(unitOf, -1);
+        for (int u = 0; u < units.size(); u++) {
+            for (int v : units.get(u)) unitOf[v] = u;
+        }
+
+        boolean[] kept = new boolean[units.size()];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            Arrays.fill(kept, false);
+            int[] pos = new int[n];
+            Arrays.fill(pos, -1);
+            for (int i = 0; i < route.size(); i++) pos[route.get(i)] = i;
+
+            for (int i = 1; i < route.size() && !changed; i++) {
+                int v = route.get(i);
+                int u = unitOf[v];
+                boolean broken = false;
+                // a unit must be complete, and each vertex must follow its predecessors present in the route,
+                // direct or not, so that the missing units can still be inserted between them
+                for (int w : units.get(u)) broken |= pos[w] < 0;
+                for (int pred : ancestors[v]) {
+                    if (pos[pred] > i) broken = true;
+                }
+                if (broken) {
+                    route.removeIf(w -> unitOf[w] == u);
+                    changed = true;
+                } else {
+                    kept[u] = true;
+                }
+            }
+        }
+
+        List<int[]> missing = new ArrayList<>();
+        for (int u = 0; u < units.size(); u++) {
+            if (!kept[u]) missing.add(units.get(u));
+        }
+        return insert(route, missing, k) ? route : null;
+    }
+
+    /**
+     * Computes the cost saved by removing a unit from a route.
+     *
+     * @param route the route starting with the depot
+     * @param pos the position of each vertex in the route
+     * @param unit the unit to remove
+     * @return the travel cost saved by the removal
+     */
+    public double removalSaving(List<Integer> route, int[] pos, int[] unit) {
+        if (unit.length == 2) {
+            int a = Math.min(pos[unit[0]], pos[unit[1]]);
+            int b = Math.max(pos[unit[0]], pos[unit[1]]);
+            if (b == a + 1) {
+                int prev = route.get(a - 1);
+                int next = vertexAt(route, b + 1);
+                return arc(prev, route.get(a)) + arc(route.get(a), route.get(b)) + arc(route.get(b), next) - arc(prev, next);
+            }
+            return removalSaving(route, pos[unit[0]]) + removalSaving(route, pos[unit[1]]);
+        }
+        return removalSaving(route, pos[unit[0]]);
+    }
+
+    /**
+     * Returns the cost of the arc between two vertices, 0 for a vertex to itself and
+     * infinity if the arc does not exist.
+     *
+     * @param i the source vertex
+     * @param j the destination vertex
+     * @return the cost of the arc
+     */
+    public double arc(int i, int j) {
+        if (i == j) return 0.0;
+        if (!g.estArc(i, j)) return Double.POSITIVE_INFINITY;
+        return g.getCout(i, j);
+    }
+
+    private double removalSaving(List<Integer> route, int p) {
+        int prev = route.get(p - 1);
+        int next = vertexAt(route, p + 1);
+        return arc(prev, route.get(p)) + arc(route.get(p), next) - arc(prev, next);
+    }
+
+    private double service(int v) {
+        if (serviceTimes != null && v >= 0 && v < serviceTimes.length) return serviceTimes[v];
+        return 0.0;
+    }
+
+    /** Vertex at the given index, the depot being used past the end of the route. */
+    private int vertexAt(List<Integer> route, int index) {
+        return (index < route.size()) ? route.get(index) : route.get(0);
+    }
+
+    /** Cost of inserting v right before index i (between route[i - 1] and route[i]). */
+    private double insertionDelta(List<Integer> route, int i, int v) {
+        int prev = route.get(i - 1);
+        int next = vertexAt(route, i);
+        return arc(prev, v) + arc(v, next) - arc(prev, next);
+    }
+
+    /** Lowest insertion index of v: after all its predecessors already in the route, direct or not. */
+    private int lowerIndex(int v, int[] pos) {
+        int lo = 1;
+        for (int pred : ancestors[v]) {
+            if (pos[pred] >= 0) lo = Math.max(lo, pos[pred] + 1);
+        }
+        return lo;
+    }
+
+    /** Highest insertion index of v: before all its successors already in the route, direct or not. */
+    private int upperIndex(int v, int[] pos, int size) {
+        int hi = size;
+        for (int succ : descendants[v]) {
+            if (pos[succ] >= 0) hi = Math.min(hi, pos[succ]);
+        }
+        return hi;
+    }
+
+    /**
+     * Computes the k cheapest precedence-valid placements of a unit.
+     * For a pair, placements combine a pickup index i and a delivery index j with i <= j, both
+     * expressed in the current route (i == j means the delivery directly follows the pickup).
+     */
+    private Candidates bestPositions(List<Integer> route, int[] pos, int[] unit, int k) {
+        Candidates candidates = new Candidates(k);
+        int size = route.size();
+
+        if (unit.length == 1) {
+            int v = unit[0];
+            int hi = upperIndex(v, pos, size);
+            for (int i = lowerIndex(v, pos); i <= hi; i++) {
+                double delta = insertionDelta(route, i, v);
+                if (delta < Double.POSITIVE_INFINITY) candidates.offer(delta, i, i);
+            }
+            return candidates;
+        }
+
+        int p = unit[0];
+        int d = unit[1];
+        int loP = lowerIndex(p, pos);
+        int hiP = upperIndex(p, pos, size);
+        int loD = lowerIndex(d, pos);
+        int hiD = upperIndex(d, pos, size);
+
+        // Best pickup placements among indices strictly before the current delivery index
+        Candidates pickups = new Candidates(k);
+        for (int j = 1; j <= size; j++) {
+            int i = j - 1;
+            if (i >= loP && i <= hiP && i >= 1) {
+                double deltaP = insertionDelta(route, i, p);
+                if (deltaP < Double.POSITIVE_INFINITY) pickups.offer(deltaP, i, i);
+            }
+            if (j < loD || j > hiD) continue;
+
+            double deltaD = insertionDelta(route, j, d);
+            for (int c = 0; c < pickups.size; c++) {
+                candidates.offer(pickups.delta[c] + deltaD, pickups.first[c], j);
+            }
+            if (j >= loP && j <= hiP) {
+                int prev = route.get(j - 1);
+                int next = vertexAt(route, j);
+                double together = arc(prev, p) + arc(p, d) + arc(d, next) - arc(prev, next);
+                if (together < Double.POSITIVE_INFINITY) candidates.offer(together, j, j);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Bounded list of the k cheapest placements, sorted by increasing cost.
+     */
+    private static class Candidates {
+        final double[] delta; // Insertion costs, sorted in increasing order.
+        final int[] first; // Insertion index of the first vertex of the unit.
+        final int[] second; // Insertion index of the second vertex of the unit (same as first for singles).
+        int size; // Number of placements stored.
+
+        Candidates(int k) {
+            delta = new double[k];
+            first = new int[k];
+            second = new int[k];
+            size = 0;
+        }
+
+        void offer(double cost, int i, int j) {
+            if (size == delta.length && cost >= delta[size - 1]) return;
+            int at = (size < delta.length) ? size++ : size - 1;
+            while (at > 0 && delta[at - 1] > cost) {
+                delta[at] = delta[at - 1];
+                first[at] = first[at - 1];
+                second[at] = second[at - 1];
+                at--;
+            }
+            delta[at] = cost;
+            first[at] = i;
+            second[at] = j;
+        }
+    }
+}
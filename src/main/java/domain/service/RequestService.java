@@ -6,25 +6,30 @@ import org.springframework.stereotype.Service;
 import persistence.XMLParsers;
 import persistence.XMLWriters;
 
-import java.util.ArrayList;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 
 /**
  * Service class for managing requests and their association with couriers.
  * Provides functionality to add requests, load requests from an XML file,
  * and retrieve the current state of the PickupDelivery object.
+ *
+ * The requests of the couriers are held in a concurrent map: dispatchers working on different couriers do not
+ * block each other, and the operations modifying a courier over several steps hold its lock
+ * (see {@link TourService#getCourierLocks()}).
  */
 @Service
 public class RequestService {
 
-    private final TreeMap<Long, PickupDelivery> pickupDeliveryPerCourier; // A map of courier IDs to a the pickup delivery associated with that courier.
+    private final ConcurrentSkipListMap<Long, PickupDelivery> pickupDeliveryPerCourier; // A map of courier IDs to a the pickup delivery associated with that courier.
 
     /**
      * Constructs a new RequestService and initializes the PickupDelivery object.
      */
     public RequestService() {
-        pickupDeliveryPerCourier = new TreeMap<>();
+        pickupDeliveryPerCourier = new ConcurrentSkipListMap<>();
     }
 
     /**
@@ -34,11 +39,7 @@ public class RequestService {
      * @param request the request to be added
      */
     public void addRequest(long courierId, Request request) {
-        if (!pickupDeliveryPerCourier.containsKey(courierId)) {
-            pickupDeliveryPerCourier.put(courierId, new PickupDelivery());
-        }
-
-        pickupDeliveryPerCourier.get(courierId).addRequest(request);
+        getPickupDeliveryForCourier(courierId).addRequest(request);
     }
 
     /**
@@ -59,11 +60,31 @@ public class RequestService {
      * @return true if the requests were successfully loaded, false otherwise
      */
     public boolean loadRequests(String filepath, long courierId) {
-        if (!pickupDeliveryPerCourier.containsKey(courierId)) {
-            pickupDeliveryPerCourier.put(courierId, new PickupDelivery());
+        return XMLParsers.parseRequests(filepath, getPickupDeliveryForCourier(courierId));
+    }
+
+    /**
+     * Loads requests from an XML file into a fork of a courier, with their precedences: the requests of the file
+     * are added to the ones of the fork, which takes the warehouse and departure time of the file.
+     *
+     * @param filepath the path to the XML file containing the requests
+     * @param transaction the fork of the courier
+     * @throws IllegalArgumentException if the file cannot be parsed or its warehouse is not the one of the fork
+     */
+    public void loadRequests(String filepath, PlanningTransaction transaction) {
+        PickupDelivery loaded = new PickupDelivery();
+        loaded.setWarehouseAddressId(transaction.getRequests().getWarehouseAddressId());
+        loaded.setDepartureTime(transaction.getRequests().getDepartureTime());
+        if (!XMLParsers.parseRequests(filepath, loaded)) {
+            throw new IllegalArgumentException("The request at " + filepath
+                    + " cannot be read or does not have the same warehouse as the courier");
         }
 
-        return XMLParsers.parseRequests(filepath, pickupDeliveryPerCourier.get(courierId));
+        transaction.setWarehouseAddressId(loaded.getWarehouseAddressId());
+        transaction.setDepartureTime(loaded.getDepartureTime());
+        for (Request request : loaded.getRequests()) {
+            transaction.addRequest(request);
+        }
     }
 
     /**
@@ -84,22 +105,18 @@ public class RequestService {
     public TreeMap<Long, Long> getAllWarehouseIds() {
         TreeMap<Long, Long> warehouseIds = new TreeMap<>();
 
-        for (Long courierId : pickupDeliveryPerCourier.keySet()) {
-            warehouseIds.put(courierId, pickupDeliveryPerCourier.get(courierId).getWarehouseAddressId());
+        for (var entry : pickupDeliveryPerCourier.entrySet()) {
+            warehouseIds.put(entry.getKey(), entry.getValue().getWarehouseAddressId());
         }
 
         return warehouseIds;
     }
 
     public PickupDelivery getPickupDeliveryForCourier(long courierId) {
-        if (!pickupDeliveryPerCourier.containsKey(courierId)) {
-            pickupDeliveryPerCourier.put(courierId, new PickupDelivery());
-        }
-
-        return pickupDeliveryPerCourier.get(courierId);
+        return pickupDeliveryPerCourier.computeIfAbsent(courierId, k -> new PickupDelivery());
     }
 
-    public TreeMap<Long, PickupDelivery> getPickupDeliveryPerCourier() {
+    public ConcurrentNavigableMap<Long, PickupDelivery> getPickupDeliveryPerCourier() {
         return pickupDeliveryPerCourier;
     }
 
@@ -108,10 +125,6 @@ public class RequestService {
     }
 
     public void setWarehouseAddress(long warehouseId,long courierId) {
-        if (!pickupDeliveryPerCourier.containsKey(courierId)) {
-            pickupDeliveryPerCourier.put(courierId, new PickupDelivery());
-        }
-
-        pickupDeliveryPerCourier.get(courierId).setWarehouseAddressId(warehouseId);
+        getPickupDeliveryForCourier(courierId).setWarehouseAddressId(warehouseId);
     }
 }
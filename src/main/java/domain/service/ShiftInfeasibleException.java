@@ -0,0 +1,28 @@
+package domain.service;
+
+/**
+ * Exception thrown when the requests of a courier cannot fit in their shift: even a lower bound of the duration
+ * of their tour exceeds the shift duration, so no solver is run.
+ */
+public class ShiftInfeasibleException extends RuntimeException {
+
+    private final long courierId; // The ID of the courier.
+
+    /**
+     * Constructs the exception for a courier.
+     *
+     * @param courierId the ID of the courier
+     * @param minMinutes a lower bound of the duration of the tour, in minutes
+     * @param shiftMinutes the shift duration of the courier, in minutes
+     */
+    public ShiftInfeasibleException(long courierId, long minMinutes, long shiftMinutes) {
+        super("The requests of courier " + courierId + " cannot fit in their shift: at least "
+                + minMinutes + " min needed for a shift of " + shiftMinutes + " min.");
+        this.courierId = courierId;
+    }
+
+
+    public long getCourierId() {
+        return courierId;
+    }
+}
@@ -0,0 +1,161 @@
+package domain.service;
+
+import domain.model.Courier;
+import domain.model.PickupDelivery;
+import domain.model.Stop;
+import domain.model.Tour;
+import domain.model.dijkstra.ShortestPaths;
+import domain.utils.PersistentMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import persistence.PlanningSnapshot;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Service saving the whole planning state to a snapshot file and restoring it, to move a planning session to
+ * another instance of the application or to warm up a standby one (see {@link PlanningSnapshot}).
+ *
+ * The state is captured and replaced under the fleet lock, so a snapshot never holds half of an operation; the
+ * file itself is written and read outside of the lock. The background jobs of the couriers are superseded under
+ * the fleet lock when the state is replaced, so that none of them publishes a tour of the previous state.
+ */
+@Service
+public class SnapshotService {
+
+    private final PlanningService planningService; // Service holding the shortest paths already computed.
+
+
+    private final RequestService requestService; // Service holding the requests of each courier.
+
+
+    private final TourService tourService; // Service holding the couriers, their precedences and tours.
+
+
+    private final MapService mapService; // Service holding the map of the tours.
+
+
+    private final PlanningJobService planningJobService; // Service running the background planning jobs.
+
+
+    private final CourierLocks courierLocks; // The locks serializing the modifications of each courier.
+
+    /**
+     * Constructs the snapshot service of the planning services.
+     *
+     * @param planningService the service holding the shortest paths already computed
+     * @param requestService the service holding the requests of each courier
+     * @param tourService the service holding the couriers, their precedences and tours
+     * @param mapService the service holding the map of the tours
+     * @param planningJobService the service running the background planning jobs
+     */
+    @Autowired
+    public SnapshotService(PlanningService planningService, RequestService requestService, TourService tourService,
+                           MapService mapService, PlanningJobService planningJobService) {
+        this.planningService = planningService;
+        this.requestService = requestService;
+        this.tourService = tourService;
+        this.mapService = mapService;
+        this.planningJobService = planningJobService;
+        this.courierLocks = tourService.getCourierLocks();
+    }
+
+    /**
+     * Saves the planning state to a snapshot file, replacing it atomically.
+     *
+     * @param filePath the path of the snapshot file
+     * @param withShortestPaths whether to include the shortest paths already computed, so that the restored
+     *                          instance does not compute them again
+     * @throws IOException if the file cannot be written
+     */
+    public void save(String filePath, boolean withShortestPaths) throws IOException {
+        capture(withShortestPaths).write(Path.of(filePath), mapService.getMap());
+    }
+
+    /**
+     * Replaces the planning state with the one of a snapshot file taken on the same map. The undo and redo
+     * histories of the couriers are cleared, and the background jobs of the current and restored couriers are
+     * superseded.
+     *
+     * @param filePath the path of the snapshot file
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is not a snapshot of a supported version, or was taken on
+     *                                  another map
+     */
+    public void restore(String filePath) throws IOException {
+        PlanningSnapshot snapshot = PlanningSnapshot.read(Path.of(filePath), mapService.getMap());
+        if (!snapshot.getShortestPaths().isEmpty()) {
+            planningService.getDijkstraService().restoreComputedPaths(snapshot.getShortestPaths());
+        }
+
+        courierLocks.runWithFleet(() -> {
+            // A job superseded under the fleet lock cannot publish afterwards (see PlanningJobService)
+            Set<Long> supersededIds = courierIds();
+            for (Courier courier : tourService.getCouriers()) supersededIds.add(courier.getId());
+            for (Courier courier : snapshot.getCouriers()) supersededIds.add(courier.getId());
+            supersededIds.addAll(snapshot.getStates().keySet());
+            supersededIds.forEach(planningJobService::supersede);
+
+            tourService.replaceCouriers(snapshot.getCouriers());
+            requestService.getPickupDeliveryPerCourier().clear();
+            tourService.getPrecedencesByCourier().clear();
+            tourService.getTours().clear();
+            snapshot.getStates().forEach((courierId, state) -> {
+                if (state.requests() != null) requestService.getPickupDeliveryPerCourier().put(courierId, state.requests());
+                if (state.precedences() != null) tourService.getPrecedencesByCourier().put(courierId, state.precedences());
+                if (state.tour() != null) tourService.setTourForCourier(courierId, state.tour());
+            });
+            for (Courier courier : tourService.getCouriers()) {
+                tourService.getHistory(courier.getId()).clear();
+            }
+        });
+    }
+
+    /**
+     * Captures the planning state once no other thread works on a courier.
+     *
+     * @param withShortestPaths whether to include the shortest paths already computed
+     * @return the snapshot of the state
+     */
+    PlanningSnapshot capture(boolean withShortestPaths) {
+        PlanningSnapshot snapshot = courierLocks.withFleet(() -> {
+            List<Courier> couriers = new ArrayList<>();
+            for (Courier courier : tourService.getCouriers()) {
+                Courier copy = new Courier(courier.getId(), courier.getName(), courier.getShiftDuration());
+                copy.setAvailabilityStatus(courier.getAvailabilityStatus());
+                couriers.add(copy);
+            }
+
+            TreeMap<Long, PlanningSnapshot.CourierState> states = new TreeMap<>();
+            for (long courierId : courierIds()) {
+                PickupDelivery requests = requestService.getPickupDeliveryPerCourier().get(courierId);
+                // precedences and tours are replaced, not modified, once published
+                PersistentMap<Stop, Set<Stop>> precedences = tourService.getPrecedencesByCourier().get(courierId);
+                Tour tour = tourService.getTours().get(courierId);
+                states.put(courierId, new PlanningSnapshot.CourierState(requests != null ? requests.snapshot() : null,
+                        precedences, tour));
+            }
+            return new PlanningSnapshot(couriers, states, List.of());
+        });
+
+        if (!withShortestPaths) return snapshot;
+        List<ShortestPaths> shortestPaths = planningService.getDijkstraService().copyComputedPaths();
+        return new PlanningSnapshot(snapshot.getCouriers(), snapshot.getStates(), shortestPaths);
+    }
+
+    /**
+     * @return the IDs of the couriers with requests, precedences or a tour
+     */
+    private Set<Long> courierIds() {
+        Set<Long> courierIds = new HashSet<>(requestService.getPickupDeliveryPerCourier().keySet());
+        courierIds.addAll(tourService.getPrecedencesByCourier().keySet());
+        courierIds.addAll(tourService.getTours().keySet());
+        return courierIds;
+    }
+}
@@ -0,0 +1,16 @@
+package domain.service;
+
+/**
+ * Listener notified by a {@link TSP} solver each time it finds a better solution.
+ */
+@FunctionalInterface
+public interface SolutionListener {
+
+    /**
+     * Called when the solver finds a better solution. Called from the solver's thread.
+     *
+     * @param solution a copy of the vertices in visiting order, starting with vertex 0
+     * @param cost the cost of the solution
+     */
+    public void onNewSolution(Integer[] solution, double cost);
+}
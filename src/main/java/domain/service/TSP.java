@@ -2,6 +2,9 @@ package domain.service;
 
 import domain.model.Graphe;
 
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Interface representing the Traveling Salesman Problem (TSP) solver.
  * Provides methods to find a solution for the TSP, retrieve the solution path,
@@ -23,4 +26,81 @@ public interface TSP {
 
 
     public double getCoutSolution();
-}
\ No newline at end of file
+
+    /**
+     * Sets the precedence constraints of the problem.
+     *
+     * @param precedences a map of vertex -> vertices that must be visited before it
+     */
+    public void setPrecedences(Map<Integer, Set<Integer>> precedences);
+
+
+    public void setServiceTimes(double[] serviceTimes);
+
+    /**
+     * Sets the maximum duration of a tour (shift duration), in the unit of the costs, service times included.
+     * It is a hard constraint: a tour exceeding it is never returned as a solution, and if even the lower bound
+     * exceeds it the solver reports an infinite lower bound (no solution exists).
+     *
+     * @param maxDuration the maximum duration of a tour
+     */
+    public void setMaxDuration(double maxDuration);
+
+    /**
+     * Sets the request pairs of the problem, so that a pickup and its delivery can be handled together.
+     *
+     * @param requestPairs the request pairs as {pickup, delivery} vertex indices
+     */
+    public void setRequestPairs(int[][] requestPairs);
+
+    /**
+     * Sets a known solution (e.g. the previous tour of the courier) used as initial incumbent
+     * and starting point of the search. It is ignored if it is not a valid tour.
+     *
+     * @param initialSolution the vertices in visiting order, starting with vertex 0, or null
+     */
+    public void setInitialSolution(Integer[] initialSolution);
+
+    /**
+     * Sets a listener notified each time the search finds a better solution.
+     *
+     * @param listener the listener, or null
+     */
+    public void setSolutionListener(SolutionListener listener);
+
+    /**
+     * Requests the search to stop as soon as possible. The best solution found so far is kept.
+     * Can be called from another thread.
+     */
+    public void stop();
+
+    /**
+     * Returns the progress of the search. Can be called from another thread.
+     *
+     * @return the number of nodes (branch and bound) or iterations (metaheuristics) explored so far
+     */
+    public long getNbIterations();
+
+    /**
+     * Sets the optimality gap under which the search stops: the search stops as soon as the best solution
+     * is proven to be within this percentage of the optimum.
+     *
+     * @param gapTolerance the gap in percent of the best cost, 0 to only stop on the time limits
+     */
+    public void setGapTolerance(double gapTolerance);
+
+    /**
+     * Returns the optimality gap of the best solution, from the lower bound maintained by the solver.
+     *
+     * @return the gap in percent of the best cost (0 if the solution is proven optimal),
+     *         or infinity if no solution was found
+     */
+    public double getGap();
+
+    /**
+     * Returns the lower bound of the cost of a solution maintained by the solver.
+     *
+     * @return the lower bound (the cost of the best solution if it is proven optimal)
+     */
+    public double getLowerBound();
+}
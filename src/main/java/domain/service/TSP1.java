@@ -85,12 +85,14 @@ public class TSP1 extends TemplateTSP {
             totalCost += best;
 
 
+            // The path may use an arc in either direction: the cheaper one keeps the bound admissible
             for (int v = 0; v < n; v++) {
-                if (!inMST[v] && g.estArc(nodes.get(u), nodes.get(v))) {
-                    double cost = g.getCout(nodes.get(u), nodes.get(v));
-                    if (cost < minEdge[v]) {
-                        minEdge[v] = cost;
-                    }
+                if (inMST[v]) continue;
+                double cost = Double.POSITIVE_INFINITY;
+                if (g.estArc(nodes.get(u), nodes.get(v))) cost = g.getCout(nodes.get(u), nodes.get(v));
+                if (g.estArc(nodes.get(v), nodes.get(u))) cost = Math.min(cost, g.getCout(nodes.get(v), nodes.get(u)));
+                if (cost < minEdge[v]) {
+                    minEdge[v] = cost;
                 }
             }
         }
@@ -0,0 +1,448 @@
+package domain.service;
+
+import domain.model.Graphe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Adaptive Large Neighborhood Search (ALNS) solver for the pickup and delivery TSP.
+ *
+ * Starting from a regret insertion solution (or the initial solution if it is better), each iteration removes some request pairs with a
+ * removal operator (random, worst or Shaw/related) and reinserts them with a regret-k insertion
+ * operator. Operators are chosen by roulette wheel on adaptive weights, and new solutions are
+ * accepted with a simulated annealing criterion.
+ *
+ * Precedences, service times and the shift duration are respected: during the search, solutions exceeding
+ * the shift duration are penalised so that any solution fitting in the shift is preferred, but only solutions
+ * fitting in the shift are kept as result.
+ * The search is seeded, so that it is deterministic when stopped by its iteration count.
+ */
+public class TSPAlns implements TSP {
+
+    private static final double OVERTIME_PENALTY = 1000.0; // Penalty factor applied to the cost exceeding the shift duration.
+
+
+    private static final int SEGMENT_LENGTH = 100; // Number of iterations between two updates of the operator weights.
+
+
+    private static final double REACTION_FACTOR = 0.2; // How fast the operator weights follow their recent scores.
+
+
+    private static final double SCORE_NEW_BEST = 33; // Score of an operator finding a new best solution.
+
+
+    private static final double SCORE_BETTER = 9; // Score of an operator improving the current solution.
+
+
+    private static final double SCORE_ACCEPTED = 13; // Score of an operator producing an accepted worse solution.
+
+
+    private static final double DETERMINISM = 3; // Randomisation exponent of the worst and Shaw removals.
+
+
+    private static final int[] REGRET_DEGREES = {1, 2, 3}; // Regret degrees of the insertion operators.
+
+
+    private Graphe g; // The graph representing the problem.
+
+
+    private Map<Integer, Set<Integer>> precedences = new HashMap<>(); // Map storing precedence constraints for nodes.
+
+
+    private double[] serviceTimes = null; // Array storing the service times for each node.
+
+
+    private double maxDuration = Double.MAX_VALUE; // Maximum duration of the tour (shift duration).
+
+
+    private int[][] requestPairs = null; // Request pairs as {pickup, delivery} vertex indices.
+
+
+    private Integer[] initialSolution = null; // Known solution used as starting point of the search (warm start).
+
+
+    private long seed = 0L; // Seed of the random generator.
+
+
+    private int maxIterations = 5000; // Maximum number of iterations.
+
+
+    private Integer[] meilleureSolution; // Array storing the best solution found so far.
+
+
+    private double coutMeilleureSolution; // The cost of the best solution found so far.
+
+
+    private RegretInsertion insertion; // Insertion heuristic used to build and repair solutions.
+
+
+    private Random random; // Random generator of the search.
+
+
+    private SolutionListener solutionListener = null; // Listener notified of each better solution.
+
+
+    private volatile boolean stopRequested = false; // Stop requested from another thread.
+
+
+    private volatile long nbIterations = 0; // Number of iterations done so far.
+
+
+    private double gapTolerance = 0.0; // Relative gap (percent of the best cost) under which the search stops.
+
+
+    private double borneInf = 0.0; // Lower bound of the cost of a solution.
+
+
+    public void setPrecedences(Map<Integer, Set<Integer>> precedences) {
+        if (precedences == null) this.precedences = new HashMap<>();
+        else this.precedences = precedences;
+    }
+
+
+    public void setServiceTimes(double[] serviceTimes) {
+        this.serviceTimes = serviceTimes;
+    }
+
+
+    public void setMaxDuration(double maxDuration) {
+        this.maxDuration = maxDuration;
+    }
+
+
+    public void setRequestPairs(int[][] requestPairs) {
+        this.requestPairs = requestPairs;
+    }
+
+
+    public void setInitialSolution(Integer[] initialSolution) {
+        this.initialSolution = initialSolution;
+    }
+
+
+    public void setSolutionListener(SolutionListener solutionListener) {
+        this.solutionListener = solutionListener;
+    }
+
+
+    public void stop() {
+        this.stopRequested = true;
+    }
+
+
+    public long getNbIterations() {
+        return nbIterations;
+    }
+
+
+    public void setGapTolerance(double gapTolerance) {
+        this.gapTolerance = gapTolerance;
+    }
+
+
+    public double getGap() {
+        if (coutMeilleureSolution >= Integer.MAX_VALUE) return Double.POSITIVE_INFINITY;
+        if (coutMeilleureSolution <= 0) return 0.0;
+        return Math.max(0.0, 100.0 * (coutMeilleureSolution - borneInf) / coutMeilleureSolution);
+    }
+
+
+    public double getLowerBound() {
+        return borneInf;
+    }
+
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Searches for a solution within the time limit or the maximum number of iterations,
+     * whichever comes first.
+     *
+     * @param tpsLimite the time limit in milliseconds for finding the solution
+     * @param g the graph representing the TSP problem
+     */
+    @Override
+    public void chercheSolution(int tpsLimite, Graphe g) {
+        if (tpsLimite <= 0) return;
+        long tpsDebut = System.currentTimeMillis();
+        this.g = g;
+        this.random = new Random(seed);
+        this.insertion = new RegretInsertion(g, precedences, serviceTimes, maxDuration);
+        this.meilleureSolution = new Integer[g.getNbSommets()];
+        this.coutMeilleureSolution = Integer.MAX_VALUE;
+        this.nbIterations = 0;
+        this.borneInf = insertion.lowerBound();
+        try {
+            new PrecedenceClosure(g.getNbSommets(), precedences);
+        } catch (IllegalArgumentException e) {
+            borneInf = Double.POSITIVE_INFINITY; // precedence cycle: no tour exists
+            return;
+        }
+        if (borneInf > maxDuration) {
+            // No tour can fit in the shift
+            borneInf = Double.POSITIVE_INFINITY;
+            return;
+        }
+
+        List<int[]> units = RegretInsertion.buildUnits(g.getNbSommets(), requestPairs);
+        int[] unitOf = new int[g.getNbSommets()];
+        Arrays.fill(unitOf, -1);
+        for (int u = 0; u < units.size(); u++) {
+            for (int v : units.get(u)) unitOf[v] = u;
+        }
+
+        List<Integer> current = insertion.construct(units, 2);
+        if (initialSolution != null && insertion.isValidTour(Arrays.asList(initialSolution))
+                && (current == null || objective(Arrays.asList(initialSolution)) <= objective(current))) {
+            current = new ArrayList<>(Arrays.asList(initialSolution));
+        }
+        if (current == null) return; // no precedence-valid solution (e.g. precedence cycle)
+
+        double currentObjective = objective(current);
+        List<Integer> best = new ArrayList<>(current);
+        double bestObjective = currentObjective;
+        notifyNewSolution(best);
+
+        if (units.size() < 2 || gapReached(best)) {
+            saveBest(best);
+            return;
+        }
+
+        double[] removalWeights = {1, 1, 1};
+        double[] insertionWeights = new double[REGRET_DEGREES.length];
+        Arrays.fill(insertionWeights, 1);
+        double[] removalScores = new double[removalWeights.length];
+        double[] insertionScores = new double[insertionWeights.length];
+        int[] removalUses = new int[removalWeights.length];
+        int[] insertionUses = new int[insertionWeights.length];
+
+        // Accept a solution 5% worse than the initial one with probability 0.5, cool down to ~0 at the end
+        double temperature = 0.05 * insertion.cost(current) / Math.log(2);
+        double cooling = Math.pow(0.002, 1.0 / Math.max(1, maxIterations));
+
+        int minRemoved = 1;
+        int maxRemoved = Math.max(minRemoved, Math.min(20, (int) Math.ceil(units.size() * 0.3)));
+
+        for (int it = 0; it < maxIterations; it++) {
+            if (stopRequested || System.currentTimeMillis() - tpsDebut > tpsLimite) break;
+            nbIterations = it + 1;
+
+            int removalOp = roulette(removalWeights);
+            int insertionOp = roulette(insertionWeights);
+            int q = minRemoved + random.nextInt(maxRemoved - minRemoved + 1);
+
+            List<Integer> candidate = new ArrayList<>(current);
+            List<int[]> removed = switch (removalOp) {
+                case 0 -> randomRemoval(candidate, units, unitOf, q);
+                case 1 -> worstRemoval(candidate, units, unitOf, q);
+                default -> shawRemoval(candidate, units, unitOf, q);
+            };
+            removalUses[removalOp]++;
+            insertionUses[insertionOp]++;
+
+            if (insertion.insert(candidate, removed, REGRET_DEGREES[insertionOp])) {
+                double candidateObjective = objective(candidate);
+                double score = 0;
+
+                if (candidateObjective < bestObjective - 1e-9) {
+                    best = new ArrayList<>(candidate);
+                    bestObjective = candidateObjective;
+                    score = SCORE_NEW_BEST;
+                    notifyNewSolution(best);
+                    if (gapReached(best)) break;
+                } else if (candidateObjective < currentObjective - 1e-9) {
+                    score = SCORE_BETTER;
+                }
+
+                if (candidateObjective < currentObjective
+                        || random.nextDouble() < Math.exp((currentObjective - candidateObjective) / temperature)) {
+                    if (score == 0 && candidateObjective > currentObjective) score = SCORE_ACCEPTED;
+                    current = candidate;
+                    currentObjective = candidateObjective;
+                }
+
+                removalScores[removalOp] += score;
+                insertionScores[insertionOp] += score;
+            }
+
+            temperature *= cooling;
+
+            if ((it + 1) % SEGMENT_LENGTH == 0) {
+                updateWeights(removalWeights, removalScores, removalUses);
+                updateWeights(insertionWeights, insertionScores, insertionUses);
+            }
+        }
+
+        saveBest(best);
+    }
+
+    @Override
+    public Integer getSolution(int i) {
+        if (g != null && i >= 0 && i < g.getNbSommets())
+            return meilleureSolution[i];
+        return -1;
+    }
+
+    @Override
+    public double getCoutSolution() {
+        if (g != null)
+            return coutMeilleureSolution;
+        return -1;
+    }
+
+    /**
+     * Cost of a route, penalised by the time exceeding the shift duration.
+     */
+    private double objective(List<Integer> route) {
+        double cost = insertion.cost(route);
+        if (cost > maxDuration) cost += OVERTIME_PENALTY * (cost - maxDuration);
+        return cost;
+    }
+
+    /**
+     * Whether the gap between the cost of a route and the lower bound is under the gap tolerance.
+     */
+    private boolean gapReached(List<Integer> route) {
+        double cost = insertion.cost(route);
+        return cost <= maxDuration && gapTolerance > 0 && cost > 0 && 100.0 * (cost - borneInf) / cost <= gapTolerance;
+    }
+
+    private void saveBest(List<Integer> best) {
+        if (!insertion.isWithinMaxDuration(best)) return; // the shift duration is a hard constraint
+        best.toArray(meilleureSolution);
+        coutMeilleureSolution = insertion.cost(best);
+    }
+
+    private void notifyNewSolution(List<Integer> best) {
+        if (solutionListener != null && insertion.isWithinMaxDuration(best)) {
+            solutionListener.onNewSolution(best.toArray(new Integer[0]), insertion.cost(best));
+        }
+    }
+
+    /**
+     * Selects an operator index with a probability proportional to its weight.
+     */
+    private int roulette(double[] weights) {
+        double total = 0;
+        for (double w : weights) total += w;
+        double r = random.nextDouble() * total;
+        for (int i = 0; i < weights.length; i++) {
+            r -= weights[i];
+            if (r < 0) return i;
+        }
+        return weights.length - 1;
+    }
+
+    private void updateWeights(double[] weights, double[] scores, int[] uses) {
+        for (int i = 0; i < weights.length; i++) {
+            if (uses[i] > 0) {
+                weights[i] = weights[i] * (1 - REACTION_FACTOR) + REACTION_FACTOR * scores[i] / uses[i];
+                weights[i] = Math.max(weights[i], 0.1);
+            }
+            scores[i] = 0;
+            uses[i] = 0;
+        }
+    }
+
+    /**
+     * Lists the units present in the route, in route order.
+     */
+    private List<Integer> unitsInRoute(List<Integer> route, int[] unitOf) {
+        List<Integer> present = new ArrayList<>();
+        boolean[] seen = new boolean[unitOf.length];
+        for (int i = 1; i < route.size(); i++) {
+            int u = unitOf[route.get(i)];
+            if (u >= 0 && !seen[u]) {
+                seen[u] = true;
+                present.add(u);
+            }
+        }
+        return present;
+    }
+
+    private List<int[]> removeUnits(List<Integer> route, List<int[]> units, List<Integer> selected) {
+        List<int[]> removed = new ArrayList<>();
+        boolean[] toRemove = new boolean[g.getNbSommets()];
+        for (Integer u : selected) {
+            removed.add(units.get(u));
+            for (int v : units.get(u)) toRemove[v] = true;
+        }
+        route.removeIf(v -> toRemove[v]);
+        return removed;
+    }
+
+    /**
+     * Removes q units chosen uniformly at random.
+     */
+    private List<int[]> randomRemoval(List<Integer> route, List<int[]> units, int[] unitOf, int q) {
+        List<Integer> present = unitsInRoute(route, unitOf);
+        Collections.shuffle(present, random);
+        return removeUnits(route, units, present.subList(0, Math.min(q, present.size())));
+    }
+
+    /**
+     * Removes q units among those whose removal saves the most, with some randomisation.
+     */
+    private List<int[]> worstRemoval(List<Integer> route, List<int[]> units, int[] unitOf, int q) {
+        List<Integer> present = unitsInRoute(route, unitOf);
+        int[] pos = new int[g.getNbSommets()];
+        for (int i = 0; i < route.size(); i++) pos[route.get(i)] = i;
+
+        double[] saving = new double[units.size()];
+        for (Integer u : present) saving[u] = insertion.removalSaving(route, pos, units.get(u));
+        present.sort(Comparator.comparingDouble((Integer u) -> saving[u]).reversed());
+
+        List<Integer> selected = new ArrayList<>();
+        while (selected.size() < q && !present.isEmpty()) {
+            int index = (int) Math.floor(Math.pow(random.nextDouble(), DETERMINISM) * present.size());
+            selected.add(present.remove(index));
+        }
+        return removeUnits(route, units, selected);
+    }
+
+    /**
+     * Removes q units related to each other (close pickups and close deliveries), starting from a random unit.
+     */
+    private List<int[]> shawRemoval(List<Integer> route, List<int[]> units, int[] unitOf, int q) {
+        List<Integer> present = unitsInRoute(route, unitOf);
+        List<Integer> selected = new ArrayList<>();
+        selected.add(present.remove(random.nextInt(present.size())));
+
+        while (selected.size() < q && !present.isEmpty()) {
+            int[] reference = units.get(selected.get(random.nextInt(selected.size())));
+            present.sort(Comparator.comparingDouble(u -> relatedness(reference, units.get(u))));
+            int index = (int) Math.floor(Math.pow(random.nextDouble(), DETERMINISM) * present.size());
+            selected.add(present.remove(index));
+        }
+        return removeUnits(route, units, selected);
+    }
+
+    /**
+     * Relatedness of two units: the lower, the more related.
+     */
+    private double relatedness(int[] a, int[] b) {
+        double r = distance(a[0], b[0]);
+        r += distance(a[a.length - 1], b[b.length - 1]);
+        return r;
+    }
+
+    private double distance(int i, int j) {
+        double d = Math.min(insertion.arc(i, j), insertion.arc(j, i));
+        return (d == Double.POSITIVE_INFINITY) ? Double.MAX_VALUE : d;
+    }
+}
@@ -0,0 +1,274 @@
+package domain.service;
+
+import domain.model.Graphe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Exact solver of the Sequential Ordering Problem by dynamic programming (Held-Karp).
+ *
+ * The state is the set of vertices already visited (a bitmask over the vertices other than the depot) and the
+ * last visited vertex; a vertex can only be appended to a state containing all its predecessors (direct or not,
+ * see {@link PrecedenceClosure}), which also shrinks the number of reachable states. Time is in O(2^n * n^2) and memory in O(2^n * n), so the solver is
+ * limited to {@link #MAX_SOMMETS} vertices; for these sizes it proves optimality in milliseconds, where
+ * branch and bound can take seconds.
+ */
+public class TSPHeldKarp implements TSP {
+
+    static final int MAX_SOMMETS = 18; // Maximum number of vertices (depot included) of a solvable instance.
+
+
+    private Graphe g; // The graph representing the problem.
+
+
+    private Integer[] meilleureSolution; // Best solution found.
+
+
+    private double coutMeilleureSolution; // Cost of the best solution found.
+
+
+    private double borneInf = 0.0; // Lower bound of the cost of a solution.
+
+
+    private Map<Integer, Set<Integer>> precedences = new HashMap<>(); // Map of vertex -> vertices that must be visited before it.
+
+
+    private double[] serviceTimes = null; // Service time of each vertex (may be null).
+
+
+    private double maxDuration = Double.MAX_VALUE; // Maximum duration of a tour (shift duration).
+
+
+    private Integer[] initialSolution = null; // Known solution used as initial incumbent (warm start).
+
+
+    private SolutionListener solutionListener = null; // Listener notified of each better solution.
+
+
+    private DoubleSupplier borneSupPartagee = () -> Double.MAX_VALUE; // Cost of the best solution of concurrent solvers.
+
+
+    private volatile boolean stopRequested = false; // Stop requested from another thread.
+
+
+    private volatile long nbEtats = 0; // Number of states expanded so far.
+
+
+    public void setPrecedences(Map<Integer, Set<Integer>> precedences) {
+        if (precedences == null) this.precedences = new HashMap<>();
+        else this.precedences = precedences;
+    }
+
+
+    public void setServiceTimes(double[] serviceTimes) {
+        this.serviceTimes = serviceTimes;
+    }
+
+
+    public void setMaxDuration(double maxDuration) {
+        this.maxDuration = maxDuration;
+    }
+
+
+    public void setRequestPairs(int[][] requestPairs) {
+        // The dynamic programming only needs the precedences
+    }
+
+
+    public void setInitialSolution(Integer[] initialSolution) {
+        this.initialSolution = initialSolution;
+    }
+
+
+    public void setSolutionListener(SolutionListener solutionListener) {
+        this.solutionListener = solutionListener;
+    }
+
+
+    public void stop() {
+        this.stopRequested = true;
+    }
+
+
+    public long getNbIterations() {
+        return nbEtats;
+    }
+
+
+    public void setGapTolerance(double gapTolerance) {
+        // The solver is exact: it only stops once the optimum is proven
+    }
+
+
+    public double getGap() {
+        if (coutMeilleureSolution >= Integer.MAX_VALUE) return Double.POSITIVE_INFINITY;
+        if (coutMeilleureSolution <= 0) return 0.0;
+        return Math.max(0.0, 100.0 * (coutMeilleureSolution - borneInf) / coutMeilleureSolution);
+    }
+
+
+    public double getLowerBound() {
+        return borneInf;
+    }
+
+    /**
+     * Sets the cost of the best solution known by other solvers running concurrently. States that cannot
+     * beat it are not expanded.
+     *
+     * @param borneSupPartagee supplies the cost of the shared best solution, read from the solver's thread
+     */
+    public void setSharedUpperBound(DoubleSupplier borneSupPartagee) {
+        this.borneSupPartagee = borneSupPartagee;
+    }
+
+    /**
+     * Searches for the optimal solution. If the time limit is reached or the search is stopped before the end,
+     * only the initial solution (if any) is kept.
+     *
+     * @param tpsLimite the time limit in milliseconds
+     * @param g the graph representing the problem
+     */
+    @Override
+    public void chercheSolution(int tpsLimite, Graphe g) {
+        if (tpsLimite <= 0) return;
+        long tpsDebut = System.currentTimeMillis();
+        this.g = g;
+        int n = g.getNbSommets();
+        this.meilleureSolution = new Integer[n];
+        this.coutMeilleureSolution = Integer.MAX_VALUE;
+        this.borneInf = 0.0;
+        this.nbEtats = 0;
+
+        PrecedenceClosure closure;
+        try {
+            closure = new PrecedenceClosure(n, precedences);
+        } catch (IllegalArgumentException e) {
+            // Precedence cycle: no tour exists
+            borneInf = Double.POSITIVE_INFINITY;
+            return;
+        }
+
+        RegretInsertion insertion = new RegretInsertion(g, precedences, serviceTimes, maxDuration);
+        if (insertion.lowerBound() > maxDuration) {
+            // No tour can fit in the shift
+            borneInf = Double.POSITIVE_INFINITY;
+            return;
+        }
+        if (initialSolution != null && insertion.isValidTour(Arrays.asList(initialSolution))
+                && insertion.isWithinMaxDuration(Arrays.asList(initialSolution))) {
+            saveBest(Arrays.asList(initialSolution), insertion.cost(Arrays.asList(initialSolution)));
+        }
+        if (n > MAX_SOMMETS) return;
+        if (n == 1) {
+            if (service(0) <= maxDuration) saveBest(List.of(0), service(0));
+            borneInf = (coutMeilleureSolution < Integer.MAX_VALUE) ? coutMeilleureSolution : Double.POSITIVE_INFINITY;
+            return;
+        }
+
+        int m = n - 1; // vertex v > 0 is bit v - 1
+        int nbMasques = 1 << m;
+        int[] masquePreds = closure.toIntMasks(); // transitive: fewer partial orders to extend
+
+        // cout[masque * m + dernier]: cheapest path from the depot visiting masque and ending at dernier
+        double[] cout = new double[nbMasques * m];
+        byte[] precedent = new byte[nbMasques * m];
+        Arrays.fill(cout, Double.POSITIVE_INFINITY);
+        for (int v = 1; v < n; v++) {
+            if (masquePreds[v] == 0 && g.estArc(0, v)) {
+                cout[(1 << (v - 1)) * m + (v - 1)] = g.getCout(0, v) + service(v);
+            }
+        }
+
+        long etats = 0;
+        for (int masque = 1; masque < nbMasques; masque++) {
+            if ((masque & 0x3FF) == 0) {
+                nbEtats = etats;
+                if (stopRequested || System.currentTimeMillis() - tpsDebut > tpsLimite) return;
+            }
+            double borneSup = borneSup();
+            for (int dernier = 0; dernier < m; dernier++) {
+                double c = cout[masque * m + dernier];
+                if (c >= borneSup || c > maxDuration) continue; // also skips unreachable states
+                etats++;
+                for (int suivant = 0; suivant < m; suivant++) {
+                    int bit = 1 << suivant;
+                    if ((masque & bit) != 0 || (masquePreds[suivant + 1] & ~masque) != 0) continue;
+                    if (!g.estArc(dernier + 1, suivant + 1)) continue;
+                    double nouveauCout = c + g.getCout(dernier + 1, suivant + 1) + service(suivant + 1);
+                    int index = (masque | bit) * m + suivant;
+                    if (nouveauCout < cout[index]) {
+                        cout[index] = nouveauCout;
+                        precedent[index] = (byte) dernier;
+                    }
+                }
+            }
+        }
+        nbEtats = etats;
+
+        int complet = nbMasques - 1;
+        int meilleurDernier = -1;
+        double meilleurCout = borneSup();
+        for (int dernier = 0; dernier < m; dernier++) {
+            double c = cout[complet * m + dernier];
+            if (c == Double.POSITIVE_INFINITY || !g.estArc(dernier + 1, 0)) continue;
+            c += g.getCout(dernier + 1, 0);
+            if (c < meilleurCout && c <= maxDuration) {
+                meilleurCout = c;
+                meilleurDernier = dernier;
+            }
+        }
+
+        if (meilleurDernier >= 0) {
+            List<Integer> route = new ArrayList<>(n);
+            int masque = complet, dernier = meilleurDernier;
+            while (masque != 0) {
+                route.add(dernier + 1);
+                int avant = precedent[masque * m + dernier];
+                masque &= ~(1 << dernier);
+                dernier = avant;
+            }
+            route.add(0);
+            Collections.reverse(route);
+            saveBest(route, meilleurCout);
+        }
+        // Every state was explored: no solution is cheaper than the best known one (none at all if infinite)
+        borneInf = (borneSup() < Integer.MAX_VALUE) ? borneSup() : Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public Integer getSolution(int i) {
+        if (g != null && i >= 0 && i < g.getNbSommets())
+            return meilleureSolution[i];
+        return -1;
+    }
+
+    @Override
+    public double getCoutSolution() {
+        if (g != null)
+            return coutMeilleureSolution;
+        return -1;
+    }
+
+    private double borneSup() {
+        return Math.min(coutMeilleureSolution, borneSupPartagee.getAsDouble());
+    }
+
+    private double service(int v) {
+        return (serviceTimes != null && v < serviceTimes.length) ? serviceTimes[v] : 0.0;
+    }
+
+    private void saveBest(List<Integer> route, double cost) {
+        route.toArray(meilleureSolution);
+        coutMeilleureSolution = cost;
+        if (solutionListener != null) {
+            solutionListener.onNewSolution(route.toArray(new Integer[0]), cost);
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package domain.service;
+
+import domain.model.Graphe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Portfolio of solvers racing on the same instance, each on a thread of a pool shared by all the portfolios:
+ * dynamic programming ({@link TSPHeldKarp}, small instances only), branch and bound ({@link TSP1})
+ * and the ALNS metaheuristic ({@link TSPAlns}).
+ *
+ * The solvers share their best solution: the exact solvers prune against the cheapest solution found by any
+ * of them. The search stops as soon as one solver proves the shared best solution optimal (or within the gap
+ * tolerance) or proves that no tour fits in the shift, or when every solver reached its limits. The latency
+ * is thus the one of the best solver for the instance, without choosing it by hand.
+ *
+ * The pool has enough threads for the portfolios of {@link PlanningService#MAX_CONCURRENT_PLANNINGS} tours
+ * solved at the same time; the solvers of further portfolios wait for a free thread.
+ */
+public class TSPPortfolio implements TSP {
+
+    private static final AtomicInteger threadCount = new AtomicInteger(1); // Counter naming the solver threads.
+
+
+    static final int SOLVERS_PER_PORTFOLIO = 3; // Maximum number of solvers racing in a portfolio.
+
+
+    static final int MAX_SOLVER_THREADS = SOLVERS_PER_PORTFOLIO * PlanningService.MAX_CONCURRENT_PLANNINGS; // Threads running the solvers of all portfolios.
+
+
+    private static final ExecutorService solverThreads = newSolverThreads(); // Threads running the solvers of all portfolios.
+
+
+    private Graphe g; // The graph representing the problem.
+
+
+    private Integer[] meilleureSolution; // Best solution found by any solver.
+
+
+    private volatile double coutMeilleureSolution = Integer.MAX_VALUE; // Cost of the best solution found by any solver.
+
+
+    private double borneInf = 0.0; // Best lower bound of the finished solvers.
+
+
+    private List<TSP> solveurs = new ArrayList<>(); // Solvers of the current search.
+
+
+    private Map<Integer, Set<Integer>> precedences; // Map of vertex -> vertices that must be visited before it.
+
+
+    private double[] serviceTimes; // Service time of each vertex.
+
+
+    private double maxDuration = Double.MAX_VALUE; // Maximum duration of a tour (shift duration).
+
+
+    private int[][] requestPairs; // Request pairs as {pickup, delivery} vertex indices.
+
+
+    private Integer[] initialSolution; // Known solution given to every solver.
+
+
+    private SolutionListener solutionListener = null; // Listener notified of each better solution.
+
+
+    private double gapTolerance = 0.0; // Relative gap (percent of the best cost) under which the search stops.
+
+
+    private long seed = 0; // Seed of the ALNS.
+
+
+    private int maxIterations = 5000; // Maximum number of iterations of the ALNS.
+
+
+    private long noImprovementTimeout = 4000; // Time without improvement after which branch and bound stops.
+
+
+    private volatile boolean stopRequested = false; // Stop requested from another thread.
+
+
+    public void setPrecedences(Map<Integer, Set<Integer>> precedences) {
+        this.precedences = precedences;
+    }
+
+
+    public void setServiceTimes(double[] serviceTimes) {
+        this.serviceTimes = serviceTimes;
+    }
+
+
+    public void setMaxDuration(double maxDuration) {
+        this.maxDuration = maxDuration;
+    }
+
+
+    public void setRequestPairs(int[][] requestPairs) {
+        this.requestPairs = requestPairs;
+    }
+
+
+    public void setInitialSolution(Integer[] initialSolution) {
+        this.initialSolution = initialSolution;
+    }
+
+
+    public void setSolutionListener(SolutionListener solutionListener) {
+        this.solutionListener = solutionListener;
+    }
+
+
+    public void setGapTolerance(double gapTolerance) {
+        this.gapTolerance = gapTolerance;
+    }
+
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+
+    public void setNO_IMPROVEMENT_TIMEOUT(long noImprovementTimeout) {
+        this.noImprovementTimeout = noImprovementTimeout;
+    }
+
+
+    public synchronized void stop() {
+        stopRequested = true;
+        for (TSP solveur : solveurs) solveur.stop();
+    }
+
+
+    public synchronized long getNbIterations() {
+        long total = 0;
+        for (TSP solveur : solveurs) total += solveur.getNbIterations();
+        return total;
+    }
+
+
+    public double getGap() {
+        if (coutMeilleureSolution >= Integer.MAX_VALUE) return Double.POSITIVE_INFINITY;
+        if (coutMeilleureSolution <= 0) return 0.0;
+        return Math.max(0.0, 100.0 * (coutMeilleureSolution - borneInf) / coutMeilleureSolution);
+    }
+
+
+    public double getLowerBound() {
+        return borneInf;
+    }
+
+    /**
+     * Creates the pool running the solvers of all portfolios: {@link #MAX_SOLVER_THREADS} threads at most, which
+     * stop once idle; the solvers submitted while all of them are busy wait in the queue.
+     */
+    private static ExecutorService newSolverThreads() {
+        ThreadPoolExecutor threads = new ThreadPoolExecutor(MAX_SOLVER_THREADS, MAX_SOLVER_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "tsp-portfolio-" + threadCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        threads.allowCoreThreadTimeOut(true);
+        return threads;
+    }
+
+    /**
+     * Runs the solvers concurrently until one of them proves the best solution optimal (or within the gap
+     * tolerance), or until all of them are over. Each solver gets the whole time limit.
+     *
+     * @param tpsLimite the time limit in milliseconds
+     * @param g the graph representing the problem
+     */
+    @Override
+    public void chercheSolution(int tpsLimite, Graphe g) {
+        if (tpsLimite <= 0) return;
+        this.g = g;
+        this.meilleureSolution = new Integer[g.getNbSommets()];
+        this.coutMeilleureSolution = Integer.MAX_VALUE;
+        this.borneInf = 0.0;
+
+        try {
+            new PrecedenceClosure(g.getNbSommets(), precedences);
+        } catch (IllegalArgumentException e) {
+            // Precedence cycle: no tour exists, no need to start the solvers
+            borneInf = Double.POSITIVE_INFINITY;
+            return;
+        }
+        if (new RegretInsertion(g, precedences, serviceTimes, maxDuration).lowerBound() > maxDuration) {
+            // No tour can fit in the shift: no need to start the solvers
+            borneInf = Double.POSITIVE_INFINITY;
+            return;
+        }
+
+        List<TSP> nouveauxSolveurs = createSolvers(g.getNbSommets());
+        synchronized (this) {
+            solveurs = nouveauxSolveurs;
+            if (stopRequested) return;
+        }
+
+        CompletionService<TSP> termines = new ExecutorCompletionService<>(solverThreads);
+        for (TSP solveur : nouveauxSolveurs) {
+            termines.submit(() -> {
+                solveur.chercheSolution(tpsLimite, g);
+                return solveur;
+            });
+        }
+
+        boolean arrete = false;
+        for (int i = 0; i < nouveauxSolveurs.size(); i++) {
+            TSP solveur;
+            try {
+                solveur = termines.take().get();
+            } catch (InterruptedException e) {
+                stop();
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                continue; // a failing solver does not prevent the others from answering
+            }
+
+            offerSolution(solveur);
+            if (solveur.getLowerBound() > borneInf) borneInf = solveur.getLowerBound();
+            boolean prouve = borneInf == Double.POSITIVE_INFINITY
+                    || (coutMeilleureSolution < Integer.MAX_VALUE && getGap() <= gapTolerance);
+            if (!arrete && prouve) {
+                // The best solution is proven good enough, or no solution exists: the other solvers can stop
+                for (TSP autre : nouveauxSolveurs) autre.stop();
+                arrete = true;
+            }
+        }
+    }
+
+    @Override
+    public Integer getSolution(int i) {
+        if (g != null && i >= 0 && i < g.getNbSommets())
+            return meilleureSolution[i];
+        return -1;
+    }
+
+    @Override
+    public double getCoutSolution() {
+        if (g != null)
+            return coutMeilleureSolution;
+        return -1;
+    }
+
+    /**
+     * Creates and configures the solvers suited to the size of the instance.
+     *
+     * @param nbSommets the number of vertices of the instance
+     * @return the solvers
+     */
+    private List<TSP> createSolvers(int nbSommets) {
+        List<TSP> nouveauxSolveurs = new ArrayList<>();
+
+        if (nbSommets <= TSPHeldKarp.MAX_SOMMETS) {
+            TSPHeldKarp dp = new TSPHeldKarp();
+            dp.setSharedUpperBound(() -> coutMeilleureSolution);
+            nouveauxSolveurs.add(dp);
+        }
+
+        TSP1 branchAndBound = new TSP1();
+        branchAndBound.setNO_IMPROVEMENT_TIMEOUT(noImprovementTimeout);
+        branchAndBound.setSharedUpperBound(() -> coutMeilleureSolution);
+        nouveauxSolveurs.add(branchAndBound);
+
+        TSPAlns alns = new TSPAlns();
+        alns.setSeed(seed);
+        alns.setMaxIterations(maxIterations);
+        nouveauxSolveurs.add(alns);
+
+        for (TSP solveur : nouveauxSolveurs) {
+            solveur.setPrecedences(precedences);
+            solveur.setServiceTimes(serviceTimes);
+            solveur.setMaxDuration(maxDuration);
+            solveur.setRequestPairs(requestPairs);
+            solveur.setInitialSolution(initialSolution);
+            solveur.setGapTolerance(gapTolerance);
+            solveur.setSolutionListener(this::onNewSolution);
+        }
+        return nouveauxSolveurs;
+    }
+
+    /**
+     * Keeps the final solution of a finished solver if it is the best one.
+     */
+    private void offerSolution(TSP solveur) {
+        double cout = solveur.getCoutSolution();
+        if (cout < 0 || cout >= coutMeilleureSolution) return;
+        Integer[] solution = new Integer[g.getNbSommets()];
+        for (int i = 0; i < solution.length; i++) solution[i] = solveur.getSolution(i);
+        onNewSolution(solution, cout);
+    }
+
+    /**
+     * Shares a better solution found by one of the solvers. Called from the solvers' threads.
+     */
+    private synchronized void onNewSolution(Integer[] solution, double cout) {
+        if (cout >= coutMeilleureSolution || solution.length != meilleureSolution.length) return;
+        System.arraycopy(solution, 0, meilleureSolution, 0, solution.length);
+        coutMeilleureSolution = cout;
+        if (solutionListener != null) {
+            solutionListener.onNewSolution(solution.clone(), cout);
+        }
+    }
+}
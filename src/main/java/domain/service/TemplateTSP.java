@@ -3,13 +3,15 @@ package domain.service;
 import domain.model.Graphe;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.DoubleSupplier;
 
 /**
  * Abstract class providing a template for solving the Sequential Ordering Problem (SOP,
@@ -37,10 +39,25 @@ public abstract class TemplateTSP implements TSP {
     private Map<Integer, Set<Integer>> precedences = new HashMap<>(); // Map storing precedence constraints for nodes.
 
 
+    private PrecedenceClosure closure; // Transitive closure of the precedences, as bitmasks.
+
+
+    private BitSet nonVusMasque; // Mask of the vertices not visited yet in the current branch.
+
+
     private double[] serviceTimes = null; // Array storing the service times for each node.
 
 
-	// Durée maximale en secondes (shift duration)
+    private int[][] requestPairs = null; // Request pairs as {pickup, delivery} vertex indices, inserted together by the regret heuristic.
+
+
+    private static final int REGRET_K = 3; // Regret degree of the initial insertion heuristic.
+
+
+    private Integer[] initialSolution = null; // Known solution used as initial incumbent (warm start).
+
+
+	// Durée maximale (shift duration), dans la même unité que les coûts : contrainte stricte
     private double maxDuration = Double.MAX_VALUE;
 
 	// Time control
@@ -50,6 +67,27 @@ public abstract class TemplateTSP implements TSP {
 	// Flag to stop all recursive branches
 	private boolean stopSearch = false;
 
+	// Stop requested from another thread (e.g. cancelled planning job)
+	private volatile boolean stopRequested = false;
+
+	// Number of nodes explored by the branch and bound
+	private volatile long nbNoeuds = 0;
+
+	// Listener notified of each better solution
+	private SolutionListener solutionListener = null;
+
+	// Relative gap (in percent of the best cost) under which the search stops, 0 to search until optimality
+	private double gapTolerance = 0.0;
+
+	// Global lower bound of the cost of a solution
+	private double borneInf = 0.0;
+
+	// Lower bound of each subtree of the root not fully explored yet, indexed by first vertex
+	private double[] bornesRacine;
+
+	// Cost of the best solution found by other solvers running concurrently (portfolio)
+	private DoubleSupplier borneSupPartagee = () -> Double.MAX_VALUE;
+
 	public void setNO_IMPROVEMENT_TIMEOUT(long noImp){
 		this.NO_IMPROVEMENT_TIMEOUT = noImp;
 	}
@@ -76,11 +114,55 @@ public abstract class TemplateTSP implements TSP {
         this.maxDuration = maxDuration;
     }
 
+    public void setRequestPairs(int[][] requestPairs) {
+        this.requestPairs = requestPairs;
+    }
+
+    public void setInitialSolution(Integer[] initialSolution) {
+        this.initialSolution = initialSolution;
+    }
+
+    public void setSolutionListener(SolutionListener solutionListener) {
+        this.solutionListener = solutionListener;
+    }
+
+    public void stop() {
+        this.stopRequested = true;
+    }
+
+    public long getNbIterations() {
+        return nbNoeuds;
+    }
+
+    public void setGapTolerance(double gapTolerance) {
+        this.gapTolerance = gapTolerance;
+    }
+
+    public double getLowerBound() {
+        return borneInf;
+    }
+
+    /**
+     * Sets the cost of the best solution known by other solvers running concurrently. Branches that cannot
+     * beat it are pruned, even if this solver has not found such a solution itself.
+     *
+     * @param borneSupPartagee supplies the cost of the shared best solution, read from the solver's thread
+     */
+    public void setSharedUpperBound(DoubleSupplier borneSupPartagee) {
+        this.borneSupPartagee = borneSupPartagee;
+    }
+
+    public double getGap() {
+        if (coutMeilleureSolution >= Integer.MAX_VALUE) return Double.POSITIVE_INFINITY;
+        if (coutMeilleureSolution <= 0) return 0.0;
+        return Math.max(0.0, 100.0 * (coutMeilleureSolution - borneInf) / coutMeilleureSolution);
+    }
+
 	/**
      * Entry point of the TSP solving process.
      * Performs:
      *   1. Initialization
-     *   2. Nearest Neighbor heuristic as initial upper bound
+     *   2. Initial solution, regret-k insertion or Nearest Neighbor heuristic (the best one) as initial upper bound
      *   3. Branch & Bound search for improvements
      */
 	public void chercheSolution(int tpsLimite,Graphe g ){
@@ -88,6 +170,7 @@ public abstract class TemplateTSP implements TSP {
 		tpsDebut = System.currentTimeMillis();
 		this.lastImprovementTime = tpsDebut;
 		this.stopSearch = false;
+		this.nbNoeuds = 0;
 		this.tpsLimite = tpsLimite;
 		this.g = g;
 		meilleureSolution = new Integer[g.getNbSommets()];
@@ -96,15 +179,42 @@ public abstract class TemplateTSP implements TSP {
 		Collection<Integer> vus = new ArrayList<Integer>(g.getNbSommets());
 		vus.add(0); // le premier sommet visite est 0 depot
 
+		try {
+			closure = new PrecedenceClosure(g.getNbSommets(), precedences);
+		} catch (IllegalArgumentException e) {
+			// Precedence cycle: no tour exists
+			coutMeilleureSolution = Integer.MAX_VALUE;
+			borneInf = Double.POSITIVE_INFINITY;
+			return;
+		}
+		nonVusMasque = new BitSet(g.getNbSommets());
+		nonVusMasque.set(1, g.getNbSommets());
+
     	double heuristicCost = nearestNeighborHeuristic();
+		double regretCost = regretInsertionHeuristic(heuristicCost);
+		if (regretCost < heuristicCost) heuristicCost = regretCost;
+		double initialCost = initialSolutionCost(heuristicCost);
+		if (initialCost < heuristicCost) heuristicCost = initialCost;
 
 		if (heuristicCost < Double.MAX_VALUE) {
 			coutMeilleureSolution = heuristicCost;
+			notifyNewSolution();
 		} else{
 			coutMeilleureSolution = Integer.MAX_VALUE;
 			}
 
+		initLowerBounds(nonVus);
+		if (borneInf > maxDuration) {
+			// Even the lower bound does not fit in the shift: no need to search
+			borneInf = Double.POSITIVE_INFINITY;
+			return;
+		}
+		if (gapReached()) return;
+
 		branchAndBound(0, nonVus, vus, 0);
+
+		// The whole tree was explored: no solution is cheaper than the best known one (none at all if infinite)
+		if (!stopSearch) borneInf = (borneSup() < Integer.MAX_VALUE) ? borneSup() : Double.POSITIVE_INFINITY;
 	}
 
 	public Integer getSolution(int i){
@@ -151,7 +261,9 @@ public abstract class TemplateTSP implements TSP {
 	private void branchAndBound(int sommetCrt, Collection<Integer> nonVus, Collection<Integer> vus, double coutVus){
 
 		long currentTime = System.currentTimeMillis();
+		nbNoeuds++;
 
+		if (stopRequested) stopSearch = true;
 		if (stopSearch) return;
 		// Stop when no improvement for some time
     	if (currentTime - lastImprovementTime > NO_IMPROVEMENT_TIMEOUT) {
@@ -173,30 +285,28 @@ public abstract class TemplateTSP implements TSP {
 	    if (nonVus.size() == 0){
 	    	if (g.estArc(sommetCrt,0)){ // on peut retourner au sommet de depart (0)
 				double newCost = coutVus+g.getCout(sommetCrt,0);
-				if (newCost < coutMeilleureSolution){
+				if (newCost < coutMeilleureSolution && newCost <= maxDuration){
 					vus.toArray(meilleureSolution);
 					coutMeilleureSolution = newCost;
 					lastImprovementTime = System.currentTimeMillis();
+					notifyNewSolution();
+					if (gapReached()) stopSearch = true;
 				}
 	    	}
-		// Explore successors only if the lower bound is promising
-	    } else if (coutVus+bound(sommetCrt,nonVus) < coutMeilleureSolution){
+		// Explore successors only if the lower bound is promising and fits in the shift
+	    } else {
+	        double borneChemin = coutVus + bound(sommetCrt, nonVus) + remainingService(nonVus);
+	        if (borneChemin > maxDuration || borneChemin >= borneSup()) return;
+
 	        Iterator<Integer> it = iterator(sommetCrt, nonVus, g);
 	        while (it.hasNext()){
 				if (stopSearch) return;
 	        	Integer prochainSommet = it.next();
-				// --- PRECEDENCE ---
-                Set<Integer> preds = precedences.getOrDefault(prochainSommet, Collections.emptySet());
-                boolean ok = true;
-                for (Integer pred : preds) {
-                    if (!vus.contains(pred)) {
-                        ok = false;
-                        break;
-                    }
-                }
-                if (!ok) continue;
+				// --- PRECEDENCE --- every predecessor, direct or not, must already be visited
+                if (closure.getPredecessors(prochainSommet).intersects(nonVusMasque)) continue;
                 vus.add(prochainSommet);
                 nonVus.remove(prochainSommet);
+                nonVusMasque.clear(prochainSommet);
 
                 double addCost = g.getCout(sommetCrt, prochainSommet);
 
@@ -207,17 +317,144 @@ public abstract class TemplateTSP implements TSP {
 
                 double nouveauCout = coutVus + addCost;
 
-                // Pruning: doesn't explore if exceeding max duration and not better than best solution
-                if (nouveauCout <= maxDuration || nouveauCout < coutMeilleureSolution) {
+                // Pruning: the shift duration is a hard constraint
+                if (nouveauCout <= maxDuration) {
                     branchAndBound(prochainSommet, nonVus, vus, nouveauCout);
                 }
                 
                 vus.remove(prochainSommet);
                 nonVus.add(prochainSommet);
+                nonVusMasque.set(prochainSommet);
+
+                // A subtree of the root is fully explored: its lower bound no longer holds back the global one
+                if (sommetCrt == 0 && vus.size() == 1 && !stopSearch) {
+                    bornesRacine[prochainSommet] = Double.POSITIVE_INFINITY;
+                    updateLowerBound();
+                    if (gapReached()) stopSearch = true;
+                }
 	        }	    
 	    }
 	}
 
+	/**
+	 * Computes the global lower bound at the root: the bound of the whole problem, and the bound of each
+	 * subtree of the root (tours starting with a given vertex). The service times are added to the bounds,
+	 * every vertex being served once.
+	 *
+	 * @param nonVus the vertices other than the depot
+	 */
+	private void initLowerBounds(Collection<Integer> nonVus) {
+		double[] services = new double[g.getNbSommets()];
+		double totalService = 0.0;
+		for (int i = 0; i < services.length; i++) {
+			services[i] = (serviceTimes != null && i < serviceTimes.length) ? serviceTimes[i] : 0.0;
+			totalService += services[i];
+		}
+
+		RegretInsertion insertion = new RegretInsertion(g, precedences, serviceTimes, maxDuration);
+		borneInf = Math.max(insertion.lowerBound(), bound(0, nonVus) + totalService);
+
+		bornesRacine = new double[g.getNbSommets()];
+		Arrays.fill(bornesRacine, Double.POSITIVE_INFINITY);
+		List<Integer> reste = new ArrayList<>(nonVus);
+		for (Integer premier : nonVus) {
+			if (!g.estArc(0, premier) || !closure.getPredecessors(premier).isEmpty()) continue;
+			reste.remove(premier);
+			bornesRacine[premier] = g.getCout(0, premier) + bound(premier, reste) + totalService;
+			reste.add(premier);
+		}
+		updateLowerBound();
+	}
+
+	/**
+	 * Raises the global lower bound to the lowest bound of the subtrees of the root not fully explored yet:
+	 * a better solution, if any, is in one of them.
+	 */
+	private void updateLowerBound() {
+		double borne = borneSup();
+		for (double borneRacine : bornesRacine) borne = Math.min(borne, borneRacine);
+		if (borne < Double.POSITIVE_INFINITY) borneInf = Math.max(borneInf, borne);
+	}
+
+	/**
+	 * @param nonVus the vertices not visited yet
+	 * @return the sum of their service times, which any completion of the tour will spend
+	 */
+	private double remainingService(Collection<Integer> nonVus) {
+		if (serviceTimes == null) return 0.0;
+		double total = 0.0;
+		for (Integer v : nonVus) {
+			if (v >= 0 && v < serviceTimes.length) total += serviceTimes[v];
+		}
+		return total;
+	}
+
+	/**
+	 * @return the cost of the best solution known by this solver or by the solvers sharing their incumbent
+	 */
+	private double borneSup() {
+		return Math.min(coutMeilleureSolution, borneSupPartagee.getAsDouble());
+	}
+
+	/**
+	 * @return true if the gap between the best solution and the lower bound is under the gap tolerance
+	 */
+	private boolean gapReached() {
+		return gapTolerance > 0 && getGap() <= gapTolerance;
+	}
+
+	/**
+	 * Notifies the solution listener, if any, of the current best solution.
+	 */
+	private void notifyNewSolution() {
+		if (solutionListener != null) {
+			solutionListener.onNewSolution(Arrays.copyOf(meilleureSolution, meilleureSolution.length), coutMeilleureSolution);
+		}
+	}
+
+	/**
+	 * Evaluates the initial solution given by {@link #setInitialSolution(Integer[])}.
+	 * The solution is saved only if it is a valid tour cheaper than the given cost.
+	 *
+	 * @param coutAbattre the cost of the current incumbent
+	 * @return the cost of the initial solution, or Double.MAX_VALUE if there is none or it is not valid
+	 */
+	protected double initialSolutionCost(double coutAbattre) {
+		if (initialSolution == null) return Double.MAX_VALUE;
+		RegretInsertion insertion = new RegretInsertion(g, precedences, serviceTimes, maxDuration);
+		List<Integer> route = Arrays.asList(initialSolution);
+		if (!insertion.isValidTour(route) || !insertion.isWithinMaxDuration(route)) return Double.MAX_VALUE;
+
+		double totalCost = insertion.cost(route);
+		if (totalCost < coutAbattre) {
+			route.toArray(meilleureSolution);
+		}
+		return totalCost;
+	}
+
+	/**
+	 * Generates a solution using pickup/delivery-aware regret-k insertion: each request pair is
+	 * placed at its cheapest precedence-valid positions, the most constrained pairs first.
+	 * Unlike the Nearest Neighbor heuristic, it does not get stuck under tight precedences.
+	 * The solution is saved only if it is cheaper than the given cost.
+	 *
+	 * @param coutAbattre the cost of the current incumbent
+	 * @return the cost of the solution, or Double.MAX_VALUE if no precedence-valid solution was found
+	 */
+	protected double regretInsertionHeuristic(double coutAbattre) {
+		RegretInsertion insertion = new RegretInsertion(g, precedences, serviceTimes, maxDuration);
+		List<Integer> route = insertion.construct(RegretInsertion.buildUnits(g.getNbSommets(), requestPairs), REGRET_K);
+		if (route == null) return Double.MAX_VALUE;
+
+		double totalCost = insertion.cost(route);
+		if (totalCost >= Double.POSITIVE_INFINITY || totalCost > maxDuration) return Double.MAX_VALUE;
+
+		if (totalCost < coutAbattre) {
+			route.toArray(meilleureSolution);
+		}
+		return totalCost;
+	}
+
 	/**
      * Generates a quick feasible solution using the Nearest Neighbor heuristic.
      * Used as the initial upper bound before Branch & Bound.
@@ -225,6 +462,8 @@ public abstract class TemplateTSP implements TSP {
 	protected double nearestNeighborHeuristic() {
 		int n = g.getNbSommets();
 		boolean[] visited = new boolean[n];
+		BitSet nonVisites = new BitSet(n);
+		nonVisites.set(1, n);
 		List<Integer> route = new ArrayList<>();
 
 		int current = 0;
@@ -243,15 +482,7 @@ public abstract class TemplateTSP implements TSP {
 				if (visited[next]) continue;
 
 				// Verify precedences
-				Set<Integer> preds = precedences.getOrDefault(next, Collections.emptySet());
-				boolean precedencesOk = true;
-				for (Integer pred : preds) {
-					if (!visited[pred]) {
-						precedencesOk = false;
-						break;
-					}
-				}
-				if (!precedencesOk) continue;
+				if (closure.getPredecessors(next).intersects(nonVisites)) continue;
 
 				// Verify arc
 				if (!g.estArc(current, next)) continue;
@@ -278,6 +509,7 @@ public abstract class TemplateTSP implements TSP {
 			}
 
 			visited[nearest] = true;
+			nonVisites.clear(nearest);
 			route.add(nearest);
 			totalCost += minCost;
 			current = nearest;
@@ -293,10 +525,7 @@ public abstract class TemplateTSP implements TSP {
 
 		// verify shift duration
 		if (totalCost > maxDuration) {
-			System.out.println(
-				"NN heuristic found solution but exceeds shift duration: " +
-				String.format("%.2f", totalCost / 3600.0) + "h"
-			);
+			return Double.MAX_VALUE;
 		}
 
 		// save heuristic
@@ -10,43 +10,61 @@ import java.util.Map.Entry;
 import domain.model.*;
 import domain.model.dijkstra.CellInfo;
 import domain.model.dijkstra.DijkstraTable;
+import domain.utils.PersistentMap;
 import org.springframework.stereotype.Service;
 import persistence.XMLParsers;
 import persistence.XMLWriters;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Service class for managing tours and couriers.
  * Provides functionality to manage couriers, create tours, and handle requests.
+ *
+ * The couriers, tours and precedences are held in concurrent collections, read without locking by any thread.
+ * The operations modifying a courier over several steps hold its lock (see {@link #getCourierLocks()}), and mark
+ * it as modified.
  */
 @Service
 public class TourService {
 
-    private int numCouriers; // Number of couriers managed by the service.
+    private final CopyOnWriteArrayList<Courier> couriers; // List of couriers managed by the service.
 
 
-    private ArrayList<Courier> couriers; // List of couriers managed by the service.
+    private final ConcurrentSkipListMap<Long, Tour> tours; //  Map of tours associated with each courier ID.
 
 
-    private TreeMap<Long, Tour> tours; //  Map of tours associated with each courier ID.
+    private final ConcurrentSkipListMap<Long, PersistentMap<Stop, Set<Stop>>> precedencesByCourier; // Map of precedence constraints for each courier, replaced under the lock of the courier.
 
 
-    private TreeMap<Long, HashMap<String, Set<String>>> precedencesByCourier; // Map of precedence constraints for each courier.
+    private final PathLegCache legCache; // The road segments of the legs already built, by map version.
+
+
+    private final CourierLocks courierLocks; // The locks serializing the modifications of each courier.
+
+
+    private final ConcurrentHashMap<Long, CourierHistory> histories; // The undo and redo history of each courier.
 
 
     /** Initializes a new instance of the TourService class. */
     public TourService() {
-        this.numCouriers = 0;
-        this.couriers = new ArrayList<>();
-        this.tours = new TreeMap<>();
-        this.precedencesByCourier = new TreeMap<>();
+        this.couriers = new CopyOnWriteArrayList<>();
+        this.tours = new ConcurrentSkipListMap<>();
+        this.precedencesByCourier = new ConcurrentSkipListMap<>();
+        this.legCache = new PathLegCache();
+        this.courierLocks = new CourierLocks();
+        this.histories = new ConcurrentHashMap<>();
     }
 
 
     public void setTourForCourier(long courierId, Tour tour) {
         tours.put(courierId, tour);
+        courierLocks.markModified(courierId);
     }
 
     /**
@@ -56,9 +74,11 @@ public class TourService {
      * @return true if the courier was added successfully, false otherwise
      */
     public boolean addCourier(Courier courier) {
-        boolean added = couriers.add(courier);
-        if (added) { numCouriers++; }
-        return added;
+        return courierLocks.withCourier(courier.getId(), () -> {
+            couriers.add(courier);
+            courierLocks.markFleetModified(courier.getId());
+            return true;
+        });
     }
 
     /**
@@ -68,15 +88,11 @@ public class TourService {
      * @return true if the courier was removed successfully, false otherwise
      */
     public boolean removeCourier(long courierId) {
-        for (int i = 0; i < couriers.size(); i++) {
-            if (couriers.get(i).getId() == courierId) {
-                couriers.remove(i);
-                numCouriers--;
-                return true;
-            }
-        }
-
-        return false;
+        return courierLocks.withCourier(courierId, () -> {
+            boolean removed = couriers.removeIf(courier -> courier.getId() == courierId);
+            if (removed) courierLocks.markFleetModified(courierId);
+            return removed;
+        });
     }
 
     /**
@@ -85,13 +101,19 @@ public class TourService {
      * @param filepath the path to the XML file containing courier data
      */
     public void loadCouriers(String filepath) {
-        couriers.clear();
-        ArrayList<Courier> couriersToAdd = XMLParsers.parseCouriers(filepath);
+        replaceCouriers(XMLParsers.parseCouriers(filepath));
+    }
 
-        for (Courier courier : couriersToAdd) {
-            boolean added = couriers.add(courier);
-            if (added) { numCouriers++; }
-        }
+    /**
+     * Replaces the couriers managed by the service, once no other thread works on a courier.
+     *
+     * @param couriersToAdd the new couriers
+     */
+    public void replaceCouriers(List<Courier> couriersToAdd) {
+        courierLocks.runWithFleet(() -> {
+            couriers.clear();
+            couriers.addAll(couriersToAdd);
+        });
     }
 
 
@@ -101,11 +123,11 @@ public class TourService {
      * @param pickupDelivery the PickupDelivery object containing requests
      * @param courierId the ID of the courier
      * @param solution the TSP solution as an array of vertex indices
-     * @param vertices the list of vertex strings
+     * @param stops the stops of the TSP instance
      * @param costs the cost matrix representing travel times between vertices
      * @return the constructed Tour object
      */
-    public Tour convertGraphToTour(PickupDelivery pickupDelivery, long courierId, Integer[] solution, List<String> vertices, double[][] costs) {
+    public Tour convertGraphToTour(PickupDelivery pickupDelivery, long courierId, Integer[] solution, StopModel stops, double[][] costs) {
         long intersectionId;
         Integer previousTourStop = null;
 
@@ -124,7 +146,7 @@ public class TourService {
 
         for (Integer i : solution) {
             duration = Duration.ZERO;
-            intersectionId = extractIntersectionId(vertices.get(i));
+            intersectionId = stops.getIntersectionId(i);
 
             if (first) {
                 stopType = StopType.WAREHOUSE;
@@ -132,8 +154,8 @@ public class TourService {
                 arrivalTime = tour.getStartTime();
                 first = false;
             } else {
-                request = pickupDelivery.findRequestById(extractRequestId(vertices.get(i)));
-                stopType = extractStopType(vertices.get(i));
+                request = pickupDelivery.findRequestById(stops.getRequestId(i));
+                stopType = stops.getType(i);
                 arrivalTime = tour.getStartTime().plus(tour.getTotalDuration());
 
                 if (stopType == StopType.PICKUP) {
@@ -167,7 +189,9 @@ public class TourService {
     /**
      * Adds road segments to a tour based on the Dijkstra table and map data.
      * For each pair of consecutive stops in the tour, it retrieves the intermediary intersections
-     * from the Dijkstra table and adds the corresponding road segments to the tour.
+     * from the Dijkstra table and adds the corresponding road segments to the tour, as a new leg.
+     * The legs are cached by source, target and map version: only the legs which were not built before
+     * for this map are expanded from the table.
      *
      * @param tour the tour to which road segments will be added
      * @param table the Dijkstra table containing shortest path information
@@ -176,63 +200,92 @@ public class TourService {
      */
     public Tour addRoadsToTour(Tour tour, DijkstraTable table, Map map) {
         List<TourStop> stops = tour.getStops();
-        List<Long> reverseIntersectPath = new ArrayList<>();
 
         long targetIntersectionId;
         long sourceIntersectionId;
-        long currentIntersectionId;
+        int[] leg;
 
-        CellInfo info;
-        RoadSegment road;
+        // Add the road segments of each leg, from stop i to stop i + 1 (back to the warehouse for the last one)
+        for (int i = 0; i < stops.size(); i++) {
+            sourceIntersectionId = stops.get(i).getIntersectionId();
+            targetIntersectionId = stops.get((i + 1) % stops.size()).getIntersectionId();
 
-        // Add all the visited intersections in order to a list
-        for (int i = stops.size(); i > 0; i--) {
-            if (i == stops.size()) {
-                targetIntersectionId = stops.get(0).getIntersectionId();
-            } else {
-                targetIntersectionId = stops.get(i).getIntersectionId();
-            }
-            sourceIntersectionId = stops.get(i - 1).getIntersectionId();
-            currentIntersectionId = targetIntersectionId;
-            while (currentIntersectionId != sourceIntersectionId) {
-                reverseIntersectPath.add(currentIntersectionId);
-                info = table.get(sourceIntersectionId, currentIntersectionId);
-                currentIntersectionId = info.getPredecessor();
+            leg = legCache.get(sourceIntersectionId, targetIntersectionId, map.getVersion());
+            if (leg == null) {
+                leg = expandLeg(sourceIntersectionId, targetIntersectionId, table, map);
+                legCache.put(sourceIntersectionId, targetIntersectionId, map.getVersion(), leg);
             }
+            tour.addLeg(map, leg);
         }
 
-        reverseIntersectPath.add(stops.get(0).getIntersectionId());
-        Collections.reverse(reverseIntersectPath);
+        return tour;
+    }
 
-        for (int i = 0; i < reverseIntersectPath.size() - 1; i++) {
-            road = map.getRoadSegment(reverseIntersectPath.get(i), reverseIntersectPath.get(i + 1));
-            tour.addRoadSegment(road);
+    /**
+     * Builds the road segments of the shortest path between two intersections, by walking back the
+     * predecessors of the Dijkstra table from the target.
+     *
+     * @param sourceIntersectionId the ID of the intersection the path starts from
+     * @param targetIntersectionId the ID of the intersection the path goes to
+     * @param table the Dijkstra table containing shortest path information
+     * @param map the map containing road segment data
+     * @return the indices of the road segments of the path in the map, in order
+     */
+    private int[] expandLeg(long sourceIntersectionId, long targetIntersectionId, DijkstraTable table, Map map) {
+        List<Integer> reverseRoads = new ArrayList<>();
+        long currentIntersectionId = targetIntersectionId;
+        long predecessorId;
+        while (currentIntersectionId != sourceIntersectionId) {
+            CellInfo info = table.get(sourceIntersectionId, currentIntersectionId);
+            predecessorId = info.getPredecessor();
+            reverseRoads.add(map.getRoadSegmentIndex(predecessorId, currentIntersectionId));
+            currentIntersectionId = predecessorId;
         }
 
-        return tour;
+        int[] leg = new int[reverseRoads.size()];
+        for (int j = 0; j < leg.length; j++) {
+            leg[j] = reverseRoads.get(leg.length - 1 - j);
+        }
+        return leg;
+    }
+
+
+    public PathLegCache getLegCache() {
+        return legCache;
     }
 
     /**
-     * Updates the stop order for a courier's tour and adds precedence constraints.
+     * Updates the stop order of the tour of a fork of a courier by adding a precedence between two of its stops.
+     * The courier itself is modified once the fork is planned and committed.
      *
-     * @param courierId The ID of the courier.
+     * @param transaction The fork of the courier, with a tour.
      * @param beforeStopIndex The current index of the stop that must come before the other in tour.
      * @param afterStopIndex The current index of the stop that must come after the other in tour.
+     * @throws IllegalArgumentException If the stops cannot be ordered this way.
+     */
+    public void updateStopOrder(PlanningTransaction transaction, Integer beforeStopIndex, Integer afterStopIndex) {
+        Stop[] precedence = checkStopOrder(transaction.getPrecedences(), transaction.getTour(), beforeStopIndex, afterStopIndex);
+        transaction.addPrecedence(precedence[0], precedence[1]);
+    }
+
+    /**
+     * Checks that a precedence can be added between two stops of a tour.
+     *
+     * @return the stop that must come before the other, and the other one
      */
-    public void updateStopOrder(long courierId, Integer beforeStopIndex, Integer afterStopIndex) {
+    private Stop[] checkStopOrder(PersistentMap<Stop, Set<Stop>> precs, Tour tour, Integer beforeStopIndex, Integer afterStopIndex) {
+        if (tour == null) {
+            throw new IllegalArgumentException("The courier has no tour.");
+        }
 
-        if(beforeStopIndex < 0 || afterStopIndex < 0 || beforeStopIndex >= tours.get(courierId).getStops().size() || afterStopIndex >= tours.get(courierId).getStops().size()) {
+        if(beforeStopIndex < 0 || afterStopIndex < 0 || beforeStopIndex >= tour.getStops().size() || afterStopIndex >= tour.getStops().size()) {
             throw new IllegalArgumentException(
                     "Stop indices are out of bounds."
             );
         }
 
-        HashMap<String, Set<String>> precs = precedencesByCourier.get(courierId);
         TourStop beforeStop, followStop;
-        Tour tour;
-        char prevType, followingType;
 
-        tour = tours.get(courierId);
         beforeStop = tour.getStops().get(beforeStopIndex);
         followStop = tour.getStops().get(afterStopIndex);
 
@@ -251,12 +304,8 @@ public class TourService {
             );
         }
 
-        // Find types
-        prevType = (beforeStop.getType() == StopType.PICKUP) ? 'p' : 'd';
-        followingType = (followStop.getType() == StopType.PICKUP) ? 'p' : 'd';
-
-        String prevParse = parseParams(beforeStop.getRequestID(), beforeStop.getIntersectionId(), prevType);
-        String followParse = parseParams(followStop.getRequestID(), followStop.getIntersectionId(), followingType);
+        Stop prevParse = Stop.of(beforeStop);
+        Stop followParse = Stop.of(followStop);
 
         if ((precs.containsKey(prevParse) && precs.get(prevParse).contains(followParse)) || (precs.containsKey(followParse) && precs.get(followParse).contains(prevParse))) {
             throw new IllegalArgumentException(
@@ -264,13 +313,37 @@ public class TourService {
                             + beforeStopIndex + " and " + afterStopIndex
             );
         }
-        // Add precedence
-        precs.computeIfAbsent(
-                        followParse,
-                        k -> new HashSet<>())
-                .add(prevParse);
 
-        precedencesByCourier.put(courierId, precs);
+        // Checking that the new precedence does not close a cycle, which would make the tour infeasible
+        if (isTransitivePredecessor(precs, followParse, prevParse)) {
+            throw new IllegalArgumentException(
+                    "Impossible to create precedence between stops " + beforeStopIndex + " and " + afterStopIndex
+                            + " : stop " + afterStopIndex + " must already be visited before stop " + beforeStopIndex
+                            + " (precedence cycle)."
+            );
+        }
+        return new Stop[] { prevParse, followParse };
+    }
+
+    /**
+     * Checks whether a stop must be visited before another one, directly or through other precedences.
+     *
+     * @param precs The precedences of the courier (stop -> stops that must be visited before it).
+     * @param candidate The stop that may be a predecessor.
+     * @param stop The stop whose predecessors are searched.
+     * @return true if candidate must be visited before stop.
+     */
+    private boolean isTransitivePredecessor(PersistentMap<Stop, Set<Stop>> precs, Stop candidate, Stop stop) {
+        Set<Stop> visited = new HashSet<>();
+        ArrayDeque<Stop> toVisit = new ArrayDeque<>();
+        toVisit.add(stop);
+        while (!toVisit.isEmpty()) {
+            for (Stop pred : precs.getOrDefault(toVisit.poll(), Collections.emptySet())) {
+                if (pred.equals(candidate)) return true;
+                if (visited.add(pred)) toVisit.add(pred);
+            }
+        }
+        return false;
     }
 
     /**
@@ -280,157 +353,123 @@ public class TourService {
      * @param requests The list of requests assigned to the courier.
      */
     public void initPrecedences(long courierId, ArrayList<Request> requests) {
-        HashMap<String, Set<String>> precs = new HashMap<>();
-        long delIntersectionId;
-        long puIntersectionId;
-        for (Request request : requests) {
-            puIntersectionId = request.getPickupIntersectionId();
-            delIntersectionId = request.getDeliveryIntersectionId();
-            precs.computeIfAbsent(parseParams(request.getId(), delIntersectionId, 'd'), k -> new HashSet<>()).add(parseParams(request.getId(), puIntersectionId, 'p'));
-        }
-        precedencesByCourier.put(courierId, precs);
+        precedencesByCourier.put(courierId, Precedences.of(requests));
+        courierLocks.markModified(courierId);
     }
 
     /**
-     * Generates TSP precedence constraints for a courier based on their requests.
+     * Generates the TSP instance of a courier: its stops indexed by int and their precedence constraints.
      *
-     * @param requests The list of request IDs for the courier.
+     * @param requests The list of requests of the courier.
      * @param warehouseAddressId The address of the warehouse.
      * @param courierId The ID of the courier.
-     * @return A map entry containing intersection IDs and precedence constraints.
+     * @return The stops of the instance, with their precedence constraints.
+     * @throws IllegalStateException If the precedence constraints contain a cycle, so that no tour exists.
      */
-    public java.util.Map.Entry<List<String>, HashMap<Integer, Set<Integer>>> generateTspPrecedences(
+    public StopModel generateTspPrecedences(
             ArrayList<Request> requests,
             long warehouseAddressId,
             long courierId) {
-
-        HashMap<String, Set<String>> precs = precedencesByCourier.get(courierId);
-
-        List<String> vertices = new ArrayList<>(requests.size() * 2 + 1);
-        vertices.add(parseParams(-1, warehouseAddressId, 'w'));
-
-        for (Request request : requests) {
-            vertices.add(parseParams(request.getId(), request.getPickupIntersectionId(), 'p'));
-            vertices.add(parseParams(request.getId(), request.getDeliveryIntersectionId(), 'd'));
-        }
-
-        HashMap<Integer, Set<Integer>> tspPrecs = new HashMap<>();
-
-        for (int i = 0; i < vertices.size(); i++) {
-            Set<String> prevVertices = precs.get(vertices.get(i));
-            if (prevVertices != null) {
-                for (String prevVertix : prevVertices) {
-                    int prevVertixIndex = vertices.indexOf(prevVertix);
-                    tspPrecs.computeIfAbsent(i, k -> new HashSet<>())
-                            .add(prevVertixIndex);
-                }
-            }
-        }
-
-
-        return java.util.Map.entry(vertices, tspPrecs);
+        return generateTspPrecedences(requests, warehouseAddressId, courierId,
+                precedencesByCourier.getOrDefault(courierId, PersistentMap.empty()));
     }
 
     /**
-     * Parses parameters into a string representation.
+     * Generates the TSP instance of a courier from the given precedences instead of the registered ones
+     * (e.g. the precedences of a {@link PlanningTransaction}).
      *
-     * @param requestId The request ID.
-     * @param intersectionID The intersection ID.
-     * @param type The type of stop ('p' for pickup, 'd' for delivery, 'w' for warehouse).
-     * @return The parsed string representation.
+     * @param requests The list of requests of the courier.
+     * @param warehouseAddressId The address of the warehouse.
+     * @param courierId The ID of the courier.
+     * @param precs The precedences of the courier (stop -> stops that must be visited before it).
+     * @return The stops of the instance, with their precedence constraints.
+     * @throws IllegalStateException If the precedence constraints contain a cycle, so that no tour exists.
      */
-    public String parseParams(long requestId, long intersectionID, char type) {
-        return requestId + "/" + intersectionID + "/" + type;
-    }
+    public StopModel generateTspPrecedences(
+            ArrayList<Request> requests,
+            long warehouseAddressId,
+            long courierId,
+            PersistentMap<Stop, Set<Stop>> precs) {
 
-    /**
-     * Extracts intersection IDs from a list of vertex strings.
-     *
-     * @param vertices The list of vertex strings.
-     * @return An array of intersection IDs.
-     */
-    public long[] extractIntersectionIds(List<String> vertices) {
-        long[] intersectionIds = new long[vertices.size()];
+        StopModel stops = new StopModel(warehouseAddressId, requests);
 
-        for (int i = 0; i < vertices.size(); i++) {
-            String v = vertices.get(i);
-            String[] parts = v.split("/");
-            intersectionIds[i] = Long.parseLong(parts[1]);
+        // The pickup of a request always comes before its delivery, even if not registered yet
+        for (int[] pair : stops.getRequestPairs()) {
+            stops.addPrecedence(pair[0], pair[1]);
+        }
+        for (java.util.Map.Entry<Stop, Set<Stop>> entry : precs.entrySet()) {
+            int vertex = stops.indexOf(entry.getKey());
+            if (vertex < 0) continue; // stop of a request no longer assigned to the courier
+            for (Stop prevStop : entry.getValue()) {
+                int prevVertex = stops.indexOf(prevStop);
+                if (prevVertex >= 0) stops.addPrecedence(prevVertex, vertex);
+            }
         }
 
-        return intersectionIds;
-    }
-
-    /**
-     * Extracts the request ID from a vertex string.
-     *
-     * @param vertix The vertex string.
-     * @return The extracted request ID.
-     */
-    public long extractRequestId(String vertix) {
-        long requestId;
-        String[] parts = vertix.split("/");
-        requestId = Long.parseLong(parts[0]);
-        return requestId;
-    }
+        // Reject infeasible precedences before solving
+        try {
+            new PrecedenceClosure(stops);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Infeasible precedences for courier " + courierId + ": " + e.getMessage(), e);
+        }
 
-    /**
-     * Extracts the intersection ID from a vertex string.
-     *
-     * @param vertix The vertex string.
-     * @return The extracted intersection ID.
-     */
-    public long extractIntersectionId(String vertix) {
-        long intersectionId;
-        String[] parts = vertix.split("/");
-        intersectionId = Long.parseLong(parts[1]);
-        return intersectionId;
+        return stops;
     }
 
     /**
-     * Extracts the stop type from a vertex string.
+     * Maps the stop order of a previous tour onto the vertices of a new problem.
+     * Stops whose request no longer exists are skipped, and new vertices are absent from the result.
      *
-     * @param vertix The vertex string.
-     * @return The extracted stop type.
+     * @param tour The previous tour of the courier.
+     * @param stops The stops of the new problem (index 0 being the warehouse).
+     * @return The vertex indices in the order of the previous tour, starting with the warehouse (0).
      */
-    public StopType extractStopType(String vertix) {
-        StopType stopType;
-        char typeChar;
-        String[] parts = vertix.split("/");
-        typeChar = parts[2].charAt(0);
-        if (typeChar != 'p' && typeChar != 'd' && typeChar != 'w') {
-            throw new IllegalArgumentException(
-                    "Incorrect StopType."
-            );
-        }
-        if (typeChar == 'p') {
-            stopType = StopType.PICKUP;
-        } else if (typeChar == 'd') {
-            stopType = StopType.DELIVERY;
-        } else {
-            stopType = StopType.WAREHOUSE;
+    public List<Integer> mapTourToVertices(Tour tour, StopModel stops) {
+        boolean[] mapped = new boolean[stops.size()];
+        List<Integer> order = new ArrayList<>();
+        order.add(0);
+        for (TourStop stop : tour.getStops()) {
+            if (stop.getType() != StopType.PICKUP && stop.getType() != StopType.DELIVERY) continue;
+            int index = stops.indexOf(Stop.of(stop));
+            if (index > 0 && !mapped[index]) {
+                mapped[index] = true;
+                order.add(index);
+            }
         }
-        return stopType;
+        return order;
     }
 
-    public ArrayList<Courier> getCouriers() {
+    public List<Courier> getCouriers() {
         return couriers;
     }
 
 
     public int getNumCouriers() {
-        return numCouriers;
+        return couriers.size();
     }
 
 
-    public TreeMap<Long, Tour> getTours() {
+    public ConcurrentNavigableMap<Long, Tour> getTours() {
         return tours;
     }
 
-    public TreeMap<Long, HashMap<String, Set<String>>> getPrecedencesByCourier() {
+    public ConcurrentNavigableMap<Long, PersistentMap<Stop, Set<Stop>>> getPrecedencesByCourier() {
         return precedencesByCourier;
     }
 
+
+    public CourierLocks getCourierLocks() {
+        return courierLocks;
+    }
+
+    /**
+     * @param courierId the ID of the courier
+     * @return the undo and redo history of the courier, to be accessed while holding its lock
+     */
+    public CourierHistory getHistory(long courierId) {
+        return histories.computeIfAbsent(courierId, k -> new CourierHistory());
+    }
+
     public ArrayList<Courier> getAvailableCouriers() {
         ArrayList<Courier> availableCouriers = new ArrayList<>();
         for (Courier courier : couriers) {
@@ -0,0 +1,263 @@
+package domain.utils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map sorted by key, whose modifications return a new map sharing the unchanged parts of this one.
+ *
+ * The entries are held in a balanced binary search tree (AVL): adding or removing an entry copies the nodes on the
+ * path from the root to the entry, O(log n) nodes, and the other subtrees are shared with the previous map. The
+ * successive versions of a state thus cost what changed between them, not a copy of the whole state. The map is
+ * read as any other map, in increasing key order; the modification methods of {@link Map} are not supported.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public final class PersistentMap<K extends Comparable<? super K>, V> extends AbstractMap<K, V> {
+
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(null); // The empty map, shared.
+
+
+    private final Node<K, V> root; // The root of the tree, null if the map is empty.
+
+    private PersistentMap(Node<K, V> root) {
+        this.root = root;
+    }
+
+    /**
+     * @return the empty map
+     */
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<? super K>, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Returns a persistent map holding the entries of a map, the map itself if it is already persistent.
+     *
+     * @param map the map to copy
+     * @return the persistent map
+     */
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<? super K>, V> PersistentMap<K, V> copyOf(Map<? extends K, ? extends V> map) {
+        if (map instanceof PersistentMap<?, ?> persistent) return (PersistentMap<K, V>) persistent;
+        PersistentMap<K, V> copy = empty();
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) copy = copy.plus(entry.getKey(), entry.getValue());
+        return copy;
+    }
+
+    /**
+     * Returns a map associating a value with a key, the other entries being those of this map.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the new map, or this map if the key is already associated with this very value
+     */
+    public PersistentMap<K, V> plus(K key, V value) {
+        Node<K, V> newRoot = plus(root, key, value);
+        return (newRoot == root) ? this : new PersistentMap<>(newRoot);
+    }
+
+    /**
+     * Returns a map without the entry of a key, the other entries being those of this map.
+     *
+     * @param key the key
+     * @return the new map, or this map if it does not hold the key
+     */
+    public PersistentMap<K, V> minus(K key) {
+        Node<K, V> newRoot = minus(root, key);
+        return (newRoot == root) ? this : new PersistentMap<>(newRoot);
+    }
+
+    @Override
+    public V get(Object key) {
+        Node<K, V> node = find(key);
+        return (node != null) ? node.value : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator<>(root);
+            }
+
+            @Override
+            public int size() {
+                return PersistentMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * Counts the nodes of this map which are not shared with another one.
+     *
+     * @param other another map, e.g. the previous version of this one
+     * @return the number of nodes of this map that the other one does not hold
+     */
+    int nbNodesNotIn(PersistentMap<K, V> other) {
+        Set<Node<K, V>> shared = Collections.newSetFromMap(new IdentityHashMap<>());
+        collect(other.root, shared);
+        Set<Node<K, V>> own = Collections.newSetFromMap(new IdentityHashMap<>());
+        collect(root, own);
+        own.removeAll(shared);
+        return own.size();
+    }
+
+    private static <K, V> void collect(Node<K, V> node, Set<Node<K, V>> nodes) {
+        if (node == null) return;
+        nodes.add(node);
+        collect(node.left, nodes);
+        collect(node.right, nodes);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node<K, V> find(Object key) {
+        K k = (K) key; // a key of another type is rejected by compareTo
+        Node<K, V> node = root;
+        while (node != null) {
+            int c = k.compareTo(node.key);
+            if (c == 0) return node;
+            node = (c < 0) ? node.left : node.right;
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------
+    // Path copying, rebalancing the copied nodes
+    // ---------------------------------------------------------------------------------------------------------
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> plus(Node<K, V> node, K key, V value) {
+        if (node == null) return new Node<>(key, value, null, null);
+        int c = key.compareTo(node.key);
+        if (c == 0) return (node.value == value) ? node : new Node<>(key, value, node.left, node.right);
+        if (c < 0) {
+            Node<K, V> left = plus(node.left, key, value);
+            return (left == node.left) ? node : balance(node.key, node.value, left, node.right);
+        }
+        Node<K, V> right = plus(node.right, key, value);
+        return (right == node.right) ? node : balance(node.key, node.value, node.left, right);
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> minus(Node<K, V> node, K key) {
+        if (node == null) return null;
+        int c = key.compareTo(node.key);
+        if (c < 0) {
+            Node<K, V> left = minus(node.left, key);
+            return (left == node.left) ? node : balance(node.key, node.value, left, node.right);
+        }
+        if (c > 0) {
+            Node<K, V> right = minus(node.right, key);
+            return (right == node.right) ? node : balance(node.key, node.value, node.left, right);
+        }
+        if (node.left == null) return node.right;
+        if (node.right == null) return node.left;
+        Node<K, V> next = node.right;
+        while (next.left != null) next = next.left;
+        return balance(next.key, next.value, node.left, minusFirst(node.right));
+    }
+
+    private static <K, V> Node<K, V> minusFirst(Node<K, V> node) {
+        if (node.left == null) return node.right;
+        return balance(node.key, node.value, minusFirst(node.left), node.right);
+    }
+
+    /**
+     * Builds a node from subtrees whose heights differ by at most 2, rotating them if they differ by 2.
+     */
+    private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> left, Node<K, V> right) {
+        if (height(left) > height(right) + 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node<>(left.key, left.value, left.left, new Node<>(key, value, left.right, right));
+            }
+            Node<K, V> middle = left.right;
+            return new Node<>(middle.key, middle.value, new Node<>(left.key, left.value, left.left, middle.left),
+                    new Node<>(key, value, middle.right, right));
+        }
+        if (height(right) > height(left) + 1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node<>(right.key, right.value, new Node<>(key, value, left, right.left), right.right);
+            }
+            Node<K, V> middle = right.left;
+            return new Node<>(middle.key, middle.value, new Node<>(key, value, left, middle.left),
+                    new Node<>(right.key, right.value, middle.right, right.right));
+        }
+        return new Node<>(key, value, left, right);
+    }
+
+    private static int height(Node<?, ?> node) {
+        return (node != null) ? node.height : 0;
+    }
+
+    private static int size(Node<?, ?> node) {
+        return (node != null) ? node.size : 0;
+    }
+
+    /**
+     * A node of the tree, never modified once built.
+     */
+    private static final class Node<K, V> {
+        final K key; // The key of the entry.
+        final V value; // The value of the entry.
+        final Node<K, V> left; // The entries with a lower key, or null.
+        final Node<K, V> right; // The entries with a greater key, or null.
+        final int height; // The height of the subtree.
+        final int size; // The number of entries of the subtree.
+
+        Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+
+    /**
+     * In-order iterator over the entries of a tree.
+     */
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final ArrayDeque<Node<K, V>> path = new ArrayDeque<>(); // The nodes whose entry is still to visit.
+
+        EntryIterator(Node<K, V> root) {
+            pushLeft(root);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !path.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (path.isEmpty()) throw new NoSuchElementException();
+            Node<K, V> node = path.pop();
+            pushLeft(node.right);
+            return new AbstractMap.SimpleImmutableEntry<>(node.key, node.value);
+        }
+
+        private void pushLeft(Node<K, V> node) {
+            for (; node != null; node = node.left) path.push(node);
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package ihm;
 
 import domain.model.*;
+import domain.service.AssignmentService;
 import domain.service.MapService;
+import domain.service.PlanningJobService;
 import domain.service.PlanningService;
 import domain.service.RequestService;
 import domain.service.TourService;
 import ihm.controller.RequestController;
+import org.springframework.http.ResponseEntity;
 
 import java.time.Duration;
 import java.time.LocalTime;
@@ -29,7 +32,9 @@ public class Main {
         tourService.addCourier(courier1);
 
         // Controller
-        RequestController requestController = new RequestController(requestService, planningService, tourService);
+        PlanningJobService planningJobService = new PlanningJobService(planningService);
+        RequestController requestController = new RequestController(requestService, planningService, tourService,
+                planningJobService, new AssignmentService(planningService, requestService, tourService, planningJobService));
 
         Scanner scanner = new Scanner(System.in);
         boolean running = true;
@@ -73,7 +78,7 @@ public class Main {
         }
 
         try {
-            requestController.loadRequests(path, id);
+            requestController.loadRequests(path, id, false);
             System.out.println("Requests loaded and internal model updated.");
         } catch (Exception e) {
             System.out.println("Error while loading requests: " + e.getMessage());
@@ -107,15 +112,21 @@ public class Main {
             // \- warehouse id is not used by Request constructor here
             Long warehouseId = 0L;
 
-            requestController.addRequest(
+            ResponseEntity<?> response = requestController.addRequest(
                     warehouseId,
                     pickupId,
                     pickupSec,
                     deliveryId,
                     deliverySec,
-                    courierId
+                    courierId,
+                    false,
+                    false
             );
 
+            if (!response.getStatusCode().is2xxSuccessful()) {
+                System.out.println("Request not added: " + response.getBody());
+                return;
+            }
             System.out.println("Request added and tour recomputed for courier " + courierId + ".");
         } catch (NumberFormatException e) {
             System.out.println("Invalid numeric value: " + e.getMessage());
@@ -0,0 +1,151 @@
+package ihm.controller;
+
+import domain.model.Tour;
+import domain.service.PlanningJob;
+import domain.service.PlanningJobService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controller class for asynchronous planning jobs.
+ * A job computes the tour of a courier on a solver thread; its progress can be polled or streamed,
+ * its best tour so far fetched and the job cancelled.
+ */
+@RestController
+@RequestMapping("/api/job")
+public class JobController {
+
+    private static final long STREAM_PERIOD_MILLIS = 500; // Period of the status events of a streamed job.
+
+
+    private final PlanningJobService planningJobService; // The service running the planning jobs.
+
+
+    private final ScheduledExecutorService streamScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "planning-job-stream");
+        thread.setDaemon(true);
+        return thread;
+    }); // Scheduler sending the status events of streamed jobs.
+
+    /**
+     * Constructs a JobController with the specified planning job service.
+     *
+     * @param planningJobService the service running the planning jobs
+     */
+    @Autowired
+    public JobController(PlanningJobService planningJobService) {
+        this.planningJobService = planningJobService;
+    }
+
+    /**
+     * Submits the computation of the tour of a courier. The tour is published once computed.
+     *
+     * @param courierId the ID of the courier whose tour is to be computed
+     * @return A ResponseEntity with:
+     *         - 202 ACCEPTED and the job if it was queued.
+     *         - 404 NOT FOUND if the courier does not exist.
+     *         - 503 SERVICE UNAVAILABLE if too many jobs are already queued.
+     */
+    @PostMapping("/submit")
+    public ResponseEntity<?> submit(@RequestParam long courierId) {
+        try {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(planningJobService.submit(courierId));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the status of a job: status, nodes explored, best cost and elapsed time.
+     *
+     * @param jobId the ID of the job
+     * @return the job, or 404 NOT FOUND if it does not exist
+     */
+    @GetMapping("/status")
+    public ResponseEntity<?> getStatus(@RequestParam long jobId) {
+        PlanningJob job = planningJobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Job ID " + jobId + " not found.");
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    /**
+     * Streams the status of a job as server-sent events until it is finished.
+     *
+     * @param jobId the ID of the job
+     * @return the event stream, or 404 NOT FOUND if the job does not exist
+     */
+    @GetMapping("/stream")
+    public ResponseEntity<?> streamStatus(@RequestParam long jobId) {
+        PlanningJob job = planningJobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Job ID " + jobId + " not found.");
+        }
+
+        SseEmitter emitter = new SseEmitter(0L);
+        ScheduledFuture<?> task = streamScheduler.scheduleAtFixedRate(() -> {
+            try {
+                boolean finished = job.getStatus().isFinished();
+                emitter.send(SseEmitter.event().name("status").data(job));
+                if (finished) emitter.complete();
+            } catch (IOException | IllegalStateException e) {
+                emitter.completeWithError(e);
+            }
+        }, 0, STREAM_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        emitter.onCompletion(() -> task.cancel(false));
+        emitter.onError(e -> task.cancel(false));
+
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * Returns the best tour found so far by a job, or its final tour once it is finished.
+     *
+     * @param jobId the ID of the job
+     * @return A ResponseEntity with:
+     *         - 200 OK and the tour.
+     *         - 204 NO CONTENT if the solver has not found a solution yet.
+     *         - 404 NOT FOUND if the job does not exist.
+     */
+    @GetMapping("/best-tour")
+    public ResponseEntity<?> getBestTour(@RequestParam long jobId) {
+        PlanningJob job = planningJobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Job ID " + jobId + " not found.");
+        }
+
+        Tour tour = job.computeBestTour();
+        if (tour == null) {
+            return ResponseEntity.noContent().build();
+        }
+        return ResponseEntity.ok(tour);
+    }
+
+    /**
+     * Cancels a job. A running solver is stopped and its tour is not published.
+     *
+     * @param jobId the ID of the job
+     * @return true if the job was cancelled, false if it was already finished, or 404 NOT FOUND
+     */
+    @PostMapping("/cancel")
+    public ResponseEntity<?> cancel(@RequestParam long jobId) {
+        try {
+            return ResponseEntity.ok(planningJobService.cancel(jobId));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package ihm.controller;
 
+import domain.model.AssignmentResult;
 import domain.model.Courier;
 import domain.model.Request;
+import domain.service.AssignmentService;
+import domain.service.PlanningJobService;
 import domain.service.PlanningService;
+import domain.service.PlanningTransaction;
 import domain.service.RequestService;
+import domain.service.ShiftInfeasibleException;
 import domain.service.TourService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -11,8 +16,11 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 /**
@@ -27,6 +35,8 @@ public class RequestController {
     private final RequestService requestService; // The service responsible for managing requests.
     private final PlanningService planningService; // The service responsible for managing tours calculations.
     private final TourService tourService; // The service responsible for managing tours.
+    private final PlanningJobService planningJobService; // The service running tours calculations asynchronously.
+    private final AssignmentService assignmentService; // The service assigning requests over the fleet.
 
     /**
      * Constructs a RequestController with the specified request and tour services.
@@ -34,12 +44,17 @@ public class RequestController {
      * @param requestService the service responsible for managing requests
      * @param planningService the service responsible for managing tours calculations
      * @param tourService the service responsible for managing tours
+     * @param planningJobService the service running tours calculations asynchronously
+     * @param assignmentService the service assigning requests over the fleet
      */
     @Autowired
-    public RequestController(RequestService requestService, PlanningService planningService, TourService tourService) {
+    public RequestController(RequestService requestService, PlanningService planningService, TourService tourService,
+                             PlanningJobService planningJobService, AssignmentService assignmentService) {
         this.requestService = requestService;
         this.planningService = planningService;
         this.tourService = tourService;
+        this.planningJobService = planningJobService;
+        this.assignmentService = assignmentService;
     }
 
     /**
@@ -55,41 +70,57 @@ public class RequestController {
     }
 
     /**
-     * Sets the warehouse address for the specified courier.
+     * Sets the warehouse address for the specified courier, under the lock of the courier: the tour of a courier
+     * having requests is recomputed from the new warehouse.
      *
      * @param warehouseId the ID of the warehouse intersection
      * @param courierId the ID of the courier
+     * @return a ResponseEntity indicating the result of the operation
      */
     @PostMapping("/addWarehouse")
-    public void addWarehouse(@RequestParam long warehouseId,
-                             @RequestParam long courierId) {
+    public ResponseEntity<?> addWarehouse(@RequestParam long warehouseId,
+                                          @RequestParam long courierId) {
         if (warehouseId <= 0) {
             throw new IllegalArgumentException("warehouseId must be a positive intersection id.");
         }
 
-        requestService.setWarehouseAddress(warehouseId, courierId);
+        return planAndHandleExceptions(courierId, () -> planningService.setWarehouseAddress(courierId, warehouseId));
     }
 
     /**
      * Loads requests from a file specified by the given file path.
      *
      * @param filepath the path to the file containing the requests
+     * @param courierId the ID of the courier assigned to the requests
+     * @param async whether to compute the tour in a planning job (202 ACCEPTED with the job) instead of
+     *              waiting for it
      */
     @PostMapping("/load")
     public ResponseEntity<?> loadRequests(@RequestParam String filepath,
-                                          @RequestParam long courierId) {
+                                          @RequestParam long courierId,
+                                          @RequestParam(defaultValue = "false") boolean async) {
         // check if courier exists
         if (!planningService.courierExists(courierId)) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .body("Courier ID " + courierId + " does not exist.");        }
 
-        // Load requests from the specified file for the given courier
-        if (!requestService.loadRequests(filepath, courierId)) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body("The request at " + filepath + " does not have the same warehouse as the courier");
+        // Load requests from the specified file into a fork of the courier, which replaces the courier once its
+        // tour is recomputed, and can be undone
+        PlanningTransaction transaction;
+        try {
+            transaction = planningService.fork(courierId, fork -> requestService.loadRequests(filepath, fork));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
         }
 
-        return recomputeTourAndHandleExceptions(courierId);
+        if (async) {
+            try {
+                return ResponseEntity.status(HttpStatus.ACCEPTED).body(planningJobService.submit(transaction));
+            } catch (RejectedExecutionException e) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+            }
+        }
+        return planAndHandleExceptions(courierId, () -> planningService.planAndCommit(transaction));
     }
 
     /**
@@ -101,6 +132,10 @@ public class RequestController {
      * @param deliveryIntersectionId the intersection ID for the delivery location
      * @param deliveryDurationInSeconds the duration of the delivery in seconds
      * @param courierId the ID of the courier assigned to the request
+     * @param fast whether to insert the request into the current tour (cheapest insertion) instead of
+     *             recomputing the whole tour (the default)
+     * @param optimize whether to fully optimize the tour in the background after a fast insertion; the
+     *                 re-plans of a burst of additions are coalesced
      */
     @PostMapping("/add")
     public ResponseEntity<?> addRequest(@RequestParam Long warehouseId,
@@ -108,7 +143,9 @@ public class RequestController {
                                         @RequestParam long pickupDurationInSeconds,
                                         @RequestParam long deliveryIntersectionId,
                                         @RequestParam long deliveryDurationInSeconds,
-                                        @RequestParam Long courierId) {
+                                        @RequestParam Long courierId,
+                                        @RequestParam(defaultValue = "false") boolean fast,
+                                        @RequestParam(defaultValue = "false") boolean optimize) {
         // check if courier exists
         if (!planningService.courierExists(courierId)) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
@@ -116,41 +153,243 @@ public class RequestController {
         }
 
         long currentWarehouseId = requestService.getPickupDeliveryForCourier(courierId).getWarehouseAddressId();
-        if (currentWarehouseId == -1) {
-            if (warehouseId == null || warehouseId <= 0) {
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                        .body("Warehouse is not set. Set it via /api/request/addWarehouse or provide a valid warehouseId.");
-            }
-            requestService.getPickupDeliveryForCourier(courierId).setWarehouseAddressId(warehouseId);
-        } else if (warehouseId != null && warehouseId > 0 && warehouseId != currentWarehouseId) {
-            requestService.getPickupDeliveryForCourier(courierId).setWarehouseAddressId(warehouseId);
+        if (currentWarehouseId == -1 && (warehouseId == null || warehouseId <= 0)) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Warehouse is not set. Set it via /api/request/addWarehouse or provide a valid warehouseId.");
         }
 
         // Convert durations from seconds to Duration
         Duration pickupDuration = Duration.ofSeconds(pickupDurationInSeconds);
         Duration deliveryDuration = Duration.ofSeconds(deliveryDurationInSeconds);
 
-        // Build and register the new request
+        // Build the new request
         Request newRequest = new Request(
                 pickupIntersectionId,
                 pickupDuration,
                 deliveryIntersectionId,
                 deliveryDuration
         );
-        requestService.addRequest(courierId, newRequest);
 
-        //update precedences
-        planningService.updatePrecedences(courierId, newRequest);
+        // Register the request and insert it into the current tour (or recompute the tour) on a fork of the
+        // courier, which replaces the courier only if the tour is computed
+        return planAndHandleExceptions(courierId, () -> {
+            boolean inserted = planningService.inTransaction(courierId, transaction -> {
+                if (warehouseId != null && warehouseId > 0) {
+                    transaction.setWarehouseAddressId(warehouseId);
+                }
+                transaction.addRequest(newRequest);
+                return planningService.plan(transaction, fast);
+            });
+            if (inserted && optimize) {
+                planningJobService.requestReplan(courierId);
+            }
+        });
+    }
+
+    /**
+     * A request of a batch, as sent in the body of {@code /api/request/batch}.
+     *
+     * @param courierId the ID of the courier assigned to the request
+     * @param warehouseId the ID of the warehouse of the courier, null to keep the current one
+     * @param pickupIntersectionId the intersection ID for the pickup location
+     * @param pickupDurationInSeconds the duration of the pickup in seconds
+     * @param deliveryIntersectionId the intersection ID for the delivery location
+     * @param deliveryDurationInSeconds the duration of the delivery in seconds
+     */
+    public record BatchRequest(long courierId, Long warehouseId, long pickupIntersectionId, long pickupDurationInSeconds,
+                               long deliveryIntersectionId, long deliveryDurationInSeconds) {
+    }
+
+    /**
+     * Adds many requests for one or more couriers at once: they are all validated, the precedences are updated,
+     * then the tour of each affected courier is recomputed once, the couriers concurrently.
+     * The batch is all-or-nothing: if a request is invalid or a tour cannot be computed, no request is added.
+     *
+     * @param batch the requests to add
+     * @return 200 OK with the IDs of the new requests, in the order of the batch, 400 BAD REQUEST if the batch is
+     *         invalid, 404 NOT FOUND if a courier does not exist, or 409 CONFLICT if a tour cannot be computed
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> addRequests(@RequestBody List<BatchRequest> batch) {
+        if (batch == null || batch.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("The batch is empty.");
+        }
+
+        TreeMap<Long, List<Request>> requestsByCourier = new TreeMap<>();
+        TreeMap<Long, Long> warehouseByCourier = new TreeMap<>();
+        List<Long> requestIds = new ArrayList<>();
+        for (BatchRequest item : batch) {
+            if (!planningService.courierExists(item.courierId())) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body("Courier ID " + item.courierId() + " does not exist.");
+            }
+            if (item.pickupDurationInSeconds() < 0 || item.deliveryDurationInSeconds() < 0) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Durations must not be negative.");
+            }
+            if (item.warehouseId() != null && item.warehouseId() > 0) {
+                Long previous = warehouseByCourier.putIfAbsent(item.courierId(), item.warehouseId());
+                if (previous != null && !previous.equals(item.warehouseId())) {
+                    return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                            .body("Courier ID " + item.courierId() + " is given two warehouses.");
+                }
+            }
+
+            Request request = new Request(
+                    item.pickupIntersectionId(),
+                    Duration.ofSeconds(item.pickupDurationInSeconds()),
+                    item.deliveryIntersectionId(),
+                    Duration.ofSeconds(item.deliveryDurationInSeconds())
+            );
+            requestsByCourier.computeIfAbsent(item.courierId(), k -> new ArrayList<>()).add(request);
+            requestIds.add(request.getId());
+        }
+
+        try {
+            requestsByCourier.keySet().forEach(planningJobService::supersede);
+            planningService.addRequests(requestsByCourier, warehouseByCourier);
+            return ResponseEntity.ok(requestIds);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
+
+    /**
+     * Ranks the couriers able to take a request by the duration it would add to their tour, without assigning it.
+     * The insertion into each tour is evaluated concurrently, on the cached shortest paths; neither the requests
+     * nor the tours are modified.
+     *
+     * @param warehouseId the ID of the warehouse of the request, or none to consider the couriers of every warehouse
+     * @param pickupIntersectionId the intersection ID for the pickup location
+     * @param pickupDurationInSeconds the duration of the pickup in seconds
+     * @param deliveryIntersectionId the intersection ID for the delivery location
+     * @param deliveryDurationInSeconds the duration of the delivery in seconds
+     * @return the estimate of each courier (extra duration, tour duration and arrival times at the stops of the
+     *         request), the feasible ones first from the cheapest
+     */
+    @GetMapping("/suggest-courier")
+    public ResponseEntity<?> suggestCourier(@RequestParam(required = false) Long warehouseId,
+                                            @RequestParam long pickupIntersectionId,
+                                            @RequestParam long pickupDurationInSeconds,
+                                            @RequestParam long deliveryIntersectionId,
+                                            @RequestParam long deliveryDurationInSeconds) {
+        if (pickupDurationInSeconds < 0 || deliveryDurationInSeconds < 0) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Durations must not be negative.");
+        }
+
+        Request candidate = new Request(
+                pickupIntersectionId,
+                Duration.ofSeconds(pickupDurationInSeconds),
+                deliveryIntersectionId,
+                Duration.ofSeconds(deliveryDurationInSeconds)
+        );
+        return ResponseEntity.ok(assignmentService.evaluate(candidate, (warehouseId == null) ? -1 : warehouseId));
+    }
+
+    /**
+     * Assigns a request to the courier whose tour it lengthens the least, and publishes the new tour of this
+     * courier. The pending re-plans of the courier are superseded.
+     *
+     * @param warehouseId the ID of the warehouse of the request, or none to consider the couriers of every warehouse
+     * @param pickupIntersectionId the intersection ID for the pickup location
+     * @param pickupDurationInSeconds the duration of the pickup in seconds
+     * @param deliveryIntersectionId the intersection ID for the delivery location
+     * @param deliveryDurationInSeconds the duration of the delivery in seconds
+     * @return 200 OK with the ID of the request and of its courier, 400 BAD REQUEST if a duration is negative,
+     *         or 409 CONFLICT if no courier can take the request within their shift and precedences
+     */
+    @PostMapping("/assign")
+    public ResponseEntity<?> assignRequest(@RequestParam(required = false) Long warehouseId,
+                                           @RequestParam long pickupIntersectionId,
+                                           @RequestParam long pickupDurationInSeconds,
+                                           @RequestParam long deliveryIntersectionId,
+                                           @RequestParam long deliveryDurationInSeconds) {
+        if (pickupDurationInSeconds < 0 || deliveryDurationInSeconds < 0) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Durations must not be negative.");
+        }
 
-        // Recompute the tour for the courier
-        ResponseEntity<?> response = recomputeTourAndHandleExceptions(courierId);
+        Request request = new Request(
+                pickupIntersectionId,
+                Duration.ofSeconds(pickupDurationInSeconds),
+                deliveryIntersectionId,
+                Duration.ofSeconds(deliveryDurationInSeconds)
+        );
+        try {
+            long courierId = assignmentService.assign(request, (warehouseId == null) ? -1 : warehouseId);
+            return ResponseEntity.ok(Map.of("requestId", request.getId(), "courierId", courierId));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
 
-        // Delete request if the tour computation failed
-        if (!response.getStatusCode().is2xxSuccessful()) {
-            requestService.deleteRequest(courierId, newRequest.getId());
+    /**
+     * A request to assign, as sent in the body of {@code /api/request/assign-all}.
+     *
+     * @param pickupIntersectionId the intersection ID for the pickup location
+     * @param pickupDurationInSeconds the duration of the pickup in seconds
+     * @param deliveryIntersectionId the intersection ID for the delivery location
+     * @param deliveryDurationInSeconds the duration of the delivery in seconds
+     */
+    public record UnassignedRequest(long pickupIntersectionId, long pickupDurationInSeconds,
+                                    long deliveryIntersectionId, long deliveryDurationInSeconds) {
+    }
+
+    /**
+     * Distributes the requests of a day over the fleet in one call: the request with the highest regret is
+     * assigned first to the courier whose tour it lengthens the least, and so on. The pending re-plans of each
+     * courier receiving a request are superseded.
+     *
+     * @param warehouseId the ID of the warehouse of the requests, or none to consider the couriers of every warehouse
+     * @param requests the requests to assign
+     * @return 200 OK with the IDs of the new requests, in the order of the body, the courier of each assigned
+     *         request and the requests that no courier can take, or 400 BAD REQUEST if the body is invalid
+     */
+    @PostMapping("/assign-all")
+    public ResponseEntity<?> assignRequests(@RequestParam(required = false) Long warehouseId,
+                                            @RequestBody List<UnassignedRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("No request to assign.");
+        }
+
+        List<Request> toAssign = new ArrayList<>();
+        for (UnassignedRequest item : requests) {
+            if (item.pickupDurationInSeconds() < 0 || item.deliveryDurationInSeconds() < 0) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Durations must not be negative.");
+            }
+            toAssign.add(new Request(
+                    item.pickupIntersectionId(),
+                    Duration.ofSeconds(item.pickupDurationInSeconds()),
+                    item.deliveryIntersectionId(),
+                    Duration.ofSeconds(item.deliveryDurationInSeconds())
+            ));
+        }
+        try {
+            AssignmentResult result = assignmentService.assignAll(toAssign, (warehouseId == null) ? -1 : warehouseId);
+            return ResponseEntity.ok(Map.of("requestIds", toAssign.stream().map(Request::getId).toList(),
+                    "assignments", result.assignments(), "unassigned", result.unassigned()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
         }
+    }
 
-        return response;
+    /**
+     * Moves requests between couriers serving the same warehouse when it shortens the tours, and publishes the
+     * tours of both couriers after each move. The pending re-plans of the couriers involved in a move are
+     * superseded.
+     *
+     * @param maxMoves the maximum number of requests moved
+     * @return 200 OK with the new courier of each moved request, by request ID, or 400 BAD REQUEST if maxMoves
+     *         is not positive
+     */
+    @PostMapping("/rebalance")
+    public ResponseEntity<?> rebalance(@RequestParam(defaultValue = "10") int maxMoves) {
+        if (maxMoves <= 0) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("maxMoves must be positive.");
+        }
+        return ResponseEntity.ok(assignmentService.rebalance(maxMoves));
     }
 
     /**
@@ -178,41 +417,37 @@ public class RequestController {
     @PostMapping("/delete")
     public ResponseEntity<?> deleteRequest(@RequestParam long requestId,
                                            @RequestParam long courierId) {
-        Request originalRequest = requestService.getRequestById(requestId, courierId);
-        if (originalRequest == null) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Request with ID " + requestId + " not found.");
-        }
-
-        // 1. Speculatively delete the request
-        planningService.deletePrecedences(courierId, requestId);
-        requestService.deleteRequest(courierId, requestId);
-
         try {
-            // 2. Attempt to recompute the tour with the request deleted
-            planningService.recomputeTourForCourier(courierId);
-            // If recomputation succeeds, the deletion is confirmed.
+            // The request is deleted and the tour recomputed on a fork of the courier, discarded on failure
+            planningJobService.supersede(courierId);
+            planningService.deleteRequest(courierId, requestId);
             return ResponseEntity.ok().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
         } catch (RuntimeException e) {
-            // 3. If recomputation fails, roll back the deletion by re-adding the request
-            requestService.addRequest(courierId, originalRequest);
-            // And revert tour to its previous state
             return ResponseEntity.status(HttpStatus.CONFLICT)
                     .body("Deleting this request would lead to an unplannable tour for courier " + courierId + ". Deletion aborted. Error: " + e.getMessage());
         }
     }
 
     /**
-     * Helper method to recompute the tour for a courier and handle exceptions appropriately.
+     * Helper method to run a planning operation for a courier and handle exceptions appropriately.
      *
-     * @param courierId the ID of the courier whose tour is to be recomputed
+     * @param courierId the ID of the courier whose tour is planned
+     * @param planning the planning operation
      * @return a ResponseEntity indicating the result of the operation
      */
-    private ResponseEntity<?> recomputeTourAndHandleExceptions(long courierId) {
+    private ResponseEntity<?> planAndHandleExceptions(long courierId, Runnable planning) {
         try {
-            planningService.recomputeTourForCourier(courierId);
+            // A pending re-plan of the courier would publish a tour of an older state
+            planningJobService.supersede(courierId);
+            planning.run();
             return ResponseEntity.ok().build();
         } catch (IllegalArgumentException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (ShiftInfeasibleException e) {
+            // The courier cannot take these requests whatever the fleet: the reason is returned as is
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
         } catch (RuntimeException e) {
             var otherCouriers = tourService.getCouriers().stream()
                     .filter(c -> c.getId() != courierId)
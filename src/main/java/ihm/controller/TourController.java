@@ -1,17 +1,23 @@
 package ihm.controller;
 
 import domain.model.*;
+import domain.service.PlanImportService;
+import domain.service.PlanningJobService;
 import domain.service.PlanningService;
+import domain.service.PlanningTransaction;
 import domain.service.RequestService;
+import domain.service.SnapshotService;
 import domain.service.TourService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Controller class for managing tours and couriers.
@@ -28,17 +34,32 @@ public class TourController {
 
     private final RequestService requestService; // The service responsible for managing requests.
 
+    private final PlanningJobService planningJobService; // The service running tours calculations asynchronously.
+
+    private final PlanImportService planImportService; // The service importing the plan of a day.
+
+    private final SnapshotService snapshotService; // The service saving and restoring the whole planning state.
+
     /**
      * Constructs a TourController with the specified tour and request services.
      *
      * @param tourService the service responsible for managing tours and couriers
      * @param requestService the service responsible for managing requests
+     * @param planningService the service responsible for managing tours calculations
+     * @param planningJobService the service running tours calculations asynchronously
+     * @param planImportService the service importing the plan of a day
+     * @param snapshotService the service saving and restoring the whole planning state
      */
     @Autowired
-    public TourController(TourService tourService, RequestService requestService, PlanningService planningService) {
+    public TourController(TourService tourService, RequestService requestService, PlanningService planningService,
+                          PlanningJobService planningJobService, PlanImportService planImportService,
+                          SnapshotService snapshotService) {
         this.tourService = tourService;
         this.requestService = requestService;
         this.planningService = planningService;
+        this.planningJobService = planningJobService;
+        this.planImportService = planImportService;
+        this.snapshotService = snapshotService;
     }
 
     /**
@@ -88,23 +109,38 @@ public class TourController {
      * @param courierId The ID of the courier whose stop order is being updated.
      * @param precStopIndex The index of the preceding stop in the tour.
      * @param followingStopIndex The index of the following stop in the tour.
+     * @param async Whether to recompute the tour in a planning job instead of waiting for it.
      * @return A ResponseEntity indicating the result of the operation:
      *         - 200 OK if the update and recomputation succeed.
+     *         - 202 ACCEPTED and the planning job if async.
      *         - 400 BAD REQUEST if the update is invalid.
      *         - 409 CONFLICT if an error occurs during tour recomputation.
+     *         - 503 SERVICE UNAVAILABLE if async and too many planning jobs are queued.
      */
     @PostMapping("/update-stop-order")
     public ResponseEntity<?> updateStopOrder(@RequestParam long courierId,
                                              @RequestParam Integer precStopIndex,
-                                             @RequestParam Integer followingStopIndex) {
+                                             @RequestParam Integer followingStopIndex,
+                                             @RequestParam(defaultValue = "false") boolean async) {
         try {
-            // Updating Stops order
-            tourService.updateStopOrder(courierId, precStopIndex, followingStopIndex);
-            // Recomputing tour
-            planningService.recomputeTourForCourier(courierId);
+            if (async) {
+                // Updating Stops order on a fork of the courier, which the job commits once the tour is recomputed
+                PlanningTransaction transaction = planningService.fork(courierId,
+                        fork -> tourService.updateStopOrder(fork, precStopIndex, followingStopIndex));
+                return ResponseEntity.status(HttpStatus.ACCEPTED).body(planningJobService.submit(transaction));
+            }
+
+            // Updating Stops order and recomputing tour on a fork of the courier, which can be undone
+            planningJobService.supersede(courierId);
+            planningService.inTransaction(courierId, transaction -> {
+                tourService.updateStopOrder(transaction, precStopIndex, followingStopIndex);
+                return planningService.plan(transaction, false);
+            });
 
             // If no exceptions arose
             return ResponseEntity.ok().build();
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
         } catch (IllegalArgumentException e) {
             // Validation exceptions (ex: warehouse or same request)
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
@@ -117,6 +153,110 @@ public class TourController {
         }
     }
 
+    /**
+     * Undoes the last change of the requests or stop order of a courier: the previous requests, precedences and
+     * tour are restored at once, without recomputing the tour.
+     *
+     * @param courierId the ID of the courier
+     * @return 200 OK with the restored tour (null if the courier had none), or 409 CONFLICT if there is nothing to undo
+     */
+    @PostMapping("/undo")
+    public ResponseEntity<?> undo(@RequestParam long courierId) {
+        planningJobService.supersede(courierId);
+        if (!planningService.undo(courierId)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Nothing to undo for courier " + courierId + ".");
+        }
+        return ResponseEntity.ok(tourService.getTours().get(courierId));
+    }
+
+    /**
+     * Redoes the last change undone for a courier, restoring its tour without recomputing it.
+     *
+     * @param courierId the ID of the courier
+     * @return 200 OK with the restored tour, or 409 CONFLICT if there is nothing to redo
+     */
+    @PostMapping("/redo")
+    public ResponseEntity<?> redo(@RequestParam long courierId) {
+        planningJobService.supersede(courierId);
+        if (!planningService.redo(courierId)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Nothing to redo for courier " + courierId + ".");
+        }
+        return ResponseEntity.ok(tourService.getTours().get(courierId));
+    }
+
+    /**
+     * Recomputes the tours of all the couriers having requests, concurrently, and publishes them.
+     * The pending re-plans of the couriers are superseded.
+     *
+     * @return the outcome of each courier: success, or the reason why their tour could not be computed
+     */
+    @PostMapping("/recompute-all")
+    public List<PlanningOutcome> recomputeAllTours() {
+        for (Courier courier : tourService.getCouriers()) {
+            planningJobService.supersede(courier.getId());
+        }
+        return planningService.recomputeAllTours();
+    }
+
+    /**
+     * Imports the plan of a day (couriers, warehouses and requests) from a manifest or a directory, and plans
+     * every courier of the plan concurrently.
+     *
+     * @param path the path of the manifest or of the directory of the plan
+     * @return 200 OK with the number of couriers and requests imported and the outcome of each courier,
+     *         or 400 BAD REQUEST if the plan cannot be read or does not match the couriers or the map
+     */
+    @PostMapping("/import-plan")
+    public ResponseEntity<?> importPlan(@RequestParam String path) {
+        try {
+            return ResponseEntity.ok(planImportService.importPlan(path));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+    }
+
+    /**
+     * Saves the whole planning state (couriers, requests, precedences and tours) to a binary snapshot file.
+     *
+     * @param path the path of the snapshot file
+     * @param withShortestPaths whether to include the shortest paths already computed
+     * @return 200 OK, or 400 BAD REQUEST if a tour cannot be saved, or 500 if the file cannot be written
+     */
+    @PostMapping("/snapshot")
+    public ResponseEntity<?> saveSnapshot(@RequestParam String path,
+                                          @RequestParam(defaultValue = "false") boolean withShortestPaths) {
+        try {
+            snapshotService.save(path, withShortestPaths);
+            return ResponseEntity.ok().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to save the snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the whole planning state with the one of a snapshot file taken on the same map, without planning
+     * anything. The calculations running for the current couriers are superseded while the state is replaced.
+     *
+     * @param path the path of the snapshot file
+     * @return 200 OK, or 400 BAD REQUEST if the file is not a supported snapshot or was taken on another map,
+     *         or 500 if the file cannot be read
+     */
+    @PostMapping("/restore-snapshot")
+    public ResponseEntity<?> restoreSnapshot(@RequestParam String path) {
+        try {
+            snapshotService.restore(path);
+            return ResponseEntity.ok().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to restore the snapshot: " + e.getMessage());
+        }
+    }
+
     @GetMapping("/tours")
     public Map<Long, Tour> getTours() {
         return tourService.getTours();
@@ -0,0 +1,243 @@
+package persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of records, made durable in batches (group commit).
+ *
+ * Each record is framed by its length and its CRC32, so that a record torn by a crash is detected and ignored
+ * when reading the file back, with every record after it. The records appended by all threads are buffered and
+ * written by a single flusher thread, which forces them to the disk once per batch: a thread appending while
+ * the previous batch is being forced joins the next one, so that many concurrent appends cost a single fsync.
+ */
+public class JournalFile implements Closeable {
+
+    private static final int HEADER_SIZE = 8; // Size of the frame of a record: its length and its CRC32.
+
+
+    private final FileChannel channel; // The file, opened for appending.
+
+
+    private final Thread flusher; // Thread writing and forcing the batches.
+
+
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(); // The framed records appended and not written yet.
+
+
+    private long appended = 0; // Number of records appended since the file was opened.
+
+
+    private long durable = 0; // Number of records forced to the disk since the file was opened.
+
+
+    private IOException failure = null; // The error which stopped the flusher, if any.
+
+
+    private boolean closed = false; // Whether the file is closed for appending.
+
+    /**
+     * Opens a journal file for appending, creating it if needed, and starts its flusher thread.
+     *
+     * @param path the path of the file
+     * @throws UncheckedIOException if the file cannot be opened
+     */
+    public JournalFile(Path path) {
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open journal " + path, e);
+        }
+        this.flusher = new Thread(this::flushBatches, "journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Appends records to the file and waits until they are forced to the disk, with the records appended
+     * concurrently by the other threads.
+     *
+     * @param records the records to append, in order
+     * @throws UncheckedIOException if the records cannot be written
+     * @throws IllegalStateException if the file is closed
+     */
+    public void append(List<byte[]> records) {
+        awaitDurable(enqueue(records));
+    }
+
+    /**
+     * Appends records to the file without waiting for them to be durable: records enqueued by a thread are
+     * written in the order of the calls, before the ones it enqueues afterwards.
+     *
+     * @param records the records to append, in order
+     * @return the sequence number to wait for (see {@link #awaitDurable(long)})
+     * @throws UncheckedIOException if the flusher stopped on an error
+     * @throws IllegalStateException if the file is closed
+     */
+    public synchronized long enqueue(List<byte[]> records) {
+        if (failure != null) throw new UncheckedIOException("The journal cannot be written.", failure);
+        if (closed) throw new IllegalStateException("The journal is closed.");
+        if (records.isEmpty()) return appended;
+
+        DataOutputStream out = new DataOutputStream(pending);
+        try {
+            for (byte[] record : records) writeFrame(out, record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by an in-memory stream
+        }
+        appended += records.size();
+        notifyAll();
+        return appended;
+    }
+
+    /**
+     * Waits until the records enqueued up to a sequence number are forced to the disk.
+     *
+     * @param sequence the sequence number returned by {@link #enqueue(List)}
+     * @throws UncheckedIOException if the records cannot be written
+     */
+    public synchronized void awaitDurable(long sequence) {
+        boolean interrupted = false;
+        while (durable < sequence && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true; // the records are written anyway: the caller must know whether they are
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (durable < sequence) throw new UncheckedIOException("The journal cannot be written.", failure);
+    }
+
+    /**
+     * Writes the pending records, stops the flusher thread and closes the file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    /**
+     * Loop of the flusher thread: takes every record appended since the last batch, writes them and forces
+     * them to the disk, then wakes up the threads waiting for them.
+     */
+    private void flushBatches() {
+        while (true) {
+            ByteArrayOutputStream batch;
+            long batchEnd;
+            synchronized (this) {
+                while (pending.size() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.size() == 0) return; // closed, everything written
+                batch = pending;
+                batchEnd = appended;
+                pending = new ByteArrayOutputStream();
+            }
+
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+                while (buffer.hasRemaining()) channel.write(buffer);
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+
+            synchronized (this) {
+                durable = batchEnd;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes a file of records at once, replacing the previous one atomically: the records are written to
+     * a temporary file, forced to the disk, then the temporary file is moved over the file.
+     *
+     * @param path the path of the file
+     * @param records the records, in order
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeAll(Path path, List<byte[]> records) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream stream = Channels.newOutputStream(file);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            for (byte[] record : records) writeFrame(out, record);
+            out.flush();
+            file.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the records of a file, up to the first incomplete or corrupted record.
+     *
+     * @param path the path of the file
+     * @return the records, in order (none if the file does not exist)
+     * @throws IOException if the file cannot be read
+     */
+    public static List<byte[]> readAll(Path path) throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        if (!Files.exists(path)) return records;
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) break; // torn record
+
+            byte[] record = new byte[length];
+            buffer.get(record);
+            crc.reset();
+            crc.update(record);
+            if ((int) crc.getValue() != checksum) break; // corrupted record
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static void writeFrame(DataOutputStream out, byte[] record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        out.writeInt(record.length);
+        out.writeInt((int) crc.getValue());
+        out.write(record);
+    }
+}
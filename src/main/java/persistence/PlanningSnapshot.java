@@ -0,0 +1,480 @@
+package persistence;
+
+import domain.model.*;
+import domain.model.dijkstra.ShortestPaths;
+import domain.utils.PersistentMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Snapshot of the whole planning state: the couriers, the requests, precedences and tour of each courier, and
+ * optionally the shortest paths already computed, so that a planning session can be moved to another instance
+ * of the application (on the same map) without parsing or solving anything.
+ *
+ * The snapshot is written in a compact versioned binary format through a buffered file channel, and read back
+ * from a memory-mapped file. All the numbers are big-endian:
+ * <ul>
+ *     <li>header: magic number "PDSS", format version (short), flags (short, 1 = shortest paths included)</li>
+ *     <li>map: number of intersections (int), number of road segments (int), fingerprint (long)</li>
+ *     <li>couriers: count, then for each one its ID, name, shift duration and availability status</li>
+ *     <li>states: count, then for each courier its ID, the parts present (requests 1, precedences 2, tour 4) and
+ *     each present part; a tour is stored with its stops, its legs and the map indices of its road segments</li>
+ *     <li>shortest paths: count, then for each source its intersection index and, for every intersection, the
+ *     duration, predecessor index and visited flag of its cell</li>
+ * </ul>
+ * Strings are stored as their UTF-8 length (int) and bytes, dates and durations as seconds (long) and
+ * nanoseconds (int), enumerations as their ordinal (byte).
+ */
+public class PlanningSnapshot {
+
+    public static final short VERSION = 1; // Version of the format written.
+
+
+    private static final int MAGIC = 0x50445353; // "PDSS": Pickup Delivery Snapshot.
+
+
+    private static final short WITH_SHORTEST_PATHS = 1; // Flag of the snapshots including the shortest paths.
+
+
+    private static final byte HAS_REQUESTS = 1, HAS_PRECEDENCES = 2, HAS_TOUR = 4; // Parts of the state of a courier.
+
+
+    private static final int BUFFER_SIZE = 1 << 16; // Size of the write buffer.
+
+
+    private final List<Courier> couriers; // The couriers, in order.
+
+
+    private final TreeMap<Long, CourierState> states; // The state of each courier, by courier ID.
+
+
+    private final List<ShortestPaths> shortestPaths; // The shortest paths already computed, empty if not included.
+
+    /**
+     * The state of a courier.
+     *
+     * @param requests the requests of the courier, or null
+     * @param precedences the precedences of the courier (stop -> stops visited before it), or null
+     * @param tour the tour of the courier, or null
+     */
+    public record CourierState(PickupDelivery requests, PersistentMap<Stop, Set<Stop>> precedences, Tour tour) {
+    }
+
+    /**
+     * Constructs a snapshot of a planning state.
+     *
+     * @param couriers the couriers, in order
+     * @param states the state of each courier, by courier ID
+     * @param shortestPaths the shortest paths already computed, empty to leave them out
+     */
+    public PlanningSnapshot(List<Courier> couriers, TreeMap<Long, CourierState> states, List<ShortestPaths> shortestPaths) {
+        this.couriers = couriers;
+        this.states = states;
+        this.shortestPaths = shortestPaths;
+    }
+
+
+    public List<Courier> getCouriers() {
+        return couriers;
+    }
+
+
+    public TreeMap<Long, CourierState> getStates() {
+        return states;
+    }
+
+
+    public List<ShortestPaths> getShortestPaths() {
+        return shortestPaths;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------
+    // Writing
+    // ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the snapshot to a file, replacing it atomically: the snapshot is written to a temporary file,
+     * forced to the disk, then moved over the file.
+     *
+     * @param path the path of the file
+     * @param map the map of the tours and shortest paths
+     * @throws IOException if the file cannot be written
+     * @throws IllegalArgumentException if a tour takes road segments which are not in the map
+     */
+    public void write(Path path, Map map) throws IOException {
+        long[] intersectionIds = intersectionIds(map);
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChannelOutput out = new ChannelOutput(channel);
+
+            out.putInt(MAGIC);
+            out.putShort(VERSION);
+            out.putShort(shortestPaths.isEmpty() ? 0 : WITH_SHORTEST_PATHS);
+            out.putInt(intersectionIds.length);
+            out.putInt(map.getNbRoadSegments());
+            out.putLong(fingerprint(map));
+
+            out.putInt(couriers.size());
+            for (Courier courier : couriers) {
+                out.putLong(courier.getId());
+                out.putString(courier.getName());
+                out.putDuration(courier.getShiftDuration());
+                out.putByte(courier.getAvailabilityStatus().ordinal());
+            }
+
+            out.putInt(states.size());
+            for (var entry : states.entrySet()) {
+                CourierState state = entry.getValue();
+                out.putLong(entry.getKey());
+                out.putByte((state.requests() != null ? HAS_REQUESTS : 0) | (state.precedences() != null ? HAS_PRECEDENCES : 0)
+                        | (state.tour() != null ? HAS_TOUR : 0));
+                if (state.requests() != null) writeRequests(out, state.requests());
+                if (state.precedences() != null) writePrecedences(out, state.precedences());
+                if (state.tour() != null) writeTour(out, state.tour());
+            }
+
+            if (!shortestPaths.isEmpty()) {
+                HashMap<Long, Integer> indices = indicesOf(intersectionIds);
+                out.putInt(shortestPaths.size());
+                for (ShortestPaths row : shortestPaths) {
+                    out.putInt(indices.get(row.source()));
+                    for (int i = 0; i < intersectionIds.length; i++) {
+                        out.putDouble(row.durations()[i]);
+                        out.putInt(indices.getOrDefault(row.predecessors()[i], -1));
+                        out.putByte(row.visited()[i] ? 1 : 0);
+                    }
+                }
+            }
+
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeRequests(ChannelOutput out, PickupDelivery requests) throws IOException {
+        out.putLong(requests.getWarehouseAddressId());
+        out.putDateTime(requests.getDepartureTime());
+        List<Request> list = requests.getRequests();
+        out.putInt(list.size());
+        for (Request request : list) {
+            out.putLong(request.getId());
+            out.putLong(request.getPickupIntersectionId());
+            out.putDuration(request.getPickupDuration());
+            out.putLong(request.getDeliveryIntersectionId());
+            out.putDuration(request.getDeliveryDuration());
+        }
+    }
+
+    private static void writePrecedences(ChannelOutput out, PersistentMap<Stop, Set<Stop>> precedences) throws IOException {
+        int nbPrecedences = 0;
+        for (Set<Stop> preds : precedences.values()) nbPrecedences += preds.size();
+        out.putInt(nbPrecedences);
+        for (var entry : precedences.entrySet()) {
+            for (Stop before : entry.getValue()) {
+                writeStop(out, before);
+                writeStop(out, entry.getKey());
+            }
+        }
+    }
+
+    private static void writeStop(ChannelOutput out, Stop stop) throws IOException {
+        out.putLong(stop.requestId());
+        out.putLong(stop.intersectionId());
+        out.putByte(stop.type().ordinal());
+    }
+
+    private static void writeTour(ChannelOutput out, Tour tour) throws IOException {
+        int[] route = tour.copyRoute();
+        for (int index : route) {
+            if (index < 0) {
+                throw new IllegalArgumentException("The tour of courier " + tour.getCourierId()
+                        + " takes road segments which are not in the map.");
+            }
+        }
+
+        out.putDateTime(tour.getStartTime());
+        out.putDuration(tour.getTotalDuration());
+        out.putByte(tour.getOptimalityGap() != null ? 1 : 0);
+        out.putDouble(tour.getOptimalityGap() != null ? tour.getOptimalityGap() : 0.0);
+
+        out.putInt(tour.getStops().size());
+        for (TourStop stop : tour.getStops()) {
+            out.putByte(stop.getType().ordinal());
+            out.putLong(stop.getRequestID());
+            out.putLong(stop.getIntersectionId());
+            out.putDateTime(stop.getArrivalTime());
+            out.putDateTime(stop.getDepartureTime());
+        }
+
+        out.putInt(tour.getNbLegs());
+        for (int leg = 0; leg < tour.getNbLegs(); leg++) out.putInt(tour.getLegStart(leg));
+        out.putInt(route.length);
+        for (int index : route) out.putInt(index);
+    }
+
+    // ---------------------------------------------------------------------------------------------------------
+    // Reading
+    // ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * Reads a snapshot from a memory-mapped file.
+     *
+     * @param path the path of the file
+     * @param map the map of the tours and shortest paths, the one the snapshot was written with
+     * @return the snapshot
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is not a snapshot of a supported version, is truncated,
+     *                                  or was written with another map
+     */
+    public static PlanningSnapshot read(Path path, Map map) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(in, map);
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new IllegalArgumentException("The snapshot " + path + " is truncated.", e);
+        }
+    }
+
+    private static PlanningSnapshot read(ByteBuffer in, Map map) {
+        if (in.remaining() < 8 || in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a planning snapshot.");
+        }
+        short version = in.getShort();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot version " + version + " (expected " + VERSION + ").");
+        }
+        short flags = in.getShort();
+
+        long[] intersectionIds = intersectionIds(map);
+        if (in.getInt() != intersectionIds.length || in.getInt() != map.getNbRoadSegments() || in.getLong() != fingerprint(map)) {
+            throw new IllegalArgumentException("The snapshot was taken on another map.");
+        }
+
+        int nbCouriers = in.getInt();
+        List<Courier> couriers = new ArrayList<>(nbCouriers);
+        for (int i = 0; i < nbCouriers; i++) {
+            Courier courier = new Courier(in.getLong(), getString(in), getDuration(in));
+            courier.setAvailabilityStatus(AvailabilityStatus.values()[in.get()]);
+            couriers.add(courier);
+        }
+
+        int nbStates = in.getInt();
+        TreeMap<Long, CourierState> states = new TreeMap<>();
+        for (int i = 0; i < nbStates; i++) {
+            long courierId = in.getLong();
+            byte parts = in.get();
+            PickupDelivery requests = ((parts & HAS_REQUESTS) != 0) ? readRequests(in) : null;
+            PersistentMap<Stop, Set<Stop>> precedences = ((parts & HAS_PRECEDENCES) != 0) ? readPrecedences(in) : null;
+            Tour tour = ((parts & HAS_TOUR) != 0) ? readTour(in, courierId, map) : null;
+            states.put(courierId, new CourierState(requests, precedences, tour));
+        }
+
+        List<ShortestPaths> shortestPaths = new ArrayList<>();
+        if ((flags & WITH_SHORTEST_PATHS) != 0) {
+            int nbRows = in.getInt();
+            for (int r = 0; r < nbRows; r++) {
+                ShortestPaths row = new ShortestPaths(intersectionIds[in.getInt()], new double[intersectionIds.length],
+                        new long[intersectionIds.length], new boolean[intersectionIds.length]);
+                for (int i = 0; i < intersectionIds.length; i++) {
+                    row.durations()[i] = in.getDouble();
+                    int predecessor = in.getInt();
+                    row.predecessors()[i] = (predecessor >= 0) ? intersectionIds[predecessor] : -1;
+                    row.visited()[i] = in.get() != 0;
+                }
+                shortestPaths.add(row);
+            }
+        }
+
+        return new PlanningSnapshot(couriers, states, shortestPaths);
+    }
+
+    private static PickupDelivery readRequests(ByteBuffer in) {
+        PickupDelivery requests = new PickupDelivery();
+        requests.setWarehouseAddressId(in.getLong());
+        requests.setDepartureTime(getDateTime(in));
+        int nbRequests = in.getInt();
+        for (int i = 0; i < nbRequests; i++) {
+            requests.addRequest(new Request(in.getLong(), in.getLong(), getDuration(in), in.getLong(), getDuration(in)));
+        }
+        return requests;
+    }
+
+    private static PersistentMap<Stop, Set<Stop>> readPrecedences(ByteBuffer in) {
+        HashMap<Stop, Set<Stop>> precedences = new HashMap<>();
+        int nbPrecedences = in.getInt();
+        for (int i = 0; i < nbPrecedences; i++) {
+            Stop before = readStop(in);
+            precedences.computeIfAbsent(readStop(in), k -> new HashSet<>()).add(before);
+        }
+        return Precedences.copyOf(precedences);
+    }
+
+    private static Stop readStop(ByteBuffer in) {
+        return new Stop(in.getLong(), in.getLong(), StopType.values()[in.get()]);
+    }
+
+    private static Tour readTour(ByteBuffer in, long courierId, Map map) {
+        Tour tour = new Tour(courierId, getDateTime(in));
+        tour.updateTotalDuration(getDuration(in));
+        boolean hasGap = in.get() != 0;
+        double gap = in.getDouble();
+        if (hasGap) tour.setOptimalityGap(gap);
+
+        int nbStops = in.getInt();
+        for (int i = 0; i < nbStops; i++) {
+            tour.addStop(new TourStop(StopType.values()[in.get()], in.getLong(), in.getLong(), getDateTime(in), getDateTime(in)));
+        }
+
+        int[] legStarts = new int[in.getInt()];
+        for (int leg = 0; leg < legStarts.length; leg++) legStarts[leg] = in.getInt();
+        int[] route = new int[in.getInt()];
+        for (int i = 0; i < route.length; i++) route[i] = in.getInt();
+
+        // The road segments before the first leg, then each leg
+        int end = (legStarts.length > 0) ? legStarts[0] : route.length;
+        for (int i = 0; i < end; i++) tour.addRoadSegment(map, route[i]);
+        for (int leg = 0; leg < legStarts.length; leg++) {
+            end = (leg + 1 < legStarts.length) ? legStarts[leg + 1] : route.length;
+            tour.addLeg(map, Arrays.copyOfRange(route, legStarts[leg], end));
+        }
+        return tour;
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Duration getDuration(ByteBuffer in) {
+        return Duration.ofSeconds(in.getLong(), in.getInt());
+    }
+
+    private static LocalDateTime getDateTime(ByteBuffer in) {
+        return LocalDateTime.ofEpochSecond(in.getLong(), in.getInt(), ZoneOffset.UTC);
+    }
+
+    // ---------------------------------------------------------------------------------------------------------
+    // Map
+    // ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * @return the IDs of the intersections of a map, in increasing order (the order of the shortest paths)
+     */
+    private static long[] intersectionIds(Map map) {
+        return map.getIntersections().keySet().stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static HashMap<Long, Integer> indicesOf(long[] intersectionIds) {
+        HashMap<Long, Integer> indices = new HashMap<>();
+        for (int i = 0; i < intersectionIds.length; i++) indices.put(intersectionIds[i], i);
+        return indices;
+    }
+
+    /**
+     * Computes a fingerprint of the intersections and road segments of a map: the road segment indices of the
+     * tours and the intersection indices of the shortest paths are only valid on a map with the same fingerprint.
+     */
+    static long fingerprint(Map map) {
+        long fingerprint = 1125899906842597L;
+        for (long intersectionId : map.getIntersections().keySet()) {
+            fingerprint = 31 * fingerprint + intersectionId;
+        }
+        for (int i = 0; i < map.getNbRoadSegments(); i++) {
+            RoadSegment segment = map.getRoadSegmentByIndex(i);
+            fingerprint = 31 * (31 * fingerprint + segment.getStartId()) + segment.getEndId();
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Buffered writer of big-endian values to a file channel.
+     */
+    private static class ChannelOutput {
+        private final FileChannel channel; // The file.
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE); // The values not written yet.
+
+        ChannelOutput(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putByte(int value) throws IOException {
+            reserve(1);
+            buffer.put((byte) value);
+        }
+
+        void putShort(short value) throws IOException {
+            reserve(2);
+            buffer.putShort(value);
+        }
+
+        void putInt(int value) throws IOException {
+            reserve(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            reserve(8);
+            buffer.putLong(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            reserve(8);
+            buffer.putDouble(value);
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            for (int offset = 0; offset < bytes.length; ) {
+                reserve(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        void putDuration(Duration value) throws IOException {
+            putLong(value.getSeconds());
+            putInt(value.getNano());
+        }
+
+        void putDateTime(LocalDateTime value) throws IOException {
+            putLong(value.toEpochSecond(ZoneOffset.UTC));
+            putInt(value.getNano());
+        }
+
+        /**
+         * Writes the buffered values if fewer than the given number of bytes are left in the buffer.
+         */
+        private void reserve(int nbBytes) throws IOException {
+            if (buffer.remaining() < nbBytes) flush();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+    }
+}
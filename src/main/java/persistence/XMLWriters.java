@@ -8,6 +8,7 @@ import org.w3c.dom.Element;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
@@ -16,6 +17,7 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.util.List;
 
 /**
  * Utility class for writing application data (Map, Requests, Tours) to XML files.
@@ -47,33 +49,23 @@ public class XMLWriters {
 
 
         // Write each road segment as a <step>
-        for (RoadSegment seg : tour.getRoadSegmentsTaken()) {
-            writer.writeCharacters(indent);
-            writer.writeStartElement("step");
-
-            writer.writeAttribute("origine_adresse", String.valueOf(seg.getStartId()));
-            writer.writeAttribute("destination_adresse", String.valueOf(seg.getEndId()));
-
-            TourStop start = tour.getStopByIntersectionId(seg.getStartId());
-            String type_1 = (start != null) ? start.getType().toString() : "intermediaire";
-            writer.writeAttribute("type_Start", type_1);
-
-            TourStop stop = tour.getStopByIntersectionId(seg.getEndId());
-            String type_2 = (stop != null) ? stop.getType().toString() : "intermediaire";
-            writer.writeAttribute("type_Finish", type_2);
-
-            // Only add departureTime if start is not intermediaire
-            if (start != null && !"intermediaire".equalsIgnoreCase(type_1) && start.getDepartureTime() != null) {
-                writer.writeAttribute("departureTime", start.getDepartureTime().toString());
+        if (tour.getNbLegs() > 0) {
+            // Only the ends of a leg are stops: a leg passing through the intersection of a stop does not stop there
+            List<RoadSegment> segments = tour.getRoadSegmentsTaken();
+            for (int leg = 0; leg < tour.getNbLegs(); leg++) {
+                int legStart = tour.getLegStart(leg);
+                int legEnd = tour.getLegEnd(leg);
+                for (int i = legStart; i < legEnd; i++) {
+                    TourStop start = (i == legStart) ? tour.getLegOrigin(leg) : null;
+                    TourStop stop = (i == legEnd - 1) ? tour.getLegDestination(leg) : null;
+                    writeStep(writer, indent, segments.get(i), start, stop);
+                }
             }
-
-            // Only add arrivalTime if destination is not intermediaire
-            if (stop != null && !"intermediaire".equalsIgnoreCase(type_2) && stop.getArrivalTime() != null) {
-                writer.writeAttribute("arrivalTime", stop.getArrivalTime().toString());
+        } else {
+            for (RoadSegment seg : tour.getRoadSegmentsTaken()) {
+                writeStep(writer, indent, seg,
+                        tour.getStopByIntersectionId(seg.getStartId()), tour.getStopByIntersectionId(seg.getEndId()));
             }
-
-            writer.writeEndElement(); // </step>
-            writer.writeCharacters("\n");
         }
 
 
@@ -85,6 +77,43 @@ public class XMLWriters {
         writer.close();
     }
 
+    /**
+     * Writes a road segment of a tour as a {@code <step>} element.
+     *
+     * @param writer the XML writer
+     * @param indent the indentation of the element
+     * @param seg the road segment
+     * @param start the stop the segment starts from, or null if it starts from an intermediate intersection
+     * @param stop the stop the segment goes to, or null if it goes to an intermediate intersection
+     */
+    private static void writeStep(XMLStreamWriter writer, String indent, RoadSegment seg, TourStop start, TourStop stop)
+            throws XMLStreamException {
+        writer.writeCharacters(indent);
+        writer.writeStartElement("step");
+
+        writer.writeAttribute("origine_adresse", String.valueOf(seg.getStartId()));
+        writer.writeAttribute("destination_adresse", String.valueOf(seg.getEndId()));
+
+        String type_1 = (start != null) ? start.getType().toString() : "intermediaire";
+        writer.writeAttribute("type_Start", type_1);
+
+        String type_2 = (stop != null) ? stop.getType().toString() : "intermediaire";
+        writer.writeAttribute("type_Finish", type_2);
+
+        // Only add departureTime if start is not intermediaire
+        if (start != null && start.getDepartureTime() != null) {
+            writer.writeAttribute("departureTime", start.getDepartureTime().toString());
+        }
+
+        // Only add arrivalTime if destination is not intermediaire
+        if (stop != null && stop.getArrivalTime() != null) {
+            writer.writeAttribute("arrivalTime", stop.getArrivalTime().toString());
+        }
+
+        writer.writeEndElement(); // </step>
+        writer.writeCharacters("\n");
+    }
+
     /**
      * Writes a PickupDelivery object (containing requests) to an XML file.
      * @param pickupDelivery The PickupDelivery object to write.
@@ -235,4 +235,45 @@ class MapTest {
         assertTrue(result.contains("Intersections:"), "toString should include 'Intersections:'");
         assertTrue(result.contains("Adjacency List:"), "toString should include 'Adjacency List:'");
     }
-}
\ No newline at end of file
+
+    /**
+     * Verifies that road segments are indexed densely, in the order they are added.
+     */
+    @Test
+    void checkRoadSegmentsAreIndexed() {
+        Map map = new Map();
+        map.addIntersection(new Intersection(1L, 45.0, 4.0));
+        map.addIntersection(new Intersection(2L, 45.2, 4.2));
+        map.addIntersection(new Intersection(3L, 45.4, 4.4));
+        RoadSegment s1 = new RoadSegment("road 1", 10.0, 1L, 2L);
+        RoadSegment s2 = new RoadSegment("road 2", 20.0, 2L, 3L);
+        RoadSegment s3 = new RoadSegment("road 3", 30.0, 1L, 3L);
+        map.addRoadSegment(1L, s1);
+        map.addRoadSegment(2L, s2);
+        map.addRoadSegment(1L, s3);
+
+        assertEquals(3, map.getNbRoadSegments());
+        assertEquals(2, map.getRoadSegmentIndex(1L, 3L));
+        assertEquals(1, map.getRoadSegmentIndex(s2));
+        assertSame(s3, map.getRoadSegmentByIndex(2));
+        assertEquals(-1, map.getRoadSegmentIndex(3L, 1L));
+        assertEquals(-1, map.getRoadSegmentIndex(new RoadSegment("road 1", 10.0, 1L, 2L)));
+        assertThrows(IllegalArgumentException.class, () -> map.getRoadSegmentByIndex(3));
+    }
+
+    /**
+     * Verifies that the version of a map changes with each modification and is not shared with another map.
+     */
+    @Test
+    void checkVersionChangesWithModifications() {
+        Map map = new Map();
+        long empty = map.getVersion();
+        map.addIntersection(new Intersection(1L, 45.0, 4.0));
+        long oneIntersection = map.getVersion();
+        map.addIntersection(new Intersection(1L, 45.0, 4.0)); // not added
+
+        assertNotEquals(empty, oneIntersection);
+        assertEquals(oneIntersection, map.getVersion());
+        assertNotEquals(map.getVersion(), new Map().getVersion());
+    }
+}
@@ -148,4 +148,52 @@ class PickupDeliveryTest {
         assertEquals(original.getRequests().size(), copy.getRequests().size());
         assertEquals(original.getRequests().get(0), copy.getRequests().get(0));
     }
-}
\ No newline at end of file
+
+    /**
+     * Verifies that a snapshot is not affected by later modifications of the original, and conversely.
+     */
+    @Test
+    void checkSnapshotIsIndependentOfTheOriginal() {
+        PickupDelivery original = new PickupDelivery();
+        Request request1 = new Request(100L, Duration.ofMinutes(10), 200L, Duration.ofMinutes(15));
+        Request request2 = new Request(101L, Duration.ofMinutes(12), 201L, Duration.ofMinutes(18));
+        original.addRequest(request1);
+
+        PickupDelivery snapshot = original.snapshot();
+        original.addRequest(request2);
+        original.removeRequest(request1.getId());
+
+        assertEquals(1, snapshot.getNbRequests());
+        assertEquals(request1, snapshot.findRequestById(request1.getId()));
+        assertNull(snapshot.findRequestById(request2.getId()));
+        assertEquals(request1, snapshot.findRequestByIntersectionId(200L).getKey());
+
+        snapshot.addRequest(new Request(102L, Duration.ofMinutes(1), 202L, Duration.ofMinutes(1)));
+        assertEquals(1, original.getNbRequests());
+        assertNull(original.findRequestByIntersectionId(100L));
+        assertEquals(request2, original.findRequestByIntersectionId(201L).getKey());
+    }
+
+    /**
+     * Verifies that the requests keep their insertion order after a removal, and that the intersection index
+     * follows the removal.
+     */
+    @Test
+    void checkRemovalKeepsOrderAndIndexes() {
+        PickupDelivery pickupDelivery = new PickupDelivery();
+        Request request1 = new Request(100L, Duration.ofMinutes(10), 200L, Duration.ofMinutes(15));
+        Request request2 = new Request(200L, Duration.ofMinutes(12), 300L, Duration.ofMinutes(18));
+        Request request3 = new Request(400L, Duration.ofMinutes(12), 500L, Duration.ofMinutes(18));
+        pickupDelivery.addRequest(request1);
+        pickupDelivery.addRequest(request2);
+        pickupDelivery.addRequest(request3);
+
+        assertEquals(DELIVERY, pickupDelivery.findRequestByIntersectionId(200L).getValue());
+        pickupDelivery.removeRequest(request1.getId());
+
+        assertEquals(request2, pickupDelivery.getRequests().get(0));
+        assertEquals(request3, pickupDelivery.getRequests().get(1));
+        assertEquals(request2, pickupDelivery.findRequestByIntersectionId(200L).getKey());
+        assertEquals(PICKUP, pickupDelivery.findRequestByIntersectionId(200L).getValue());
+    }
+}
@@ -0,0 +1,68 @@
+package domain.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link StopModel} class.
+ */
+public class StopModelTest {
+
+    /**
+     * Verifies that the warehouse is vertex 0 and that the pickup and delivery of the r-th request
+     * are the vertices 1 + 2r and 2 + 2r.
+     */
+    @Test
+    void checkVertexLayout() {
+        Request request1 = new Request(2L, Duration.ofMinutes(5), 3L, Duration.ofMinutes(10));
+        Request request2 = new Request(4L, Duration.ofMinutes(3), 5L, Duration.ofMinutes(8));
+        StopModel stops = new StopModel(1L, List.of(request1, request2));
+
+        assertEquals(5, stops.size());
+        assertArrayEquals(new long[]{1L, 2L, 3L, 4L, 5L}, stops.getIntersectionIds());
+        assertEquals(Stop.warehouse(1L), stops.getStop(0));
+        assertEquals(Stop.delivery(request2), stops.getStop(4));
+        assertEquals(request1.getId(), stops.getRequestId(1));
+        assertEquals(StopType.PICKUP, stops.getType(3));
+        assertArrayEquals(new int[]{3, 4}, stops.getRequestPairs()[1]);
+    }
+
+    /**
+     * Verifies that indexOf finds the vertex of a stop, and returns -1 for stops outside the instance.
+     */
+    @Test
+    void indexOfFindsVertexOfStop() {
+        Request request1 = new Request(2L, Duration.ofMinutes(5), 3L, Duration.ofMinutes(10));
+        Request request2 = new Request(4L, Duration.ofMinutes(3), 5L, Duration.ofMinutes(8));
+        Request other = new Request(6L, Duration.ofMinutes(3), 7L, Duration.ofMinutes(8));
+        StopModel stops = new StopModel(1L, List.of(request1, request2));
+
+        assertEquals(0, stops.indexOf(Stop.warehouse(1L)));
+        assertEquals(3, stops.indexOf(Stop.pickup(request2)));
+        assertEquals(2, stops.indexOf(Stop.delivery(request1)));
+        assertEquals(-1, stops.indexOf(Stop.pickup(other)));
+        assertEquals(-1, stops.indexOf(new Stop(request1.getId(), 9L, StopType.PICKUP)));
+    }
+
+    /**
+     * Verifies that precedences are stored once and exported in the format of the solvers.
+     */
+    @Test
+    void addPrecedenceIgnoresDuplicates() {
+        Request request = new Request(2L, Duration.ofMinutes(5), 3L, Duration.ofMinutes(10));
+        StopModel stops = new StopModel(1L, List.of(request));
+
+        stops.addPrecedence(1, 2);
+        stops.addPrecedence(1, 2);
+
+        assertArrayEquals(new int[]{1}, stops.getPredecessors(2));
+        assertEquals(0, stops.getPredecessors(1).length);
+        assertEquals(Map.of(2, Set.of(1)), stops.toPrecedenceMap());
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.jupiter.api.Test;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -30,6 +31,8 @@ public class TourTest {
         assertEquals(0.0, tour.getTotalDistance());
         // Assert that the total duration is initialized to zero
         assertEquals(Duration.ZERO, tour.getTotalDuration());
+        // Assert that the optimality gap is unknown until set by the planning
+        assertNull(tour.getOptimalityGap());
     }
 
     /**
@@ -115,6 +118,32 @@ public class TourTest {
         assertNull(retrievedStop);
     }
 
+    /**
+     * Verifies that the legs delimit the road segments between consecutive stops, the last one going back
+     * to the first stop.
+     */
+    @Test
+    void legsDelimitRoadSegmentsBetweenStops() {
+        Tour tour = new Tour(1L, LocalDateTime.now());
+        TourStop warehouse = new TourStop(StopType.WAREHOUSE, -1L, 1L, LocalDateTime.now(), LocalDateTime.now());
+        TourStop pickup = new TourStop(StopType.PICKUP, 101L, 3L, LocalDateTime.now(), LocalDateTime.now());
+        tour.addStop(warehouse);
+        tour.addStop(pickup);
+
+        tour.startLeg();
+        tour.addRoadSegment(new RoadSegment("1-2", 10.0, 1L, 2L));
+        tour.addRoadSegment(new RoadSegment("2-3", 10.0, 2L, 3L));
+        tour.startLeg();
+        tour.addRoadSegment(new RoadSegment("3-1", 10.0, 3L, 1L));
+
+        assertEquals(2, tour.getNbLegs());
+        assertEquals(0, tour.getLegStart(0));
+        assertEquals(2, tour.getLegEnd(0));
+        assertEquals(3, tour.getLegEnd(1));
+        assertEquals(pickup, tour.getLegOrigin(1));
+        assertEquals(warehouse, tour.getLegDestination(1));
+    }
+
     /**
      * Verifies that the toString method handles an empty tour correctly.
      */
@@ -129,4 +158,39 @@ public class TourTest {
         assertTrue(result.contains("Total Distance: 0.0 m"));
         assertTrue(result.contains("Total Duration: 0 minutes"));
     }
+
+    /**
+     * Verifies that a route of map road segments is stored by index and read back as road segments.
+     */
+    @Test
+    void routeIsStoredAsMapIndices() {
+        Map map = new Map();
+        map.addIntersection(new Intersection(1L, 45.0, 4.0));
+        map.addIntersection(new Intersection(2L, 45.2, 4.2));
+        RoadSegment go = new RoadSegment("1-2", 100.0, 1L, 2L);
+        RoadSegment back = new RoadSegment("2-1", 150.0, 2L, 1L);
+        map.addRoadSegment(1L, go);
+        map.addRoadSegment(2L, back);
+
+        Tour tour = new Tour(1L, LocalDateTime.now());
+        tour.startLeg();
+        tour.addRoadSegment(map, 0);
+        tour.startLeg();
+        tour.addRoadSegment(back);
+
+        assertArrayEquals(new int[] { 0, 1 }, tour.copyRoute());
+        assertEquals(List.of(go, back), tour.getRoadSegmentsTaken());
+        assertEquals(250.0, tour.getTotalDistance());
+        assertThrows(UnsupportedOperationException.class, () -> tour.getRoadSegmentsTaken().add(go));
+        assertThrows(IllegalStateException.class, () -> tour.addRoadSegment(new Map(), 0));
+
+        Tour same = new Tour(2L, LocalDateTime.now());
+        same.startLeg();
+        same.addRoadSegment(map, 0);
+        same.startLeg();
+        same.addRoadSegment(map, 1);
+        assertTrue(tour.hasSameRoute(same));
+        same.addRoadSegment(map, 0);
+        assertFalse(tour.hasSameRoute(same));
+    }
 }
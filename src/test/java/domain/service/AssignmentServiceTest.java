@@ -0,0 +1,109 @@
+package domain.service;
+
+import domain.model.*;
+import org.junit.jupiter.api.Test;
+import persistence.XMLParsers;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link AssignmentService} class.
+ */
+class AssignmentServiceTest {
+
+    private final RequestService requestService = new RequestService();
+
+    private final TourService tourService = new TourService();
+
+    private final PlanningService planningService;
+
+    private final PlanningJobService planningJobService;
+
+    private final AssignmentService assignmentService;
+
+    private final PickupDelivery day = new PickupDelivery(); // Requests of a day, not assigned yet.
+
+    AssignmentServiceTest() {
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        planningService = new PlanningService(requestService, tourService, mapService);
+        planningJobService = new PlanningJobService(planningService, 1, 4, 60_000); // the re-plans stay pending
+        assignmentService = new AssignmentService(planningService, requestService, tourService, planningJobService);
+        XMLParsers.parseRequests("src/main/resources/requests2.xml", day);
+    }
+
+    /**
+     * Verifies that the requests of a day are distributed in one call, each one in the tour of its courier.
+     */
+    @Test
+    void assignAllDistributesRequestsOverTheFleet() {
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        tourService.addCourier(new Courier(2L, "Courier 2", Duration.ofHours(8)));
+
+        AssignmentResult result = assignmentService.assignAll(day.getRequests(), day.getWarehouseAddressId());
+
+        assertEquals(day.getNbRequests(), result.assignments().size());
+        assertTrue(result.unassigned().isEmpty());
+        for (var assignment : result.assignments().entrySet()) {
+            Tour tour = tourService.getTours().get(assignment.getValue());
+            assertNotNull(tour);
+            assertTrue(tour.getStops().stream().anyMatch(stop -> stop.getRequestID() == assignment.getKey()));
+            assertEquals(day.getWarehouseAddressId(),
+                    requestService.getPickupDeliveryForCourier(assignment.getValue()).getWarehouseAddressId());
+        }
+    }
+
+    /**
+     * Verifies that a courier whose shift is too short is not chosen, and that a request no courier can take is rejected.
+     */
+    @Test
+    void assignRespectsTheShiftOfTheCouriers() {
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofMinutes(5)));
+        Request request = day.getRequests().getFirst();
+
+        List<InsertionEstimate> estimates = assignmentService.evaluate(request, day.getWarehouseAddressId());
+        assertEquals(1, estimates.size());
+        assertFalse(estimates.getFirst().feasible());
+        assertThrows(RuntimeException.class, () -> assignmentService.assign(request, day.getWarehouseAddressId()));
+        assertTrue(requestService.getPickupDeliveryForCourier(1L).getRequests().isEmpty());
+
+        tourService.addCourier(new Courier(2L, "Courier 2", Duration.ofHours(8)));
+        assertEquals(2L, assignmentService.assign(request, day.getWarehouseAddressId()));
+        assertNotNull(tourService.getTours().get(2L));
+    }
+
+    /**
+     * Verifies that rebalancing moves a request to a courier which already goes to its pickup and delivery, and
+     * supersedes the pending re-plans of both couriers.
+     */
+    @Test
+    void rebalanceMovesRequestsToCheaperCouriers() {
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        tourService.addCourier(new Courier(2L, "Courier 2", Duration.ofHours(8)));
+        Request request = day.getRequests().getFirst();
+        Request twin = new Request(request.getPickupIntersectionId(), request.getPickupDuration(),
+                request.getDeliveryIntersectionId(), request.getDeliveryDuration());
+        assertEquals(1L, assignmentService.assign(request, day.getWarehouseAddressId()));
+        requestService.setWarehouseAddress(day.getWarehouseAddressId(), 2L);
+        requestService.addRequest(2L, twin);
+        planningService.recomputeTourForCourier(2L);
+        PlanningJob replan1 = planningJobService.requestReplan(1L);
+        PlanningJob replan2 = planningJobService.requestReplan(2L);
+
+        var moves = assignmentService.rebalance(3);
+
+        // Either courier takes both requests: the other one no longer goes out
+        assertEquals(1, moves.size());
+        long busy = moves.values().iterator().next();
+        long idle = (busy == 1L) ? 2L : 1L;
+        assertEquals(2, requestService.getPickupDeliveryForCourier(busy).getNbRequests());
+        assertTrue(requestService.getPickupDeliveryForCourier(idle).getRequests().isEmpty());
+        assertEquals(1, tourService.getTours().get(idle).getStops().size()); // the warehouse only
+        assertEquals(5, tourService.getTours().get(busy).getStops().size());
+        assertTrue(replan1.isCancelRequested());
+        assertTrue(replan2.isCancelRequested());
+    }
+}
@@ -0,0 +1,45 @@
+package domain.service;
+
+import domain.model.PickupDelivery;
+import domain.utils.PersistentMap;
+import org.junit.jupiter.api.Test;
+
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link CourierHistory} class.
+ */
+class CourierHistoryTest {
+
+    /**
+     * Verifies that the history keeps at most {@link CourierHistory#MAX_VERSIONS} versions, the oldest ones
+     * being forgotten, and that recording a version forgets the undone ones.
+     */
+    @Test
+    void historyIsBounded() {
+        CourierHistory history = new CourierHistory();
+        CourierHistory.Version first = version();
+        history.record(first);
+        for (int i = 0; i < CourierHistory.MAX_VERSIONS; i++) history.record(version());
+        assertEquals(CourierHistory.MAX_VERSIONS, history.getNbUndoable());
+
+        CourierHistory.Version current = version();
+        CourierHistory.Version undone = history.undo(current);
+        assertNotNull(undone);
+        assertEquals(1, history.getNbRedoable());
+        assertSame(current, history.redo(undone));
+
+        history.undo(current);
+        history.record(version());
+        assertEquals(0, history.getNbRedoable());
+        assertNull(history.redo(current));
+
+        while (history.getNbUndoable() > 0) assertNotSame(first, history.undo(current));
+        assertNull(history.undo(current));
+    }
+
+    private static CourierHistory.Version version() {
+        return new CourierHistory.Version(new PickupDelivery(), PersistentMap.empty(), null);
+    }
+}
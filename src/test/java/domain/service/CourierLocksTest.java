@@ -0,0 +1,156 @@
+package domain.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link CourierLocks} class.
+ */
+class CourierLocksTest {
+
+    /**
+     * Verifies that operations on different couriers run at the same time, while operations on the same
+     * courier are serialized.
+     */
+    @Test
+    void couriersAreLockedIndependently() throws Exception {
+        CourierLocks locks = new CourierLocks();
+        CountDownLatch bothInside = new CountDownLatch(2);
+        try (ExecutorService threads = Executors.newFixedThreadPool(2)) {
+            List<Future<Boolean>> results = List.of(
+                    threads.submit(() -> locks.withCourier(1L, () -> awaitBoth(bothInside))),
+                    threads.submit(() -> locks.withCourier(2L, () -> awaitBoth(bothInside))));
+            for (Future<Boolean> result : results) assertTrue(result.get());
+        }
+
+        int[] counter = { 0 };
+        try (ExecutorService threads = Executors.newFixedThreadPool(8)) {
+            for (int i = 0; i < 8; i++) {
+                threads.submit(() -> {
+                    for (int j = 0; j < 1000; j++) locks.runWithCourier(3L, () -> counter[0]++);
+                });
+            }
+        }
+        assertEquals(8000, counter[0]);
+    }
+
+    /**
+     * Verifies that the fleet lock waits for the operations on couriers, and cannot be taken while holding
+     * the lock of a courier.
+     */
+    @Test
+    void fleetLockExcludesTheOperationsOnCouriers() throws Exception {
+        CourierLocks locks = new CourierLocks();
+        CountDownLatch courierLocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean fleetRan = new AtomicBoolean(false);
+        try (ExecutorService threads = Executors.newFixedThreadPool(2)) {
+            threads.submit(() -> locks.runWithCourier(1L, () -> {
+                courierLocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            assertTrue(courierLocked.await(5, TimeUnit.SECONDS));
+            Future<?> fleet = threads.submit(() -> locks.runWithFleet(() -> fleetRan.set(true)));
+
+            Thread.sleep(100);
+            assertFalse(fleetRan.get());
+            release.countDown();
+            fleet.get(5, TimeUnit.SECONDS);
+            assertTrue(fleetRan.get());
+        }
+
+        assertThrows(IllegalStateException.class,
+                () -> locks.runWithCourier(1L, () -> locks.runWithFleet(() -> { })));
+        assertTrue(locks.withCouriers(List.of(5L, 2L, 5L), () -> locks.isHeldByCurrentThread(2L)));
+        assertFalse(locks.isHeldByCurrentThread(2L));
+    }
+
+    /**
+     * Verifies that the release listener is told about the outermost operations which modified a courier only,
+     * holding their locks, then once the thread released all of them.
+     */
+    @Test
+    void listenerIsToldAboutOutermostOperations() {
+        CourierLocks locks = new CourierLocks();
+        List<String> released = new ArrayList<>();
+        locks.setReleaseListener(new CourierLocks.ReleaseListener() {
+            @Override
+            public void courierReleased(long courierId) {
+                assertTrue(locks.isHeldByCurrentThread(courierId));
+                released.add("courier " + courierId);
+            }
+
+            @Override
+            public void fleetReleased() {
+                released.add("fleet");
+            }
+
+            @Override
+            public void afterRelease() {
+                assertFalse(locks.isHeldByCurrentThread(1L));
+                released.add("unlocked");
+            }
+        });
+
+        locks.runWithCourier(1L, () -> locks.runWithCourier(1L, () -> locks.markModified(1L)));
+        locks.withCouriers(List.of(2L, 3L), () -> {
+            locks.markModified(3L);
+            return locks.withCourier(2L, () -> {
+                locks.markModified(2L);
+                return null;
+            });
+        });
+        locks.runWithCourier(5L, () -> { }); // only reads the courier
+        locks.runWithFleet(() -> locks.runWithCourier(4L, () -> locks.markModified(4L)));
+        assertEquals(List.of("courier 1", "unlocked", "courier 2", "courier 3", "unlocked", "unlocked", "fleet",
+                "unlocked"), released);
+    }
+
+    /**
+     * Verifies that a modification of the fleet is reported to the listener once, with the courier modified.
+     */
+    @Test
+    void fleetModificationIsTakenOnce() {
+        CourierLocks locks = new CourierLocks();
+        List<Boolean> fleetModified = new ArrayList<>();
+        locks.setReleaseListener(new CourierLocks.ReleaseListener() {
+            @Override
+            public void courierReleased(long courierId) {
+                fleetModified.add(locks.takeFleetModified());
+            }
+
+            @Override
+            public void fleetReleased() {
+            }
+        });
+
+        locks.runWithCourier(1L, () -> locks.markFleetModified(1L));
+        locks.runWithCourier(1L, () -> locks.markModified(1L));
+        assertEquals(List.of(true, false), fleetModified);
+        assertFalse(locks.takeFleetModified());
+    }
+
+    private static boolean awaitBoth(CountDownLatch bothInside) {
+        bothInside.countDown();
+        try {
+            return bothInside.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
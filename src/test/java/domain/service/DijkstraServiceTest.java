@@ -3,8 +3,11 @@ package domain.service;
 
 import domain.model.*;
 import domain.model.dijkstra.DijkstraTable;
+import domain.model.dijkstra.ShortestPaths;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -208,4 +211,35 @@ class DijkstraServiceTest {
 
         assertEquals(7 * 60.0 / 15.0 / 1000.0, grapheComplet.getCout(0, 2), 0.0001);
     }
-}
\ No newline at end of file
+
+    /**
+     * Verifies that the shortest paths copied from a service are restored as computed in another service on the
+     * same map, and only those.
+     */
+    @Test
+    void computedPathsAreCopiedAndRestored() {
+        map = new Map();
+        map.addIntersection(new Intersection(1L, 0.0, 0.0));
+        map.addIntersection(new Intersection(2L, 10.0, 20.0));
+        map.addIntersection(new Intersection(3L, 15.0, 25.0));
+        map.addRoadSegment(1L, new RoadSegment("Jean Paul", 5, 1L, 2L));
+        map.addRoadSegment(2L, new RoadSegment("Jean Fred", 4, 2L, 3L));
+        dijkstraService = new DijkstraService(map);
+        dijkstraService.computeShortestPath(new long[] {1L, 3L});
+
+        List<ShortestPaths> rows = dijkstraService.copyComputedPaths();
+        assertEquals(List.of(1L, 3L), rows.stream().map(ShortestPaths::source).toList());
+        assertArrayEquals(new long[] {-1L, 1L, 2L}, rows.getFirst().predecessors());
+
+        DijkstraService restored = new DijkstraService(map);
+        restored.restoreComputedPaths(rows);
+        DijkstraTable table = restored.getDijkstraTable();
+        assertEquals(9 * 60.0 / 15.0 / 1000.0, table.get(1L, 3L).getDuration(), 0.0001);
+        assertEquals(2L, table.get(1L, 3L).getPredecessor());
+        assertTrue(table.get(1L, 3L).isVisited());
+        assertEquals(2, restored.copyComputedPaths().size());
+
+        ShortestPaths truncated = new ShortestPaths(1L, new double[2], new long[2], new boolean[2]);
+        assertThrows(IllegalArgumentException.class, () -> restored.restoreComputedPaths(List.of(truncated)));
+    }
+}
@@ -0,0 +1,45 @@
+package domain.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link PathLegCache} class.
+ */
+class PathLegCacheTest {
+
+    /**
+     * Verifies that a leg is only found for the map version it was cached with.
+     */
+    @Test
+    void legsAreKeyedByMapVersion() {
+        PathLegCache cache = new PathLegCache();
+        int[] leg = { 3, 1, 4 };
+        cache.put(1L, 2L, 7L, leg);
+
+        assertSame(leg, cache.get(1L, 2L, 7L));
+        assertNull(cache.get(1L, 2L, 8L));
+        assertNull(cache.get(2L, 1L, 7L));
+        assertEquals(1, cache.getNbHits());
+        assertEquals(2, cache.getNbMisses());
+    }
+
+    /**
+     * Verifies that the least recently used leg is evicted when the cache is full.
+     */
+    @Test
+    void leastRecentlyUsedLegIsEvicted() {
+        PathLegCache cache = new PathLegCache(2);
+        cache.put(1L, 2L, 1L, new int[] { 0 });
+        cache.put(2L, 3L, 1L, new int[] { 1 });
+        cache.get(1L, 2L, 1L); // 2 -> 3 is now the least recently used
+        cache.put(3L, 1L, 1L, new int[] { 2 });
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(1L, 2L, 1L));
+        assertNull(cache.get(2L, 3L, 1L));
+        assertNotNull(cache.get(3L, 1L, 1L));
+        assertThrows(IllegalArgumentException.class, () -> new PathLegCache(0));
+    }
+}
@@ -0,0 +1,100 @@
+package domain.service;
+
+import domain.model.*;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link PlanImportService} class.
+ */
+class PlanImportServiceTest {
+
+    private final RequestService requestService = new RequestService();
+
+    private final TourService tourService = new TourService();
+
+    private final PlanImportService planImportService;
+
+    PlanImportServiceTest() {
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+        planImportService = new PlanImportService(planningService, tourService, mapService,
+                new PlanningJobService(planningService));
+    }
+
+    /**
+     * Verifies that a plan directory is imported and every courier of the plan gets a tour.
+     */
+    @Test
+    void importPlanFromDirectory() {
+        PlanImportResult result = planImportService.importPlan("src/test/resources/plan");
+
+        assertEquals(2, result.nbCouriers());
+        assertEquals(3, result.nbRequests());
+        assertEquals(List.of(1L, 2L), result.outcomes().stream().map(PlanningOutcome::courierId).toList());
+        assertTrue(result.outcomes().stream().allMatch(PlanningOutcome::success));
+        assertEquals(3, tourService.getCouriers().size());
+        assertEquals(342873658L, requestService.getPickupDeliveryForCourier(2L).getWarehouseAddressId());
+        assertEquals(3, tourService.getTours().get(1L).getStops().size());
+        assertEquals(5, tourService.getTours().get(2L).getStops().size());
+    }
+
+    /**
+     * Verifies that a manifest names the files of the plan, and replaces the requests of the imported couriers only.
+     */
+    @Test
+    void importPlanFromManifest() {
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        requestService.setWarehouseAddress(342873658L, 2L);
+        requestService.addRequest(2L, new Request(8358135L, Duration.ofMinutes(10), 25173820L, Duration.ofMinutes(15)));
+
+        PlanImportResult result = planImportService.importPlan("src/test/resources/plan/plan.properties");
+
+        assertEquals(2, result.nbCouriers());
+        assertEquals(List.of(1L, 3L), result.outcomes().stream().map(PlanningOutcome::courierId).toList());
+        assertEquals(2, requestService.getPickupDeliveryForCourier(1L).getNbRequests());
+        assertEquals(1, requestService.getPickupDeliveryForCourier(2L).getNbRequests()); // not in the plan
+        assertNotNull(tourService.getTours().get(3L));
+        assertNull(tourService.getTours().get(2L));
+    }
+
+    /**
+     * Verifies that an imported courier whose tour cannot be computed gets its new requests without keeping the
+     * tour of the previous plan.
+     */
+    @Test
+    void importedCourierFailingToPlanLosesItsPreviousTour() {
+        planImportService.importPlan("src/test/resources/plan/plan.properties");
+        assertNotNull(tourService.getTours().get(1L));
+
+        PlanImportResult result = planImportService.importPlan("src/test/resources/plan/short-shift.properties");
+
+        assertEquals(1, result.outcomes().size());
+        assertFalse(result.outcomes().getFirst().success());
+        assertEquals(List.of(1L), tourService.getCouriers().stream().map(Courier::getId).toList());
+        assertEquals(1, requestService.getPickupDeliveryForCourier(1L).getNbRequests());
+        assertEquals(1, tourService.getPrecedencesByCourier().get(1L).size());
+        assertNull(tourService.getTours().get(1L));
+    }
+
+    /**
+     * Verifies that a plan whose courier does not exist is rejected before anything is modified.
+     */
+    @Test
+    void importPlanRejectsUnknownCourier() {
+        assertThrows(IllegalArgumentException.class, () -> planImportService.importPlan("src/test/resources/plan/missing"));
+        assertThrows(IllegalArgumentException.class, () -> planImportService.importPlan("src/test/resources/testCouriers.xml"));
+
+        // Without couriers file, the requests files must match the current couriers
+        tourService.addCourier(new Courier(7L, "Courier 7", Duration.ofHours(8)));
+        assertThrows(IllegalArgumentException.class,
+                () -> planImportService.importPlan("src/test/resources/plan/requests-only.properties"));
+        assertTrue(requestService.getPickupDeliveryPerCourier().isEmpty());
+        assertEquals(1, tourService.getCouriers().size());
+    }
+}
@@ -0,0 +1,212 @@
+package domain.service;
+
+import domain.model.*;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link PlanningJobService} class.
+ */
+class PlanningJobServiceTest {
+
+    /**
+     * Waits until the job is finished.
+     */
+    private static void awaitFinished(PlanningJob job) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 60000;
+        while (!job.getStatus().isFinished() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(job.getStatus().isFinished());
+    }
+
+    /**
+     * Verifies that a submitted job computes and publishes the tour of the courier, and reports its progress.
+     */
+    @Test
+    void submitComputesAndPublishesTour() throws InterruptedException {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+        PlanningJobService planningJobService = new PlanningJobService(planningService, 1, 4);
+        planningService.setGapTolerance(0); // explore the tree instead of stopping on the initial gap
+
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        requestService.getPickupDeliveryForCourier(1L).addRequest(
+                new Request(8358135L, Duration.ofMinutes(10), 25173820L, Duration.ofMinutes(15)));
+        requestService.getPickupDeliveryForCourier(1L).setWarehouseAddressId(342873658L);
+
+        PlanningJob job = planningJobService.submit(1L);
+        assertSame(job, planningJobService.getJob(job.getId()));
+        awaitFinished(job);
+
+        assertEquals(JobStatus.SUCCEEDED, job.getStatus());
+        assertNotNull(tourService.getTours().get(1L));
+        assertSame(tourService.getTours().get(1L), job.computeBestTour());
+        assertTrue(job.getBestCost() > 0);
+        assertTrue(job.getNodesExplored() > 0);
+        assertFalse(planningJobService.cancel(job.getId()));
+    }
+
+    /**
+     * Verifies that a submitted fork replaces the courier once planned, and that a fork taken before another
+     * modification of the courier is discarded, the job failing.
+     */
+    @Test
+    void submittedForkIsCommittedOnlyOnTheStateItWasTakenFrom() throws InterruptedException {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+        PlanningJobService planningJobService = new PlanningJobService(planningService, 1, 4);
+
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        requestService.setWarehouseAddress(342873658L, 1L);
+        Request deleted = new Request(26086130L, Duration.ofMinutes(5), 1679901320L, Duration.ofMinutes(5));
+        requestService.addRequest(1L, new Request(8358135L, Duration.ofMinutes(10), 25173820L, Duration.ofMinutes(15)));
+        requestService.addRequest(1L, deleted);
+        planningService.recomputeTourForCourier(1L);
+        Tour tour = tourService.getTours().get(1L);
+        int after = 2;
+        while (tour.getStops().get(after).getRequestID() == tour.getStops().get(1).getRequestID()) after++;
+        int following = after;
+
+        PlanningTransaction reordered = planningService.fork(1L,
+                fork -> tourService.updateStopOrder(fork, 1, following));
+        assertEquals(2, tourService.getPrecedencesByCourier().get(1L).size()); // the courier is not modified yet
+        PlanningJob job = planningJobService.submit(reordered);
+        awaitFinished(job);
+
+        assertEquals(JobStatus.SUCCEEDED, job.getStatus());
+        assertEquals(3, tourService.getPrecedencesByCourier().get(1L).size());
+        assertSame(reordered.getTour(), tourService.getTours().get(1L));
+        assertEquals(1, tourService.getHistory(1L).getNbUndoable());
+
+        Request added = new Request(26464256L, Duration.ofMinutes(2), 21992645L, Duration.ofMinutes(2));
+        PlanningTransaction stale = planningService.fork(1L, fork -> fork.addRequest(added));
+        planningService.deleteRequest(1L, deleted.getId());
+        Tour current = tourService.getTours().get(1L);
+        job = planningJobService.submit(stale);
+        awaitFinished(job);
+
+        assertEquals(JobStatus.FAILED, job.getStatus());
+        assertNull(requestService.getRequestById(added.getId(), 1L));
+        assertSame(current, tourService.getTours().get(1L));
+    }
+
+    /**
+     * Verifies that submitting a job for an unknown courier throws an IllegalArgumentException.
+     */
+    @Test
+    void submitUnknownCourierThrowsException() {
+        MapService mapService = new MapService();
+        mapService.loadMap("src/test/resources/testMap.xml");
+        PlanningService planningService = new PlanningService(new RequestService(), new TourService(), mapService);
+        PlanningJobService planningJobService = new PlanningJobService(planningService, 1, 4);
+
+        assertThrows(IllegalArgumentException.class, () -> planningJobService.submit(42L));
+        assertThrows(IllegalArgumentException.class, () -> planningJobService.cancel(42L));
+        assertNull(planningJobService.getJob(42L));
+    }
+
+    /**
+     * Verifies that jobs are rejected when the queue is full, and that cancelled jobs do not publish their tour.
+     */
+    @Test
+    void submitRejectsJobsWhenQueueIsFullAndCancelStopsJobs() throws InterruptedException {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+        PlanningJobService planningJobService = new PlanningJobService(planningService, 1, 1);
+
+        for (long courierId = 1; courierId <= 3; courierId++) {
+            tourService.addCourier(new Courier(courierId, "Courier " + courierId, Duration.ofHours(8)));
+            requestService.loadRequests("src/main/resources/requests2.xml", courierId);
+        }
+
+        PlanningJob running = planningJobService.submit(1L); // many stops: keeps the solver thread busy
+        PlanningJob queued = planningJobService.submit(2L);
+        assertThrows(RejectedExecutionException.class, () -> planningJobService.submit(3L));
+
+        assertTrue(planningJobService.cancel(queued.getId()));
+        assertTrue(planningJobService.cancel(running.getId()));
+        awaitFinished(running);
+        awaitFinished(queued);
+
+        assertEquals(JobStatus.CANCELLED, running.getStatus());
+        assertEquals(JobStatus.CANCELLED, queued.getStatus());
+        assertEquals(0, queued.getNodesExplored());
+        assertNull(tourService.getTours().get(1L));
+        assertNull(tourService.getTours().get(2L));
+    }
+
+    /**
+     * Verifies that a burst of re-plan requests of a courier is coalesced into a single job.
+     */
+    @Test
+    void requestReplanCoalescesBurstOfEdits() throws InterruptedException {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+        PlanningJobService planningJobService = new PlanningJobService(planningService, 1, 4, 200);
+
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        requestService.getPickupDeliveryForCourier(1L).setWarehouseAddressId(342873658L);
+
+        PlanningJob job = null;
+        for (int i = 0; i < 3; i++) {
+            requestService.getPickupDeliveryForCourier(1L).addRequest(
+                    new Request(8358135L, Duration.ofMinutes(10), 25173820L, Duration.ofMinutes(15)));
+            PlanningJob replan = planningJobService.requestReplan(1L);
+            if (job != null) assertSame(job, replan);
+            job = replan;
+        }
+        awaitFinished(job);
+
+        assertEquals(JobStatus.SUCCEEDED, job.getStatus());
+        assertEquals(7, tourService.getTours().get(1L).getStops().size()); // warehouse + 3 requests
+    }
+
+    /**
+     * Verifies that a newer job of a courier supersedes its running job, which is stopped and not published.
+     */
+    @Test
+    void newerJobSupersedesRunningJob() throws InterruptedException {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+        PlanningJobService planningJobService = new PlanningJobService(planningService, 1, 4, 0);
+
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        requestService.loadRequests("src/main/resources/requests2.xml", 1L);
+
+        PlanningJob first = planningJobService.requestReplan(1L);
+        long deadline = System.currentTimeMillis() + 30000;
+        while (first.getStatus() == JobStatus.QUEUED && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        PlanningJob second = planningJobService.requestReplan(1L);
+        assertNotSame(first, second);
+        awaitFinished(first);
+        assertEquals(JobStatus.CANCELLED, first.getStatus());
+        assertEquals(second.getId(), first.getSupersededBy());
+
+        planningJobService.supersede(1L);
+        awaitFinished(second);
+        assertEquals(JobStatus.CANCELLED, second.getStatus());
+    }
+}
@@ -0,0 +1,173 @@
+package domain.service;
+
+import domain.model.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link PlanningJournal} class.
+ */
+class PlanningJournalTest {
+
+    /**
+     * Verifies that the state journaled before a crash (couriers, requests, warehouse, precedences and tours),
+     * across a checkpoint, is restored exactly by fresh services opening the same directory.
+     */
+    @Test
+    void reopeningRestoresTheJournaledState(@TempDir Path sessionDir, @TempDir Path dir) throws IOException {
+        Expected expected = journalSession(sessionDir, dir);
+
+        Services restored = new Services();
+        restored.journal.open(dir);
+        assertEquals(List.of(1L), restored.tourService.getCouriers().stream().map(Courier::getId).toList());
+        Courier courier = restored.tourService.getCouriers().getFirst();
+        assertEquals(Duration.ofHours(8), courier.getShiftDuration());
+        assertEquals(expected.status(), courier.getAvailabilityStatus());
+        PickupDelivery requests = restored.requestService.getPickupDeliveryForCourier(1L);
+        assertEquals(expected.warehouseId(), requests.getWarehouseAddressId());
+        assertEquals(expected.departureTime(), requests.getDepartureTime());
+        assertEquals(expected.requestIds(), requests.getRequests().stream().map(Request::getId).toList());
+        assertEquals(expected.precedences(), restored.tourService.getPrecedencesByCourier().get(1L));
+
+        Tour tour = restored.tourService.getTours().get(1L);
+        assertEquals(expected.stops(), tour.getStops().stream().map(Stop::of).toList());
+        assertEquals(expected.totalDuration(), tour.getTotalDuration());
+        assertEquals(expected.nbRoadSegments(), tour.getNbRoadSegments());
+        assertEquals(expected.optimalityGap(), tour.getOptimalityGap());
+
+        // The restored state is journaled in its turn
+        restored.planningService.deleteRequest(1L, expected.requestIds().getFirst());
+        restored.journal.close();
+        assertFalse(restored.journal.isOpen());
+        assertTrue(Files.exists(dir.resolve(PlanningJournal.CHECKPOINT_FILE)));
+        restored = null; // each planning service holds the shortest paths of the whole map
+
+        Services reopened = new Services();
+        reopened.journal.open(dir);
+        assertEquals(expected.requestIds().subList(1, 3),
+                reopened.requestService.getPickupDeliveryForCourier(1L).getRequests().stream().map(Request::getId).toList());
+        reopened.journal.close();
+    }
+
+    /**
+     * Verifies that the operations only reading a courier journal nothing, while its modifications are journaled.
+     */
+    @Test
+    void readOnlyOperationsJournalNothing(@TempDir Path dir) throws IOException {
+        Services session = new Services();
+        session.journal.open(dir);
+        session.tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        session.requestService.setWarehouseAddress(342873658L, 1L);
+        Request request = new Request(8358135L, Duration.ofMinutes(10), 25173820L, Duration.ofMinutes(15));
+        session.requestService.addRequest(1L, request);
+        session.planningService.recomputeTourForCourier(1L);
+        long journaled = journalSize(dir);
+
+        session.planningService.estimateInsertion(1L,
+                new Request(55444215L, Duration.ofMinutes(3), 26155372L, Duration.ofMinutes(4)), 342873658L);
+        session.planningService.estimateRemoval(1L, request.getId());
+        assertEquals(journaled, journalSize(dir));
+
+        session.planningService.deleteRequest(1L, request.getId());
+        assertTrue(journalSize(dir) > journaled);
+        session.journal.close();
+    }
+
+    /**
+     * @return the total size of the journal files of a directory
+     */
+    private static long journalSize(Path dir) throws IOException {
+        long size = 0;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                if (file.getFileName().toString().startsWith(PlanningJournal.JOURNAL_PREFIX)) size += Files.size(file);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Modifies couriers, requests, precedences and tours with a journal open in a directory, across a checkpoint,
+     * then copies the files of the journal as a crash would leave them before closing it.
+     *
+     * @return the state of the courier 1 at the end
+     */
+    private static Expected journalSession(Path dir, Path crashDir) throws IOException {
+        Services session = new Services();
+        session.journal.open(dir);
+        assertTrue(session.journal.isOpen());
+
+        session.tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        session.tourService.addCourier(new Courier(2L, "Courier 2", Duration.ofHours(6)));
+        session.tourService.removeCourier(2L);
+        session.requestService.setWarehouseAddress(342873658L, 1L);
+        Request deleted = new Request(26086130L, Duration.ofMinutes(5), 1679901320L, Duration.ofMinutes(5));
+        session.requestService.addRequest(1L, new Request(8358135L, Duration.ofMinutes(10), 25173820L, Duration.ofMinutes(15)));
+        session.requestService.addRequest(1L, deleted);
+        session.requestService.addRequest(1L, new Request(55444215L, Duration.ofMinutes(3), 26155372L, Duration.ofMinutes(4)));
+        session.planningService.recomputeTourForCourier(1L);
+        session.journal.checkpoint();
+
+        session.planningService.deleteRequest(1L, deleted.getId());
+        Tour tour = session.tourService.getTours().get(1L);
+        int after = 2;
+        while (tour.getStops().get(after).getRequestID() == tour.getStops().get(1).getRequestID()) after++;
+        int following = after;
+        session.planningService.inTransaction(1L, transaction -> {
+            session.tourService.updateStopOrder(transaction, 1, following);
+            return session.planningService.plan(transaction, false);
+        });
+        session.planningService.inTransaction(1L, transaction -> {
+            transaction.addRequest(new Request(26464256L, Duration.ofMinutes(2), 21992645L, Duration.ofMinutes(2)));
+            return session.planningService.plan(transaction, true);
+        });
+
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) Files.copy(file, crashDir.resolve(file.getFileName())); // every record is durable
+        }
+        session.journal.close();
+
+        PickupDelivery requests = session.requestService.getPickupDeliveryForCourier(1L);
+        tour = session.tourService.getTours().get(1L);
+        return new Expected(requests.getWarehouseAddressId(), requests.getDepartureTime(),
+                requests.getRequests().stream().map(Request::getId).toList(),
+                new HashMap<>(session.tourService.getPrecedencesByCourier().get(1L)),
+                tour.getStops().stream().map(Stop::of).toList(), tour.getTotalDuration(), tour.getNbRoadSegments(),
+                tour.getOptimalityGap(), session.tourService.getCouriers().getFirst().getAvailabilityStatus());
+    }
+
+    /**
+     * The state of a courier at the end of a session.
+     */
+    private record Expected(long warehouseId, LocalDateTime departureTime, List<Long> requestIds,
+                            HashMap<Stop, Set<Stop>> precedences, List<Stop> stops, Duration totalDuration,
+                            int nbRoadSegments, Double optimalityGap, AvailabilityStatus status) {
+    }
+
+    /**
+     * Services of a planning session, with their journal.
+     */
+    private static class Services {
+        final RequestService requestService = new RequestService();
+        final TourService tourService = new TourService();
+        final PlanningService planningService;
+        final PlanningJournal journal;
+
+        Services() {
+            MapService mapService = new MapService();
+            mapService.loadMap("src/main/resources/grandPlan.xml");
+            planningService = new PlanningService(requestService, tourService, mapService);
+            journal = new PlanningJournal(planningService, requestService, tourService);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package domain.service;
 
 import domain.model.*;
+import domain.utils.PersistentMap;
 import org.junit.jupiter.api.Test;
 
 import java.time.Duration;
@@ -38,6 +39,117 @@ class PlanningServiceTest {
         assertNotNull(tour);
         assertEquals(1L, tour.getCourierId());
         assertTrue(tour.getTotalDuration().toMinutes() > 0);
+        assertTrue(tour.getOptimalityGap() >= 0 && tour.getOptimalityGap() < 100);
+    }
+
+    /**
+     * Verifies that a courier with many stops (solved with the ALNS solver) gets a tour
+     * visiting every stop, with each pickup before its delivery.
+     */
+    @Test
+    void recomputeTourForCourierWithManyStopsVisitsEveryStop() {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        requestService.loadRequests("src/main/resources/requests2.xml", 1L);
+        planningService.recomputeTourForCourier(1L);
+
+        Tour tour = tourService.getTours().get(1L);
+        assertNotNull(tour);
+        assertEquals(17, tour.getStops().size());
+        for (Request request : requestService.getPickupDeliveryForCourier(1L).getRequests()) {
+            int pickupIndex = -1, deliveryIndex = -1;
+            for (int i = 0; i < tour.getStops().size(); i++) {
+                TourStop stop = tour.getStops().get(i);
+                if (stop.getRequestID() != request.getId()) continue;
+                if (stop.getType() == StopType.PICKUP) pickupIndex = i;
+                if (stop.getType() == StopType.DELIVERY) deliveryIndex = i;
+            }
+            assertTrue(pickupIndex > 0 && pickupIndex < deliveryIndex);
+        }
+    }
+
+    /**
+     * Verifies that recomputing a tour after adding a request starts from the previous tour
+     * and returns a tour including the new request.
+     */
+    @Test
+    void recomputeTourForCourierReusesPreviousTour() {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        requestService.loadRequests("src/main/resources/requests.xml", 1L);
+        planningService.recomputeTourForCourier(1L);
+        assertEquals(5, tourService.getTours().get(1L).getStops().size());
+
+        Request request = new Request(21703544L, Duration.ofMinutes(2), 25610704L, Duration.ofMinutes(2));
+        requestService.addRequest(1L, request);
+        planningService.updatePrecedences(1L, request);
+        planningService.recomputeTourForCourier(1L);
+
+        Tour tour = tourService.getTours().get(1L);
+        assertEquals(7, tour.getStops().size());
+        assertTrue(tour.getStops().stream().anyMatch(stop -> stop.getRequestID() == request.getId()));
+    }
+
+    /**
+     * Verifies that a new request planned fast is inserted into the existing tour without changing the order of the
+     * other stops.
+     */
+    @Test
+    void planFastKeepsExistingOrder() {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        requestService.loadRequests("src/main/resources/requests.xml", 1L);
+        planningService.recomputeTourForCourier(1L);
+        List<Long> previousOrder = tourService.getTours().get(1L).getStops().stream().map(TourStop::getIntersectionId).toList();
+
+        Request request = new Request(21703544L, Duration.ofMinutes(2), 25610704L, Duration.ofMinutes(2));
+        boolean inserted = planningService.inTransaction(1L, transaction -> {
+            transaction.addRequest(request);
+            return planningService.plan(transaction, true);
+        });
+        assertTrue(inserted);
+
+        List<TourStop> stops = tourService.getTours().get(1L).getStops();
+        assertEquals(7, stops.size());
+        List<Long> order = stops.stream()
+                .filter(stop -> stop.getRequestID() != request.getId())
+                .map(TourStop::getIntersectionId)
+                .toList();
+        assertEquals(previousOrder, order);
+    }
+
+    /**
+     * Verifies that planning fast a courier without tour computes the whole tour.
+     */
+    @Test
+    void planFastWithoutTourRecomputesTour() {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        requestService.loadRequests("src/main/resources/requests.xml", 1L);
+
+        boolean inserted = planningService.inTransaction(1L, transaction -> planningService.plan(transaction, true));
+        assertFalse(inserted);
+        assertEquals(5, tourService.getTours().get(1L).getStops().size());
     }
 
     /**
@@ -62,7 +174,7 @@ class PlanningServiceTest {
     }
 
     /**
-     * Verifies that updatePrecedences adds a new precedence for a request.
+     * Verifies that updatePrecedences adds a new precedence for a request, which can be undone.
      */
     @Test
     void updatePrecedencesAddsNewPrecedence() {
@@ -76,25 +188,400 @@ class PlanningServiceTest {
 
         planningService.updatePrecedences(1L, request);
 
-        assertTrue(tourService.getPrecedencesByCourier().get(1L).containsKey(tourService.parseParams(request.getId(), request.getDeliveryIntersectionId(), 'd')));
+        assertTrue(tourService.getPrecedencesByCourier().get(1L).containsKey(Stop.delivery(request)));
+        assertTrue(planningService.undo(1L));
+        assertFalse(tourService.getPrecedencesByCourier().get(1L).containsKey(Stop.delivery(request)));
     }
 
     /**
-     * Verifies that deletePrecedences removes the precedence for a specific request.
+     * Verifies that deletePrecedences removes the precedence for a specific request, without modifying the
+     * precedences it replaces, which can be restored.
      */
     @Test
     void deletePrecedencesRemovesPrecedenceForRequest() {
         TourService tourService = new TourService();
         PlanningService planningService = new PlanningService(new RequestService(), tourService, new MapService());
 
-        tourService.initPrecedences(1L, new ArrayList<>());
-        HashMap<String, Set<String>> precs = tourService.getPrecedencesByCourier().get(1L);
-        precs.put("1/2/d", new HashSet<>(List.of("1/2/p")));
+        Stop pickup = new Stop(1L, 2L, StopType.PICKUP);
+        Stop delivery = new Stop(1L, 2L, StopType.DELIVERY);
+        Stop otherPickup = new Stop(12L, 3L, StopType.PICKUP);
+        PersistentMap<Stop, Set<Stop>> precs = Precedences.with(PersistentMap.empty(), pickup, delivery);
+        precs = Precedences.with(precs, otherPickup, new Stop(12L, 4L, StopType.DELIVERY));
+        tourService.getPrecedencesByCourier().put(1L, precs);
 
         planningService.deletePrecedences(1L, 1L);
 
-        assertFalse(precs.containsKey("1/2/d"));
-        assertTrue(precs.values().stream().noneMatch(set -> set.contains("1/2/p")));
+        PersistentMap<Stop, Set<Stop>> after = tourService.getPrecedencesByCourier().get(1L);
+        assertFalse(after.containsKey(delivery));
+        assertTrue(after.values().stream().noneMatch(set -> set.contains(pickup)));
+        assertTrue(after.values().stream().anyMatch(set -> set.contains(otherPickup)), "Request 12 is not request 1.");
+        assertTrue(precs.containsKey(delivery));
+        assertTrue(planningService.undo(1L));
+        assertSame(precs, tourService.getPrecedencesByCourier().get(1L));
+    }
+
+    /**
+     * Verifies that requests which cannot fit in the shift of the courier are rejected
+     * without running the solvers.
+     */
+    @Test
+    void computeTourForCourierFailsFastWhenShiftIsTooShort() {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofMinutes(10)));
+        requestService.loadRequests("src/main/resources/requests2.xml", 1L);
+
+        long start = System.currentTimeMillis();
+        ShiftInfeasibleException e = assertThrows(ShiftInfeasibleException.class, () -> planningService.computeTourForCourier(1L));
+        assertEquals(1L, e.getCourierId());
+        assertTrue(e.getMessage().contains("cannot fit in their shift"));
+        assertTrue(System.currentTimeMillis() - start < 2000, "The solvers must not be run.");
+        assertNull(tourService.getTours().get(1L));
+    }
+
+    /**
+     * Verifies that estimating the insertion of a request gives its arrival times without modifying the requests,
+     * the precedences or the tour of the courier.
+     */
+    @Test
+    void estimateInsertionDoesNotModifyTheCourier() {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        requestService.getPickupDeliveryForCourier(1L).setWarehouseAddressId(342873658L);
+        requestService.addRequest(1L, new Request(8358135L, Duration.ofMinutes(10), 25173820L, Duration.ofMinutes(15)));
+        planningService.recomputeTourForCourier(1L);
+        Tour tour = tourService.getTours().get(1L);
+        HashMap<Stop, Set<Stop>> precedences = new HashMap<>(tourService.getPrecedencesByCourier().get(1L));
+
+        Request candidate = new Request(26086130L, Duration.ofMinutes(5), 1679901320L, Duration.ofMinutes(5));
+        InsertionEstimate estimate = planningService.estimateInsertion(1L, candidate, 342873658L);
+
+        assertTrue(estimate.feasible());
+        assertTrue(estimate.extraMinutes() > 0);
+        assertTrue(estimate.tourMinutes() > estimate.extraMinutes());
+        LocalDateTime departure = requestService.getPickupDeliveryForCourier(1L).getDepartureTime();
+        assertTrue(estimate.pickupEta().isAfter(departure));
+        assertTrue(estimate.deliveryEta().isAfter(estimate.pickupEta()));
+        assertEquals(1, requestService.getPickupDeliveryForCourier(1L).getNbRequests());
+        assertEquals(precedences, tourService.getPrecedencesByCourier().get(1L));
+        assertSame(tour, tourService.getTours().get(1L));
+    }
+
+    /**
+     * Verifies that the tours of all couriers are computed in one call, a failing courier not preventing the
+     * others from getting their tour.
+     */
+    @Test
+    void recomputeAllToursPlansEveryCourier() {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        tourService.addCourier(new Courier(2L, "Courier 2", Duration.ofHours(8)));
+        tourService.addCourier(new Courier(3L, "Courier 3", Duration.ofMinutes(5)));
+        requestService.loadRequests("src/main/resources/requestsSmall1.xml", 1L);
+        requestService.loadRequests("src/main/resources/requests.xml", 2L);
+        requestService.loadRequests("src/main/resources/requestsSmall1.xml", 3L);
+
+        List<PlanningOutcome> outcomes = planningService.recomputeAllTours();
+
+        assertEquals(List.of(1L, 2L, 3L), outcomes.stream().map(PlanningOutcome::courierId).toList());
+        assertTrue(outcomes.get(0).success());
+        assertTrue(outcomes.get(1).success());
+        assertFalse(outcomes.get(2).success());
+        assertTrue(outcomes.get(2).error().contains("cannot fit in their shift"));
+        assertNotNull(tourService.getTours().get(1L));
+        assertNotNull(tourService.getTours().get(2L));
+        assertNull(tourService.getTours().get(3L));
+    }
+
+    /**
+     * Verifies that a batch of requests for many couriers is planned with one tour per courier.
+     */
+    @Test
+    void addRequestsPlansEachCourierOnce() {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        tourService.addCourier(new Courier(2L, "Courier 2", Duration.ofHours(8)));
+
+        TreeMap<Long, List<Request>> batch = new TreeMap<>();
+        batch.put(1L, List.of(new Request(8358135L, Duration.ofMinutes(10), 25173820L, Duration.ofMinutes(15)),
+                new Request(26086130L, Duration.ofMinutes(5), 1679901320L, Duration.ofMinutes(5))));
+        batch.put(2L, List.of(new Request(26086130L, Duration.ofMinutes(5), 25173820L, Duration.ofMinutes(5))));
+        planningService.addRequests(batch, new TreeMap<>(java.util.Map.of(1L, 342873658L, 2L, 342873658L)));
+
+        assertEquals(2, requestService.getPickupDeliveryForCourier(1L).getNbRequests());
+        assertEquals(1, requestService.getPickupDeliveryForCourier(2L).getNbRequests());
+        assertEquals(5, tourService.getTours().get(1L).getStops().size());
+        assertEquals(3, tourService.getTours().get(2L).getStops().size());
+        assertEquals(2, tourService.getPrecedencesByCourier().get(1L).size());
+    }
+
+    /**
+     * Verifies that a batch is all-or-nothing: when one courier cannot be planned, no request of the batch is kept
+     * and no tour changes.
+     */
+    @Test
+    void addRequestsRollsBackTheWholeBatch() {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        tourService.addCourier(new Courier(2L, "Courier 2", Duration.ofMinutes(5)));
+        requestService.setWarehouseAddress(342873658L, 1L);
+        requestService.addRequest(1L, new Request(8358135L, Duration.ofMinutes(10), 25173820L, Duration.ofMinutes(15)));
+        planningService.recomputeTourForCourier(1L);
+        Tour tour = tourService.getTours().get(1L);
+
+        TreeMap<Long, List<Request>> batch = new TreeMap<>();
+        batch.put(1L, List.of(new Request(26086130L, Duration.ofMinutes(5), 1679901320L, Duration.ofMinutes(5))));
+        batch.put(2L, List.of(new Request(26086130L, Duration.ofMinutes(5), 25173820L, Duration.ofMinutes(5))));
+        TreeMap<Long, Long> warehouses = new TreeMap<>(java.util.Map.of(2L, 342873658L));
+        assertThrows(RuntimeException.class, () -> planningService.addRequests(batch, warehouses));
+
+        assertEquals(1, requestService.getPickupDeliveryForCourier(1L).getNbRequests());
+        assertEquals(0, requestService.getPickupDeliveryForCourier(2L).getNbRequests());
+        assertEquals(-1, requestService.getPickupDeliveryForCourier(2L).getWarehouseAddressId());
+        assertEquals(1, tourService.getPrecedencesByCourier().get(1L).size());
+        assertSame(tour, tourService.getTours().get(1L));
+        assertNull(tourService.getTours().get(2L));
+
+        // An unknown intersection is rejected before anything is added
+        batch.put(1L, List.of(new Request(1L, Duration.ofMinutes(5), 1679901320L, Duration.ofMinutes(5))));
+        assertThrows(IllegalArgumentException.class, () -> planningService.addRequests(batch, warehouses));
+        assertEquals(1, requestService.getPickupDeliveryForCourier(1L).getNbRequests());
+    }
+
+    /**
+     * Verifies that deleting a request removes it with its precedences and publishes the tour without it,
+     * and that deleting an unknown request changes nothing.
+     */
+    @Test
+    void deleteRequestRecomputesTheTourWithoutTheRequest() {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        requestService.setWarehouseAddress(342873658L, 1L);
+        Request kept = new Request(8358135L, Duration.ofMinutes(10), 25173820L, Duration.ofMinutes(15));
+        Request deleted = new Request(26086130L, Duration.ofMinutes(5), 1679901320L, Duration.ofMinutes(5));
+        requestService.addRequest(1L, kept);
+        requestService.addRequest(1L, deleted);
+        planningService.recomputeTourForCourier(1L);
+
+        planningService.deleteRequest(1L, deleted.getId());
+
+        assertNull(requestService.getRequestById(deleted.getId(), 1L));
+        assertEquals(1, tourService.getPrecedencesByCourier().get(1L).size());
+        assertTrue(tourService.getTours().get(1L).getStops().stream()
+                .noneMatch(stop -> stop.getRequestID() == deleted.getId()));
+
+        Tour tour = tourService.getTours().get(1L);
+        assertThrows(IllegalArgumentException.class, () -> planningService.deleteRequest(1L, deleted.getId()));
+        assertSame(tour, tourService.getTours().get(1L));
+        assertNotNull(requestService.getRequestById(kept.getId(), 1L));
+    }
+
+    /**
+     * Verifies that a transaction works on a fork: the readers see the committed state until the fork is
+     * planned and committed, and a failing transaction leaves the courier unchanged.
+     */
+    @Test
+    void inTransactionPublishesTheForkOnlyOnSuccess() {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        requestService.setWarehouseAddress(342873658L, 1L);
+        requestService.addRequest(1L, new Request(8358135L, Duration.ofMinutes(10), 25173820L, Duration.ofMinutes(15)));
+        planningService.recomputeTourForCourier(1L);
+        Tour committed = tourService.getTours().get(1L);
+        Request added = new Request(26086130L, Duration.ofMinutes(5), 1679901320L, Duration.ofMinutes(5));
+
+        // A failing transaction is discarded
+        assertThrows(RuntimeException.class, () -> planningService.inTransaction(1L, transaction -> {
+            transaction.addRequest(added);
+            planningService.plan(transaction, true);
+            assertEquals(1, requestService.getPickupDeliveryForCourier(1L).getNbRequests());
+            assertSame(committed, tourService.getTours().get(1L));
+            throw new RuntimeException("Cancelled by the dispatcher.");
+        }));
+        assertEquals(1, requestService.getPickupDeliveryForCourier(1L).getNbRequests());
+        assertEquals(1, tourService.getPrecedencesByCourier().get(1L).size());
+        assertSame(committed, tourService.getTours().get(1L));
+
+        // A modification must be planned to be committed
+        assertThrows(IllegalStateException.class, () -> planningService.inTransaction(1L, transaction -> {
+            transaction.addRequest(added);
+            return null;
+        }));
+        assertNull(requestService.getRequestById(added.getId(), 1L));
+
+        boolean inserted = planningService.inTransaction(1L, transaction -> {
+            transaction.addRequest(added);
+            return planningService.plan(transaction, true);
+        });
+        assertTrue(inserted);
+        assertNotNull(requestService.getRequestById(added.getId(), 1L));
+        assertEquals(2, tourService.getPrecedencesByCourier().get(1L).size());
+        assertNotSame(committed, tourService.getTours().get(1L));
+        assertTrue(tourService.getTours().get(1L).getStops().stream()
+                .anyMatch(stop -> stop.getRequestID() == added.getId()));
+    }
+
+    /**
+     * Verifies that undo and redo restore the requests, the precedences and the very tours computed before,
+     * and that a new change cannot redo the undone ones.
+     */
+    @Test
+    void undoAndRedoRestoreTheSolvedTours() {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        requestService.setWarehouseAddress(342873658L, 1L);
+        Request kept = new Request(8358135L, Duration.ofMinutes(10), 25173820L, Duration.ofMinutes(15));
+        Request deleted = new Request(26086130L, Duration.ofMinutes(5), 1679901320L, Duration.ofMinutes(5));
+        requestService.addRequest(1L, kept);
+        requestService.addRequest(1L, deleted);
+        planningService.recomputeTourForCourier(1L);
+        Tour before = tourService.getTours().get(1L);
+        assertFalse(planningService.undo(1L));
+
+        planningService.deleteRequest(1L, deleted.getId());
+        Tour after = tourService.getTours().get(1L);
+
+        assertTrue(planningService.undo(1L));
+        assertSame(before, tourService.getTours().get(1L));
+        assertNotNull(requestService.getRequestById(deleted.getId(), 1L));
+        assertEquals(2, tourService.getPrecedencesByCourier().get(1L).size());
+
+        assertTrue(planningService.redo(1L));
+        assertSame(after, tourService.getTours().get(1L));
+        assertNull(requestService.getRequestById(deleted.getId(), 1L));
+        assertFalse(planningService.redo(1L));
+
+        assertTrue(planningService.undo(1L));
+        planningService.deleteRequest(1L, kept.getId());
+        assertFalse(planningService.redo(1L));
+        assertEquals(1, tourService.getHistory(1L).getNbUndoable());
+    }
+
+    /**
+     * Verifies that two consecutive versions of a courier share their unchanged precedences and requests,
+     * instead of each holding a copy of them.
+     */
+    @Test
+    void consecutiveVersionsShareTheirUnchangedParts() {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        requestService.setWarehouseAddress(342873658L, 1L);
+        Request kept = new Request(8358135L, Duration.ofMinutes(10), 25173820L, Duration.ofMinutes(15));
+        Request deleted = new Request(26086130L, Duration.ofMinutes(5), 1679901320L, Duration.ofMinutes(5));
+        requestService.addRequest(1L, kept);
+        requestService.addRequest(1L, deleted);
+        planningService.recomputeTourForCourier(1L);
+        PersistentMap<Stop, Set<Stop>> before = tourService.getPrecedencesByCourier().get(1L);
+
+        planningService.deleteRequest(1L, deleted.getId());
+        PersistentMap<Stop, Set<Stop>> after = tourService.getPrecedencesByCourier().get(1L);
+
+        assertNotSame(before, after);
+        assertNull(after.get(Stop.delivery(deleted)));
+        assertSame(before.get(Stop.delivery(kept)), after.get(Stop.delivery(kept)));
+        assertSame(kept, requestService.getRequestById(kept.getId(), 1L));
+
+        assertTrue(planningService.undo(1L));
+        assertSame(before, tourService.getPrecedencesByCourier().get(1L));
+        assertSame(kept, requestService.getRequestById(kept.getId(), 1L));
+    }
+
+    /**
+     * Verifies that setting the warehouse of a courier recomputes its tour from the new warehouse, can be undone,
+     * and leaves a courier without requests without a tour.
+     */
+    @Test
+    void setWarehouseAddressRecomputesTheTour() {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        tourService.addCourier(new Courier(2L, "Courier 2", Duration.ofHours(8)));
+
+        planningService.setWarehouseAddress(2L, 342873658L);
+        assertEquals(342873658L, requestService.getPickupDeliveryForCourier(2L).getWarehouseAddressId());
+        assertNull(tourService.getTours().get(2L));
+
+        requestService.setWarehouseAddress(342873658L, 1L);
+        requestService.addRequest(1L, new Request(8358135L, Duration.ofMinutes(10), 25173820L, Duration.ofMinutes(15)));
+        planningService.recomputeTourForCourier(1L);
+        Tour before = tourService.getTours().get(1L);
+
+        planningService.setWarehouseAddress(1L, 26086130L);
+
+        assertEquals(26086130L, requestService.getPickupDeliveryForCourier(1L).getWarehouseAddressId());
+        assertEquals(26086130L, tourService.getTours().get(1L).getStops().getFirst().getIntersectionId());
+        assertTrue(planningService.undo(1L));
+        assertEquals(342873658L, requestService.getPickupDeliveryForCourier(1L).getWarehouseAddressId());
+        assertSame(before, tourService.getTours().get(1L));
     }
 
-}
\ No newline at end of file
+    /**
+     * Verifies that a fork planned outside of the lock of the courier replaces it, the change being undoable, and
+     * that a fork of a courier modified meanwhile is rejected.
+     */
+    @Test
+    void planAndCommitReplacesTheCourierItWasForkedFrom() {
+        RequestService requestService = new RequestService();
+        TourService tourService = new TourService();
+        MapService mapService = new MapService();
+        mapService.loadMap("src/main/resources/grandPlan.xml");
+        PlanningService planningService = new PlanningService(requestService, tourService, mapService);
+        tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+
+        PlanningTransaction loaded = planningService.fork(1L,
+                fork -> requestService.loadRequests("src/main/resources/requests.xml", fork));
+        assertNull(requestService.getPickupDeliveryPerCourier().get(1L));
+        planningService.planAndCommit(loaded);
+
+        assertSame(loaded.getTour(), tourService.getTours().get(1L));
+        assertEquals(loaded.getRequests().getNbRequests(), requestService.getPickupDeliveryForCourier(1L).getNbRequests());
+        assertTrue(planningService.undo(1L));
+        assertEquals(0, requestService.getPickupDeliveryForCourier(1L).getNbRequests());
+        assertNull(tourService.getTours().get(1L));
+
+        PlanningTransaction stale = planningService.fork(1L,
+                fork -> requestService.loadRequests("src/main/resources/requests.xml", fork));
+        assertTrue(planningService.redo(1L));
+        assertThrows(IllegalStateException.class, () -> planningService.planAndCommit(stale));
+        assertSame(loaded.getTour(), tourService.getTours().get(1L));
+    }
+}
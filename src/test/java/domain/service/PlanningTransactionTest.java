@@ -0,0 +1,50 @@
+package domain.service;
+
+import domain.model.PickupDelivery;
+import domain.model.Precedences;
+import domain.model.Request;
+import domain.model.Stop;
+import domain.utils.PersistentMap;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link PlanningTransaction} class.
+ */
+class PlanningTransactionTest {
+
+    /**
+     * Verifies that the modifications of a fork keep its precedences consistent with its requests,
+     * and are not visible in the state it was forked from.
+     */
+    @Test
+    void forkIsModifiedInIsolation() {
+        Request first = new Request(1L, Duration.ofMinutes(5), 2L, Duration.ofMinutes(5));
+        Request second = new Request(3L, Duration.ofMinutes(5), 4L, Duration.ofMinutes(5));
+        PickupDelivery committed = new PickupDelivery();
+        committed.addRequest(first);
+        PersistentMap<Stop, Set<Stop>> precedences = Precedences.of(List.of(first));
+
+        PlanningTransaction transaction = new PlanningTransaction(1L, committed.snapshot(), precedences, null);
+        assertFalse(transaction.isModified());
+        transaction.addRequest(second);
+        transaction.addPrecedence(Stop.delivery(first), Stop.delivery(second));
+        assertSame(first, transaction.removeRequest(first.getId()));
+
+        assertTrue(transaction.isModified());
+        assertFalse(transaction.isPlanned());
+        assertEquals(1, transaction.getRequests().getNbRequests());
+        assertEquals(Set.of(Stop.pickup(second)), transaction.getPrecedences().get(Stop.delivery(second)));
+        assertEquals(1, transaction.getPrecedences().size());
+        assertEquals(Map.of(Stop.delivery(first), Set.of(Stop.pickup(first))), precedences);
+        assertEquals(1, committed.getNbRequests());
+        assertSame(first, committed.findRequestById(first.getId()));
+        assertThrows(IllegalArgumentException.class, () -> transaction.removeRequest(first.getId()));
+    }
+}
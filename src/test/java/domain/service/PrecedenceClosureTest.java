@@ -0,0 +1,68 @@
+package domain.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link PrecedenceClosure} class.
+ */
+class PrecedenceClosureTest {
+
+    /**
+     * Verifies that the predecessors of a vertex include the predecessors of its predecessors.
+     */
+    @Test
+    void closureIsTransitive() {
+        // 1 -> 2 -> 4 and 3 -> 4
+        Map<Integer, Set<Integer>> precedences = new HashMap<>();
+        precedences.put(2, Set.of(1));
+        precedences.put(4, Set.of(2, 3));
+
+        PrecedenceClosure closure = new PrecedenceClosure(5, precedences);
+
+        assertTrue(closure.mustPrecede(1, 4));
+        assertTrue(closure.mustPrecede(3, 4));
+        assertFalse(closure.mustPrecede(4, 1));
+        assertFalse(closure.mustPrecede(1, 3));
+        assertEquals(Set.of(1, 2, 3), closure.toMap().get(4));
+
+        int[] masques = closure.toIntMasks();
+        assertEquals(0b0111, masques[4]); // vertices 1, 2 and 3
+        assertEquals(0, masques[1]);
+
+        List<Integer> ordre = closure.getTopologicalOrder();
+        assertEquals(0, ordre.get(0));
+        assertTrue(ordre.indexOf(1) < ordre.indexOf(2) && ordre.indexOf(2) < ordre.indexOf(4));
+    }
+
+    /**
+     * Verifies that a cycle conflicting with a pickup -> delivery pair is rejected.
+     */
+    @Test
+    void cycleIsRejected() {
+        // Pairs (1, 2) and (3, 4), with dispatcher precedences 2 -> 3 and 4 -> 1
+        Map<Integer, Set<Integer>> precedences = new HashMap<>();
+        precedences.put(2, Set.of(1));
+        precedences.put(4, Set.of(3));
+        precedences.put(3, Set.of(2));
+        precedences.put(1, Set.of(4));
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> new PrecedenceClosure(5, precedences));
+        assertTrue(e.getMessage().contains("cycle"));
+    }
+
+    /**
+     * Verifies that a vertex cannot be required before the depot, and that the depot can precede any vertex.
+     */
+    @Test
+    void depotIsAlwaysFirst() {
+        assertThrows(IllegalArgumentException.class, () -> new PrecedenceClosure(3, Map.of(0, Set.of(1))));
+
+        PrecedenceClosure closure = new PrecedenceClosure(3, Map.of(1, Set.of(0)));
+        assertTrue(closure.getPredecessors(1).isEmpty());
+    }
+}
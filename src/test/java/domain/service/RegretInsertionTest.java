@@ -0,0 +1,237 @@
+package domain.service;
+
+import domain.model.GrapheComplet;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link RegretInsertion} class.
+ */
+class RegretInsertionTest {
+
+    /**
+     * Builds a complete graph where vertices are placed on a line at the given abscissas.
+     */
+    private static GrapheComplet lineGraph(double... x) {
+        GrapheComplet g = new GrapheComplet(x.length);
+        for (int i = 0; i < x.length; i++)
+            for (int j = 0; j < x.length; j++)
+                g.setCout(i, j, Math.abs(x[i] - x[j]));
+        return g;
+    }
+
+    /**
+     * Verifies that units are built from the request pairs, other vertices being single units.
+     */
+    @Test
+    void buildUnitsGroupsPairsAndSingles() {
+        List<int[]> units = RegretInsertion.buildUnits(6, new int[][]{{1, 2}, {3, 4}});
+
+        assertEquals(3, units.size());
+        assertArrayEquals(new int[]{1, 2}, units.get(0));
+        assertArrayEquals(new int[]{3, 4}, units.get(1));
+        assertArrayEquals(new int[]{5}, units.get(2));
+    }
+
+    /**
+     * Verifies that the constructed route visits all vertices and keeps pickups before deliveries,
+     * even when the delivery is closer to the depot than the pickup.
+     */
+    @Test
+    void constructRespectsPrecedences() {
+        // depot at 0, pickups far away, deliveries close to the depot
+        GrapheComplet g = lineGraph(0, 10, 1, 9, 2);
+        int[][] pairs = {{1, 2}, {3, 4}};
+        Map<Integer, Set<Integer>> precedences = new HashMap<>();
+        precedences.put(2, Set.of(1));
+        precedences.put(4, Set.of(3));
+
+        RegretInsertion insertion = new RegretInsertion(g, precedences, null, Double.MAX_VALUE);
+        List<Integer> route = insertion.construct(RegretInsertion.buildUnits(5, pairs), 2);
+
+        assertNotNull(route);
+        assertEquals(5, route.size());
+        assertEquals(0, route.get(0));
+        assertTrue(route.indexOf(1) < route.indexOf(2));
+        assertTrue(route.indexOf(3) < route.indexOf(4));
+        assertEquals(20.0, insertion.cost(route), 1e-9);
+    }
+
+    /**
+     * Verifies that precedences between stops of different requests are respected.
+     */
+    @Test
+    void constructRespectsPrecedencesBetweenRequests() {
+        GrapheComplet g = lineGraph(0, 1, 2, 3, 4);
+        Map<Integer, Set<Integer>> precedences = new HashMap<>();
+        precedences.put(2, Set.of(1));
+        precedences.put(4, Set.of(3));
+        precedences.put(1, Set.of(4)); // request 2 must be delivered before request 1 is picked up
+
+        RegretInsertion insertion = new RegretInsertion(g, precedences, null, Double.MAX_VALUE);
+        List<Integer> route = insertion.construct(RegretInsertion.buildUnits(5, new int[][]{{1, 2}, {3, 4}}), 3);
+
+        assertNotNull(route);
+        assertTrue(route.indexOf(3) < route.indexOf(4));
+        assertTrue(route.indexOf(4) < route.indexOf(1));
+        assertTrue(route.indexOf(1) < route.indexOf(2));
+    }
+
+    /**
+     * Verifies that greedy insertion completes a chain of requests (each delivery before the next pickup), even
+     * when the cheapest position of a request is before the requests it must follow.
+     */
+    @Test
+    void constructCompletesChainedRequestsGreedily() {
+        // the last request is next to the depot, the first ones are far away
+        GrapheComplet g = lineGraph(0, 50, 51, 100, 101, 1, 2);
+        int[][] pairs = TSPInstances.pairs(3);
+        Map<Integer, Set<Integer>> precedences = TSPInstances.precedences(pairs);
+        precedences.put(3, new HashSet<>(Set.of(2)));
+        precedences.put(5, new HashSet<>(Set.of(4)));
+
+        RegretInsertion insertion = new RegretInsertion(g, precedences, null, Double.MAX_VALUE);
+        List<Integer> route = insertion.construct(RegretInsertion.buildUnits(7, pairs), 1);
+
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6), route);
+    }
+
+    /**
+     * Verifies that random instances of chained requests are always completed, greedily or not.
+     */
+    @Test
+    void constructCompletesRandomChainedRequests() {
+        int nbRequests = 4;
+        int[][] pairs = TSPInstances.pairs(nbRequests);
+        Map<Integer, Set<Integer>> precedences = TSPInstances.precedences(pairs);
+        for (int r = 1; r < nbRequests; r++) {
+            precedences.computeIfAbsent(pairs[r][0], v -> new HashSet<>()).add(pairs[r - 1][1]);
+        }
+        List<int[]> units = RegretInsertion.buildUnits(2 * nbRequests + 1, pairs);
+
+        for (long seed = 0; seed < 500; seed++) {
+            RegretInsertion insertion = new RegretInsertion(TSPInstances.euclideanGraph(2 * nbRequests + 1, seed),
+                    precedences, null, Double.MAX_VALUE);
+            for (int k = 1; k <= 3; k++) {
+                assertTrue(insertion.isValidTour(insertion.construct(units, k)), "seed " + seed + ", k " + k);
+            }
+        }
+    }
+
+    /**
+     * Verifies that a unit reinserted by greedy completion respects the precedences through missing vertices.
+     */
+    @Test
+    void completeKeepsChainedRequestsCompletable() {
+        GrapheComplet g = lineGraph(0, 50, 51, 100, 101, 1, 2);
+        int[][] pairs = TSPInstances.pairs(3);
+        Map<Integer, Set<Integer>> precedences = TSPInstances.precedences(pairs);
+        precedences.put(3, new HashSet<>(Set.of(2)));
+        precedences.put(5, new HashSet<>(Set.of(4)));
+
+        RegretInsertion insertion = new RegretInsertion(g, precedences, null, Double.MAX_VALUE);
+        // the last request is kept before the first one, which it must follow through the second one
+        List<Integer> route = insertion.complete(List.of(0, 5, 6, 1, 2), RegretInsertion.buildUnits(7, pairs), 1);
+
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6), route);
+    }
+
+    /**
+     * Verifies that the cost includes the service times and the return to the depot,
+     * and that the maximum duration is checked against it.
+     */
+    @Test
+    void costIncludesServiceTimesAndReturn() {
+        GrapheComplet g = lineGraph(0, 5);
+        RegretInsertion insertion = new RegretInsertion(g, null, new double[]{0, 3}, 12);
+
+        List<Integer> route = List.of(0, 1);
+        assertEquals(13.0, insertion.cost(route), 1e-9);
+        assertFalse(insertion.isWithinMaxDuration(route));
+    }
+
+    /**
+     * Verifies that the lower bound counts the cheapest arcs and the service times, without exceeding the cost
+     * of a tour.
+     */
+    @Test
+    void lowerBoundDoesNotExceedTourCost() {
+        GrapheComplet g = lineGraph(0, 5, 7);
+        RegretInsertion insertion = new RegretInsertion(g, null, new double[]{0, 3, 4}, Double.MAX_VALUE);
+
+        // cheapest arcs entering 0, 1, 2: 5 + 2 + 2, plus 7 of service
+        assertEquals(16.0, insertion.lowerBound(), 1e-9);
+        assertTrue(insertion.lowerBound() <= insertion.cost(List.of(0, 1, 2)));
+    }
+
+    /**
+     * Verifies that the removal saving of a pair of consecutive vertices is computed correctly.
+     */
+    @Test
+    void removalSavingOfConsecutivePair() {
+        GrapheComplet g = lineGraph(0, 4, 6);
+        RegretInsertion insertion = new RegretInsertion(g, null, null, Double.MAX_VALUE);
+        List<Integer> route = List.of(0, 1, 2);
+        int[] pos = {0, 1, 2};
+
+        assertEquals(12.0, insertion.removalSaving(route, pos, new int[]{1, 2}), 1e-9);
+        assertEquals(0.0, insertion.removalSaving(route, pos, new int[]{1}), 1e-9);
+    }
+
+    /**
+     * Verifies that completing a partial route keeps its order and inserts the missing units.
+     */
+    @Test
+    void completeKeepsPartialOrderAndInsertsMissingUnits() {
+        GrapheComplet g = lineGraph(0, 1, 2, 3, 4);
+        Map<Integer, Set<Integer>> precedences = new HashMap<>();
+        precedences.put(2, Set.of(1));
+        precedences.put(4, Set.of(3));
+        List<int[]> units = RegretInsertion.buildUnits(5, new int[][]{{1, 2}, {3, 4}});
+
+        RegretInsertion insertion = new RegretInsertion(g, precedences, null, Double.MAX_VALUE);
+        List<Integer> route = insertion.complete(List.of(0, 3, 4), units, 2);
+
+        assertTrue(insertion.isValidTour(route));
+        assertTrue(route.indexOf(3) < route.indexOf(4));
+    }
+
+    /**
+     * Verifies that units breaking a precedence in the partial route are reinserted.
+     */
+    @Test
+    void completeRepairsBrokenPrecedences() {
+        GrapheComplet g = lineGraph(0, 1, 2, 3, 4);
+        Map<Integer, Set<Integer>> precedences = new HashMap<>();
+        precedences.put(2, Set.of(1));
+        precedences.put(4, Set.of(3));
+        precedences.put(3, Set.of(2)); // new precedence: request 1 delivered before request 2 is picked up
+        List<int[]> units = RegretInsertion.buildUnits(5, new int[][]{{1, 2}, {3, 4}});
+
+        RegretInsertion insertion = new RegretInsertion(g, precedences, null, Double.MAX_VALUE);
+        List<Integer> route = insertion.complete(List.of(0, 3, 4, 1, 2), units, 2);
+
+        assertTrue(insertion.isValidTour(route));
+        assertEquals(List.of(0, 1, 2, 3, 4), route);
+    }
+
+    /**
+     * Verifies that tours visiting a vertex twice, missing a vertex or breaking a precedence are not valid.
+     */
+    @Test
+    void isValidTourRejectsInvalidTours() {
+        GrapheComplet g = lineGraph(0, 1, 2);
+        Map<Integer, Set<Integer>> precedences = new HashMap<>();
+        precedences.put(2, Set.of(1));
+        RegretInsertion insertion = new RegretInsertion(g, precedences, null, Double.MAX_VALUE);
+
+        assertTrue(insertion.isValidTour(List.of(0, 1, 2)));
+        assertFalse(insertion.isValidTour(List.of(0, 2, 1)));
+        assertFalse(insertion.isValidTour(List.of(0, 1, 1)));
+        assertFalse(insertion.isValidTour(List.of(0, 1)));
+        assertFalse(insertion.isValidTour(List.of(1, 0, 2)));
+    }
+}
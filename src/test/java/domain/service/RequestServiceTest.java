@@ -2,6 +2,7 @@ package domain.service;
 
 import domain.model.PickupDelivery;
 import domain.model.Request;
+import domain.utils.PersistentMap;
 import org.junit.jupiter.api.Test;
 
 import java.time.Duration;
@@ -78,6 +79,32 @@ class RequestServiceTest {
         assertFalse(result);
     }
 
+    /**
+     * Verifies that loading requests into a fork adds them with their precedences and takes the warehouse of the
+     * file, and that a file of another warehouse is rejected without modifying the fork.
+     */
+    @Test
+    void loadRequestsIntoFork() {
+        String filePath = "src/test/resources/testRequest.xml";
+        RequestService requestService = new RequestService();
+
+        PlanningTransaction fork = new PlanningTransaction(1L, new PickupDelivery(), PersistentMap.empty(), null);
+        requestService.loadRequests(filePath, fork);
+
+        assertTrue(fork.isModified());
+        assertEquals(342873658L, fork.getRequests().getWarehouseAddressId());
+        assertEquals(1, fork.getRequests().getNbRequests());
+        assertEquals(1, fork.getPrecedences().size());
+        assertTrue(requestService.getPickupDeliveryPerCourier().isEmpty());
+
+        PickupDelivery otherWarehouse = new PickupDelivery();
+        otherWarehouse.setWarehouseAddressId(50L);
+        PlanningTransaction other = new PlanningTransaction(2L, otherWarehouse, PersistentMap.empty(), null);
+        assertThrows(IllegalArgumentException.class, () -> requestService.loadRequests(filePath, other));
+        assertFalse(other.isModified());
+        assertEquals(0, other.getRequests().getNbRequests());
+    }
+
     /**
      * Tests that the addRequest method correctly adds a request to the specified courier.
      */
@@ -0,0 +1,98 @@
+package domain.service;
+
+import domain.model.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link SnapshotService} class.
+ */
+class SnapshotServiceTest {
+
+    /**
+     * Verifies that the state saved by a session, with its shortest paths, replaces the whole state of fresh
+     * services on the same map, without planning anything, and supersedes the jobs of the replaced couriers.
+     */
+    @Test
+    void restoringASnapshotReplacesTheState(@TempDir Path dir) throws IOException {
+        Path path = dir.resolve("planning.snapshot");
+        Services session = new Services();
+        session.tourService.addCourier(new Courier(1L, "Courier 1", Duration.ofHours(8)));
+        session.tourService.addCourier(new Courier(2L, "Courier 2", Duration.ofHours(6)));
+        session.tourService.getCouriers().get(1).setAvailabilityStatus(AvailabilityStatus.BUSY);
+        session.requestService.setWarehouseAddress(342873658L, 1L);
+        session.requestService.addRequest(1L, new Request(8358135L, Duration.ofMinutes(10), 25173820L, Duration.ofMinutes(15)));
+        session.requestService.addRequest(1L, new Request(26086130L, Duration.ofMinutes(5), 1679901320L, Duration.ofMinutes(5)));
+        session.planningService.recomputeTourForCourier(1L);
+        session.snapshotService.save(path.toString(), true);
+        assertTrue(Files.exists(path));
+
+        PickupDelivery requests = session.requestService.getPickupDeliveryForCourier(1L);
+        List<Long> requestIds = requests.getRequests().stream().map(Request::getId).toList();
+        HashMap<Stop, Set<Stop>> precedences = new HashMap<>(session.tourService.getPrecedencesByCourier().get(1L));
+        Tour tour = session.tourService.getTours().get(1L);
+        List<Stop> stops = tour.getStops().stream().map(Stop::of).toList();
+        int[] route = tour.copyRoute();
+        double totalDistance = tour.getTotalDistance();
+        Duration totalDuration = tour.getTotalDuration();
+        session = null; // each planning service holds the shortest paths of the whole map
+        tour = null;
+
+        Services restored = new Services();
+        restored.tourService.addCourier(new Courier(3L, "Courier 3", Duration.ofHours(4)));
+        restored.requestService.setWarehouseAddress(342873658L, 3L);
+        PlanningJob pendingJob = restored.planningJobService.requestReplan(3L);
+        restored.snapshotService.restore(path.toString());
+        assertTrue(pendingJob.isCancelRequested());
+
+        assertEquals(List.of(1L, 2L), restored.tourService.getCouriers().stream().map(Courier::getId).toList());
+        assertEquals(AvailabilityStatus.BUSY, restored.tourService.getCouriers().get(1).getAvailabilityStatus());
+        assertNull(restored.requestService.getPickupDeliveryPerCourier().get(3L));
+        PickupDelivery restoredRequests = restored.requestService.getPickupDeliveryForCourier(1L);
+        assertEquals(requests.getWarehouseAddressId(), restoredRequests.getWarehouseAddressId());
+        assertEquals(requests.getDepartureTime(), restoredRequests.getDepartureTime());
+        assertEquals(requestIds, restoredRequests.getRequests().stream().map(Request::getId).toList());
+        assertEquals(precedences, restored.tourService.getPrecedencesByCourier().get(1L));
+
+        Tour restoredTour = restored.tourService.getTours().get(1L);
+        assertEquals(stops, restoredTour.getStops().stream().map(Stop::of).toList());
+        assertArrayEquals(route, restoredTour.copyRoute());
+        assertEquals(totalDistance, restoredTour.getTotalDistance(), 1e-6);
+        assertEquals(totalDuration, restoredTour.getTotalDuration());
+        assertEquals(0, restored.tourService.getHistory(1L).getNbUndoable());
+
+        // The restored shortest paths are used to plan again
+        restored.planningService.recomputeTourForCourier(1L);
+        assertEquals(stops.size(), restored.tourService.getTours().get(1L).getStops().size());
+    }
+
+    /**
+     * Services of a planning session, with their snapshot service.
+     */
+    private static class Services {
+        final RequestService requestService = new RequestService();
+        final TourService tourService = new TourService();
+        final PlanningService planningService;
+        final PlanningJobService planningJobService;
+        final SnapshotService snapshotService;
+
+        Services() {
+            MapService mapService = new MapService();
+            mapService.loadMap("src/main/resources/grandPlan.xml");
+            planningService = new PlanningService(requestService, tourService, mapService);
+            planningJobService = new PlanningJobService(planningService, 1, 4, 60_000);
+            snapshotService = new SnapshotService(planningService, requestService, tourService, mapService,
+                    planningJobService);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package domain.service;
+
+import domain.model.GrapheComplet;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static domain.service.TSPInstances.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link TSPAlns} class.
+ * Uses random euclidean instances with request pairs (see {@link TSPInstances}).
+ */
+class TSPAlnsTest {
+
+    private static List<Integer> solution(TSP tsp, int n) {
+        List<Integer> path = new ArrayList<>();
+        for (int i = 0; i < n; i++) path.add(tsp.getSolution(i));
+        return path;
+    }
+
+    /**
+     * Verifies that the solution visits every vertex once, starts at the depot and respects the precedences.
+     */
+    @Test
+    void solutionIsAValidTourRespectingPrecedences() {
+        int nbRequests = 30;
+        int n = 2 * nbRequests + 1;
+        GrapheComplet g = euclideanGraph(n, 1L);
+
+        TSPAlns tsp = new TSPAlns();
+        tsp.setRequestPairs(pairs(nbRequests));
+        tsp.setPrecedences(precedences(pairs(nbRequests)));
+        tsp.setMaxIterations(500);
+        tsp.chercheSolution(10000, g);
+
+        List<Integer> path = solution(tsp, n);
+        assertEquals(0, path.get(0));
+        assertEquals(n, new HashSet<>(path).size());
+        for (int[] pair : pairs(nbRequests)) {
+            assertTrue(path.indexOf(pair[0]) < path.indexOf(pair[1]), "Pickup should come before delivery.");
+        }
+        assertTrue(tsp.getCoutSolution() > 0 && tsp.getCoutSolution() < Integer.MAX_VALUE);
+    }
+
+    /**
+     * Verifies that two searches with the same seed and iteration count return the same tour.
+     */
+    @Test
+    void searchIsDeterministicForAGivenSeed() {
+        int nbRequests = 25;
+        int n = 2 * nbRequests + 1;
+        GrapheComplet g = euclideanGraph(n, 2L);
+
+        List<List<Integer>> paths = new ArrayList<>();
+        for (int run = 0; run < 2; run++) {
+            TSPAlns tsp = new TSPAlns();
+            tsp.setRequestPairs(pairs(nbRequests));
+            tsp.setPrecedences(precedences(pairs(nbRequests)));
+            tsp.setSeed(42L);
+            tsp.setMaxIterations(300);
+            tsp.chercheSolution(60000, g);
+            paths.add(solution(tsp, n));
+        }
+
+        assertEquals(paths.get(0), paths.get(1));
+    }
+
+    /**
+     * Verifies that the search improves (or keeps) the cost of the initial regret insertion solution.
+     */
+    @Test
+    void searchDoesNotWorsenInitialSolution() {
+        int nbRequests = 20;
+        int n = 2 * nbRequests + 1;
+        GrapheComplet g = euclideanGraph(n, 3L);
+        int[][] pairs = pairs(nbRequests);
+
+        RegretInsertion insertion = new RegretInsertion(g, precedences(pairs), null, Double.MAX_VALUE);
+        double initialCost = insertion.cost(insertion.construct(RegretInsertion.buildUnits(n, pairs), 2));
+
+        TSPAlns tsp = new TSPAlns();
+        tsp.setRequestPairs(pairs);
+        tsp.setPrecedences(precedences(pairs));
+        tsp.setMaxIterations(500);
+        tsp.chercheSolution(10000, g);
+
+        assertTrue(tsp.getCoutSolution() <= initialCost + 1e-9);
+    }
+
+    /**
+     * Verifies that service times are included in the cost of the solution.
+     */
+    @Test
+    void serviceTimesAreIncludedInCost() {
+        GrapheComplet g = euclideanGraph(5, 4L);
+        double[] serviceTimes = {0, 100, 200, 300, 400};
+
+        TSPAlns tsp = new TSPAlns();
+        tsp.setRequestPairs(pairs(2));
+        tsp.setPrecedences(precedences(pairs(2)));
+        tsp.setServiceTimes(serviceTimes);
+        tsp.chercheSolution(5000, g);
+
+        assertTrue(tsp.getCoutSolution() >= 1000);
+    }
+
+    /**
+     * Verifies that no solution is returned when the precedences contain a cycle.
+     */
+    @Test
+    void precedenceCycleLeadsToNoSolution() {
+        GrapheComplet g = euclideanGraph(5, 5L);
+        Map<Integer, Set<Integer>> precedences = precedences(pairs(2));
+        precedences.computeIfAbsent(3, k -> new HashSet<>()).add(2);
+        precedences.computeIfAbsent(1, k -> new HashSet<>()).add(4);
+
+        TSPAlns tsp = new TSPAlns();
+        tsp.setRequestPairs(pairs(2));
+        tsp.setPrecedences(precedences);
+        tsp.chercheSolution(5000, g);
+
+        assertEquals(Integer.MAX_VALUE, tsp.getCoutSolution());
+    }
+
+    /**
+     * Verifies that a valid initial solution is used as starting point: without iterations,
+     * the search returns it when it is better than the regret insertion solution.
+     */
+    @Test
+    void initialSolutionIsUsedAsStartingPoint() {
+        GrapheComplet g = new GrapheComplet(5);
+        for (int i = 0; i < 5; i++)
+            for (int j = 0; j < 5; j++)
+                g.setCout(i, j, Math.abs(i - j));
+        int[][] pairs = pairs(2);
+
+        TSPAlns tsp = new TSPAlns();
+        tsp.setRequestPairs(pairs);
+        tsp.setPrecedences(precedences(pairs));
+        tsp.setInitialSolution(new Integer[]{0, 1, 2, 3, 4});
+        tsp.setMaxIterations(0);
+        tsp.chercheSolution(5000, g);
+
+        assertEquals(List.of(0, 1, 2, 3, 4), solution(tsp, 5));
+        assertEquals(8.0, tsp.getCoutSolution(), 1e-9);
+    }
+
+    /**
+     * Verifies that the gap to the lower bound is reported, and that the search stops once it is under the tolerance.
+     */
+    @Test
+    void searchStopsWhenGapIsUnderTolerance() {
+        int nbRequests = 10;
+        int n = 2 * nbRequests + 1;
+        GrapheComplet g = euclideanGraph(n, 4L);
+
+        TSPAlns tsp = new TSPAlns();
+        tsp.setRequestPairs(pairs(nbRequests));
+        tsp.setPrecedences(precedences(pairs(nbRequests)));
+        tsp.setMaxIterations(500);
+        tsp.chercheSolution(10000, g);
+        assertTrue(tsp.getGap() > 0 && tsp.getGap() < 100);
+        assertEquals(500, tsp.getNbIterations());
+
+        TSPAlns tolerant = new TSPAlns();
+        tolerant.setRequestPairs(pairs(nbRequests));
+        tolerant.setPrecedences(precedences(pairs(nbRequests)));
+        tolerant.setMaxIterations(500);
+        tolerant.setGapTolerance(100);
+        tolerant.chercheSolution(10000, g);
+        assertEquals(0, tolerant.getNbIterations());
+        assertTrue(tolerant.getCoutSolution() < Integer.MAX_VALUE);
+    }
+
+    /**
+     * Verifies that a solution exceeding the shift duration is never returned, and that a shift shorter
+     * than the lower bound is detected without searching.
+     */
+    @Test
+    void solutionExceedingShiftIsNotReturned() {
+        int nbRequests = 10;
+        int n = 2 * nbRequests + 1;
+        GrapheComplet g = euclideanGraph(n, 5L);
+        int[][] pairs = pairs(nbRequests);
+
+        TSPAlns tsp = new TSPAlns();
+        tsp.setRequestPairs(pairs);
+        tsp.setPrecedences(precedences(pairs));
+        tsp.setMaxDuration(1);
+        tsp.chercheSolution(5000, g);
+
+        assertEquals(Integer.MAX_VALUE, tsp.getCoutSolution());
+        assertEquals(Double.POSITIVE_INFINITY, tsp.getLowerBound());
+        assertEquals(0, tsp.getNbIterations());
+    }
+}
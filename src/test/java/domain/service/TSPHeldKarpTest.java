@@ -0,0 +1,103 @@
+package domain.service;
+
+import domain.model.GrapheComplet;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static domain.service.TSPInstances.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link TSPHeldKarp} class.
+ * Optimal costs are checked against a complete branch and bound search.
+ */
+class TSPHeldKarpTest {
+
+    /**
+     * Verifies that the solution is optimal, respects the precedences and is proven optimal (gap 0).
+     */
+    @Test
+    void solutionIsOptimalAndRespectsPrecedences() {
+        int nbRequests = 4;
+        int n = 2 * nbRequests + 1;
+        GrapheComplet g = asymmetricGraph(n, 5L);
+        double[] serviceTimes = new double[n];
+        Arrays.fill(serviceTimes, 1, n, 3);
+
+        TSPHeldKarp dp = new TSPHeldKarp();
+        dp.setPrecedences(precedences(nbRequests));
+        dp.setServiceTimes(serviceTimes);
+        dp.chercheSolution(5000, g);
+
+        TSP1 branchAndBound = new TSP1();
+        branchAndBound.setPrecedences(precedences(nbRequests));
+        branchAndBound.setServiceTimes(serviceTimes);
+        branchAndBound.setNO_IMPROVEMENT_TIMEOUT(10000);
+        branchAndBound.chercheSolution(10000, g);
+
+        assertEquals(branchAndBound.getCoutSolution(), dp.getCoutSolution(), 1e-9);
+        assertEquals(0.0, dp.getGap(), 1e-9);
+        assertTrue(dp.getNbIterations() > 0);
+
+        List<Integer> path = new ArrayList<>();
+        for (int i = 0; i < n; i++) path.add(dp.getSolution(i));
+        assertEquals(0, path.get(0));
+        assertEquals(n, new HashSet<>(path).size());
+        for (int r = 0; r < nbRequests; r++) {
+            assertTrue(path.indexOf(1 + 2 * r) < path.indexOf(2 + 2 * r), "Pickup should come before delivery.");
+        }
+    }
+
+    /**
+     * Verifies that a precedence cycle leads to no solution.
+     */
+    @Test
+    void precedenceCycleLeadsToNoSolution() {
+        TSPHeldKarp dp = new TSPHeldKarp();
+        dp.setPrecedences(new HashMap<>(Map.of(1, Set.of(2), 2, Set.of(1))));
+        dp.chercheSolution(1000, asymmetricGraph(3, 1L));
+
+        assertEquals(Integer.MAX_VALUE, dp.getCoutSolution());
+        assertEquals(Double.POSITIVE_INFINITY, dp.getGap());
+    }
+
+    /**
+     * Verifies that instances larger than the supported size keep the initial solution without searching.
+     */
+    @Test
+    void largeInstanceKeepsInitialSolution() {
+        int n = TSPHeldKarp.MAX_SOMMETS + 1;
+        Integer[] initial = new Integer[n];
+        for (int i = 0; i < n; i++) initial[i] = i;
+
+        TSPHeldKarp dp = new TSPHeldKarp();
+        dp.setInitialSolution(initial);
+        dp.chercheSolution(1000, asymmetricGraph(n, 2L));
+
+        assertEquals(0, dp.getNbIterations());
+        assertEquals(1, dp.getSolution(1));
+        assertTrue(dp.getCoutSolution() < Integer.MAX_VALUE);
+    }
+
+    /**
+     * Verifies that no solution is returned when the optimal tour does not fit in the shift,
+     * and that the solver proves it with an infinite lower bound.
+     */
+    @Test
+    void shiftShorterThanOptimumLeadsToNoSolution() {
+        GrapheComplet g = asymmetricGraph(9, 3L);
+        TSPHeldKarp dp = new TSPHeldKarp();
+        dp.setPrecedences(precedences(4));
+        dp.chercheSolution(1000, g);
+        double optimum = dp.getCoutSolution();
+
+        dp = new TSPHeldKarp();
+        dp.setPrecedences(precedences(4));
+        dp.setMaxDuration(optimum - 0.5);
+        dp.chercheSolution(1000, g);
+
+        assertEquals(Integer.MAX_VALUE, dp.getCoutSolution());
+        assertEquals(Double.POSITIVE_INFINITY, dp.getLowerBound());
+    }
+}
@@ -0,0 +1,74 @@
+package domain.service;
+
+import domain.model.GrapheComplet;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Random TSP instances shared by the solver tests: vertex 0 is the warehouse, and request r has its pickup on
+ * vertex 2r+1 and its delivery on vertex 2r+2.
+ */
+final class TSPInstances {
+
+    private TSPInstances() {
+    }
+
+    /**
+     * Builds a complete graph of n vertices placed at random in a square.
+     */
+    static GrapheComplet euclideanGraph(int n, long seed) {
+        Random random = new Random(seed);
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = random.nextDouble() * 100;
+            y[i] = random.nextDouble() * 100;
+        }
+        GrapheComplet g = new GrapheComplet(n);
+        for (int i = 0; i < n; i++)
+            for (int j = 0; j < n; j++)
+                g.setCout(i, j, (i == j) ? 0 : Math.hypot(x[i] - x[j], y[i] - y[j]));
+        return g;
+    }
+
+    /**
+     * Builds a complete asymmetric graph of n vertices with random integer costs.
+     */
+    static GrapheComplet asymmetricGraph(int n, long seed) {
+        Random random = new Random(seed);
+        GrapheComplet g = new GrapheComplet(n);
+        for (int i = 0; i < n; i++)
+            for (int j = 0; j < n; j++)
+                g.setCout(i, j, (i == j) ? 0 : 1 + random.nextInt(100));
+        return g;
+    }
+
+    /**
+     * @return the {pickup, delivery} vertices of each request
+     */
+    static int[][] pairs(int nbRequests) {
+        int[][] pairs = new int[nbRequests][];
+        for (int r = 0; r < nbRequests; r++) pairs[r] = new int[]{1 + 2 * r, 2 + 2 * r};
+        return pairs;
+    }
+
+    /**
+     * @return the precedence of the pickup over the delivery of each request (delivery -> pickups)
+     */
+    static Map<Integer, Set<Integer>> precedences(int[][] pairs) {
+        Map<Integer, Set<Integer>> precedences = new HashMap<>();
+        for (int[] pair : pairs) precedences.computeIfAbsent(pair[1], k -> new HashSet<>()).add(pair[0]);
+        return precedences;
+    }
+
+    /**
+     * @return the precedences of the requests of {@link #pairs(int)}
+     */
+    static Map<Integer, Set<Integer>> precedences(int nbRequests) {
+        return precedences(pairs(nbRequests));
+    }
+}
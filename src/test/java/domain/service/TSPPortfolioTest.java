@@ -0,0 +1,128 @@
+package domain.service;
+
+import domain.model.GrapheComplet;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static domain.service.TSPInstances.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link TSPPortfolio} class.
+ */
+class TSPPortfolioTest {
+
+    private static TSPPortfolio portfolio(int nbRequests) {
+        TSPPortfolio tsp = new TSPPortfolio();
+        tsp.setRequestPairs(pairs(nbRequests));
+        tsp.setPrecedences(precedences(pairs(nbRequests)));
+        tsp.setMaxIterations(1000);
+        tsp.setNO_IMPROVEMENT_TIMEOUT(20000);
+        return tsp;
+    }
+
+    /**
+     * Verifies that on a small instance the dynamic programming proves the optimum and stops the other solvers
+     * long before their limits.
+     */
+    @Test
+    void smallInstanceIsSolvedOptimallyAndEarly() {
+        int nbRequests = 7;
+        GrapheComplet g = euclideanGraph(2 * nbRequests + 1, 6L);
+
+        TSPPortfolio tsp = portfolio(nbRequests);
+        long start = System.currentTimeMillis();
+        tsp.chercheSolution(20000, g);
+
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        assertEquals(0.0, tsp.getGap(), 1e-9);
+
+        TSPHeldKarp dp = new TSPHeldKarp();
+        dp.setPrecedences(precedences(pairs(nbRequests)));
+        dp.chercheSolution(20000, g);
+        assertEquals(dp.getCoutSolution(), tsp.getCoutSolution(), 1e-9);
+    }
+
+    /**
+     * Verifies that on a large instance the portfolio returns a valid tour at least as good as the ALNS alone.
+     */
+    @Test
+    void largeInstanceIsAtLeastAsGoodAsAlns() {
+        int nbRequests = 15;
+        int n = 2 * nbRequests + 1;
+        GrapheComplet g = euclideanGraph(n, 7L);
+
+        TSPPortfolio tsp = portfolio(nbRequests);
+        tsp.setSeed(3L);
+        tsp.setNO_IMPROVEMENT_TIMEOUT(500);
+        tsp.chercheSolution(10000, g);
+
+        TSPAlns alns = new TSPAlns();
+        alns.setRequestPairs(pairs(nbRequests));
+        alns.setPrecedences(precedences(pairs(nbRequests)));
+        alns.setMaxIterations(1000);
+        alns.setSeed(3L);
+        alns.chercheSolution(10000, g);
+
+        assertTrue(tsp.getCoutSolution() <= alns.getCoutSolution() + 1e-9);
+        List<Integer> path = new ArrayList<>();
+        for (int i = 0; i < n; i++) path.add(tsp.getSolution(i));
+        assertEquals(0, path.get(0));
+        assertEquals(n, new HashSet<>(path).size());
+        for (int[] pair : pairs(nbRequests)) {
+            assertTrue(path.indexOf(pair[0]) < path.indexOf(pair[1]), "Pickup should come before delivery.");
+        }
+    }
+
+    /**
+     * Verifies that stopping the portfolio stops every solver, the best solution found so far being kept.
+     */
+    @Test
+    void stopKeepsBestSolutionFoundSoFar() throws InterruptedException {
+        int nbRequests = 15;
+        GrapheComplet g = euclideanGraph(2 * nbRequests + 1, 8L);
+        TSPPortfolio tsp = portfolio(nbRequests);
+        tsp.setMaxIterations(1000000);
+
+        Thread search = new Thread(() -> tsp.chercheSolution(60000, g));
+        search.start();
+        Thread.sleep(300);
+        tsp.stop();
+        search.join(10000);
+
+        assertFalse(search.isAlive());
+        assertTrue(tsp.getCoutSolution() < Integer.MAX_VALUE);
+    }
+
+    /**
+     * Verifies that many portfolios solved at the same time all get their tour, with no more solver threads than
+     * the bound of the shared pool.
+     */
+    @Test
+    void concurrentPortfoliosShareABoundedPool() throws Exception {
+        int nbPortfolios = 2 * TSPPortfolio.MAX_SOLVER_THREADS;
+        int nbRequests = 4;
+        List<TSPPortfolio> portfolios = new ArrayList<>();
+        List<Thread> callers = new ArrayList<>();
+        for (int i = 0; i < nbPortfolios; i++) {
+            TSPPortfolio tsp = portfolio(nbRequests);
+            GrapheComplet g = euclideanGraph(2 * nbRequests + 1, i);
+            portfolios.add(tsp);
+            callers.add(Thread.startVirtualThread(() -> tsp.chercheSolution(5000, g)));
+        }
+
+        int maxSolverThreads = 0;
+        for (Thread caller : callers) {
+            while (caller.isAlive()) {
+                long solverThreads = Thread.getAllStackTraces().keySet().stream()
+                        .filter(thread -> thread.getName().startsWith("tsp-portfolio-")).count();
+                maxSolverThreads = Math.max(maxSolverThreads, (int) solverThreads);
+                caller.join(5);
+            }
+        }
+
+        assertTrue(maxSolverThreads <= TSPPortfolio.MAX_SOLVER_THREADS);
+        for (TSPPortfolio tsp : portfolios) assertTrue(tsp.getCoutSolution() < Integer.MAX_VALUE);
+    }
+}
@@ -108,4 +108,137 @@ class TSPTest {
 
         assertTrue(total >= 30, "Total cost should include service times.");
     }
-}
\ No newline at end of file
+
+    @Test
+    void testRegretInsertionGivesIncumbentWhenNearestNeighborFails() {
+        // The nearest neighbor goes to 1 first, then cannot reach 2 within the shift duration
+        double[][] cost = {
+            {0, 1, 5, 5},
+            {1, 0, 20, 20},
+            {5, 20, 0, 1},
+            {5, 2, 1, 0}
+        };
+
+        TSP1 tsp = new TSP1();
+        DummyGraph g = new DummyGraph(cost);
+        tsp.setMaxDuration(12);
+        tsp.setRequestPairs(new int[][]{{2, 3}});
+        Map<Integer, Set<Integer>> precedences = new HashMap<>();
+        precedences.put(3, Set.of(2));
+        tsp.setPrecedences(precedences);
+
+        tsp.chercheSolution(1, g);
+
+        assertTrue(tsp.getCoutMeilleureSolution() < Integer.MAX_VALUE, "Regret insertion should provide an incumbent.");
+        List<Integer> path = new ArrayList<>();
+        for (int i = 0; i < g.getNbSommets(); i++)
+            path.add(tsp.getSolution(i));
+        assertEquals(4, new HashSet<>(path).size());
+        assertTrue(path.indexOf(2) < path.indexOf(3), "Pickup should come before delivery.");
+    }
+
+    @Test
+    void testInitialSolutionIsUsedAsIncumbent() {
+        double[][] cost = {
+            {0, 1, 5, 8},
+            {1, 0, 1, 4},
+            {5, 1, 0, 3},
+            {8, 4, 3, 0}
+        };
+
+        TSP1 tsp = new TSP1();
+        DummyGraph g = new DummyGraph(cost);
+        tsp.setInitialSolution(new Integer[]{0, 1, 2, 3});
+
+        tsp.chercheSolution(1, g);
+
+        assertTrue(tsp.getCoutMeilleureSolution() <= 13, "Initial solution should be the incumbent.");
+    }
+
+    @Test
+    void testInvalidInitialSolutionIsIgnored() {
+        double[][] cost = {
+            {0, 1, 5, 8},
+            {1, 0, 1, 4},
+            {5, 1, 0, 3},
+            {8, 4, 3, 0}
+        };
+
+        TSP1 tsp = new TSP1();
+        DummyGraph g = new DummyGraph(cost);
+        Map<Integer, Set<Integer>> precedences = new HashMap<>();
+        precedences.put(1, Set.of(3));
+        tsp.setPrecedences(precedences);
+        tsp.setInitialSolution(new Integer[]{0, 1, 2, 3});
+
+        tsp.chercheSolution(5000, g);
+
+        List<Integer> path = new ArrayList<>();
+        for (int i = 0; i < g.getNbSommets(); i++)
+            path.add(tsp.getSolution(i));
+        assertTrue(path.indexOf(3) < path.indexOf(1), "Precedence should be respected.");
+    }
+
+    @Test
+    void testCompleteSearchProvesOptimality() {
+        double[][] cost = {
+            {0, 2, 9, 10},
+            {1, 0, 6, 4},
+            {15, 7, 0, 8},
+            {6, 3, 12, 0}
+        };
+
+        TSP1 tsp = new TSP1();
+        tsp.chercheSolution(5000, new DummyGraph(cost));
+
+        assertEquals(21.0, tsp.getCoutSolution(), 1e-9); // 0 -> 2 -> 3 -> 1 -> 0
+        assertEquals(0.0, tsp.getGap(), 1e-9, "A fully explored tree proves the solution optimal.");
+    }
+
+    @Test
+    void testGapToleranceStopsSearchEarly() {
+        int n = 12;
+        Random random = new Random(3L);
+        double[][] cost = new double[n][n];
+        for (int i = 0; i < n; i++)
+            for (int j = 0; j < n; j++)
+                cost[i][j] = (i == j) ? 0 : 1 + random.nextInt(100);
+
+        TSP1 exact = new TSP1();
+        exact.chercheSolution(5000, new DummyGraph(cost));
+
+        TSP1 tolerant = new TSP1();
+        tolerant.setGapTolerance(100);
+        tolerant.chercheSolution(5000, new DummyGraph(cost));
+
+        assertTrue(tolerant.getGap() <= 100);
+        assertTrue(tolerant.getNbIterations() < exact.getNbIterations());
+        assertTrue(tolerant.getCoutSolution() < Integer.MAX_VALUE);
+        assertTrue(exact.getGap() <= tolerant.getGap());
+    }
+
+    /**
+     * Verifies that the shift duration is a hard constraint: a shift shorter than the optimal tour
+     * leads to no solution, proven by the complete search.
+     */
+    @Test
+    void testShiftDurationIsAHardConstraint() {
+        double[][] cost = {
+            {0, 2, 9, 10},
+            {1, 0, 6, 4},
+            {15, 7, 0, 8},
+            {6, 3, 12, 0}
+        };
+
+        TSP1 tsp = new TSP1();
+        tsp.setMaxDuration(21);
+        tsp.chercheSolution(5000, new DummyGraph(cost));
+        assertEquals(21.0, tsp.getCoutSolution(), 1e-9);
+
+        tsp = new TSP1();
+        tsp.setMaxDuration(20.5);
+        tsp.chercheSolution(5000, new DummyGraph(cost));
+        assertEquals(Integer.MAX_VALUE, tsp.getCoutSolution(), 1e-9);
+        assertEquals(Double.POSITIVE_INFINITY, tsp.getLowerBound(), "The complete search proves that no tour fits in the shift.");
+    }
+}
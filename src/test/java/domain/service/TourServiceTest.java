@@ -3,16 +3,15 @@ package domain.service;
 import domain.model.*;
 import domain.model.dijkstra.CellInfo;
 import domain.model.dijkstra.DijkstraTable;
+import domain.utils.PersistentMap;
 import org.junit.jupiter.api.Test;
 import persistence.XMLParsers;
 
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.List;
 
-import java.util.HashMap;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -59,7 +58,7 @@ class TourServiceTest {
 
         LocalDateTime startTime = LocalDate.now().atTime(8, 0).plusDays(1L);
         Integer[] solution = {0, 1, 2, 3, 4};
-        List<String> vertices = List.of("-1/0/w", request1.getId() + "/2/p", request1.getId()+"/3/d", request2.getId()+"/4/p", request2.getId()+"/5/d");
+        StopModel stops = new StopModel(0L, List.of(request1, request2));
         double[][] costs = {
                 {0.0, 12.0, 20.0, 25.0, 30.0},
                 {12.0, 0.0, 15.0, 22.0, 27.0},
@@ -69,7 +68,7 @@ class TourServiceTest {
         };
 
         TourService tourService = new TourService();
-        Tour tour = tourService.convertGraphToTour(pickupDelivery, 123L, solution, vertices, costs);
+        Tour tour = tourService.convertGraphToTour(pickupDelivery, 123L, solution, stops, costs);
         List<TourStop> tourStops = tour.getStops();
 
         assertEquals(5, tourStops.size());
@@ -145,6 +144,26 @@ class TourServiceTest {
         Tour updatedTour = service.addRoadsToTour(tour, table, map);
 
         assertEquals(5, updatedTour.getRoadSegmentsTaken().size());
+        assertEquals(3, updatedTour.getNbLegs());
+        assertEquals(2, updatedTour.getLegStart(1)); // 1 -> 2 -> 3, then 3 -> 4 -> 5
+        assertEquals(4, updatedTour.getLegEnd(1));
+
+        // A tour sharing a leg with the first one only expands its new legs: an empty table is enough for the cached one
+        Tour replanned = new Tour(1L, LocalDateTime.now());
+        replanned.addStop(new TourStop(StopType.WAREHOUSE, 0L, 1L, LocalDateTime.now(), LocalDateTime.now()));
+        replanned.addStop(new TourStop(StopType.PICKUP, 1L, 3L, LocalDateTime.now(), LocalDateTime.now()));
+        DijkstraTable partialTable = new DijkstraTable();
+        partialTable.put(3L, 3L, new CellInfo(0, -1, true));
+        partialTable.put(3L, 1L, new CellInfo(46.0, 5L, true));
+        partialTable.put(3L, 5L, new CellInfo(45.0, 4L, true));
+        partialTable.put(3L, 4L, new CellInfo(20.0, 3L, true));
+
+        service.addRoadsToTour(replanned, partialTable, map);
+
+        assertEquals(1, service.getLegCache().getNbHits()); // 1 -> 3 is reused
+        assertEquals(4, service.getLegCache().getNbMisses()); // 3 legs of the first tour, then 3 -> 1
+        assertEquals(5, replanned.getRoadSegmentsTaken().size());
+        assertArrayEquals(new int[] { 0, 1, 2, 3, 4 }, replanned.copyRoute());
     }
 
     /**
@@ -227,9 +246,9 @@ class TourServiceTest {
         Tour tour = new Tour(1L, LocalDateTime.now());
         tour.addStop(new TourStop(StopType.WAREHOUSE, -1, 1L, LocalDateTime.now(), LocalDateTime.now()));
         tour.addStop(new TourStop(StopType.PICKUP, 1, 1L, LocalDateTime.now(), LocalDateTime.now()));
-        service.setTourForCourier(1L, tour);
+        PlanningTransaction fork = fork(tour);
 
-        assertThrows(IllegalArgumentException.class, () -> service.updateStopOrder(1L, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> service.updateStopOrder(fork, 0, 1));
     }
 
     /**
@@ -241,9 +260,9 @@ class TourServiceTest {
         Tour tour = new Tour(1L, LocalDateTime.now());
         tour.addStop(new TourStop(StopType.PICKUP, 1L, 2L, LocalDateTime.now(), LocalDateTime.now()));
         tour.addStop(new TourStop(StopType.DELIVERY, 1L, 3L, LocalDateTime.now(), LocalDateTime.now()));
-        service.setTourForCourier(1L, tour);
+        PlanningTransaction fork = fork(tour);
 
-        assertThrows(IllegalArgumentException.class, () -> service.updateStopOrder(1L, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> service.updateStopOrder(fork, 0, 1));
     }
 
     /**
@@ -255,9 +274,9 @@ class TourServiceTest {
         Tour tour = new Tour(1L, LocalDateTime.now());
         tour.addStop(new TourStop(StopType.WAREHOUSE, -1, 1L, LocalDateTime.now(), LocalDateTime.now()));
         tour.addStop(new TourStop(StopType.PICKUP, 1L, 2L, LocalDateTime.now(), LocalDateTime.now()));
-        service.setTourForCourier(1L, tour);
+        PlanningTransaction fork = fork(tour);
 
-        assertThrows(IllegalArgumentException.class, () -> service.updateStopOrder(1L, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> service.updateStopOrder(fork, 0, 1));
     }
 
     /**
@@ -269,9 +288,9 @@ class TourServiceTest {
         Tour tour = new Tour(1L, LocalDateTime.now());
         tour.addStop(new TourStop(StopType.PICKUP, 1L, 2L, LocalDateTime.now(), LocalDateTime.now()));
         tour.addStop(new TourStop(StopType.WAREHOUSE, -1, 1L, LocalDateTime.now(), LocalDateTime.now()));
-        service.setTourForCourier(1L, tour);
+        PlanningTransaction fork = fork(tour);
 
-        assertThrows(IllegalArgumentException.class, () -> service.updateStopOrder(1L, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> service.updateStopOrder(fork, 0, 1));
     }
 
     /**
@@ -283,11 +302,29 @@ class TourServiceTest {
         Tour tour = new Tour(1L, LocalDateTime.now());
         tour.addStop(new TourStop(StopType.PICKUP, 1L, 2L, LocalDateTime.now(), LocalDateTime.now()));
         tour.addStop(new TourStop(StopType.PICKUP, 2L, 3L, LocalDateTime.now(), LocalDateTime.now()));
-        service.setTourForCourier(1L, tour);
-        service.initPrecedences(1L, new ArrayList<>());
+        PlanningTransaction fork = fork(tour);
 
-        service.updateStopOrder(1L, 0, 1);
-        assertTrue(service.getPrecedencesByCourier().get(1L).containsKey("2/3/p"));
+        service.updateStopOrder(fork, 0, 1);
+        assertTrue(fork.getPrecedences().containsKey(new Stop(2L, 3L, StopType.PICKUP)));
+        assertTrue(fork.isModified());
+    }
+
+    /**
+     * Verifies that updateStopOrder rejects a precedence closing a cycle through other precedences.
+     */
+    @Test
+    void updateStopOrderRejectsPrecedenceCycle() {
+        TourService service = new TourService();
+        Tour tour = new Tour(1L, LocalDateTime.now());
+        tour.addStop(new TourStop(StopType.PICKUP, 1L, 2L, LocalDateTime.now(), LocalDateTime.now()));
+        tour.addStop(new TourStop(StopType.PICKUP, 2L, 3L, LocalDateTime.now(), LocalDateTime.now()));
+        tour.addStop(new TourStop(StopType.PICKUP, 3L, 4L, LocalDateTime.now(), LocalDateTime.now()));
+        PlanningTransaction fork = fork(tour);
+
+        service.updateStopOrder(fork, 0, 1);
+        service.updateStopOrder(fork, 1, 2);
+        assertThrows(IllegalArgumentException.class, () -> service.updateStopOrder(fork, 2, 0));
+        assertFalse(fork.getPrecedences().containsKey(new Stop(1L, 2L, StopType.PICKUP)));
     }
 
     /**
@@ -302,7 +339,7 @@ class TourServiceTest {
 
         assertEquals(3, tourService.getNumCouriers());
 
-        ArrayList<Courier> couriers = tourService.getCouriers();
+        List<Courier> couriers = tourService.getCouriers();
 
         assertNotNull(couriers, "The couriers list should not be null after parsing");
         assertEquals(3, couriers.size(), "There should be 3 couriers loaded");
@@ -347,82 +384,35 @@ class TourServiceTest {
     }
 
     /**
-     * Verifies that extractRequestId correctly extracts the request ID from a valid vertex string.
-     */
-    @Test
-    void extractRequestIdReturnsCorrectId() {
-        TourService service = new TourService();
-        String vertex = "123/456/p";
-        assertEquals(123L, service.extractRequestId(vertex));
-    }
-
-    /**
-     * Verifies that extractRequestId throws an exception for an invalid vertex string.
-     */
-    @Test
-    void extractRequestIdThrowsExceptionForInvalidVertex() {
-        TourService service = new TourService();
-        String vertex = "invalid_vertex";
-        assertThrows(NumberFormatException.class, () -> service.extractRequestId(vertex));
-    }
-
-    /**
-     * Verifies that extractIntersectionId correctly extracts the intersection ID from a valid vertex string.
+     * Verifies that the stop order of a previous tour is mapped onto new vertices,
+     * skipping the stops of requests that no longer exist.
      */
     @Test
-    void extractIntersectionIdReturnsCorrectId() {
+    void mapTourToVerticesFollowsPreviousOrder() {
         TourService service = new TourService();
-        String vertex = "123/456/p";
-        assertEquals(456L, service.extractIntersectionId(vertex));
-    }
-
-    /**
-     * Verifies that extractIntersectionId throws an exception for an invalid vertex string.
-     */
-    @Test
-    void extractIntersectionIdThrowsExceptionForInvalidVertex() {
-        TourService service = new TourService();
-        String vertex = "123/invalid";
-        assertThrows(NumberFormatException.class, () -> service.extractIntersectionId(vertex));
-    }
-
-    /**
-     * Verifies that extractStopType correctly identifies the stop type as PICKUP.
-     */
-    @Test
-    void extractStopTypeReturnsPickupForPickupVertex() {
-        TourService service = new TourService();
-        String vertex = "123/456/p";
-        assertEquals(StopType.PICKUP, service.extractStopType(vertex));
-    }
+        Request request7 = new Request(2L, Duration.ZERO, 3L, Duration.ZERO);
+        Request request8 = new Request(4L, Duration.ZERO, 5L, Duration.ZERO);
+        Request request9 = new Request(8L, Duration.ZERO, 9L, Duration.ZERO);
+        long deletedRequestId = -5L;
+        Tour tour = new Tour(1L, LocalDateTime.now());
+        tour.addStop(new TourStop(StopType.WAREHOUSE, -1, 1L, LocalDateTime.now(), LocalDateTime.now()));
+        tour.addStop(new TourStop(StopType.PICKUP, request8.getId(), 4L, LocalDateTime.now(), LocalDateTime.now()));
+        tour.addStop(new TourStop(StopType.PICKUP, request7.getId(), 2L, LocalDateTime.now(), LocalDateTime.now()));
+        tour.addStop(new TourStop(StopType.DELIVERY, request7.getId(), 3L, LocalDateTime.now(), LocalDateTime.now()));
+        tour.addStop(new TourStop(StopType.PICKUP, deletedRequestId, 6L, LocalDateTime.now(), LocalDateTime.now()));
+        tour.addStop(new TourStop(StopType.DELIVERY, request8.getId(), 5L, LocalDateTime.now(), LocalDateTime.now()));
+        tour.addStop(new TourStop(StopType.DELIVERY, deletedRequestId, 7L, LocalDateTime.now(), LocalDateTime.now()));
 
-    /**
-     * Verifies that extractStopType correctly identifies the stop type as DELIVERY.
-     */
-    @Test
-    void extractStopTypeReturnsDeliveryForDeliveryVertex() {
-        TourService service = new TourService();
-        String vertex = "123/456/d";
-        assertEquals(StopType.DELIVERY, service.extractStopType(vertex));
-    }
+        // a request was deleted and request 9 was added
+        StopModel stops = new StopModel(1L, List.of(request7, request8, request9));
 
-    /**
-     * Verifies that extractStopType correctly identifies the stop type as WAREHOUSE.
-     */
-    @Test
-    void extractStopTypeReturnsWarehouseForWarehouseVertex() {
-        TourService service = new TourService();
-        String vertex = "123/456/w";
-        assertEquals(StopType.WAREHOUSE, service.extractStopType(vertex));
+        assertEquals(List.of(0, 3, 1, 2, 4), service.mapTourToVertices(tour, stops));
     }
 
     /**
-     * Verifies that extractStopType throws an exception for an invalid stop type.
+     * @return a fork of courier 1 with the given tour, no requests and no precedences
      */
-    @Test
-    void extractStopTypeThrowsExceptionForInvalidStopType() {
-        TourService service = new TourService();
-        String vertex = "123/456/x";
-        assertThrows(IllegalArgumentException.class, () -> service.extractStopType(vertex));
+    private static PlanningTransaction fork(Tour tour) {
+        return new PlanningTransaction(1L, new PickupDelivery(), PersistentMap.empty(), tour);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,85 @@
+package domain.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link PersistentMap} class.
+ * Verifies that the map behaves as a sorted map and that its versions share their unchanged nodes.
+ */
+public class PersistentMapTest {
+
+    /**
+     * Verifies that random additions and removals give the same entries as a HashMap, in increasing key order,
+     * and leave the previous versions unchanged.
+     */
+    @Test
+    void checkPlusAndMinusMatchHashMap() {
+        Random random = new Random(42);
+        PersistentMap<Integer, String> map = PersistentMap.empty();
+        HashMap<Integer, String> expected = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            int key = random.nextInt(300);
+            PersistentMap<Integer, String> previous = map;
+            HashMap<Integer, String> expectedPrevious = new HashMap<>(expected);
+            if (random.nextBoolean()) {
+                map = map.plus(key, "v" + i);
+                expected.put(key, "v" + i);
+            } else {
+                map = map.minus(key);
+                expected.remove(key);
+            }
+            assertEquals(expectedPrevious, previous);
+            assertEquals(expected, map);
+        }
+
+        List<Integer> keys = new ArrayList<>(map.keySet());
+        List<Integer> sorted = new ArrayList<>(expected.keySet());
+        sorted.sort(null);
+        assertEquals(sorted, keys);
+        assertEquals(expected.hashCode(), map.hashCode());
+    }
+
+    /**
+     * Verifies that a modification returns the map itself when it changes nothing.
+     */
+    @Test
+    void checkNoOpModificationsReturnTheSameMap() {
+        String value = "a";
+        PersistentMap<Integer, String> map = PersistentMap.<Integer, String>empty().plus(1, value).plus(2, "b");
+
+        assertSame(map, map.plus(1, value));
+        assertSame(map, map.minus(3));
+        assertSame(map, PersistentMap.copyOf(map));
+        assertThrows(UnsupportedOperationException.class, () -> map.put(3, "c"));
+    }
+
+    /**
+     * Verifies that two consecutive versions share their unchanged nodes: one modification of a large map
+     * only copies the path to the modified entry.
+     */
+    @Test
+    void checkConsecutiveVersionsShareTheirUnchangedNodes() {
+        PersistentMap<Integer, String> map = PersistentMap.empty();
+        for (int i = 0; i < 10_000; i++) map = map.plus(i, "v" + i);
+        int maxPath = 2 * (int) Math.ceil(Math.log(10_000) / Math.log(2)) + 2; // bound of the height of an AVL
+
+        PersistentMap<Integer, String> added = map.plus(10_000, "new");
+        PersistentMap<Integer, String> replaced = map.plus(5_000, "new");
+        PersistentMap<Integer, String> removed = map.minus(5_000);
+
+        assertTrue(added.nbNodesNotIn(map) <= maxPath);
+        assertTrue(replaced.nbNodesNotIn(map) <= maxPath);
+        assertTrue(removed.nbNodesNotIn(map) <= maxPath);
+        assertEquals(10_000, map.size());
+        assertEquals("v5000", map.get(5_000));
+        assertEquals("new", replaced.get(5_000));
+        assertNull(removed.get(5_000));
+    }
+}
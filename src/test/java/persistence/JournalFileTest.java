@@ -0,0 +1,78 @@
+package persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link JournalFile} class.
+ */
+class JournalFileTest {
+
+    /**
+     * Verifies that the records appended concurrently are all durable once the appends return, each thread's
+     * records in order, and that a record torn by a crash is ignored with every record after it.
+     */
+    @Test
+    void concurrentAppendsAreReadBackUpToATornRecord(@TempDir Path dir) throws Exception {
+        Path path = dir.resolve("journal-1.journal");
+        int nbThreads = 8, nbAppends = 50;
+        try (JournalFile journal = new JournalFile(path);
+             ExecutorService threads = Executors.newFixedThreadPool(nbThreads)) {
+            List<Future<?>> appends = new ArrayList<>();
+            for (int t = 0; t < nbThreads; t++) {
+                int thread = t;
+                appends.add(threads.submit(() -> {
+                    for (int i = 0; i < nbAppends; i++) {
+                        journal.append(List.of(bytes(thread + ":" + i + ":a"), bytes(thread + ":" + i + ":b")));
+                    }
+                }));
+            }
+            for (Future<?> append : appends) append.get();
+
+            List<byte[]> records = JournalFile.readAll(path); // durable before the file is closed
+            assertEquals(nbThreads * nbAppends * 2, records.size());
+            int[] next = new int[nbThreads];
+            for (int r = 0; r < records.size(); r += 2) {
+                String[] first = new String(records.get(r), StandardCharsets.UTF_8).split(":");
+                int thread = Integer.parseInt(first[0]);
+                assertEquals(next[thread]++, Integer.parseInt(first[1]));
+                assertEquals(first[0] + ":" + first[1] + ":b", new String(records.get(r + 1), StandardCharsets.UTF_8));
+            }
+        }
+
+        long size = Files.size(path);
+        Files.write(path, new byte[] { 0, 0, 0, 42, 1, 2, 3, 4, 5 }, StandardOpenOption.APPEND);
+        assertEquals(nbThreads * nbAppends * 2, JournalFile.readAll(path).size());
+
+        byte[] content = Files.readAllBytes(path);
+        content[(int) size - 1] ^= 1; // corrupts the last complete record
+        Files.write(path, content);
+        assertEquals(nbThreads * nbAppends * 2 - 1, JournalFile.readAll(path).size());
+
+        Path checkpoint = dir.resolve("checkpoint.journal");
+        JournalFile.writeAll(checkpoint, List.of(bytes("x"), bytes("y")));
+        JournalFile.writeAll(checkpoint, List.of(bytes("z")));
+        Set<String> read = new HashSet<>();
+        for (byte[] record : JournalFile.readAll(checkpoint)) read.add(new String(record, StandardCharsets.UTF_8));
+        assertEquals(Set.of("z"), read);
+        assertFalse(Files.exists(dir.resolve("checkpoint.journal.tmp")));
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,150 @@
+package persistence;
+
+import domain.model.*;
+import domain.model.dijkstra.ShortestPaths;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link PlanningSnapshot} class.
+ */
+class PlanningSnapshotTest {
+
+    private static final String MAP_FILE = "src/test/resources/testMap.xml"; // The map of the snapshots.
+
+    /**
+     * Verifies that the couriers, requests, precedences, tours and shortest paths written to a snapshot are read
+     * back identically.
+     */
+    @Test
+    void snapshotIsReadBackIdentically(@TempDir Path dir) throws IOException {
+        Map map = new XMLParsers().parseMap(MAP_FILE);
+        Path path = dir.resolve("planning.snapshot");
+        snapshot(map).write(path, map);
+        assertFalse(Files.exists(dir.resolve("planning.snapshot.tmp")));
+
+        PlanningSnapshot read = PlanningSnapshot.read(path, map);
+
+        assertEquals(2, read.getCouriers().size());
+        Courier courier = read.getCouriers().getFirst();
+        assertEquals(1L, courier.getId());
+        assertEquals("Élodie", courier.getName());
+        assertEquals(Duration.ofHours(8), courier.getShiftDuration());
+        assertEquals(AvailabilityStatus.BUSY, courier.getAvailabilityStatus());
+        assertEquals(List.of(1L), List.copyOf(read.getStates().keySet()));
+
+        PlanningSnapshot.CourierState state = read.getStates().get(1L);
+        assertEquals(25175791L, state.requests().getWarehouseAddressId());
+        assertEquals(LocalDateTime.of(2025, 5, 12, 8, 0, 0, 500), state.requests().getDepartureTime());
+        Request request = state.requests().getRequests().getFirst();
+        assertEquals(900_001L, request.getId());
+        assertEquals(25175778L, request.getPickupIntersectionId());
+        assertEquals(Duration.ofMinutes(5), request.getPickupDuration());
+        assertEquals(2117622723L, request.getDeliveryIntersectionId());
+        assertEquals(Duration.ofSeconds(90), request.getDeliveryDuration());
+        Stop pickup = new Stop(900_001L, 25175778L, StopType.PICKUP);
+        Stop delivery = new Stop(900_001L, 2117622723L, StopType.DELIVERY);
+        assertEquals(java.util.Map.of(delivery, Set.of(pickup)), state.precedences());
+
+        Tour tour = state.tour();
+        assertEquals(1L, tour.getCourierId());
+        assertEquals(LocalDateTime.of(2025, 5, 12, 8, 0), tour.getStartTime());
+        assertEquals(Duration.ofMinutes(42), tour.getTotalDuration());
+        assertEquals(1.5, tour.getOptimalityGap());
+        assertEquals(List.of(Stop.of(tour.getStops().getFirst()), pickup, delivery),
+                tour.getStops().stream().map(Stop::of).toList());
+        assertEquals(LocalDateTime.of(2025, 5, 12, 8, 10), tour.getStops().get(1).getArrivalTime());
+        assertArrayEquals(new int[] {2, 0, 1}, tour.copyRoute());
+        assertEquals(2, tour.getNbLegs());
+        assertEquals(1, tour.getLegStart(0));
+        assertEquals(2, tour.getLegStart(1));
+        assertEquals(69.979805 + 136.00636 + 25.26484, tour.getTotalDistance(), 1e-9);
+
+        assertEquals(1, read.getShortestPaths().size());
+        ShortestPaths row = read.getShortestPaths().getFirst();
+        assertEquals(25175791L, row.source());
+        assertArrayEquals(new long[] {-1, 25175791L, -1, -1, 25175791L}, row.predecessors());
+        assertArrayEquals(new boolean[] {false, true, true, false, true}, row.visited());
+        assertEquals(0.28, row.durations()[1]);
+    }
+
+    /**
+     * Verifies that a file which is not a snapshot, a snapshot of another version, a snapshot taken on another
+     * map and a truncated snapshot are rejected.
+     */
+    @Test
+    void unsupportedSnapshotsAreRejected(@TempDir Path dir) throws IOException {
+        Map map = new XMLParsers().parseMap(MAP_FILE);
+        Path path = dir.resolve("planning.snapshot");
+        snapshot(map).write(path, map);
+        byte[] content = Files.readAllBytes(path);
+
+        Files.write(path, "<reseau/>".getBytes());
+        assertThrows(IllegalArgumentException.class, () -> PlanningSnapshot.read(path, map));
+
+        byte[] otherVersion = content.clone();
+        ByteBuffer.wrap(otherVersion).putShort(4, (short) (PlanningSnapshot.VERSION + 1));
+        Files.write(path, otherVersion);
+        assertThrows(IllegalArgumentException.class, () -> PlanningSnapshot.read(path, map));
+
+        Files.write(path, content);
+        Map otherMap = new XMLParsers().parseMap(MAP_FILE);
+        otherMap.addRoadSegment(2129259180L, new RoadSegment("Rue Garibaldi", 12.0, 2129259180L, 2129259178L));
+        assertThrows(IllegalArgumentException.class, () -> PlanningSnapshot.read(path, otherMap));
+
+        Files.write(path, java.util.Arrays.copyOf(content, content.length - 3));
+        assertThrows(IllegalArgumentException.class, () -> PlanningSnapshot.read(path, map));
+    }
+
+    /**
+     * @return a snapshot of two couriers, the first one with a request, a precedence and a tour, with the
+     *         shortest paths from its warehouse
+     */
+    private static PlanningSnapshot snapshot(Map map) {
+        Courier first = new Courier(1L, "Élodie", Duration.ofHours(8));
+        first.setAvailabilityStatus(AvailabilityStatus.BUSY);
+        Courier second = new Courier(2L, "Courier 2", Duration.ofHours(6));
+
+        PickupDelivery requests = new PickupDelivery();
+        requests.setWarehouseAddressId(25175791L);
+        requests.setDepartureTime(LocalDateTime.of(2025, 5, 12, 8, 0, 0, 500));
+        requests.addRequest(new Request(900_001L, 25175778L, Duration.ofMinutes(5), 2117622723L, Duration.ofSeconds(90)));
+
+        Stop pickup = new Stop(900_001L, 25175778L, StopType.PICKUP);
+        Stop delivery = new Stop(900_001L, 2117622723L, StopType.DELIVERY);
+        HashMap<Stop, Set<Stop>> precedences = new HashMap<>();
+        precedences.put(delivery, Set.of(pickup));
+
+        LocalDateTime start = LocalDateTime.of(2025, 5, 12, 8, 0);
+        Tour tour = new Tour(1L, start);
+        tour.addStop(new TourStop(StopType.WAREHOUSE, -1L, 25175791L, start, start));
+        tour.addStop(new TourStop(StopType.PICKUP, 900_001L, 25175778L, start.plusMinutes(10), start.plusMinutes(15)));
+        tour.addStop(new TourStop(StopType.DELIVERY, 900_001L, 2117622723L, start.plusMinutes(30), start.plusMinutes(32)));
+        tour.updateTotalDuration(Duration.ofMinutes(42));
+        tour.setOptimalityGap(1.5);
+        tour.addRoadSegment(map, 2); // before the first leg
+        tour.addLeg(map, new int[] {0});
+        tour.addLeg(map, new int[] {1});
+
+        // The 5 intersections of the map in increasing ID order: 25175778, 25175791, 2117622723, 2129259178, 2129259180
+        ShortestPaths row = new ShortestPaths(25175791L, new double[] {Double.MAX_VALUE, 0.28, 0.54, Double.MAX_VALUE, 0.1},
+                new long[] {-1, 25175791L, -1, -1, 25175791L}, new boolean[] {false, true, true, false, true});
+
+        TreeMap<Long, PlanningSnapshot.CourierState> states = new TreeMap<>();
+        states.put(1L, new PlanningSnapshot.CourierState(requests, Precedences.copyOf(precedences), tour));
+        return new PlanningSnapshot(List.of(first, second), states, List.of(row));
+    }
+}
@@ -2,6 +2,7 @@ package persistence;
 
 import domain.model.*;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 
@@ -24,7 +25,7 @@ class XMLWritersTest {
      * that can be parsed back with {@link XMLParsers#parseRequests}.
      */
     @Test
-    void checkWriteRequestsCreatesValidXML() throws Exception {
+    void checkWriteRequestsCreatesValidXML(@TempDir Path dir) throws Exception {
         // Prepare a PickupDelivery with warehouse and two requests
         PickupDelivery original = new PickupDelivery();
         original.setWarehouseAddressId(342873658L);
@@ -44,52 +45,46 @@ class XMLWritersTest {
         original.addRequest(r1);
         original.addRequest(r2);
 
-        Path dir = Path.of("src", "test", "resources", "tmp");
-        Files.createDirectories(dir);
         Path file = dir.resolve("writtenRequests.xml");
 
-        try {
-            // Write then parse again
-            XMLWriters.writeRequests(original, file.toString());
-
-            PickupDelivery parsed = new PickupDelivery();
-            boolean ok = XMLParsers.parseRequests(file.toString(), parsed);
-
-            assertTrue(ok, "Parsing of written requests XML should succeed");
-            assertEquals(
-                    original.getWarehouseAddressId(),
-                    parsed.getWarehouseAddressId(),
-                    "Warehouse address should be preserved"
-            );
-            assertEquals(
-                    original.getRequests().size(),
-                    parsed.getRequests().size(),
-                    "Number of requests should be preserved"
-            );
-
-            assertEquals(
-                    r1.getPickupIntersectionId(),
-                    parsed.getRequests().get(0).getPickupIntersectionId(),
-                    "First request pickup address should match"
-            );
-            assertEquals(
-                    r1.getDeliveryIntersectionId(),
-                    parsed.getRequests().get(0).getDeliveryIntersectionId(),
-                    "First request delivery address should match"
-            );
-            assertEquals(
-                    r1.getPickupDuration().toSeconds(),
-                    parsed.getRequests().get(0).getPickupDuration().toSeconds(),
-                    "First request pickup duration should match"
-            );
-            assertEquals(
-                    r1.getDeliveryDuration().toSeconds(),
-                    parsed.getRequests().get(0).getDeliveryDuration().toSeconds(),
-                    "First request delivery duration should match"
-            );
-        } finally {
-            Files.deleteIfExists(file);
-        }
+        // Write then parse again
+        XMLWriters.writeRequests(original, file.toString());
+
+        PickupDelivery parsed = new PickupDelivery();
+        boolean ok = XMLParsers.parseRequests(file.toString(), parsed);
+
+        assertTrue(ok, "Parsing of written requests XML should succeed");
+        assertEquals(
+                original.getWarehouseAddressId(),
+                parsed.getWarehouseAddressId(),
+                "Warehouse address should be preserved"
+        );
+        assertEquals(
+                original.getRequests().size(),
+                parsed.getRequests().size(),
+                "Number of requests should be preserved"
+        );
+
+        assertEquals(
+                r1.getPickupIntersectionId(),
+                parsed.getRequests().get(0).getPickupIntersectionId(),
+                "First request pickup address should match"
+        );
+        assertEquals(
+                r1.getDeliveryIntersectionId(),
+                parsed.getRequests().get(0).getDeliveryIntersectionId(),
+                "First request delivery address should match"
+        );
+        assertEquals(
+                r1.getPickupDuration().toSeconds(),
+                parsed.getRequests().get(0).getPickupDuration().toSeconds(),
+                "First request pickup duration should match"
+        );
+        assertEquals(
+                r1.getDeliveryDuration().toSeconds(),
+                parsed.getRequests().get(0).getDeliveryDuration().toSeconds(),
+                "First request delivery duration should match"
+        );
     }
 
     /**
@@ -97,7 +92,7 @@ class XMLWritersTest {
      * with the expected root element and steps.
      */
     @Test
-    void checkWriteTourCreatesValidXML() throws Exception {
+    void checkWriteTourCreatesValidXML(@TempDir Path dir) throws Exception {
         // Build a simple Tour
         long courierId = 1L;
         LocalDateTime startTime = LocalDateTime.of(2025, 1, 1, 8, 0);
@@ -121,43 +116,72 @@ class XMLWritersTest {
         tour.addRoadSegment(new RoadSegment("2-3", 15.0, 2L, 3L));
         tour.addRoadSegment(new RoadSegment("3-1", 20.0, 3L, 1L));
 
-        Path dir = Path.of("src", "test", "resources", "tmp");
-        Files.createDirectories(dir);
         Path file = dir.resolve("writtenTour.xml");
 
-        try {
-            XMLWriters.writeTour(tour, file.toString());
-
-            assertTrue(Files.exists(file), "Tour XML file should be created");
-
-            // Parse back with DOM
-            Document doc = DocumentBuilderFactory.newInstance()
-                    .newDocumentBuilder()
-                    .parse(new File(file.toString()));
-            doc.getDocumentElement().normalize();
-
-            assertEquals("Tour", doc.getDocumentElement().getNodeName(), "Root element should be `Tour`");
-            assertEquals(
-                    String.valueOf(courierId),
-                    doc.getDocumentElement().getAttribute("courierId"),
-                    "Courier id should be written as attribute"
-            );
-
-            NodeList steps = doc.getElementsByTagName("step");
-            assertEquals(3, steps.getLength(), "There should be one step per road segment");
-
-            // Check first step types and ids
-            var firstStep = (org.w3c.dom.Element) steps.item(0);
-            assertEquals("1", firstStep.getAttribute("origine_adresse"));
-            assertEquals("2", firstStep.getAttribute("destination_adresse"));
-            assertEquals("WAREHOUSE", firstStep.getAttribute("type_Start"));
-            assertEquals("PICKUP", firstStep.getAttribute("type_Finish"));
-        } finally {
-            try {
-                Files.deleteIfExists(dir);
-            } catch (Exception e) {
-                // Ignore
-            }
-        }
+        XMLWriters.writeTour(tour, file.toString());
+
+        assertTrue(Files.exists(file), "Tour XML file should be created");
+
+        // Parse back with DOM
+        Document doc = DocumentBuilderFactory.newInstance()
+                .newDocumentBuilder()
+                .parse(new File(file.toString()));
+        doc.getDocumentElement().normalize();
+
+        assertEquals("Tour", doc.getDocumentElement().getNodeName(), "Root element should be `Tour`");
+        assertEquals(
+                String.valueOf(courierId),
+                doc.getDocumentElement().getAttribute("courierId"),
+                "Courier id should be written as attribute"
+        );
+
+        NodeList steps = doc.getElementsByTagName("step");
+        assertEquals(3, steps.getLength(), "There should be one step per road segment");
+
+        // Check first step types and ids
+        var firstStep = (org.w3c.dom.Element) steps.item(0);
+        assertEquals("1", firstStep.getAttribute("origine_adresse"));
+        assertEquals("2", firstStep.getAttribute("destination_adresse"));
+        assertEquals("WAREHOUSE", firstStep.getAttribute("type_Start"));
+        assertEquals("PICKUP", firstStep.getAttribute("type_Finish"));
+    }
+
+    /**
+     * Verifies that with legs, an intersection of a stop crossed in the middle of a leg is written as
+     * an intermediate intersection.
+     */
+    @Test
+    void checkWriteTourUsesLegs(@TempDir Path dir) throws Exception {
+        LocalDateTime startTime = LocalDateTime.of(2025, 1, 1, 8, 0);
+        Tour tour = new Tour(1L, startTime);
+        tour.addStop(new TourStop(StopType.WAREHOUSE, -1L, 1L, startTime, startTime));
+        tour.addStop(new TourStop(StopType.PICKUP, 10L, 2L, startTime.plusMinutes(5), startTime.plusMinutes(10)));
+        tour.addStop(new TourStop(StopType.DELIVERY, 10L, 3L, startTime.plusMinutes(15), startTime.plusMinutes(20)));
+
+        // The last leg goes back to the warehouse through the pickup intersection
+        tour.startLeg();
+        tour.addRoadSegment(new RoadSegment("1-2", 10.0, 1L, 2L));
+        tour.startLeg();
+        tour.addRoadSegment(new RoadSegment("2-3", 15.0, 2L, 3L));
+        tour.startLeg();
+        tour.addRoadSegment(new RoadSegment("3-2", 15.0, 3L, 2L));
+        tour.addRoadSegment(new RoadSegment("2-1", 10.0, 2L, 1L));
+
+        Path file = dir.resolve("writtenTourLegs.xml");
+
+        XMLWriters.writeTour(tour, file.toString());
+
+        Document doc = DocumentBuilderFactory.newInstance()
+                .newDocumentBuilder()
+                .parse(new File(file.toString()));
+        NodeList steps = doc.getElementsByTagName("step");
+        assertEquals(4, steps.getLength());
+
+        var thirdStep = (org.w3c.dom.Element) steps.item(2);
+        assertEquals("DELIVERY", thirdStep.getAttribute("type_Start"));
+        assertEquals("intermediaire", thirdStep.getAttribute("type_Finish"));
+        var lastStep = (org.w3c.dom.Element) steps.item(3);
+        assertEquals("intermediaire", lastStep.getAttribute("type_Start"));
+        assertEquals("WAREHOUSE", lastStep.getAttribute("type_Finish"));
     }
-}
\ No newline at end of file
+}